@@ -0,0 +1,4 @@
+. ./settings.sh
+
+# JMH arguments, e.g. ./bench.sh "RunnerBenchmark -p threads=1,8 -p nodes=1000000", results go to target/jmh-result.json
+mvn -Pbenchmark -DskipTests clean verify "-Dbenchmark.args=$1 -rf json -rff target/jmh-result.json"
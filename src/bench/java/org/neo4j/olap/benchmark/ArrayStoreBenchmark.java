@@ -0,0 +1,82 @@
+package org.neo4j.olap.benchmark;
+
+import org.neo4j.olap.ArrayStore;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streamed and mapped {@link ArrayStore} read and write throughput, reported as the auxiliary counter
+ * {@code megabytes} per second.
+ *
+ * @author mh
+ * @since 05.01.13
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ArrayStoreBenchmark {
+    @Param({"10000000"})
+    public int size;
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private File file;
+    private ArrayStore store;
+    private int[] data;
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Bytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        file = new File(System.getProperty("olap.bench.dir", "target/bench"), "array_store.int");
+        file.getParentFile().mkdirs();
+        store = new ArrayStore(file.getPath(), mapped);
+        data = new int[size];
+        final Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            data[i] = random.nextInt(1000);
+        }
+        store.write(data);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void write(Bytes bytes) throws IOException {
+        store.write(data);
+        bytes.megabytes += size * 4.0 / (1024 * 1024);
+    }
+
+    @Benchmark
+    public int[] read(Bytes bytes) throws IOException {
+        final int[] read = store.read();
+        bytes.megabytes += read.length * 4.0 / (1024 * 1024);
+        return read;
+    }
+}
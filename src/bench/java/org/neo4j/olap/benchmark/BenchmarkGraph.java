@@ -0,0 +1,45 @@
+package org.neo4j.olap.benchmark;
+
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.olap.GraphGenerator;
+
+import java.io.File;
+import java.util.Collections;
+
+/**
+ * Embedded store with an R-MAT graph of {@code nodes} nodes and average degree {@code degree}, generated with
+ * a fixed seed by {@link GraphGenerator} on first use and reused by later benchmark runs with the same size.
+ *
+ * @author mh
+ * @since 05.01.13
+ */
+public class BenchmarkGraph {
+    private static final double SKEW = 0.57;
+    private static final long SEED = 42;
+
+    private final File storeDir;
+    private final int nodes;
+    private final int degree;
+
+    public BenchmarkGraph(int nodes, int degree) {
+        this.nodes = nodes;
+        this.degree = degree;
+        this.storeDir = new File(System.getProperty("olap.bench.dir", "target/bench"), String.format("graph_%d_%d", nodes, degree));
+    }
+
+    public GraphDatabaseAPI open() {
+        if (!new File(storeDir, "neostore").exists()) create();
+        return (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(storeDir.getPath())
+                .setConfig("use_memory_mapped_buffers", "true").newGraphDatabase();
+    }
+
+    private void create() {
+        new GraphGenerator(GraphGenerator.Model.RMAT, nodes, degree, SKEW, 1, SEED, Runtime.getRuntime().availableProcessors())
+                .generate(storeDir.getPath(), Collections.<String, String>emptyMap());
+    }
+
+    public String getStoreDir() {
+        return storeDir.getPath();
+    }
+}
@@ -0,0 +1,114 @@
+package org.neo4j.olap.benchmark;
+
+import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.kernel.impl.core.NodePreloader;
+import org.neo4j.kernel.impl.core.RelationshipPreloader;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records per second loaded into the cache by {@link NodePreloader} and {@link RelationshipPreloader},
+ * every invocation loads the whole graph with {@code threads} preloaders into an empty cache.
+ *
+ * @author mh
+ * @since 05.01.13
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PreloaderBenchmark {
+    @Param({"100000"})
+    public int nodes;
+    @Param({"10"})
+    public int degree;
+    @Param({"1", "4"})
+    public int threads;
+
+    private GraphDatabaseAPI db;
+    private NodeManager nodeManager;
+    private DependencyResolver resolver;
+    private long maxNodeId;
+    private long highestRelId;
+    private ExecutorService pool;
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Records {
+        public long records;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            records = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        db = new BenchmarkGraph(nodes, degree).open();
+        resolver = db.getDependencyResolver();
+        nodeManager = resolver.resolveDependency(NodeManager.class);
+        maxNodeId = nodeManager.getHighestPossibleIdInUse(Node.class) + 1;
+        highestRelId = nodeManager.getHighestPossibleIdInUse(Relationship.class);
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        nodeManager.clearCache();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+        db.shutdown();
+    }
+
+    @Benchmark
+    public void preloadNodes(Records records) throws Exception {
+        final long segment = (maxNodeId + threads - 1) / threads;
+        final List<Callable<Integer>> loaders = new ArrayList<Callable<Integer>>(threads);
+        for (int i = 0; i < threads; i++) {
+            loaders.add(new NodePreloader(i, segment, 0, maxNodeId, resolver, db.getStoreDir()));
+        }
+        records.records += run(loaders);
+    }
+
+    @Benchmark
+    public void preloadRelationships(Records records) throws Exception {
+        final long segment = (highestRelId + threads) / threads;
+        final List<Callable<Integer>> loaders = new ArrayList<Callable<Integer>>(threads);
+        for (int i = 0; i < threads; i++) {
+            loaders.add(new RelationshipPreloader(i, segment, 0, maxNodeId, resolver, db.getStoreDir()));
+        }
+        records.records += run(loaders);
+    }
+
+    private long run(List<Callable<Integer>> loaders) throws Exception {
+        long count = 0;
+        for (Future<Integer> future : pool.invokeAll(loaders)) {
+            count += future.get();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,158 @@
+package org.neo4j.olap.benchmark;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.kernel.impl.core.StoreScanner;
+import org.neo4j.olap.Adjacency;
+import org.neo4j.olap.CsrGraph;
+import org.neo4j.olap.OlapRunner;
+import org.neo4j.olap.PathFinderNodeCountingRunner;
+import org.neo4j.olap.PathSamplingRunner;
+import org.neo4j.olap.RandomWalkingRunner;
+import org.neo4j.olap.SnapshotWalkingRunner;
+import org.neo4j.olap.VisitCounters;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hops per second of {@link SnapshotWalkingRunner} on the {@link CsrGraph} snapshot the analysis walks on and of
+ * {@link RandomWalkingRunner} on the database, paths per second of {@link PathFinderNodeCountingRunner}
+ * and {@link PathSamplingRunner} on the same graph, every invocation runs {@code threads} runners for one second over the whole graph.
+ * Like a round of the analysis, an invocation includes flushing and merging the counters of all runners.
+ * The rates are reported as the auxiliary counters {@code hits} and {@code nodes}.
+ *
+ * @author mh
+ * @since 05.01.13
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RunnerBenchmark {
+    private static final int SECONDS = 1;
+
+    @Param({"100000"})
+    public int nodes;
+    @Param({"10"})
+    public int degree;
+    @Param({"1", "4"})
+    public int threads;
+    @Param({"4"})
+    public int maxDepth;
+    @Param({"BATCHED", "PIPELINED"})
+    public VisitCounters.Mode counterMode;
+
+    private GraphDatabaseAPI db;
+    private long maxNodeId;
+    private Adjacency graph;
+    private int[] merged;
+
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class Counts {
+        public long hits;
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            hits = 0;
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        db = new BenchmarkGraph(nodes, degree).open();
+        final NodeManager nodeManager = db.getDependencyResolver().resolveDependency(NodeManager.class);
+        maxNodeId = nodeManager.getHighestPossibleIdInUse(Node.class) + 1;
+        graph = CsrGraph.build(new StoreScanner(db.getStoreDir()).relationships(nodeManager.getHighestPossibleIdInUse(Relationship.class)), 0, maxNodeId);
+        merged = new int[(int) maxNodeId];
+    }
+
+    @Setup(Level.Invocation)
+    public void clearMerged() {
+        Arrays.fill(merged, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.shutdown();
+    }
+
+    @Benchmark
+    public int[] snapshotWalks(Counts counts) throws InterruptedException, ExecutionException {
+        final VisitCounters counters = VisitCounters.create(counterMode, 0, maxNodeId, threads);
+        final List<OlapRunner> runners = new ArrayList<OlapRunner>(threads);
+        for (int i = 0; i < threads; i++) {
+            runners.add(new SnapshotWalkingRunner(db, i, graph, SECONDS, counters.forThread(i)));
+        }
+        return run(runners, counters, counts);
+    }
+
+    @Benchmark
+    public int[] randomWalks(Counts counts) throws InterruptedException, ExecutionException {
+        final VisitCounters counters = VisitCounters.create(counterMode, 0, maxNodeId, threads);
+        final List<OlapRunner> runners = new ArrayList<OlapRunner>(threads);
+        for (int i = 0; i < threads; i++) {
+            runners.add(new RandomWalkingRunner(db, i, 0, maxNodeId, SECONDS, counters.forThread(i)));
+        }
+        return run(runners, counters, counts);
+    }
+
+    @Benchmark
+    public int[] shortestPaths(Counts counts) throws InterruptedException, ExecutionException {
+        final VisitCounters counters = VisitCounters.create(counterMode, 0, maxNodeId, threads);
+        final List<OlapRunner> runners = new ArrayList<OlapRunner>(threads);
+        for (int i = 0; i < threads; i++) {
+            runners.add(new PathFinderNodeCountingRunner(db, i, 0, maxNodeId, SECONDS, counters.forThread(i), maxDepth));
+        }
+        return run(runners, counters, counts);
+    }
+
+    @Benchmark
+    public int[] sampledPaths(Counts counts) throws InterruptedException, ExecutionException {
+        final VisitCounters counters = VisitCounters.create(counterMode, 0, maxNodeId, threads);
+        final List<OlapRunner> runners = new ArrayList<OlapRunner>(threads);
+        for (int i = 0; i < threads; i++) {
+            runners.add(new PathSamplingRunner(db, i, graph, SECONDS, counters.forThread(i), maxDepth));
+        }
+        return run(runners, counters, counts);
+    }
+
+    private int[] run(List<OlapRunner> runners, VisitCounters counters, Counts counts) throws InterruptedException, ExecutionException {
+        final ExecutorService pool = Executors.newFixedThreadPool(runners.size());
+        final List<Future<?>> futures = new ArrayList<Future<?>>(runners.size());
+        for (OlapRunner runner : runners) {
+            futures.add(pool.submit(runner));
+        }
+        pool.shutdown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        counters.mergeInto(merged);
+        for (OlapRunner runner : runners) {
+            counts.hits += runner.getHitCount();
+            counts.nodes += runner.getNodeCount();
+        }
+        return merged;
+    }
+}
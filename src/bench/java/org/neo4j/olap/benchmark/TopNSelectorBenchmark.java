@@ -0,0 +1,50 @@
+package org.neo4j.olap.benchmark;
+
+import org.neo4j.olap.TopNSelector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of selecting the top counts out of skewed, visit count like data.
+ *
+ * @author mh
+ * @since 05.01.13
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TopNSelectorBenchmark {
+    @Param({"10000000"})
+    public int size;
+    @Param({"10", "1000"})
+    public int howMany;
+    @Param({"1", "4"})
+    public int threads;
+
+    private TopNSelector selector;
+
+    @Setup
+    public void setUp() {
+        final int[] counts = new int[size];
+        final Random random = new Random(42);
+        for (int i = 0; i < size; i++) {
+            counts[i] = (int) (1 / (random.nextDouble() + 1e-6));
+        }
+        selector = new TopNSelector(counts);
+    }
+
+    @Benchmark
+    public TopNSelector.TopN select() throws ExecutionException, InterruptedException {
+        return selector.select(howMany, threads);
+    }
+}
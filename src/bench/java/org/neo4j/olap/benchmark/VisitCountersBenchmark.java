@@ -0,0 +1,129 @@
+package org.neo4j.olap.benchmark;
+
+import org.neo4j.olap.VisitCounter;
+import org.neo4j.olap.VisitCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@code increments} increments of skewed node ids by each of {@code threads} threads, flushed and
+ * merged like a round of the analysis, for the {@link VisitCounters} modes and for PLAIN, unsynchronized
+ * increments on a shared array, which lose some of them.
+ *
+ * @author mh
+ * @since 20.12.12
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VisitCountersBenchmark {
+    @Param({"10000000"})
+    public int nodeCount;
+    @Param({"1000000"})
+    public int increments;
+    @Param({"1", "4"})
+    public int threads;
+    @Param({"SHARDED", "ATOMIC", "BATCHED", "PIPELINED", "PLAIN"})
+    public String counterMode;
+
+    private int[] ids;
+    private int[] nodes;
+    private ExecutorService pool;
+    private VisitCounters counters;
+    private VisitCounter[] handles;
+
+    @Setup
+    public void setUp() {
+        ids = randomIds(nodeCount, 1 << 22);
+        nodes = new int[nodeCount];
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    @Setup(Level.Invocation)
+    public void createCounters() {
+        handles = new VisitCounter[threads];
+        if (counterMode.equals("PLAIN")) {
+            counters = null;
+            for (int i = 0; i < threads; i++) {
+                handles[i] = new VisitCounter() {
+                    public void increment(long nodeId) {
+                        nodes[((int) nodeId)]++;
+                    }
+
+                    public void add(long nodeId, int delta) {
+                        nodes[((int) nodeId)] += delta;
+                    }
+
+                    public void flush() {
+                    }
+                };
+            }
+            return;
+        }
+        counters = VisitCounters.create(VisitCounters.Mode.valueOf(counterMode), 0, nodeCount, threads);
+        for (int i = 0; i < threads; i++) {
+            handles[i] = counters.forThread(i);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdownCounters() {
+        if (counters != null) counters.shutdown();
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public int[] increment() throws ExecutionException, InterruptedException {
+        final List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+        for (int i = 0; i < threads; i++) {
+            final VisitCounter counter = handles[i];
+            final int start = i * 7919;
+            futures.add(pool.submit(new Runnable() {
+                public void run() {
+                    final int mask = ids.length - 1;
+                    for (int j = 0; j < increments; j++) {
+                        counter.increment(ids[(start + j) & mask]);
+                    }
+                    counter.flush();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        if (counters != null) counters.mergeInto(nodes);
+        return nodes;
+    }
+
+    // skewed ids, a few hot nodes like in a power law graph
+    private static int[] randomIds(int nodeCount, int size) {
+        final Random random = new Random(42);
+        final int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            final double r = random.nextDouble();
+            ids[i] = (int) (nodeCount * r * r * r);
+        }
+        return ids;
+    }
+}
@@ -1,31 +1,45 @@
 package org.neo4j.kernel.impl.core;
 
 import org.neo4j.graphdb.DependencyResolver;
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
+import org.neo4j.olap.Projection;
 
 /**
+ * Scans its segment of the node range in the node store sequentially and only loads the nodes in use that the
+ * {@link Projection} accepts into the cache, their relationships are loaded by the {@link RelationshipPreloader}.
+ *
  * @author mh
  * @since 18.12.12
  */
 public class NodePreloader extends Preloader {
 
-    public NodePreloader(int index, long segment, long minNodeId, long nodeCount, DependencyResolver dependencyResolver) {
-        super(segment, minNodeId, nodeCount, index, dependencyResolver);
+    private final StoreScanner scanner;
+
+    public NodePreloader(int index, long segment, long minNodeId, long nodeCount, DependencyResolver dependencyResolver, String storeDir) {
+        this(index, segment, minNodeId, nodeCount, dependencyResolver, storeDir, Projection.ALL);
+    }
+
+    public NodePreloader(int index, long segment, long minNodeId, long nodeCount, DependencyResolver dependencyResolver, String storeDir, Projection projection) {
+        super(segment, minNodeId, nodeCount, index, dependencyResolver, projection);
+        this.scanner = new StoreScanner(storeDir);
     }
 
     @Override
-    protected int doLoad(long id) {
-        int count = 0;
-        Node node = nodeManager.getNodeByIdOrNull(id);
-        if (node != null) {
-            count++;
-            for (Relationship relationship : node.getRelationships()) {
-                relationship.getOtherNode(node);
-                count++;
-            }
-        }
-        return count;
+    protected long rangeStart() {
+        return Math.min(maxNodeId, minNodeId + index * segment);
+    }
+
+    @Override
+    protected long rangeEnd() {
+        return Math.min(maxNodeId, minNodeId + (index + 1) * segment);
     }
 
+    @Override
+    protected void load(long from, long to, final Progress progress) {
+        scanner.scanNodes(from, to, new StoreScanner.NodeVisitor() {
+            public void visit(long nodeId, long nextRel, long nextProp) {
+                final boolean loaded = projection.acceptsNode(nodeId) && nodeManager.getNodeByIdOrNull(nodeId) != null;
+                progress.loaded(nodeId, loaded ? 1 : 0);
+            }
+        });
+    }
 }
@@ -0,0 +1,94 @@
+package org.neo4j.kernel.impl.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the records of a node range from the store files before walks that follow relationships through the
+ * database, like a {@link org.neo4j.olap.SegmentRepair} on the current graph, so they and the mapped windows of the
+ * database find them in the page cache instead of faulting them in one by one. Snapshots do not need it, they scan
+ * the stores sequentially anyway. The node records of the range and all relationship records, whose ids do not
+ * follow the nodes, are split into one slice per thread, every slice is read sequentially in blocks of
+ * {@link StoreScanner#BLOCK_SIZE}.
+ *
+ * @author mh
+ * @since 18.01.13
+ */
+public class PageCacheWarmer {
+    private final File storeDir;
+    private final int threads;
+
+    public PageCacheWarmer(String storeDir, int threads) {
+        this.storeDir = new File(storeDir);
+        this.threads = threads;
+    }
+
+    /**
+     * @return the bytes read
+     */
+    public long warm(long minNodeId, long nodeCount, long highestRelId) throws ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            slice(pool, futures, StoreScanner.NODE_STORE, minNodeId * StoreScanner.NODE_RECORD_SIZE,
+                    (minNodeId + nodeCount) * StoreScanner.NODE_RECORD_SIZE);
+            slice(pool, futures, StoreScanner.RELATIONSHIP_STORE, 0, (highestRelId + 1) * StoreScanner.RELATIONSHIP_RECORD_SIZE);
+            long bytes = 0;
+            for (Future<Long> future : futures) {
+                bytes += future.get();
+            }
+            final long millis = Math.max(1, System.currentTimeMillis() - time);
+            System.out.printf("Warmed %d MB of node and relationship store for nodes %d + %d in %d ms, %d MB/s%n",
+                    bytes >> 20, minNodeId, nodeCount, millis, (bytes >> 20) * 1000 / millis);
+            return bytes;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void slice(ExecutorService pool, List<Future<Long>> futures, String fileName, long from, long to) {
+        final File file = new File(storeDir, fileName);
+        to = Math.min(to, file.length());
+        if (from >= to) return;
+        final long slice = (to - from + threads - 1) / threads;
+        for (long start = from; start < to; start += slice) {
+            final long position = start;
+            final long end = Math.min(to, start + slice);
+            futures.add(pool.submit(new Callable<Long>() {
+                public Long call() throws IOException {
+                    return read(file, position, end);
+                }
+            }));
+        }
+    }
+
+    private static long read(File file, long from, long to) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(StoreScanner.BLOCK_SIZE, to - from));
+            long position = from;
+            while (position < to) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), to - position));
+                final int read = channel.read(buffer, position);
+                if (read == -1) break;
+                position += read;
+            }
+            return position - from;
+        } finally {
+            raf.close();
+        }
+    }
+}
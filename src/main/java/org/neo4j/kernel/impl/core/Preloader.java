@@ -2,6 +2,9 @@ package org.neo4j.kernel.impl.core;
 
 import org.neo4j.graphdb.DependencyResolver;
 import org.neo4j.kernel.impl.persistence.PersistenceManager;
+import org.neo4j.olap.OlapMetrics;
+import org.neo4j.olap.Projection;
+import org.neo4j.olap.ThreadMetrics;
 
 import java.lang.reflect.Field;
 import java.util.concurrent.Callable;
@@ -12,12 +15,14 @@ import java.util.concurrent.Callable;
  */
 public abstract class Preloader implements Callable<Integer> {
     private static final int LOG_PARTS = 4;
+    protected static final int METRICS_EVERY = 4096;
     protected final int index;
     protected final long segment;
     protected final long minNodeId;
     protected final NodeManager nodeManager;
     protected final PersistenceManager persistenceManager;
     protected final long maxNodeId;
+    protected final Projection projection;
     private static Field persistenceManagerField = getPersistenceManagerField();
 
     private static Field getPersistenceManagerField() {
@@ -32,6 +37,15 @@ public abstract class Preloader implements Callable<Integer> {
 
     public Preloader(long segment, long minNodeId,
                      long nodeCount, int index, DependencyResolver dependencyResolver) {
+        this(segment, minNodeId, nodeCount, index, dependencyResolver, Projection.ALL);
+    }
+
+    /**
+     * Only loads the nodes and relationships of the {@link Projection}, which must be resolved.
+     */
+    public Preloader(long segment, long minNodeId,
+                     long nodeCount, int index, DependencyResolver dependencyResolver, Projection projection) {
+        this.projection = projection;
         this.nodeManager = dependencyResolver.resolveDependency(NodeManager.class);
         this.persistenceManager = getPersistenceManager(nodeManager);
         this.segment = segment;
@@ -40,7 +54,7 @@ public abstract class Preloader implements Callable<Integer> {
         this.index = index;
     }
 
-    private PersistenceManager getPersistenceManager(NodeManager nodeManager) {
+    static PersistenceManager getPersistenceManager(NodeManager nodeManager) {
         try {
             return (PersistenceManager) persistenceManagerField.get(nodeManager);
         } catch (IllegalAccessException e) {
@@ -49,27 +63,76 @@ public abstract class Preloader implements Callable<Integer> {
     }
 
     public Integer call() throws Exception {
-        final long start = index * segment;
-        final long end = (index + 1) * segment;
-        long fragment = segment / LOG_PARTS;
-        long logAt = start + fragment;
+        final long start = rangeStart();
+        final long end = rangeEnd();
         System.out.printf("%2d. %s Loading from %10d up to %10d%n", index, getClass().getSimpleName(), start, end);
-        int count = 0;
-        for (long id = start; id < end; id++) {
-            count += doLoad(id);
+        final Progress progress = new Progress(start, end);
+        load(start, end, progress);
+        progress.done();
+        System.out.printf("%2d. %s 100%% Done, loaded %d %n", index, getClass().getSimpleName(), progress.count);
+        return progress.count;
+    }
+
+    /**
+     * @return the first id of the segment of this loader
+     */
+    protected long rangeStart() {
+        return index * segment;
+    }
+
+    /**
+     * @return the id after the segment of this loader
+     */
+    protected long rangeEnd() {
+        return (index + 1) * segment;
+    }
+
+    /**
+     * Loads the records with ids in {@code [from, to)} into the cache, reporting every loaded one to {@code progress}.
+     */
+    protected abstract void load(long from, long to, Progress progress);
+
+    protected boolean isInNodeRange(long id) {
+        return id >= minNodeId && id < maxNodeId;
+    }
+
+    /**
+     * Counts the loaded records, reports them to the {@link ThreadMetrics} and logs the progress through the segment.
+     */
+    protected class Progress {
+        private final long start;
+        private final long fragment;
+        private final ThreadMetrics metrics = OlapMetrics.forCurrentThread();
+        private long logAt;
+        private int count;
+        private int reported;
+
+        Progress(long start, long end) {
+            this.start = start;
+            this.fragment = Math.max(1, (end - start) / LOG_PARTS);
+            this.logAt = start + fragment;
+        }
+
+        /**
+         * @param id      the id reached in the segment
+         * @param records the records loaded at it
+         */
+        public void loaded(long id, int records) {
+            count += records;
+            if ((id & (METRICS_EVERY - 1)) == 0) {
+                metrics.loaded(count - reported);
+                reported = count;
+            }
             if (id > logAt) {
                 System.out.printf("%2d. %3d%%%n", index, 100 / LOG_PARTS * (id - start) / fragment);
                 System.out.flush();
                 logAt += fragment;
             }
         }
-        System.out.printf("%2d. %s 100%% Done, loaded %d %n", index, getClass().getSimpleName(), count);
-        return count;
-    }
-
-    protected abstract int doLoad(long id);
 
-    protected boolean isInNodeRange(long id) {
-        return id >= minNodeId && id < maxNodeId;
+        void done() {
+            metrics.loaded(count - reported);
+            reported = count;
+        }
     }
 }
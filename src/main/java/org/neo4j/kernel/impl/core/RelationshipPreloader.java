@@ -1,25 +1,37 @@
 package org.neo4j.kernel.impl.core;
 
 import org.neo4j.graphdb.DependencyResolver;
-import org.neo4j.kernel.impl.nioneo.store.RelationshipRecord;
+import org.neo4j.olap.EdgeVisitor;
+import org.neo4j.olap.Projection;
 
 /**
+ * Scans its segment of the relationship store sequentially and only loads the relationships of the
+ * {@link Projection} touching the node range into the cache.
+ *
  * @author mh
  * @since 18.12.12
  */
 public class RelationshipPreloader extends Preloader {
 
-    public RelationshipPreloader(int index, long segment, long minNodeId, long nodeCount, DependencyResolver dependencyResolver) {
-        super(segment, minNodeId, nodeCount, index,dependencyResolver);
+    private final StoreScanner scanner;
+
+    public RelationshipPreloader(int index, long segment, long minNodeId, long nodeCount, DependencyResolver dependencyResolver, String storeDir) {
+        this(index, segment, minNodeId, nodeCount, dependencyResolver, storeDir, Projection.ALL);
     }
 
-    @Override
-    protected int doLoad(long id) {
-        final RelationshipRecord record = persistenceManager.loadLightRelationship(id);
-        if (record == null || (!isInNodeRange(record.getFirstNode()) && !isInNodeRange(record.getSecondNode())))
-            return 0;
-        nodeManager.getRelationshipByIdOrNull(id);
-        return 1;
+    public RelationshipPreloader(int index, long segment, long minNodeId, long nodeCount, DependencyResolver dependencyResolver, String storeDir, Projection projection) {
+        super(segment, minNodeId, nodeCount, index, dependencyResolver, projection);
+        this.scanner = new StoreScanner(storeDir);
     }
 
+    @Override
+    protected void load(long from, long to, final Progress progress) {
+        scanner.scanRelationships(from, to, new EdgeVisitor() {
+            public void visit(long relationshipId, long startNode, long endNode, int type) {
+                final boolean accepted = projection.accepts(type, startNode, endNode) && (isInNodeRange(startNode) || isInNodeRange(endNode));
+                if (accepted) nodeManager.getRelationshipByIdOrNull(relationshipId);
+                progress.loaded(relationshipId, accepted ? 1 : 0);
+            }
+        });
+    }
 }
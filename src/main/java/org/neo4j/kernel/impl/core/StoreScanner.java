@@ -0,0 +1,122 @@
+package org.neo4j.kernel.impl.core;
+
+import org.neo4j.olap.EdgeSource;
+import org.neo4j.olap.EdgeVisitor;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the node and relationship store files sequentially in large blocks and decodes the records in place,
+ * instead of looking up every record by id. Only records in use are reported.
+ * The record layouts are those of the 1.9 store format, all values are big endian:
+ * <pre>
+ * node (9 bytes):          inUse+high bits, nextRel, nextProp
+ * relationship (33 bytes): inUse+high bits, firstNode, secondNode, high bits+type,
+ *                          firstPrevRel, firstNextRel, secondPrevRel, secondNextRel, nextProp
+ * </pre>
+ *
+ * @author mh
+ * @since 27.12.12
+ */
+public class StoreScanner {
+    public static final String NODE_STORE = "neostore.nodestore.db";
+    public static final String RELATIONSHIP_STORE = "neostore.relationshipstore.db";
+    static final int NODE_RECORD_SIZE = 9;
+    static final int RELATIONSHIP_RECORD_SIZE = 33;
+    static final int BLOCK_SIZE = 8 * 1024 * 1024;
+    private static final long NO_ID = 0xFFFFFFFFL;
+
+    private final File storeDir;
+
+    public interface NodeVisitor {
+        void visit(long nodeId, long nextRel, long nextProp);
+    }
+
+    public StoreScanner(String storeDir) {
+        this.storeDir = new File(storeDir);
+    }
+
+    /**
+     * @return all relationships with ids up to and including {@code highestId}
+     */
+    public EdgeSource relationships(final long highestId) {
+        return new EdgeSource() {
+            public long accept(EdgeVisitor visitor) {
+                return scanRelationships(0, highestId + 1, visitor);
+            }
+        };
+    }
+
+    public long scanRelationships(long fromId, long toId, final EdgeVisitor visitor) {
+        return scan(RELATIONSHIP_STORE, RELATIONSHIP_RECORD_SIZE, fromId, toId, new RecordDecoder() {
+            public boolean decode(ByteBuffer buffer, int offset, long id) {
+                final long inUseByte = buffer.get(offset);
+                if ((inUseByte & 0x1) == 0) return false;
+                final long firstNode = (buffer.getInt(offset + 1) & 0xFFFFFFFFL) | ((inUseByte & 0xEL) << 31);
+                final long typeInt = buffer.getInt(offset + 9);
+                final long secondNode = (buffer.getInt(offset + 5) & 0xFFFFFFFFL) | ((typeInt & 0x70000000L) << 4);
+                visitor.visit(id, firstNode, secondNode, (int) (typeInt & 0xFFFF));
+                return true;
+            }
+        });
+    }
+
+    public long scanNodes(long fromId, long toId, final NodeVisitor visitor) {
+        return scan(NODE_STORE, NODE_RECORD_SIZE, fromId, toId, new RecordDecoder() {
+            public boolean decode(ByteBuffer buffer, int offset, long id) {
+                final long inUseByte = buffer.get(offset);
+                if ((inUseByte & 0x1) == 0) return false;
+                final long nextRel = id(buffer.getInt(offset + 1), (inUseByte & 0xEL) << 31);
+                final long nextProp = id(buffer.getInt(offset + 5), (inUseByte & 0xF0L) << 28);
+                visitor.visit(id, nextRel, nextProp);
+                return true;
+            }
+        });
+    }
+
+    private static long id(int base, long modifier) {
+        final long id = base & 0xFFFFFFFFL;
+        return modifier == 0 && id == NO_ID ? -1 : id | modifier;
+    }
+
+    private interface RecordDecoder {
+        boolean decode(ByteBuffer buffer, int offset, long id);
+    }
+
+    private long scan(String fileName, int recordSize, long fromId, long toId, RecordDecoder decoder) {
+        final File file = new File(storeDir, fileName);
+        try {
+            final FileInputStream is = new FileInputStream(file);
+            try {
+                final FileChannel channel = is.getChannel();
+                toId = Math.min(toId, channel.size() / recordSize);
+                final int recordsPerBlock = BLOCK_SIZE / recordSize;
+                final ByteBuffer buffer = ByteBuffer.allocateDirect(recordsPerBlock * recordSize);
+                long count = 0;
+                for (long id = fromId; id < toId; id += recordsPerBlock) {
+                    final int records = (int) Math.min(recordsPerBlock, toId - id);
+                    buffer.clear();
+                    buffer.limit(records * recordSize);
+                    long position = id * recordSize;
+                    while (buffer.hasRemaining()) {
+                        final int read = channel.read(buffer, position);
+                        if (read == -1) throw new IOException("Unexpected end of " + file + " at " + position);
+                        position += read;
+                    }
+                    for (int i = 0; i < records; i++) {
+                        if (decoder.decode(buffer, i * recordSize, id + i)) count++;
+                    }
+                }
+                return count;
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error scanning " + file, e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.neo4j.olap;
+
+/**
+ * Read only, primitive view of the relationships of the nodes in {@code [minNodeId, minNodeId + nodeCount)}.
+ * Neighbours are returned as global node ids and may lie outside of that range.
+ *
+ * @author mh
+ * @since 19.12.12
+ */
+public interface Adjacency {
+    long getMinNodeId();
+
+    long getNodeCount();
+
+    long getRelationshipCount();
+
+    boolean contains(long nodeId);
+
+    int degree(long nodeId);
+
+    long neighbour(long nodeId, int index);
+}
@@ -3,21 +3,65 @@ package org.neo4j.olap;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Stores int arrays in a file, either streamed through a direct buffer or, in mapped mode, by
+ * memory mapping the file in segments and transferring whole segments at once.
+ * <p>
+ * The streamed format is prefixed with the int length. Files written in mapped mode or holding
+ * more than 2^31 entries start with a {@link #HEADER_SIZE} byte header of a negative magic,
+ * a version and the long length. Both formats can be read in either mode.
+ * <p>
+ * {@link #writePacked Packed} files, for counts that are mostly zero or small, hold blocks of
+ * {@link PackedInts#BLOCK_SIZE} entries encoded with {@link PackedInts}. Their {@link #PACKED_HEADER_SIZE} byte
+ * header of another magic, the version, the long length and the block size is followed by the file offsets of
+ * all blocks and of the end, so ranges of entries are decoded independently, by {@link #read(long, int)} or in
+ * parallel by {@link #read()}. Packed files can not be mapped.
+ *
  * @author mh
  * @since 23.11.12
  */
 public class ArrayStore {
     static final int MEGABYTE = 1024 * 1024;
+    static final int MAGIC = 0xA77A5701;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int PACKED_MAGIC = 0xA77A5702;
+    static final int PACKED_HEADER_SIZE = 24;
+    // blocks encoded or decoded by one task
+    static final int BLOCKS_PER_TASK = 64;
+    private static final int INT_SIZE = Integer.SIZE / 8;
+    private static final int LONG_SIZE = Long.SIZE / 8;
+
     private final String file;
     private final int capacity;
+    private final boolean mapped;
 
-    public ArrayStore(String file, int capacity) {
+    public ArrayStore(String file, int capacity, boolean mapped) {
         this.file = file;
         this.capacity = capacity;
+        this.mapped = mapped;
+    }
+
+    public ArrayStore(String file, int capacity) {
+        this(file, capacity, false);
+    }
+
+    public ArrayStore(String file, boolean mapped) {
+        this(file, MEGABYTE, mapped);
     }
 
     public ArrayStore(String file) {
@@ -25,27 +69,24 @@ public class ArrayStore {
     }
 
     public int[] read() throws IOException {
+        if (isPacked()) return readPacked(Runtime.getRuntime().availableProcessors());
+        if (mapped) return toArray(map());
         final FileInputStream is = new FileInputStream(file);
-        long read = 0;
         int[] data;
         try {
             final FileChannel channel = is.getChannel();
-            final ByteBuffer buffer = ByteBuffer.allocateDirect(capacity * Integer.SIZE / 8);
-            read = channel.read(buffer);
-            buffer.limit((int) read);
-            buffer.rewind();
-            final int size = buffer.getInt();
-            data = new int[size];
-            for (int i = 0; i < size; i++) {
-                if (buffer.position() == buffer.limit()) {
-                    buffer.rewind();
-                    final int readNow = channel.read(buffer);
-                    if (readNow == -1) break;
-                    read += readNow;
-                    buffer.limit(readNow);
-                    buffer.rewind();
-                }
-                data[i] = buffer.getInt();
+            final long size = readHeader(channel);
+            data = new int[toIntSize(size)];
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(capacity * INT_SIZE);
+            int position = 0;
+            while (position < data.length) {
+                if (channel.read(buffer) == -1) break;
+                buffer.flip();
+                final int count = Math.min(buffer.remaining() / INT_SIZE, data.length - position);
+                buffer.asIntBuffer().get(data, position, count);
+                position += count;
+                buffer.position(buffer.position() + count * INT_SIZE);
+                buffer.compact();
             }
         } finally {
             is.close();
@@ -54,27 +95,369 @@ public class ArrayStore {
     }
 
     public long write(int[] data) throws IOException {
+        if (mapped) return writeMapped(data);
         final FileOutputStream os = new FileOutputStream(file);
         long written = 0;
         try {
             final FileChannel channel = os.getChannel();
-            final ByteBuffer buffer = ByteBuffer.allocateDirect(capacity * Integer.SIZE / 8);
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(capacity * INT_SIZE);
             buffer.putInt(data.length);
-            final int size = data.length;
-            for (int i = 0; i < size; i++) {
-                if (buffer.position() == buffer.limit()) {
-                    buffer.rewind();
-                    written += channel.write(buffer);
-                    buffer.rewind();
-                }
-                buffer.putInt(data[i]);
+            int position = 0;
+            while (position < data.length) {
+                final int count = Math.min(buffer.remaining() / INT_SIZE, data.length - position);
+                final IntBuffer ints = buffer.asIntBuffer();
+                ints.put(data, position, count);
+                position += count;
+                buffer.position(buffer.position() + count * INT_SIZE);
+                buffer.flip();
+                written += writeFully(channel, buffer);
+                buffer.clear();
+            }
+            if (buffer.position() > 0) {
+                buffer.flip();
+                written += writeFully(channel, buffer);
             }
-            buffer.limit(buffer.position());
-            buffer.rewind();
-            written += channel.write(buffer);
         } finally {
             os.close();
         }
         return written;
     }
+
+    /**
+     * Writes a long indexed array through a writable mapping of the file, always using the long header.
+     * The mapping and the header are forced to the disk before returning.
+     */
+    public long write(OffHeapIntArray data) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long bytes = HEADER_SIZE + data.length() * INT_SIZE;
+            raf.setLength(bytes);
+            writeHeader(channel, data.length());
+            final OffHeapIntArray target = mapSegments(channel, FileChannel.MapMode.READ_WRITE, data.length());
+            data.copyTo(target);
+            force(channel, target);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Zero copy, read only view of the stored array backed by the page cache, no heap array is created.
+     */
+    public OffHeapIntArray map() throws IOException {
+        return map(false);
+    }
+
+    /**
+     * @param writable changes of the returned array are written back to the file by the page cache, until
+     *                 {@link OffHeapIntArray#force()} they may be lost in a crash
+     */
+    public OffHeapIntArray map(boolean writable) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = readHeader(channel);
+            return mapSegments(channel, writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private long writeMapped(int[] data) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long bytes = HEADER_SIZE + (long) data.length * INT_SIZE;
+            raf.setLength(bytes);
+            writeHeader(channel, data.length);
+            final OffHeapIntArray target = mapSegments(channel, FileChannel.MapMode.READ_WRITE, data.length);
+            target.put(0, data, 0, data.length);
+            force(channel, target);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    // the mapped segments hold the values, the channel the header and the length
+    private static void force(FileChannel channel, OffHeapIntArray mapped) throws IOException {
+        mapped.force();
+        channel.force(true);
+    }
+
+    /**
+     * Writes the packed format, encoding ranges of blocks in parallel.
+     *
+     * @return bytes written
+     */
+    public long writePacked(final int[] data, int threads) throws IOException, ExecutionException, InterruptedException {
+        final int blocks = (data.length + PackedInts.BLOCK_SIZE - 1) / PackedInts.BLOCK_SIZE;
+        final ByteBuffer index = ByteBuffer.allocate((blocks + 1) * LONG_SIZE);
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            final FileChannel channel = raf.getChannel();
+            long position = PACKED_HEADER_SIZE + index.capacity();
+            channel.position(position);
+            // written in order, with a bounded number of encoded ranges in memory
+            final LinkedList<Future<ByteBuffer>> pending = new LinkedList<Future<ByteBuffer>>();
+            int nextBlock = 0;
+            while (nextBlock < blocks || !pending.isEmpty()) {
+                while (nextBlock < blocks && pending.size() < 2 * threads) {
+                    final int first = nextBlock;
+                    final int last = Math.min(blocks, first + BLOCKS_PER_TASK);
+                    pending.add(pool.submit(new Callable<ByteBuffer>() {
+                        public ByteBuffer call() {
+                            return encodeBlocks(data, first, last);
+                        }
+                    }));
+                    nextBlock = last;
+                }
+                final ByteBuffer encoded = pending.removeFirst().get();
+                final int count = encoded.getInt(0);
+                for (int i = 0; i < count; i++) {
+                    index.putLong(position + encoded.getInt((i + 1) * INT_SIZE));
+                }
+                position += writeFully(channel, encoded);
+            }
+            index.putLong(position);
+            index.flip();
+            final ByteBuffer header = ByteBuffer.allocate(PACKED_HEADER_SIZE);
+            header.putInt(PACKED_MAGIC).putInt(VERSION).putLong(data.length).putInt(PackedInts.BLOCK_SIZE).putInt(0);
+            header.flip();
+            channel.position(0);
+            writeFully(channel, header);
+            writeFully(channel, index);
+            return position;
+        } finally {
+            raf.close();
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the block count, the offsets of the blocks relative to the first and the blocks, positioned at the blocks
+     */
+    private static ByteBuffer encodeBlocks(int[] data, int first, int last) {
+        final int count = last - first;
+        final int headerSize = (count + 1) * INT_SIZE;
+        final ByteBuffer buffer = ByteBuffer.allocate(headerSize + count * PackedInts.maxBytes(PackedInts.BLOCK_SIZE));
+        buffer.putInt(count);
+        buffer.position(headerSize);
+        for (int block = first; block < last; block++) {
+            buffer.putInt((block - first + 1) * INT_SIZE, buffer.position() - headerSize);
+            final int offset = block * PackedInts.BLOCK_SIZE;
+            PackedInts.encode(data, offset, Math.min(PackedInts.BLOCK_SIZE, data.length - offset), buffer);
+        }
+        buffer.flip();
+        buffer.position(headerSize);
+        return buffer;
+    }
+
+    /**
+     * @return whether the file is in the packed format
+     */
+    public boolean isPacked() throws IOException {
+        final FileInputStream is = new FileInputStream(file);
+        try {
+            final ByteBuffer first = ByteBuffer.allocate(INT_SIZE);
+            return is.getChannel().read(first, 0) == INT_SIZE && first.getInt(0) == PACKED_MAGIC;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Reads the entries {@code [from, from + length)} of a file in any format, a packed file only decodes the
+     * blocks of the range.
+     */
+    public int[] read(long from, int length) throws IOException {
+        final int[] data = new int[length];
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            if (isPacked()) {
+                final PackedIndex index = new PackedIndex(channel);
+                if (from < 0 || from + length > index.size) throw new IOException("Range " + from + " + " + length + " out of bounds of " + file);
+                index.decode(channel, from, length, data, 0);
+                return data;
+            }
+            final long size = readHeader(channel);
+            if (from < 0 || from + length > size) throw new IOException("Range " + from + " + " + length + " out of bounds of " + file);
+            final ByteBuffer buffer = ByteBuffer.allocate(length * INT_SIZE);
+            readFully(channel, buffer, channel.position() + from * INT_SIZE);
+            buffer.flip();
+            buffer.asIntBuffer().get(data);
+            return data;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private int[] readPacked(int threads) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final FileChannel channel = raf.getChannel();
+            final PackedIndex index = new PackedIndex(channel);
+            final int[] data = new int[toIntSize(index.size)];
+            final long entriesPerTask = (long) BLOCKS_PER_TASK * index.blockSize;
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (long start = 0; start < data.length; start += entriesPerTask) {
+                final int from = (int) start;
+                final int length = (int) Math.min(entriesPerTask, data.length - start);
+                futures.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        // positional reads of the shared channel
+                        index.decode(channel, from, length, data, from);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return data;
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted reading " + file, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not read " + file, e.getCause());
+        } finally {
+            pool.shutdown();
+            raf.close();
+        }
+    }
+
+    /**
+     * Header and block offsets of a packed file.
+     */
+    private class PackedIndex {
+        final long size;
+        final int blockSize;
+        final long[] offsets;
+
+        PackedIndex(FileChannel channel) throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(PACKED_HEADER_SIZE);
+            readFully(channel, header, 0);
+            if (header.getInt(0) != PACKED_MAGIC) throw new IOException("File " + file + " is not packed");
+            final int version = header.getInt(INT_SIZE);
+            if (version != VERSION) throw new IOException("Unsupported version " + version + " of file " + file);
+            size = header.getLong(2 * INT_SIZE);
+            blockSize = header.getInt(2 * INT_SIZE + LONG_SIZE);
+            final long blocks = (size + blockSize - 1) / blockSize;
+            if (blocks >= Integer.MAX_VALUE / LONG_SIZE) throw new IOException("File " + file + " has too many blocks");
+            final ByteBuffer index = ByteBuffer.allocate((int) (blocks + 1) * LONG_SIZE);
+            readFully(channel, index, PACKED_HEADER_SIZE);
+            index.flip();
+            offsets = new long[(int) blocks + 1];
+            index.asLongBuffer().get(offsets);
+        }
+
+        /**
+         * Decodes the blocks of the entries {@code [from, from + length)} into {@code target} starting at {@code offset}.
+         */
+        void decode(FileChannel channel, long from, int length, int[] target, int offset) throws IOException {
+            if (length == 0) return;
+            final long shift = from - offset;
+            final int first = (int) (from / blockSize);
+            final int last = (int) ((from + length - 1) / blockSize);
+            final ByteBuffer bytes = ByteBuffer.allocate((int) (offsets[last + 1] - offsets[first]));
+            readFully(channel, bytes, offsets[first]);
+            bytes.flip();
+            final int[] block = new int[blockSize];
+            for (int b = first; b <= last; b++) {
+                final long blockStart = (long) b * blockSize;
+                final int count = (int) Math.min(blockSize, size - blockStart);
+                final long start = Math.max(from, blockStart);
+                final long end = Math.min(from + length, blockStart + count);
+                if (start == blockStart && end == blockStart + count) {
+                    PackedInts.decode(bytes, target, (int) (blockStart - shift), count);
+                } else {
+                    PackedInts.decode(bytes, block, 0, count);
+                    System.arraycopy(block, (int) (start - blockStart), target, (int) (start - shift), (int) (end - start));
+                }
+            }
+        }
+    }
+
+    private int[] toArray(OffHeapIntArray view) throws IOException {
+        final int[] data = new int[toIntSize(view.length())];
+        view.get(0, data, 0, data.length);
+        return data;
+    }
+
+    private int toIntSize(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("File " + file + " holds " + size + " entries, too many for an int[], use map()");
+        return (int) size;
+    }
+
+    /**
+     * Reads either header format, leaves the channel positioned at the first entry.
+     */
+    private long readHeader(FileChannel channel) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.limit(INT_SIZE);
+        readFully(channel, header);
+        final int first = header.getInt(0);
+        if (first >= 0) return first;
+        if (first == PACKED_MAGIC) throw new IOException("File " + file + " is packed, use read()");
+        if (first != MAGIC) throw new IOException("Unknown format of file " + file);
+        header.limit(HEADER_SIZE);
+        readFully(channel, header);
+        final int version = header.getInt(INT_SIZE);
+        if (version != VERSION) throw new IOException("Unsupported version " + version + " of file " + file);
+        return header.getLong(2 * INT_SIZE);
+    }
+
+    private long headerSize(FileChannel channel) throws IOException {
+        final ByteBuffer first = ByteBuffer.allocate(INT_SIZE);
+        channel.read(first, 0);
+        return first.getInt(0) >= 0 ? INT_SIZE : HEADER_SIZE;
+    }
+
+    private void writeHeader(FileChannel channel, long size) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(size);
+        header.flip();
+        channel.position(0);
+        writeFully(channel, header);
+    }
+
+    private OffHeapIntArray mapSegments(FileChannel channel, FileChannel.MapMode mode, long size) throws IOException {
+        final long headerSize = headerSize(channel);
+        final IntBuffer[] segments = new IntBuffer[OffHeapIntArray.segmentCount(size)];
+        final MappedByteBuffer[] mapped = new MappedByteBuffer[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            final long position = headerSize + ((long) i << OffHeapIntArray.SEGMENT_SHIFT) * INT_SIZE;
+            final int length = OffHeapIntArray.segmentLength(size, i);
+            mapped[i] = channel.map(mode, position, (long) length * INT_SIZE);
+            segments[i] = mapped[i].asIntBuffer();
+        }
+        return new OffHeapIntArray(segments, size, mode == FileChannel.MapMode.READ_WRITE ? mapped : null);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) throw new IOException("Unexpected end of file");
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read == -1) throw new IOException("Unexpected end of file");
+            position += read;
+        }
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
 }
@@ -0,0 +1,42 @@
+package org.neo4j.olap;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @author mh
+ * @since 20.12.12
+ */
+class AtomicVisitCounters extends VisitCounters {
+    private final AtomicIntegerArray counts;
+
+    AtomicVisitCounters(long minNodeId, long nodeCount) {
+        super(minNodeId, nodeCount);
+        this.counts = new AtomicIntegerArray(this.nodeCount);
+    }
+
+    public VisitCounter forThread(int thread) {
+        return new VisitCounter() {
+            public void increment(long nodeId) {
+                counts.incrementAndGet(index(nodeId));
+            }
+
+            public void add(long nodeId, int delta) {
+                counts.addAndGet(index(nodeId), delta);
+            }
+
+            public void flush() {
+            }
+        };
+    }
+
+    public void mergeInto(int[] nodes) {
+        final int offset = (int) minNodeId;
+        for (int i = 0; i < nodeCount; i++) {
+            nodes[offset + i] += counts.get(i);
+        }
+    }
+
+    protected int count(int index) {
+        return counts.get(index);
+    }
+}
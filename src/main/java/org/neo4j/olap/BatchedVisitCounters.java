@@ -0,0 +1,102 @@
+package org.neo4j.olap;
+
+import java.util.Arrays;
+
+/**
+ * Threads collect visited indexes in a local buffer. When it is full the buffer is bucketed by lock stripe
+ * with a counting sort and each bucket is applied to the shared array holding its stripe's lock once.
+ * Stripes interleave blocks of {@link #BLOCK_SIZE} entries so that hot id ranges spread over all locks.
+ *
+ * @author mh
+ * @since 20.12.12
+ */
+class BatchedVisitCounters extends VisitCounters {
+    static final int BUFFER_SIZE = 8192;
+    static final int BLOCK_SHIFT = 10;
+    static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    static final int STRIPES = 256;
+
+    private final int[] counts;
+    private final Object[] locks = new Object[STRIPES];
+
+    BatchedVisitCounters(long minNodeId, long nodeCount) {
+        super(minNodeId, nodeCount);
+        this.counts = new int[this.nodeCount];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    static int stripe(int index) {
+        return (index >>> BLOCK_SHIFT) & (STRIPES - 1);
+    }
+
+    public VisitCounter forThread(int thread) {
+        return new VisitCounter() {
+            private final int[] buffer = new int[BUFFER_SIZE];
+            private final int[] sorted = new int[BUFFER_SIZE];
+            private final int[] starts = new int[STRIPES + 1];
+            private int size;
+
+            public void increment(long nodeId) {
+                buffer[size++] = index(nodeId);
+                if (size == BUFFER_SIZE) flush();
+            }
+
+            // weighted adds are rare compared to visits, they are applied directly under their stripe's lock
+            public void add(long nodeId, int delta) {
+                final int index = index(nodeId);
+                synchronized (locks[stripe(index)]) {
+                    counts[index] += delta;
+                }
+            }
+
+            public void flush() {
+                if (size == 0) return;
+                final long time = System.nanoTime();
+                Arrays.fill(starts, 0);
+                for (int i = 0; i < size; i++) {
+                    starts[stripe(buffer[i]) + 1]++;
+                }
+                for (int s = 0; s < STRIPES; s++) {
+                    starts[s + 1] += starts[s];
+                }
+                for (int i = 0; i < size; i++) {
+                    final int index = buffer[i];
+                    sorted[starts[stripe(index)]++] = index;
+                }
+                // starts[s] now holds the end of stripe s, which is the start of stripe s+1
+                int from = 0;
+                for (int s = 0; s < STRIPES; s++) {
+                    final int to = starts[s];
+                    if (to == from) continue;
+                    synchronized (locks[s]) {
+                        for (int i = from; i < to; i++) {
+                            counts[sorted[i]]++;
+                        }
+                    }
+                    from = to;
+                }
+                size = 0;
+                OlapMetrics.forCurrentThread().flushed(System.nanoTime() - time);
+            }
+        };
+    }
+
+    public void mergeInto(int[] nodes) {
+        final int offset = (int) minNodeId;
+        for (int block = 0; block * BLOCK_SIZE < nodeCount; block++) {
+            final int start = block * BLOCK_SIZE;
+            final int end = Math.min(nodeCount, start + BLOCK_SIZE);
+            synchronized (locks[stripe(start)]) {
+                for (int i = start; i < end; i++) {
+                    nodes[offset + i] += counts[i];
+                }
+            }
+        }
+    }
+
+    protected int count(int index) {
+        return counts[index];
+    }
+}
@@ -0,0 +1,326 @@
+package org.neo4j.olap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs a {@link VertexProgram} bulk synchronously over the nodes of an {@link Adjacency}. Every superstep the
+ * node range is split into chunks that the threads take from a shared cursor. A vertex's value and halt flag
+ * are only written by the thread computing it, messages are combined into the single inbox slot of their
+ * target with a compare and set, so message memory is one long per vertex and superstep, independent of
+ * the number of messages. Messages to nodes outside the range are dropped and counted.
+ * The run ends when all vertices voted to halt and no messages are in flight, or after {@code maxSupersteps}.
+ *
+ * @author mh
+ * @since 08.01.13
+ */
+public class BspEngine {
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private final Adjacency graph;
+    private final int threads;
+    private final long minNodeId;
+    private final int nodeCount;
+    private long[] values;
+    private int supersteps;
+    private long dropped;
+
+    public BspEngine(Adjacency graph, int threads) {
+        if (graph.getNodeCount() > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many nodes " + graph.getNodeCount());
+        this.graph = graph;
+        this.threads = threads;
+        this.minNodeId = graph.getMinNodeId();
+        this.nodeCount = (int) graph.getNodeCount();
+    }
+
+    /**
+     * @return the final values, indexed by {@code nodeId - minNodeId}
+     */
+    public long[] run(final VertexProgram program, int maxSupersteps) throws ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        final Combiner combiner = program.getCombiner();
+        final Combiner[] aggregators = program.getAggregators();
+        final State state = new State(combiner);
+        values = new long[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            values[i] = program.initialValue(minNodeId + i);
+        }
+        long[] aggregates = identities(aggregators);
+        final int chunks = (nodeCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (supersteps = 0; supersteps < maxSupersteps; supersteps++) {
+                if (!program.beforeSuperstep(supersteps, aggregates)) break;
+                final long stepTime = System.currentTimeMillis();
+                final int superstep = supersteps;
+                final long[] previous = aggregates;
+                final AtomicInteger nextChunk = new AtomicInteger();
+                final List<Future<Vertex>> futures = new ArrayList<Future<Vertex>>(threads);
+                for (int t = 0; t < threads; t++) {
+                    futures.add(pool.submit(new Callable<Vertex>() {
+                        public Vertex call() {
+                            final Vertex vertex = new Vertex(program, state, superstep, previous, identities(aggregators));
+                            int chunk;
+                            while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                                final int start = chunk * CHUNK_SIZE;
+                                vertex.computeChunk(start, Math.min(nodeCount, start + CHUNK_SIZE));
+                            }
+                            return vertex;
+                        }
+                    }));
+                }
+                aggregates = identities(aggregators);
+                long active = 0, computed = 0, sent = 0;
+                for (Future<Vertex> future : futures) {
+                    final Vertex vertex = future.get();
+                    for (int a = 0; a < aggregators.length; a++) {
+                        aggregates[a] = aggregators[a].combine(aggregates[a], vertex.aggregates[a]);
+                    }
+                    active += vertex.active;
+                    computed += vertex.computed;
+                    sent += vertex.sent;
+                    dropped += vertex.dropped;
+                }
+                state.swap();
+                System.out.printf("Superstep %d computed %d vertices, %d active, %d messages in %d ms%n",
+                        superstep, computed, active, sent, System.currentTimeMillis() - stepTime);
+                if (active == 0 && sent == 0) {
+                    supersteps++;
+                    break;
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("BSP finished after %d supersteps, %d messages dropped, in %d ms%n", supersteps, dropped, System.currentTimeMillis() - time);
+        return values;
+    }
+
+    private static long[] identities(Combiner[] aggregators) {
+        final long[] result = new long[aggregators.length];
+        for (int a = 0; a < aggregators.length; a++) {
+            result[a] = aggregators[a].identity();
+        }
+        return result;
+    }
+
+    public long getValue(long nodeId) {
+        return values[(int) (nodeId - minNodeId)];
+    }
+
+    public int getSupersteps() {
+        return supersteps;
+    }
+
+    /**
+     * @return messages to nodes outside of the range
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Message and halt state, the inbox is read in the current superstep, the outbox written for the next one.
+     */
+    private class State {
+        private final Combiner combiner;
+        // one bit per vertex, chunks are multiples of 64 so threads never share a word
+        private final long[] halted = new long[(nodeCount + 63) / 64];
+        private AtomicLongArray inbox;
+        private AtomicLongArray outbox;
+        private AtomicIntegerArray inFlags;
+        private AtomicIntegerArray outFlags;
+
+        State(Combiner combiner) {
+            this.combiner = combiner;
+            this.inbox = emptyBox();
+            this.outbox = emptyBox();
+            this.inFlags = new AtomicIntegerArray((nodeCount + 31) / 32);
+            this.outFlags = new AtomicIntegerArray((nodeCount + 31) / 32);
+        }
+
+        private AtomicLongArray emptyBox() {
+            final AtomicLongArray box = new AtomicLongArray(nodeCount);
+            final long identity = combiner.identity();
+            if (identity != 0) {
+                for (int i = 0; i < nodeCount; i++) {
+                    box.set(i, identity);
+                }
+            }
+            return box;
+        }
+
+        void send(int index, long message) {
+            long current;
+            do {
+                current = outbox.get(index);
+            } while (!outbox.compareAndSet(index, current, combiner.combine(current, message)));
+            final int word = index >>> 5;
+            final int bit = 1 << (index & 31);
+            int flags;
+            while (((flags = outFlags.get(word)) & bit) == 0) {
+                if (outFlags.compareAndSet(word, flags, flags | bit)) break;
+            }
+        }
+
+        boolean hasMessage(int index) {
+            return (inFlags.get(index >>> 5) & (1 << (index & 31))) != 0;
+        }
+
+        /**
+         * Takes the message out of the inbox, so it is empty when it becomes the next outbox.
+         */
+        long takeMessage(int index) {
+            final long message = inbox.get(index);
+            inbox.set(index, combiner.identity());
+            return message;
+        }
+
+        void clearFlags(int start, int end) {
+            for (int word = start >>> 5; word < (end + 31) >>> 5; word++) {
+                inFlags.set(word, 0);
+            }
+        }
+
+        boolean isHalted(int index) {
+            return (halted[index >>> 6] & (1L << index)) != 0;
+        }
+
+        void setHalted(int index, boolean halt) {
+            if (halt) halted[index >>> 6] |= 1L << index;
+            else halted[index >>> 6] &= ~(1L << index);
+        }
+
+        void swap() {
+            final AtomicLongArray box = inbox;
+            inbox = outbox;
+            outbox = box;
+            final AtomicIntegerArray flags = inFlags;
+            inFlags = outFlags;
+            outFlags = flags;
+        }
+    }
+
+    /**
+     * The vertex being computed, one instance per thread and superstep that moves over the vertices of its chunks.
+     */
+    public class Vertex {
+        private final VertexProgram program;
+        private final State state;
+        private final int superstep;
+        private final long[] previousAggregates;
+        private final long[] aggregates;
+        private final Combiner[] aggregators;
+        private int index;
+        private long nodeId;
+        private boolean hasMessage;
+        private long message;
+        private boolean halt;
+        private long active;
+        private long computed;
+        private long sent;
+        private long dropped;
+
+        Vertex(VertexProgram program, State state, int superstep, long[] previousAggregates, long[] aggregates) {
+            this.program = program;
+            this.state = state;
+            this.superstep = superstep;
+            this.previousAggregates = previousAggregates;
+            this.aggregates = aggregates;
+            this.aggregators = program.getAggregators();
+        }
+
+        void computeChunk(int start, int end) {
+            for (int i = start; i < end; i++) {
+                hasMessage = state.hasMessage(i);
+                if (!hasMessage && superstep > 0 && state.isHalted(i)) continue;
+                index = i;
+                nodeId = minNodeId + i;
+                message = hasMessage ? state.takeMessage(i) : program.getCombiner().identity();
+                halt = false;
+                program.compute(this);
+                state.setHalted(i, halt);
+                computed++;
+                if (!halt) active++;
+            }
+            state.clearFlags(start, end);
+        }
+
+        public long getId() {
+            return nodeId;
+        }
+
+        public int getSuperstep() {
+            return superstep;
+        }
+
+        public long getValue() {
+            return values[index];
+        }
+
+        public void setValue(long value) {
+            values[index] = value;
+        }
+
+        public boolean hasMessage() {
+            return hasMessage;
+        }
+
+        /**
+         * @return the combined messages of the previous superstep, the combiner's identity if there were none
+         */
+        public long getMessage() {
+            return message;
+        }
+
+        public int degree() {
+            return graph.degree(nodeId);
+        }
+
+        public long neighbour(int i) {
+            return graph.neighbour(nodeId, i);
+        }
+
+        public void sendMessage(long target, long value) {
+            if (!graph.contains(target)) {
+                dropped++;
+                return;
+            }
+            state.send((int) (target - minNodeId), value);
+            sent++;
+        }
+
+        public void sendToNeighbours(long value) {
+            final int degree = graph.degree(nodeId);
+            for (int i = 0; i < degree; i++) {
+                sendMessage(graph.neighbour(nodeId, i), value);
+            }
+        }
+
+        public void aggregate(int aggregator, long value) {
+            aggregates[aggregator] = aggregators[aggregator].combine(aggregates[aggregator], value);
+        }
+
+        /**
+         * @return the aggregate of the previous superstep
+         */
+        public long getAggregate(int aggregator) {
+            return previousAggregates[aggregator];
+        }
+
+        /**
+         * Deactivates the vertex until it receives a message.
+         */
+        public void voteToHalt() {
+            halt = true;
+        }
+    }
+}
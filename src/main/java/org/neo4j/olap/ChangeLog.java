@@ -0,0 +1,214 @@
+package org.neo4j.olap;
+
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileFilter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Transaction event handler that appends the start and end node of every created and deleted relationship to a
+ * file, as input for a {@link SegmentRepair}. Records are two longs, the start node of a deleted relationship
+ * is stored complemented. Relationships are read before the commit, when deleted ones are still accessible,
+ * and written after it, so rolled back transactions leave no records.
+ * <p>
+ * Records are flushed after every transaction but not forced to disk, a crash may lose the last ones.
+ * {@link #roll} hands the records so far to a repair while new transactions go to a fresh file.
+ *
+ * @author mh
+ * @since 15.01.13
+ */
+public class ChangeLog implements TransactionEventHandler<long[]> {
+    static final int RECORD_SIZE = 2 * Long.SIZE / 8;
+    private static final long[] NONE = new long[0];
+
+    private final File file;
+    private DataOutputStream out;
+    private int rolled;
+    private long records;
+    private long lost;
+
+    public ChangeLog(File file) throws IOException {
+        this.file = file;
+        this.out = open(file);
+    }
+
+    private static DataOutputStream open(File file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    public long[] beforeCommit(TransactionData data) {
+        long[] changes = NONE;
+        int size = 0;
+        for (int deleted = 0; deleted < 2; deleted++) {
+            for (Relationship relationship : deleted == 0 ? data.createdRelationships() : data.deletedRelationships()) {
+                if (size == changes.length) changes = Arrays.copyOf(changes, Math.max(16, 2 * size));
+                final long start = relationship.getStartNode().getId();
+                changes[size++] = deleted == 0 ? start : ~start;
+                changes[size++] = relationship.getEndNode().getId();
+            }
+        }
+        return size == changes.length ? changes : Arrays.copyOf(changes, size);
+    }
+
+    public void afterCommit(TransactionData data, long[] changes) {
+        if (changes == null || changes.length == 0) return;
+        try {
+            append(changes);
+        } catch (IOException e) {
+            // the commit already happened, the affected segments stay stale until the next full build
+            synchronized (this) {
+                lost += changes.length / 2;
+            }
+            System.err.printf("Could not log %d changes to %s: %s%n", changes.length / 2, file, e.getMessage());
+        }
+    }
+
+    public void afterRollback(TransactionData data, long[] changes) {
+    }
+
+    synchronized void append(long[] changes) throws IOException {
+        for (long change : changes) {
+            out.writeLong(change);
+        }
+        out.flush();
+        records += changes.length / 2;
+    }
+
+    /**
+     * @return the file with the records so far, new records are appended to a fresh file
+     */
+    public synchronized File roll() throws IOException {
+        out.close();
+        File target;
+        do {
+            target = new File(file.getPath() + "." + rolled++);
+        } while (target.exists());
+        if (!file.renameTo(target)) throw new IOException("Could not roll " + file + " to " + target);
+        out = open(file);
+        return target;
+    }
+
+    /**
+     * @return the rolled files that were not deleted yet, including those of earlier processes
+     */
+    public File[] rolledFiles() {
+        final String prefix = file.getName() + ".";
+        final File[] files = file.getAbsoluteFile().getParentFile().listFiles(new FileFilter() {
+            public boolean accept(File candidate) {
+                return candidate.getName().startsWith(prefix) && candidate.getName().substring(prefix.length()).matches("\\d+");
+            }
+        });
+        return files == null ? new File[0] : files;
+    }
+
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    /**
+     * @return the nodes in {@code [minNodeId, minNodeId + nodeCount)} whose relationships changed according to the file
+     */
+    public static Changes read(File file, long minNodeId, long nodeCount) throws IOException {
+        return read(file, new Changes(minNodeId, nodeCount));
+    }
+
+    /**
+     * Adds the nodes of the file to {@code changes}.
+     */
+    public static Changes read(File file, Changes changes) throws IOException {
+        if (!file.exists()) return changes;
+        // a record cut off by a crash is ignored
+        final long records = file.length() / RECORD_SIZE;
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            for (long r = 0; r < records; r++) {
+                final long start = in.readLong();
+                final long end = in.readLong();
+                changes.add(start < 0 ? ~start : start, end, start < 0);
+            }
+        } finally {
+            in.close();
+        }
+        return changes;
+    }
+
+    /**
+     * Bitset of the nodes with changed relationships.
+     */
+    public static class Changes {
+        private final long minNodeId;
+        private final long nodeCount;
+        private final long[] nodes;
+        private long created;
+        private long deleted;
+        private long changedNodes;
+        private long outside;
+
+        public Changes(long minNodeId, long nodeCount) {
+            if (nodeCount > Integer.MAX_VALUE * 64L) throw new IllegalArgumentException("Too many nodes " + nodeCount);
+            this.minNodeId = minNodeId;
+            this.nodeCount = nodeCount;
+            this.nodes = new long[(int) ((nodeCount + 63) / 64)];
+        }
+
+        public void add(long startNode, long endNode, boolean deletion) {
+            if (deletion) deleted++; else created++;
+            mark(startNode);
+            mark(endNode);
+        }
+
+        private void mark(long nodeId) {
+            final long index = nodeId - minNodeId;
+            if (index < 0 || index >= nodeCount) {
+                outside++;
+                return;
+            }
+            final int word = (int) (index >>> 6);
+            if ((nodes[word] & (1L << index)) == 0) changedNodes++;
+            nodes[word] |= 1L << index;
+        }
+
+        public boolean contains(long nodeId) {
+            final long index = nodeId - minNodeId;
+            return index >= 0 && index < nodeCount && (nodes[(int) (index >>> 6)] & (1L << index)) != 0;
+        }
+
+        public long getCreated() {
+            return created;
+        }
+
+        public long getDeleted() {
+            return deleted;
+        }
+
+        public long getChangedNodes() {
+            return changedNodes;
+        }
+
+        /**
+         * @return the ends of changed relationships outside the range, like nodes created after the segments were
+         * built, whose segments only a new build walks
+         */
+        public long getOutside() {
+            return outside;
+        }
+    }
+}
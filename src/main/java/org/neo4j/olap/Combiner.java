@@ -0,0 +1,47 @@
+package org.neo4j.olap;
+
+/**
+ * Associative and commutative reduction of primitive values, used to combine the messages sent to a vertex
+ * and to aggregate values over all vertices of a superstep.
+ *
+ * @author mh
+ * @since 08.01.13
+ */
+public interface Combiner {
+    /**
+     * @return the neutral value, {@code combine(identity(), x) == x}
+     */
+    long identity();
+
+    long combine(long a, long b);
+
+    Combiner MIN = new Combiner() {
+        public long identity() {
+            return Long.MAX_VALUE;
+        }
+
+        public long combine(long a, long b) {
+            return a < b ? a : b;
+        }
+    };
+
+    Combiner MAX = new Combiner() {
+        public long identity() {
+            return Long.MIN_VALUE;
+        }
+
+        public long combine(long a, long b) {
+            return a > b ? a : b;
+        }
+    };
+
+    Combiner SUM = new Combiner() {
+        public long identity() {
+            return 0;
+        }
+
+        public long combine(long a, long b) {
+            return a + b;
+        }
+    };
+}
@@ -0,0 +1,434 @@
+package org.neo4j.olap;
+
+import org.neo4j.graphdb.Direction;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Snapshot like {@link CsrGraph} with sorted neighbour lists, gap encoded as variable length integers of 7 bits
+ * per byte in off heap pages. Relationships take one to three bytes instead of four, the fewer the closer the
+ * ids of neighbours are, e.g. after a {@link Relabeling}. Every node costs 8 bytes for the position of its list.
+ * <p>
+ * A list starts with the degree. Lists of more than {@link #BLOCK_SIZE} neighbours continue with a table of the
+ * offsets of their blocks after the first, so a random neighbour decodes at most one block. The first neighbour
+ * of a block is stored relative to the node, the others relative to their predecessor.
+ * <p>
+ * {@link #build} reads the store scan in slices of at most {@code bufferSize} relationships, whose lists are sorted
+ * and encoded in parallel chunks, so the uncompressed snapshot is never held as a whole.
+ *
+ * @author mh
+ * @since 13.01.13
+ */
+public class CompressedGraph implements Adjacency {
+    public static final long DEFAULT_BUFFER_SIZE = 1 << 26;
+    // estimates for sizing rounds, measured on R-MAT graphs with scattered ids
+    public static final int BYTES_PER_NODE = 9;
+    public static final int BYTES_PER_RELATIONSHIP = 3;
+    static final int BLOCK_SIZE = 16;
+    static final int PAGE_SIZE = 1 << 24;
+    static final int NODES_PER_CHUNK = 1 << 12;
+
+    private final long minNodeId;
+    private final long nodeCount;
+    private final long relationshipCount;
+    // page index in the upper, offset in the page in the lower 32 bits
+    private final OffHeapLongArray positions;
+    private final ByteBuffer[] pages;
+
+    CompressedGraph(long minNodeId, long nodeCount, long relationshipCount, OffHeapLongArray positions, ByteBuffer[] pages) {
+        this.minNodeId = minNodeId;
+        this.nodeCount = nodeCount;
+        this.relationshipCount = relationshipCount;
+        this.positions = positions;
+        this.pages = pages;
+    }
+
+    public static CompressedGraph build(EdgeSource source, long minNodeId, long nodeCount, Direction direction, int threads) throws ExecutionException, InterruptedException {
+        return build(source, minNodeId, nodeCount, direction, threads, DEFAULT_BUFFER_SIZE);
+    }
+
+    public static CompressedGraph build(EdgeSource source, final long minNodeId, final long nodeCount, Direction direction, int threads, long bufferSize) throws ExecutionException, InterruptedException {
+        if (bufferSize > Integer.MAX_VALUE) throw new IllegalArgumentException("Buffer size " + bufferSize + " too large");
+        CsrGraph.checkNodeIds(minNodeId, nodeCount);
+        long time = System.currentTimeMillis();
+        final OffHeapIntArray ends = OffHeapIntArray.allocate(nodeCount);
+        source.accept(new CsrGraph.RangeEdgeVisitor(minNodeId, nodeCount, direction) {
+            protected void add(long index, long target) {
+                ends.increment(index);
+            }
+        });
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final Builder builder = new Builder(minNodeId, nodeCount, PAGE_SIZE, pool, threads);
+            OffHeapIntArray buffer = null;
+            int slices = 0;
+            for (long from = 0, to; from < nodeCount; from = to, slices++) {
+                long relationships = 0;
+                for (to = from; to < nodeCount && (to == from || relationships + ends.get(to) <= bufferSize); to++) {
+                    relationships += ends.get(to);
+                }
+                // degrees become the start of each list in the slice, and its end once the slice was read
+                int offset = 0;
+                for (long i = from; i < to; i++) {
+                    final int degree = ends.get(i);
+                    ends.set(i, offset);
+                    offset += degree;
+                }
+                if (buffer == null || buffer.length() < offset) buffer = OffHeapIntArray.allocate(offset);
+                final OffHeapIntArray targets = buffer;
+                final long first = from;
+                source.accept(new CsrGraph.RangeEdgeVisitor(minNodeId + from, to - from, direction) {
+                    protected void add(long index, long target) {
+                        targets.set(ends.increment(first + index) - 1, (int) target);
+                    }
+                });
+                builder.append(new Slice(minNodeId, from, ends, targets), from, to);
+            }
+            final CompressedGraph graph = builder.finish();
+            System.out.printf("Compressed snapshot of %d nodes, %d relationships in %d slices to %d MB, %.2f bytes per relationship in %d ms%n",
+                    nodeCount, graph.getRelationshipCount(), slices, graph.getBytes() / (1024 * 1024),
+                    graph.getBytes() / (double) Math.max(1, graph.getRelationshipCount()), System.currentTimeMillis() - time);
+            return graph;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the neighbour lists of {@code graph} compressed
+     */
+    public static CompressedGraph compress(Adjacency graph, int threads) throws ExecutionException, InterruptedException {
+        return compress(graph, threads, PAGE_SIZE);
+    }
+
+    static CompressedGraph compress(Adjacency graph, int threads, int pageSize) throws ExecutionException, InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final Builder builder = new Builder(graph.getMinNodeId(), graph.getNodeCount(), pageSize, pool, threads);
+            builder.append(lists(graph), 0, graph.getNodeCount());
+            return builder.finish();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the estimated size of a compressed snapshot with {@code relationships} undirected relationships
+     */
+    public static long estimateBytes(long nodeCount, long relationships) {
+        return nodeCount * BYTES_PER_NODE + 2 * relationships * BYTES_PER_RELATIONSHIP;
+    }
+
+    public long getMinNodeId() {
+        return minNodeId;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getRelationshipCount() {
+        return relationshipCount;
+    }
+
+    /**
+     * @return the off heap bytes of the pages and list positions
+     */
+    public long getBytes() {
+        long bytes = nodeCount * (Long.SIZE / 8);
+        for (ByteBuffer page : pages) {
+            bytes += page.capacity();
+        }
+        return bytes;
+    }
+
+    public boolean contains(long nodeId) {
+        return nodeId >= minNodeId && nodeId < minNodeId + nodeCount;
+    }
+
+    public int degree(long nodeId) {
+        final long position = positions.get(nodeId - minNodeId);
+        final ByteBuffer page = pages[(int) (position >>> 32)];
+        int offset = (int) position;
+        int degree = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = page.get(offset++);
+            degree |= (b & 0x7F) << shift;
+            if (b >= 0) return degree;
+        }
+    }
+
+    public long neighbour(long nodeId, int index) {
+        final long position = positions.get(nodeId - minNodeId);
+        final ByteBuffer page = pages[(int) (position >>> 32)];
+        int offset = (int) position;
+        int degree = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = page.get(offset++);
+            degree |= (b & 0x7F) << shift;
+            if (b >= 0) break;
+        }
+        final int block = index / BLOCK_SIZE;
+        if (degree > BLOCK_SIZE) {
+            final int table = offset;
+            offset += 4 * ((degree - 1) / BLOCK_SIZE);
+            if (block > 0) offset += page.getInt(table + 4 * (block - 1));
+        }
+        long value = nodeId;
+        for (int i = block * BLOCK_SIZE; i <= index; i++) {
+            long delta = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = page.get(offset++);
+                delta |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            value += i == block * BLOCK_SIZE ? (delta >>> 1) ^ -(delta & 1) : delta;
+        }
+        return value;
+    }
+
+    /**
+     * Decodes the whole list at once, faster than {@link #neighbour} for every index.
+     *
+     * @return the degree of the node, its neighbours are in ascending order in {@code target}
+     */
+    public int neighbours(long nodeId, long[] target) {
+        final long position = positions.get(nodeId - minNodeId);
+        final ByteBuffer page = pages[(int) (position >>> 32)];
+        int offset = (int) position;
+        int degree = 0;
+        for (int shift = 0; ; shift += 7) {
+            final byte b = page.get(offset++);
+            degree |= (b & 0x7F) << shift;
+            if (b >= 0) break;
+        }
+        if (degree > BLOCK_SIZE) offset += 4 * ((degree - 1) / BLOCK_SIZE);
+        long value = nodeId;
+        for (int i = 0; i < degree; i++) {
+            long delta = 0;
+            for (int shift = 0; ; shift += 7) {
+                final byte b = page.get(offset++);
+                delta |= (long) (b & 0x7F) << shift;
+                if (b >= 0) break;
+            }
+            if (i % BLOCK_SIZE == 0) {
+                value = nodeId + ((delta >>> 1) ^ -(delta & 1));
+            } else {
+                value += delta;
+            }
+            target[i] = value;
+        }
+        return degree;
+    }
+
+    /**
+     * Appends encoded chunks in node order to pages of {@code pageSize} bytes, a chunk never spans pages.
+     */
+    private static class Builder {
+        private final long minNodeId;
+        private final long nodeCount;
+        private final int pageSize;
+        private final ExecutorService pool;
+        private final int threads;
+        private final OffHeapLongArray positions;
+        private final List<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+        private ByteBuffer page;
+        private long relationships;
+
+        Builder(long minNodeId, long nodeCount, int pageSize, ExecutorService pool, int threads) {
+            this.minNodeId = minNodeId;
+            this.nodeCount = nodeCount;
+            this.pageSize = pageSize;
+            this.pool = pool;
+            this.threads = threads;
+            this.positions = OffHeapLongArray.allocate(nodeCount);
+        }
+
+        /**
+         * Encodes the lists of the nodes {@code [minNodeId + from, minNodeId + to)}, keeping only a few chunks in flight.
+         */
+        void append(Lists lists, long from, long to) throws ExecutionException, InterruptedException {
+            final LinkedList<Future<Chunk>> inFlight = new LinkedList<Future<Chunk>>();
+            for (long start = from; start < to; start += NODES_PER_CHUNK) {
+                if (inFlight.size() == 2 * threads) add(inFlight.removeFirst().get());
+                inFlight.add(pool.submit(new Encoder(lists, minNodeId, start, Math.min(to, start + NODES_PER_CHUNK))));
+            }
+            while (!inFlight.isEmpty()) {
+                add(inFlight.removeFirst().get());
+            }
+        }
+
+        private void add(Chunk chunk) {
+            if (page == null || page.remaining() < chunk.length) {
+                trim();
+                page = ByteBuffer.allocateDirect(Math.max(pageSize, chunk.length));
+                pages.add(page);
+            }
+            final long base = ((long) (pages.size() - 1) << 32) | page.position();
+            page.put(chunk.bytes, 0, chunk.length);
+            for (int i = 0; i < chunk.starts.length; i++) {
+                positions.set(chunk.from + i, base + chunk.starts[i]);
+            }
+            relationships += chunk.relationships;
+        }
+
+        private void trim() {
+            if (page == null || page.remaining() < pageSize / 8) return;
+            page.flip();
+            final ByteBuffer trimmed = ByteBuffer.allocateDirect(page.limit());
+            trimmed.put(page);
+            pages.set(pages.size() - 1, trimmed);
+        }
+
+        CompressedGraph finish() {
+            trim();
+            return new CompressedGraph(minNodeId, nodeCount, relationships, positions, pages.toArray(new ByteBuffer[pages.size()]));
+        }
+    }
+
+    /**
+     * The neighbour lists an {@link Encoder} reads, in any order.
+     */
+    private interface Lists {
+        int degree(long nodeId);
+
+        long neighbour(long nodeId, int index);
+    }
+
+    private static Lists lists(final Adjacency graph) {
+        return new Lists() {
+            public int degree(long nodeId) {
+                return graph.degree(nodeId);
+            }
+
+            public long neighbour(long nodeId, int index) {
+                return graph.neighbour(nodeId, index);
+            }
+        };
+    }
+
+    private static class Encoder implements Callable<Chunk> {
+        private final Lists lists;
+        private final long minNodeId;
+        private final long from;
+        private final long to;
+
+        Encoder(Lists lists, long minNodeId, long from, long to) {
+            this.lists = lists;
+            this.minNodeId = minNodeId;
+            this.from = from;
+            this.to = to;
+        }
+
+        public Chunk call() {
+            final Chunk chunk = new Chunk(from, (int) (to - from));
+            long[] list = new long[BLOCK_SIZE];
+            for (long i = from; i < to; i++) {
+                final long nodeId = minNodeId + i;
+                final int degree = lists.degree(nodeId);
+                if (list.length < degree) list = new long[degree];
+                for (int r = 0; r < degree; r++) {
+                    list[r] = lists.neighbour(nodeId, r);
+                }
+                Arrays.sort(list, 0, degree);
+                chunk.starts[(int) (i - from)] = chunk.length;
+                chunk.writeList(nodeId, list, degree);
+            }
+            return chunk;
+        }
+    }
+
+    private static class Chunk {
+        private final long from;
+        private final int[] starts;
+        private byte[] bytes = new byte[1024];
+        private int length;
+        private long relationships;
+
+        Chunk(long from, int nodes) {
+            this.from = from;
+            this.starts = new int[nodes];
+        }
+
+        void writeList(long nodeId, long[] list, int degree) {
+            writeVarint(degree);
+            final int blocks = (degree + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            final int table = length;
+            if (blocks > 1) {
+                ensureCapacity(4 * (blocks - 1));
+                length += 4 * (blocks - 1);
+            }
+            final int base = length;
+            for (int block = 0; block < blocks; block++) {
+                if (block > 0) writeInt(table + 4 * (block - 1), length - base);
+                final int start = block * BLOCK_SIZE;
+                final long first = list[start] - nodeId;
+                writeVarint((first << 1) ^ (first >> 63));
+                for (int i = start + 1; i < Math.min(degree, start + BLOCK_SIZE); i++) {
+                    writeVarint(list[i] - list[i - 1]);
+                }
+            }
+            relationships += degree;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        // big endian like ByteBuffer.getInt
+        private void writeInt(int offset, int value) {
+            bytes[offset] = (byte) (value >>> 24);
+            bytes[offset + 1] = (byte) (value >>> 16);
+            bytes[offset + 2] = (byte) (value >>> 8);
+            bytes[offset + 3] = (byte) value;
+        }
+
+        private void ensureCapacity(int more) {
+            if (length + more > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + more));
+        }
+    }
+
+    /**
+     * The lists of a slice of a store scan, after the scan {@code ends} holds the end of each list in {@code targets}.
+     */
+    private static class Slice implements Lists {
+        private final long minNodeId;
+        private final long from;
+        private final OffHeapIntArray ends;
+        private final OffHeapIntArray targets;
+
+        Slice(long minNodeId, long from, OffHeapIntArray ends, OffHeapIntArray targets) {
+            this.minNodeId = minNodeId;
+            this.from = from;
+            this.ends = ends;
+            this.targets = targets;
+        }
+
+        private int start(long index) {
+            return index == from ? 0 : ends.get(index - 1);
+        }
+
+        public int degree(long nodeId) {
+            final long index = nodeId - minNodeId;
+            return ends.get(index) - start(index);
+        }
+
+        public long neighbour(long nodeId, int index) {
+            return targets.get(start(nodeId - minNodeId) + index);
+        }
+    }
+}
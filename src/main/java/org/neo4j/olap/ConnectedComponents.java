@@ -0,0 +1,39 @@
+package org.neo4j.olap;
+
+/**
+ * Labels every node with the smallest node id of its connected component by propagating the minimum label
+ * to the neighbours until nothing changes. Labels only travel in the direction of the snapshot's relationships,
+ * so the components are only connected components on a snapshot of both directions, which the runner loads.
+ * Aggregates the number of label changes per superstep.
+ *
+ * @author mh
+ * @since 08.01.13
+ */
+public class ConnectedComponents extends VertexProgram {
+    public static final int CHANGES = 0;
+    private static final Combiner[] AGGREGATORS = {Combiner.SUM};
+
+    public long initialValue(long nodeId) {
+        return nodeId;
+    }
+
+    public void compute(BspEngine.Vertex vertex) {
+        if (vertex.getSuperstep() == 0) {
+            vertex.sendToNeighbours(vertex.getValue());
+        } else if (vertex.getMessage() < vertex.getValue()) {
+            vertex.setValue(vertex.getMessage());
+            vertex.aggregate(CHANGES, 1);
+            vertex.sendToNeighbours(vertex.getValue());
+        }
+        vertex.voteToHalt();
+    }
+
+    public Combiner getCombiner() {
+        return Combiner.MIN;
+    }
+
+    @Override
+    public Combiner[] getAggregators() {
+        return AGGREGATORS;
+    }
+}
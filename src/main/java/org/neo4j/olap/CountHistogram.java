@@ -0,0 +1,84 @@
+package org.neo4j.olap;
+
+/**
+ * Distribution of counts in power of two buckets, bucket 0 holds zeros and bucket {@code b} the counts in
+ * {@code [2^(b-1), 2^b)}. Quantiles are interpolated linearly within a bucket.
+ *
+ * @author mh
+ * @since 22.12.12
+ */
+public class CountHistogram {
+    static final int BUCKETS = Integer.SIZE + 1;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long total;
+    private long sum;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    public static int bucket(int count) {
+        return count <= 0 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(count);
+    }
+
+    public void add(int count) {
+        buckets[bucket(count)]++;
+        total++;
+        sum += count;
+        if (count < min) min = count;
+        if (count > max) max = count;
+    }
+
+    public void merge(CountHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] += other.buckets[i];
+        }
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public long getBucket(int bucket) {
+        return buckets[bucket];
+    }
+
+    public double quantile(double q) {
+        if (total == 0) return 0;
+        final double rank = q * total;
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            if (buckets[b] == 0) continue;
+            if (seen + buckets[b] >= rank) {
+                if (b == 0) return 0;
+                final double low = Math.max(min, 1L << (b - 1));
+                final double high = Math.min(max, (1L << b) - 1);
+                return low + (high - low) * (rank - seen) / buckets[b];
+            }
+            seen += buckets[b];
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        if (total == 0) return "empty";
+        return String.format("count %d sum %d min %d p50 %.0f p90 %.0f p99 %.0f p99.9 %.0f max %d",
+                total, sum, min, quantile(0.5), quantile(0.9), quantile(0.99), quantile(0.999), max);
+    }
+}
@@ -0,0 +1,123 @@
+package org.neo4j.olap;
+
+import org.neo4j.graphdb.Direction;
+
+/**
+ * Compressed sparse row snapshot of the relationships of a node id range, kept off heap.
+ * For node {@code n} its neighbours are {@code targets[offsets[n-min] .. offsets[n-min+1])}.
+ * By default relationships are undirected, a relationship contributes to both of its nodes if they are in range.
+ * Built with {@link Direction#OUTGOING} it only contributes to its start node, with {@link Direction#INCOMING}
+ * only to its end node, which is the transpose.
+ *
+ * @author mh
+ * @since 19.12.12
+ */
+public class CsrGraph implements Adjacency {
+    private final long minNodeId;
+    private final long nodeCount;
+    private final OffHeapLongArray offsets;
+    private final OffHeapIntArray targets;
+
+    public CsrGraph(long minNodeId, long nodeCount, OffHeapLongArray offsets, OffHeapIntArray targets) {
+        this.minNodeId = minNodeId;
+        this.nodeCount = nodeCount;
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    public static CsrGraph build(EdgeSource source, final long minNodeId, final long nodeCount) {
+        return build(source, minNodeId, nodeCount, Direction.BOTH);
+    }
+
+    public static CsrGraph build(EdgeSource source, final long minNodeId, final long nodeCount, Direction direction) {
+        checkNodeIds(minNodeId, nodeCount);
+        final OffHeapIntArray degrees = OffHeapIntArray.allocate(nodeCount);
+        source.accept(new RangeEdgeVisitor(minNodeId, nodeCount, direction) {
+            protected void add(long index, long target) {
+                degrees.increment(index);
+            }
+        });
+
+        final OffHeapLongArray offsets = OffHeapLongArray.allocate(nodeCount + 1);
+        long offset = 0;
+        for (long i = 0; i < nodeCount; i++) {
+            offsets.set(i, offset);
+            offset += degrees.get(i);
+            degrees.set(i, 0);
+        }
+        offsets.set(nodeCount, offset);
+
+        final OffHeapIntArray targets = OffHeapIntArray.allocate(offset);
+        source.accept(new RangeEdgeVisitor(minNodeId, nodeCount, direction) {
+            protected void add(long index, long target) {
+                final int position = degrees.increment(index) - 1;
+                targets.set(offsets.get(index) + position, (int) target);
+            }
+        });
+        return new CsrGraph(minNodeId, nodeCount, offsets, targets);
+    }
+
+    public long getMinNodeId() {
+        return minNodeId;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getRelationshipCount() {
+        return offsets.get(nodeCount);
+    }
+
+    public boolean contains(long nodeId) {
+        return nodeId >= minNodeId && nodeId < minNodeId + nodeCount;
+    }
+
+    public int degree(long nodeId) {
+        final long index = nodeId - minNodeId;
+        return (int) (offsets.get(index + 1) - offsets.get(index));
+    }
+
+    public long neighbour(long nodeId, int index) {
+        return targets.get(offsets.get(nodeId - minNodeId) + index);
+    }
+
+    // targets are stored as ints
+    static void checkNodeIds(long minNodeId, long nodeCount) {
+        final long maxNodeId = minNodeId + nodeCount;
+        if (maxNodeId > Integer.MAX_VALUE) throw new IllegalArgumentException("Node ids up to " + maxNodeId + " don't fit the int targets");
+    }
+
+    abstract static class RangeEdgeVisitor implements EdgeVisitor {
+        private final long minNodeId;
+        private final long nodeCount;
+        private final boolean outgoing;
+        private final boolean incoming;
+        // of the relationship being added
+        protected long relationshipId;
+
+        RangeEdgeVisitor(long minNodeId, long nodeCount, Direction direction) {
+            this.minNodeId = minNodeId;
+            this.nodeCount = nodeCount;
+            this.outgoing = direction != Direction.INCOMING;
+            this.incoming = direction != Direction.OUTGOING;
+        }
+
+        public void visit(long relationshipId, long startNode, long endNode, int type) {
+            this.relationshipId = relationshipId;
+            final long start = startNode - minNodeId;
+            if (outgoing && start >= 0 && start < nodeCount) add(start, checkTarget(endNode));
+            if (startNode == endNode && outgoing) return;
+            final long end = endNode - minNodeId;
+            if (incoming && end >= 0 && end < nodeCount) add(end, checkTarget(startNode));
+        }
+
+        // targets outside the range may be beyond it
+        private static long checkTarget(long target) {
+            if (target > Integer.MAX_VALUE) throw new IllegalArgumentException("Node id " + target + " doesn't fit the int targets");
+            return target;
+        }
+
+        protected abstract void add(long index, long target);
+    }
+}
@@ -0,0 +1,106 @@
+package org.neo4j.olap;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+import java.util.Arrays;
+
+/**
+ * {@link Adjacency} that reads the current relationships of the projection from the database, for walking the
+ * few nodes a {@link SegmentRepair} touches without loading a snapshot. Neighbours are numbered in the order of
+ * the relationships of the node, deleted nodes have no neighbours.
+ * <p>
+ * The neighbours of a node are read in one pass and kept per thread until another node is asked for, so the
+ * {@link #degree} and {@link #neighbour} calls of a walker step see the same relationships, even if a
+ * transaction deletes some of them in between.
+ *
+ * @author mh
+ * @since 15.01.13
+ */
+public class DatabaseAdjacency implements Adjacency {
+    private final GraphDatabaseAPI db;
+    private final Projection projection;
+    private final long minNodeId;
+    private final long nodeCount;
+    private final ThreadLocal<Neighbours> last = new ThreadLocal<Neighbours>() {
+        @Override
+        protected Neighbours initialValue() {
+            return new Neighbours();
+        }
+    };
+
+    public DatabaseAdjacency(GraphDatabaseAPI db, Projection projection, long minNodeId, long nodeCount) {
+        this.db = db;
+        this.projection = projection;
+        this.minNodeId = minNodeId;
+        this.nodeCount = nodeCount;
+    }
+
+    public long getMinNodeId() {
+        return minNodeId;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the upper bound of relationship ids in use, the relationships are not counted
+     */
+    public long getRelationshipCount() {
+        return db.getDependencyResolver().resolveDependency(NodeManager.class).getHighestPossibleIdInUse(Relationship.class) + 1;
+    }
+
+    public boolean contains(long nodeId) {
+        return nodeId >= minNodeId && nodeId < minNodeId + nodeCount;
+    }
+
+    public int degree(long nodeId) {
+        return neighbours(nodeId).size;
+    }
+
+    public long neighbour(long nodeId, int index) {
+        final Neighbours neighbours = neighbours(nodeId);
+        if (index >= neighbours.size) throw new IndexOutOfBoundsException("Node " + nodeId + " has no neighbour " + index);
+        return neighbours.ids[index];
+    }
+
+    private Neighbours neighbours(long nodeId) {
+        final Neighbours neighbours = last.get();
+        if (neighbours.nodeId != nodeId) neighbours.load(nodeId);
+        return neighbours;
+    }
+
+    private Node node(long nodeId) {
+        try {
+            return db.getNodeById(nodeId);
+        } catch (NotFoundException nfe) {
+            return null;
+        }
+    }
+
+    /**
+     * Accepted neighbours of the node a thread read last.
+     */
+    private class Neighbours {
+        private long nodeId = -1;
+        private long[] ids = new long[16];
+        private int size;
+
+        void load(long nodeId) {
+            this.nodeId = nodeId;
+            size = 0;
+            final Node node = node(nodeId);
+            if (node == null) return;
+            for (Relationship relationship : projection.relationships(node)) {
+                final long other = relationship.getOtherNode(node).getId();
+                if (!projection.acceptsNode(other)) continue;
+                if (size == ids.length) ids = Arrays.copyOf(ids, 2 * size);
+                ids[size++] = other;
+            }
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package org.neo4j.olap;
+
+/**
+ * Something that can enumerate all relationships of the store, e.g. to build a {@link CsrGraph}.
+ * Every call to {@link #accept(EdgeVisitor)} must report the same relationships.
+ *
+ * @author mh
+ * @since 19.12.12
+ */
+public interface EdgeSource {
+    long accept(EdgeVisitor visitor);
+}
@@ -0,0 +1,9 @@
+package org.neo4j.olap;
+
+/**
+ * @author mh
+ * @since 19.12.12
+ */
+public interface EdgeVisitor {
+    void visit(long relationshipId, long startNode, long endNode, int type);
+}
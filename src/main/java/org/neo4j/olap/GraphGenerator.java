@@ -0,0 +1,219 @@
+package org.neo4j.olap;
+
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates power law graphs for benchmarks and writes them into a store with the batch inserter.
+ * <ul>
+ * <li>{@link Model#RMAT} recursively picks one of the four quadrants of the adjacency matrix with the
+ * probabilities {@code a = skew, b = c = 0.4 * (1 - skew), d = 0.2 * (1 - skew)}, node ids are scrambled
+ * so the high degree nodes are not all at the start of the store and folded into the node count</li>
+ * <li>{@link Model#BA} preferential attachment, every node links to {@code degree / 2} earlier nodes,
+ * chosen like in Batagelj and Brandes' algorithm by copying the target of a random earlier edge end</li>
+ * </ul>
+ * The random numbers of every relationship are derived from the seed and its index only, so chunks are
+ * generated by all threads in parallel and the graph is the same for every thread count and machine.
+ * The batch inserter is not thread safe, so the chunks are inserted in order by the calling thread.
+ * Usage: GraphGenerator storeDir, configured by the {@code olap.gen.*} system properties.
+ *
+ * @author mh
+ * @since 06.01.13
+ */
+public class GraphGenerator implements EdgeSource {
+    public enum Model {RMAT, BA}
+
+    static final int CHUNK_SIZE = 1 << 20;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private final Model model;
+    private final long nodes;
+    private final long relationships;
+    private final int types;
+    private final long seed;
+    private final int threads;
+    private final int scale;
+    private final long multiplier;
+    // quadrant thresholds out of 65536
+    private final int a;
+    private final int ab;
+    private final int abc;
+
+    public GraphGenerator(Model model, long nodes, int degree, double skew, int types, long seed, int threads) {
+        if (nodes < 2 || nodes > Integer.MAX_VALUE) throw new IllegalArgumentException("Unsupported node count " + nodes);
+        this.model = model;
+        this.nodes = nodes;
+        this.types = types;
+        this.seed = seed;
+        this.threads = threads;
+        this.relationships = model == Model.BA ? nodes * Math.max(1, degree / 2) : nodes * degree / 2;
+        int scale = 1;
+        while (1L << scale < nodes) scale++;
+        this.scale = scale;
+        // odd multipliers are a bijection modulo 2^scale
+        this.multiplier = (mix(seed) & ((1L << scale) - 1)) | 1;
+        this.a = (int) (skew * 65536);
+        this.ab = (int) ((skew + 0.4 * (1 - skew)) * 65536);
+        this.abc = (int) ((skew + 0.8 * (1 - skew)) * 65536);
+    }
+
+    public static void main(String[] args) throws Exception {
+        final GraphGenerator generator = new GraphGenerator(
+                Model.valueOf(System.getProperty("olap.gen.model", Model.RMAT.name())),
+                Long.getLong("olap.gen.nodes", 10 * 1000 * 1000),
+                Integer.getInteger("olap.gen.degree", 20),
+                Double.parseDouble(System.getProperty("olap.gen.skew", "0.57")),
+                Integer.getInteger("olap.gen.types", 1),
+                Long.getLong("olap.gen.seed", 42),
+                Runtime.getRuntime().availableProcessors());
+        generator.generate(args[0], Runner.config());
+    }
+
+    /**
+     * Creates the nodes and relationships in a new store at {@code storeDir}.
+     */
+    public void generate(String storeDir, Map<String, String> config) {
+        long time = System.currentTimeMillis();
+        final BatchInserter inserter = BatchInserters.inserter(storeDir, config);
+        try {
+            final Map<String, Object> noProperties = Collections.emptyMap();
+            final long[] ids = new long[(int) nodes];
+            for (int i = 0; i < nodes; i++) {
+                ids[i] = inserter.createNode(noProperties);
+            }
+            System.out.printf("Created %d nodes in %d ms%n", nodes, System.currentTimeMillis() - time);
+            final RelationshipType[] relationshipTypes = new RelationshipType[types];
+            for (int t = 0; t < types; t++) {
+                relationshipTypes[t] = DynamicRelationshipType.withName("TYPE_" + t);
+            }
+            final long relTime = System.currentTimeMillis();
+            accept(new EdgeVisitor() {
+                public void visit(long relId, long start, long end, int type) {
+                    inserter.createRelationship(ids[(int) start], ids[(int) end], relationshipTypes[type], noProperties);
+                    if ((relId + 1) % (10 * CHUNK_SIZE) == 0) {
+                        final long millis = Math.max(1, System.currentTimeMillis() - relTime);
+                        System.out.printf("Created %d of %d relationships, %d per second%n", relId + 1, relationships, (relId + 1) * 1000 / millis);
+                    }
+                }
+            });
+        } finally {
+            inserter.shutdown();
+        }
+        System.out.printf("Generated %s graph of %d nodes %d relationships in %s in %d ms%n", model, nodes, relationships, storeDir, System.currentTimeMillis() - time);
+    }
+
+    /**
+     * Reports the relationships in order, with node ids in {@code [0, nodes)}, while the next chunks are
+     * generated in parallel.
+     */
+    public long accept(EdgeVisitor visitor) {
+        final long chunks = (relationships + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final LinkedList<Future<long[]>> pending = new LinkedList<Future<long[]>>();
+            long next = 0;
+            for (long chunk = 0; chunk < chunks; chunk++) {
+                // bounds the memory to a few chunks per thread
+                while (next < chunks && next < chunk + threads * 2) {
+                    pending.add(pool.submit(generateChunk(next++)));
+                }
+                final long[] edges = pending.removeFirst().get();
+                final long first = chunk * CHUNK_SIZE;
+                for (int i = 0; i < edges.length; i++) {
+                    final long edge = edges[i];
+                    visitor.visit(first + i, edge >>> 32, edge & 0xFFFFFFFFL, type(first + i));
+                }
+            }
+            return relationships;
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted generating relationships", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error generating relationships", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Callable<long[]> generateChunk(final long chunk) {
+        return new Callable<long[]>() {
+            public long[] call() {
+                final long first = chunk * CHUNK_SIZE;
+                final long[] edges = new long[(int) Math.min(CHUNK_SIZE, relationships - first)];
+                for (int i = 0; i < edges.length; i++) {
+                    edges[i] = model == Model.BA ? attach(first + i) : rmat(first + i);
+                }
+                return edges;
+            }
+        };
+    }
+
+    /**
+     * @return start and end node of relationship {@code index} packed into the high and low int of a long
+     */
+    long rmat(long index) {
+        long state = mix(seed ^ mix(index));
+        long row = 0, column = 0;
+        long bits = 0;
+        for (int bit = 0; bit < scale; bit++) {
+            // 16 random bits per level, four levels per random long
+            if ((bit & 3) == 0) {
+                state += GOLDEN_GAMMA;
+                bits = mix(state);
+            }
+            final int p = (int) (bits & 0xFFFF);
+            bits >>>= 16;
+            if (p >= ab) row |= 1L << bit;
+            if (p >= a && p < ab || p >= abc) column |= 1L << bit;
+        }
+        return scramble(row) % nodes << 32 | scramble(column) % nodes;
+    }
+
+    private long scramble(long id) {
+        return (id * multiplier) & ((1L << scale) - 1);
+    }
+
+    /**
+     * Edge end {@code 2k} of the virtual edge list is the source of relationship {@code k}, edge end
+     * {@code 2k+1} copies a random edge end before it, so nodes are picked proportional to their degree.
+     */
+    long attach(long index) {
+        final long perNode = relationships / nodes;
+        final long start = index / perNode;
+        long position = 2 * index + 1;
+        while ((position & 1) == 1) {
+            final long k = position >>> 1;
+            position = (mix(seed ^ mix(position)) >>> 1) % (2 * k + 1);
+        }
+        final long end = (position >>> 1) / perNode;
+        return start << 32 | end;
+    }
+
+    int type(long index) {
+        return types == 1 ? 0 : (int) ((mix(seed + index) >>> 1) % types);
+    }
+
+    public long getRelationshipCount() {
+        return relationships;
+    }
+
+    public long getNodeCount() {
+        return nodes;
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
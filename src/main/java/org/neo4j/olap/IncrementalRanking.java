@@ -0,0 +1,97 @@
+package org.neo4j.olap;
+
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps {@link WalkSegments} and their visit counts fresh inside the process that writes to the database: a
+ * {@link ChangeLog} records the changed relationships, every period the log is rolled and a {@link SegmentRepair}
+ * walks the affected segments again on the database. Both the segments and their {@link WalkSegments#countsFile}
+ * are mapped files, created by a {@link Runner} run with {@code olap.algorithm=SEGMENTS}.
+ *
+ * @author mh
+ * @since 15.01.13
+ */
+public class IncrementalRanking {
+    private final GraphDatabaseAPI db;
+    private final ChangeLog changeLog;
+    private final WalkSegments segments;
+    private final SegmentRepair repair;
+    private final File redo;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private long seed;
+
+    public IncrementalRanking(GraphDatabaseAPI db, Projection projection, String segmentFile, File logFile, int threads, long seed) throws IOException {
+        this.db = db;
+        this.segments = WalkSegments.openWritable(segmentFile);
+        this.changeLog = new ChangeLog(logFile);
+        this.repair = new SegmentRepair(segments, new ArrayStore(WalkSegments.countsFile(segmentFile).getPath()).map(true),
+                new DatabaseAdjacency(db, projection, segments.getMinNodeId(), segments.getNodeCount()), threads);
+        this.redo = SegmentRepair.redoFile(segmentFile);
+        this.seed = seed;
+        // a crash while applying left a redo file, it covers every rolled log as nothing was rolled since
+        if (repair.replay(redo)) {
+            for (File log : changeLog.rolledFiles()) {
+                log.delete();
+            }
+            redo.delete();
+        }
+    }
+
+    /**
+     * Records changes from now on and repairs every {@code periodSeconds}.
+     */
+    public void start(long periodSeconds) throws ExecutionException, InterruptedException, IOException {
+        db.registerTransactionEventHandler(changeLog);
+        // changes logged while the process was down
+        repair();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    repair();
+                } catch (Exception e) {
+                    System.err.printf("Repair of walk segments failed: %s%n", e);
+                }
+            }
+        }, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Applies the changes logged so far, rolled logs are only deleted once they were applied, so the changes of
+     * a failed repair are applied by the next one.
+     *
+     * @return the number of segments walked again
+     */
+    public synchronized long repair() throws IOException, ExecutionException, InterruptedException {
+        changeLog.roll();
+        final File[] logs = changeLog.rolledFiles();
+        final ChangeLog.Changes changes = new ChangeLog.Changes(segments.getMinNodeId(), segments.getNodeCount());
+        for (File log : logs) {
+            ChangeLog.read(log, changes);
+        }
+        if (changes.getOutside() > 0) {
+            System.err.printf("%d changed relationship ends outside the segments are not repaired, build the segments again%n", changes.getOutside());
+        }
+        final long repaired = repair.repair(changes, seed++, redo);
+        for (File log : logs) {
+            log.delete();
+        }
+        redo.delete();
+        return repaired;
+    }
+
+    public void stop() throws InterruptedException, ExecutionException, IOException {
+        db.unregisterTransactionEventHandler(changeLog);
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        repair();
+        changeLog.close();
+        if (changeLog.getLost() > 0) System.err.printf("%d changes could not be logged, build the segments again%n", changeLog.getLost());
+    }
+}
@@ -0,0 +1,100 @@
+package org.neo4j.olap;
+
+import org.neo4j.kernel.impl.core.StoreScanner;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sizes the {@code mapped_memory} windows of the store files from their sizes on disk and the memory outside of
+ * the heap. The budget is {@code olap.mapped} (e.g. {@code 8G}) or half of the physical memory not taken by the
+ * heap, the other half stays for off heap snapshots and the page cache. Files grow by {@link #GROWTH_PERCENT}
+ * while mapped.
+ * <p>
+ * If the store does not fit, the node and relationship store, which walks and scans read, are mapped first and
+ * the property stores share the rest. Within a group that does not fit each file gets its share of the size.
+ *
+ * @author mh
+ * @since 18.01.13
+ */
+public class MappedMemory {
+    static final int GROWTH_PERCENT = 10;
+    static final long DEFAULT_BUDGET = 1L << 30;
+    private static final long MEGABYTE = 1024 * 1024;
+
+    // in order of priority, files of a group share what is left for the group
+    static final String[][] GROUPS = {
+            {StoreScanner.NODE_STORE, StoreScanner.RELATIONSHIP_STORE},
+            {"neostore.propertystore.db", "neostore.propertystore.db.strings", "neostore.propertystore.db.arrays",
+                    "neostore.propertystore.db.index", "neostore.propertystore.db.index.keys"}
+    };
+
+    private MappedMemory() {
+    }
+
+    /**
+     * @return the {@code mapped_memory} settings for the store at {@code storeDir}
+     */
+    public static Map<String, String> forStore(String storeDir) {
+        final Map<String, Long> sizes = new LinkedHashMap<String, Long>();
+        for (String[] group : GROUPS) {
+            for (String name : group) {
+                sizes.put(name, new File(storeDir, name).length());
+            }
+        }
+        final String configured = System.getProperty("olap.mapped");
+        return settings(sizes, configured != null ? parseSize(configured) : budget());
+    }
+
+    static Map<String, String> settings(Map<String, Long> sizes, long budget) {
+        final Map<String, String> settings = new LinkedHashMap<String, String>();
+        long left = budget;
+        long total = 0;
+        for (String[] group : GROUPS) {
+            long needed = 0;
+            for (String name : group) {
+                needed += withGrowth(sizes.get(name));
+            }
+            for (String name : group) {
+                final long size = withGrowth(sizes.get(name));
+                final long mapped = needed <= left ? size : (long) ((double) left * size / needed);
+                // at least one megabyte, 0M disables the mapping
+                final long megabytes = Math.max(1, mapped / MEGABYTE);
+                settings.put(name + ".mapped_memory", megabytes + "M");
+                total += megabytes;
+                System.out.printf("%s %d MB mapped %d MB%n", name, sizes.get(name) / MEGABYTE, megabytes);
+            }
+            left = Math.max(0, left - needed);
+        }
+        System.out.printf("Mapped memory %d MB of budget %d MB%n", total, budget / MEGABYTE);
+        return settings;
+    }
+
+    // in whole megabytes
+    private static long withGrowth(Long size) {
+        return (size + size * GROWTH_PERCENT / 100 + MEGABYTE - 1) / MEGABYTE * MEGABYTE;
+    }
+
+    /**
+     * @return half of the physical memory not used by the heap, {@link #DEFAULT_BUDGET} if it is unknown
+     */
+    static long budget() {
+        final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (!(os instanceof com.sun.management.OperatingSystemMXBean)) return DEFAULT_BUDGET;
+        final long physical = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+        return Math.max(MEGABYTE, (physical - Runtime.getRuntime().maxMemory()) / 2);
+    }
+
+    /**
+     * @return the bytes of a size like {@code 512M}, with an optional suffix of K, M or G
+     */
+    static long parseSize(String size) {
+        final String value = size.trim().toUpperCase();
+        final char unit = value.charAt(value.length() - 1);
+        final int shift = unit == 'K' ? 10 : unit == 'M' ? 20 : unit == 'G' ? 30 : 0;
+        return Long.parseLong(shift == 0 ? value : value.substring(0, value.length() - 1)) << shift;
+    }
+}
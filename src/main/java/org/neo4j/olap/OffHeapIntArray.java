@@ -0,0 +1,126 @@
+package org.neo4j.olap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Long indexed int array kept outside of the java heap in segments of direct buffers,
+ * so it can grow beyond 2^31 entries without adding to GC pressure.
+ *
+ * @author mh
+ * @since 19.12.12
+ */
+public class OffHeapIntArray {
+    static final int SEGMENT_SHIFT = 28;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final IntBuffer[] segments;
+    private final long length;
+    // the file mappings behind the segments, null if they are not mapped
+    private final MappedByteBuffer[] mapped;
+
+    public OffHeapIntArray(IntBuffer[] segments, long length) {
+        this(segments, length, null);
+    }
+
+    OffHeapIntArray(IntBuffer[] segments, long length, MappedByteBuffer[] mapped) {
+        this.segments = segments;
+        this.length = length;
+        this.mapped = mapped;
+    }
+
+    public static OffHeapIntArray allocate(long length) {
+        final IntBuffer[] segments = new IntBuffer[segmentCount(length)];
+        for (int i = 0; i < segments.length; i++) {
+            final int size = segmentLength(length, i);
+            segments[i] = ByteBuffer.allocateDirect(size * (Integer.SIZE / 8)).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return new OffHeapIntArray(segments, length);
+    }
+
+    static int segmentCount(long length) {
+        return (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+    }
+
+    static int segmentLength(long length, int segment) {
+        return (int) Math.min(SEGMENT_SIZE, length - ((long) segment << SEGMENT_SHIFT));
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public int get(long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    public void set(long index, int value) {
+        segments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), value);
+    }
+
+    public int increment(long index) {
+        final IntBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)];
+        final int offset = (int) (index & SEGMENT_MASK);
+        final int value = segment.get(offset) + 1;
+        segment.put(offset, value);
+        return value;
+    }
+
+    public void get(long index, int[] target, int offset, int length) {
+        while (length > 0) {
+            final IntBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)].duplicate();
+            final int position = (int) (index & SEGMENT_MASK);
+            final int chunk = Math.min(length, segment.capacity() - position);
+            segment.position(position);
+            segment.get(target, offset, chunk);
+            index += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    public void put(long index, int[] source, int offset, int length) {
+        while (length > 0) {
+            final IntBuffer segment = segments[(int) (index >>> SEGMENT_SHIFT)].duplicate();
+            final int position = (int) (index & SEGMENT_MASK);
+            final int chunk = Math.min(length, segment.capacity() - position);
+            segment.position(position);
+            segment.put(source, offset, chunk);
+            index += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    public void copyTo(OffHeapIntArray target) {
+        if (target.length != length) throw new IllegalArgumentException("Length mismatch " + length + " != " + target.length);
+        for (int i = 0; i < segments.length; i++) {
+            target.segments[i].duplicate().put(segments[i].duplicate());
+        }
+    }
+
+    public void fill(int value) {
+        for (IntBuffer segment : segments) {
+            for (int i = 0; i < segment.capacity(); i++) {
+                segment.put(i, value);
+            }
+        }
+    }
+
+    /**
+     * Writes the changes of a writable file mapping to the disk, does nothing for arrays that are not mapped.
+     */
+    public void force() {
+        if (mapped == null) return;
+        for (MappedByteBuffer buffer : mapped) {
+            buffer.force();
+        }
+    }
+
+    IntBuffer[] segments() {
+        return segments;
+    }
+}
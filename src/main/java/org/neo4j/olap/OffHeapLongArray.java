@@ -0,0 +1,46 @@
+package org.neo4j.olap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Long indexed long array kept outside of the java heap, see {@link OffHeapIntArray}.
+ *
+ * @author mh
+ * @since 19.12.12
+ */
+public class OffHeapLongArray {
+    static final int SEGMENT_SHIFT = 27;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final LongBuffer[] segments;
+    private final long length;
+
+    public OffHeapLongArray(LongBuffer[] segments, long length) {
+        this.segments = segments;
+        this.length = length;
+    }
+
+    public static OffHeapLongArray allocate(long length) {
+        final LongBuffer[] segments = new LongBuffer[(int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            final int size = (int) Math.min(SEGMENT_SIZE, length - ((long) i << SEGMENT_SHIFT));
+            segments[i] = ByteBuffer.allocateDirect(size * (Long.SIZE / 8)).order(ByteOrder.nativeOrder()).asLongBuffer();
+        }
+        return new OffHeapLongArray(segments, length);
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public long get(long index) {
+        return segments[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+    }
+
+    public void set(long index, long value) {
+        segments[(int) (index >>> SEGMENT_SHIFT)].put((int) (index & SEGMENT_MASK), value);
+    }
+}
@@ -0,0 +1,278 @@
+package org.neo4j.olap;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+
+/**
+ * Live metrics of the running analysis: round progress, walk and preload throughput per thread, walk lengths,
+ * counter flush latencies and memory and GC figures. Worker threads only write their own {@link ThreadMetrics},
+ * a reporter thread samples them periodically, prints a summary line and keeps the rates for the
+ * {@link OlapMetricsMBean} registered as {@value #OBJECT_NAME}.
+ *
+ * @author mh
+ * @since 07.01.13
+ */
+public class OlapMetrics implements OlapMetricsMBean {
+    public static final String OBJECT_NAME = "org.neo4j.olap:type=Metrics";
+    public static final OlapMetrics INSTANCE = new OlapMetrics();
+
+    private static final ThreadLocal<ThreadMetrics> CURRENT = new ThreadLocal<ThreadMetrics>() {
+        @Override
+        protected ThreadMetrics initialValue() {
+            final ThreadMetrics metrics = new ThreadMetrics(Thread.currentThread());
+            INSTANCE.threads.add(metrics);
+            return metrics;
+        }
+    };
+
+    private final List<ThreadMetrics> threads = new CopyOnWriteArrayList<ThreadMetrics>();
+    // totals of threads that ended
+    private final CountHistogram retiredWalkLengths = new CountHistogram();
+    private final CountHistogram retiredFlushMicros = new CountHistogram();
+    private long retiredWalks;
+    private long retiredHits;
+    private long retiredRecords;
+
+    private volatile String round = "none";
+    private volatile long roundStart;
+    private volatile long roundBudget;
+    private volatile long roundMillis;
+    private volatile long roundWalksAtStart;
+
+    private Map<ThreadMetrics, Long> lastThreadHits = new IdentityHashMap<ThreadMetrics, Long>();
+    private long lastSample = System.currentTimeMillis();
+    private long lastWalks;
+    private long lastHits;
+    private long lastRecords;
+    private volatile double walksPerSecond;
+    private volatile double hitsPerSecond;
+    private volatile double recordsPerSecond;
+    private volatile String[] threadHitsPerSecond = new String[0];
+    private volatile double slowestThread;
+    private volatile double fastestThread;
+    private ScheduledExecutorService reporter;
+
+    /**
+     * @return the metrics of the calling thread, registered on first use
+     */
+    public static ThreadMetrics forCurrentThread() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param walkBudget walks of the round, or 0 for a timed round of {@code millis}
+     */
+    public void startRound(long minNodeId, long nodeCount, long walkBudget, long millis) {
+        roundWalksAtStart = getWalks();
+        roundBudget = walkBudget;
+        roundMillis = millis;
+        roundStart = System.currentTimeMillis();
+        round = minNodeId + " + " + nodeCount;
+    }
+
+    public String getRound() {
+        return round;
+    }
+
+    public double getRoundProgress() {
+        if (roundStart == 0) return 0;
+        if (roundBudget > 0) return Math.min(1, (getWalks() - roundWalksAtStart) / (double) roundBudget);
+        return Math.min(1, (System.currentTimeMillis() - roundStart) / (double) Math.max(1, roundMillis));
+    }
+
+    public synchronized long getWalks() {
+        long walks = retiredWalks;
+        for (ThreadMetrics thread : threads) {
+            walks += thread.getWalks();
+        }
+        return walks;
+    }
+
+    public synchronized long getHits() {
+        long hits = retiredHits;
+        for (ThreadMetrics thread : threads) {
+            hits += thread.getHits();
+        }
+        return hits;
+    }
+
+    public synchronized long getRecords() {
+        long records = retiredRecords;
+        for (ThreadMetrics thread : threads) {
+            records += thread.getRecords();
+        }
+        return records;
+    }
+
+    public double getHitsPerSecond() {
+        return hitsPerSecond;
+    }
+
+    public double getWalksPerSecond() {
+        return walksPerSecond;
+    }
+
+    public double getRecordsPerSecond() {
+        return recordsPerSecond;
+    }
+
+    public double getWalkLengthP50() {
+        return getWalkLengths().quantile(0.5);
+    }
+
+    public double getWalkLengthP99() {
+        return getWalkLengths().quantile(0.99);
+    }
+
+    public double getFlushLatencyP99Micros() {
+        return getFlushMicros().quantile(0.99);
+    }
+
+    public synchronized CountHistogram getWalkLengths() {
+        final CountHistogram histogram = new CountHistogram();
+        histogram.merge(retiredWalkLengths);
+        for (ThreadMetrics thread : threads) {
+            histogram.merge(thread.getWalkLengths());
+        }
+        return histogram;
+    }
+
+    public synchronized CountHistogram getFlushMicros() {
+        final CountHistogram histogram = new CountHistogram();
+        histogram.merge(retiredFlushMicros);
+        for (ThreadMetrics thread : threads) {
+            histogram.merge(thread.getFlushMicros());
+        }
+        return histogram;
+    }
+
+    public long getHeapUsedMB() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / (1024 * 1024);
+    }
+
+    public long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    public long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    public String[] getThreadHitsPerSecond() {
+        return threadHitsPerSecond;
+    }
+
+    /**
+     * Computes the rates since the last sample and folds ended threads into the totals.
+     */
+    synchronized void sample() {
+        final long now = System.currentTimeMillis();
+        final double seconds = Math.max(1, now - lastSample) / 1000.0;
+        final Map<ThreadMetrics, Long> threadHits = new IdentityHashMap<ThreadMetrics, Long>();
+        final List<String> rates = new ArrayList<String>();
+        double min = Double.MAX_VALUE, max = 0;
+        for (ThreadMetrics thread : threads) {
+            final long hits = thread.getHits();
+            final Long last = lastThreadHits.get(thread);
+            final double rate = (hits - (last == null ? 0 : last)) / seconds;
+            if (rate > 0) {
+                rates.add(String.format("%s %.0f", thread.getName(), rate));
+                min = Math.min(min, rate);
+                max = Math.max(max, rate);
+            }
+            if (thread.isAlive()) {
+                threadHits.put(thread, hits);
+            } else {
+                retire(thread);
+            }
+        }
+        lastThreadHits = threadHits;
+        final long walks = getWalks();
+        final long hits = getHits();
+        final long records = getRecords();
+        walksPerSecond = (walks - lastWalks) / seconds;
+        hitsPerSecond = (hits - lastHits) / seconds;
+        recordsPerSecond = (records - lastRecords) / seconds;
+        threadHitsPerSecond = rates.toArray(new String[rates.size()]);
+        slowestThread = rates.isEmpty() ? 0 : min;
+        fastestThread = max;
+        lastWalks = walks;
+        lastHits = hits;
+        lastRecords = records;
+        lastSample = now;
+    }
+
+    private void retire(ThreadMetrics thread) {
+        threads.remove(thread);
+        retiredWalks += thread.getWalks();
+        retiredHits += thread.getHits();
+        retiredRecords += thread.getRecords();
+        retiredWalkLengths.merge(thread.getWalkLengths());
+        retiredFlushMicros.merge(thread.getFlushMicros());
+    }
+
+    /**
+     * Prints the rates of the threads, the slowest and fastest show unbalanced partitions.
+     */
+    public void report() {
+        sample();
+        System.out.printf("Round %s %.1f%% walks %.0f/s hits %.0f/s threads %d min %.0f max %.0f hits/s, preload %.0f records/s, walk length p50 %.0f p99 %.0f, flush p99 %.0f us, heap %d MB gc %d in %d ms%n",
+                round, getRoundProgress() * 100, walksPerSecond, hitsPerSecond, threadHitsPerSecond.length,
+                slowestThread, fastestThread, recordsPerSecond, getWalkLengthP50(), getWalkLengthP99(),
+                getFlushLatencyP99Micros(), getHeapUsedMB(), getGcCount(), getGcMillis());
+    }
+
+    /**
+     * Registers the MBean and reports every {@code seconds}, 0 only registers the MBean.
+     */
+    public synchronized void start(long seconds) {
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            System.out.println("Could not register metrics MBean " + e.getMessage());
+        }
+        if (seconds <= 0 || reporter != null) return;
+        reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "olap-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        reporter.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    report();
+                } catch (Exception e) {
+                    System.out.println("Metrics report failed " + e.getMessage());
+                }
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop() {
+        if (reporter != null) reporter.shutdownNow();
+        reporter = null;
+    }
+}
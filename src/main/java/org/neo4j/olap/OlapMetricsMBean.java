@@ -0,0 +1,39 @@
+package org.neo4j.olap;
+
+/**
+ * JMX view of {@link OlapMetrics}, rates are per second over the last reporting interval.
+ *
+ * @author mh
+ * @since 07.01.13
+ */
+public interface OlapMetricsMBean {
+    String getRound();
+
+    double getRoundProgress();
+
+    long getWalks();
+
+    long getHits();
+
+    double getHitsPerSecond();
+
+    double getWalksPerSecond();
+
+    double getRecordsPerSecond();
+
+    long getRecords();
+
+    double getWalkLengthP50();
+
+    double getWalkLengthP99();
+
+    double getFlushLatencyP99Micros();
+
+    long getHeapUsedMB();
+
+    long getGcCount();
+
+    long getGcMillis();
+
+    String[] getThreadHitsPerSecond();
+}
@@ -16,7 +16,7 @@ import java.util.Random;
  * @since 12.12.12
  */
 public abstract class OlapRunner implements Runnable {
-    protected final Random random = new Random();
+    protected final Random random = new XorShiftRandom();
 
     protected int id;
 
@@ -24,20 +24,29 @@ public abstract class OlapRunner implements Runnable {
     protected final int timeInMillis;
 
     protected final long maxNodeCount;
-    protected int[] nodes;
+    protected final VisitCounter counter;
     protected volatile long nodeCount = 0;
     protected volatile long hitCount = 0;
     private final long minNodeId;
+    protected Projection projection = Projection.ALL;
 
-    public OlapRunner(int timeInSeconds, int id, final int[] nodes, GraphDatabaseAPI db, long minNodeId, final long nodeCount) {
+    public OlapRunner(int timeInSeconds, int id, final VisitCounter counter, GraphDatabaseAPI db, long minNodeId, final long nodeCount) {
         this.minNodeId = minNodeId;
         this.timeInMillis = timeInSeconds * 1000;
         this.id = id;
-        this.nodes = nodes;
+        this.counter = counter;
         this.db = db;
         this.maxNodeCount = nodeCount;
     }
 
+    /**
+     * Restricts the runner to the relationships and nodes of a resolved projection.
+     */
+    public OlapRunner withProjection(Projection projection) {
+        this.projection = projection;
+        return this;
+    }
+
     protected boolean isInNodeRange(long id) {
         return id >= minNodeId && id < minNodeId + maxNodeCount;
     }
@@ -52,16 +61,20 @@ public abstract class OlapRunner implements Runnable {
         while (it.hasNext()) {
             final Node node = it.next();
             if (it.hasNext()) { // ignore last
-                nodes[((int) node.getId())]++;
+                counter.increment(node.getId());
             }
         }
     }
 
+    protected long randomNodeId() {
+        return minNodeId + (long) (random.nextDouble() * maxNodeCount);
+    }
+
     protected Node randomNode() {
         while (true) {
             try {
                 final long id = minNodeId + ( random.nextLong() % maxNodeCount);
-                if (isInNodeRange(id)) return db.getNodeById(id);
+                if (isInNodeRange(id) && projection.acceptsNode(id)) return db.getNodeById(id);
             } catch (NotFoundException nfe) {
 
             }
@@ -74,11 +87,11 @@ public abstract class OlapRunner implements Runnable {
 
     class RelationshipFilter extends FilteringIterable<Relationship> {
         RelationshipFilter(final Node node) {
-            super(node.getRelationships(), new Predicate<Relationship>() {
+            super(projection.relationships(node), new Predicate<Relationship>() {
                 @Override
                 public boolean accept(Relationship item) {
-                    final Node otherNode = item.getOtherNode(node);
-                    return isInNodeRange(otherNode.getId());
+                    final long otherId = item.getOtherNode(node).getId();
+                    return isInNodeRange(otherId) && projection.acceptsNode(otherId);
                 }
             });
         }
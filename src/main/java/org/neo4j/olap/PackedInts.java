@@ -0,0 +1,199 @@
+package org.neo4j.olap;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec for blocks of up to {@link #BLOCK_SIZE} ints, for counts that are mostly zero or small. Every block is
+ * encoded in the smallest of three modes, named by its first byte:
+ * <ul>
+ * <li>{@link #ZEROS}: all entries are zero, nothing follows</li>
+ * <li>{@link #BITS}: frame of reference, the zigzag varint minimum, the bit width and the differences to the
+ * minimum packed with that width, little endian</li>
+ * <li>{@link #RUNS}: pairs of varint counts of zeros and of following non zero entries, the latter as varints</li>
+ * </ul>
+ * Blocks do not depend on each other, so ranges of them can be encoded and decoded in parallel.
+ *
+ * @author mh
+ * @since 17.01.13
+ */
+class PackedInts {
+    static final int BLOCK_SIZE = 1 << 12;
+    static final byte ZEROS = 0;
+    static final byte BITS = 1;
+    static final byte RUNS = 2;
+
+    private PackedInts() {
+    }
+
+    /**
+     * @return an upper bound of the bytes of a block of {@code count} entries
+     */
+    static int maxBytes(int count) {
+        return 2 + 10 + 5 * count;
+    }
+
+    /**
+     * Appends the block of {@code values[offset, offset + count)} to {@code target}.
+     *
+     * @return the bytes written
+     */
+    static int encode(int[] values, int offset, int count, ByteBuffer target) {
+        final int start = target.position();
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = offset; i < offset + count; i++) {
+            if (values[i] < min) min = values[i];
+            if (values[i] > max) max = values[i];
+        }
+        if (count == 0 || (min == 0 && max == 0)) {
+            target.put(ZEROS);
+            return 1;
+        }
+        final int width = 64 - Long.numberOfLeadingZeros((long) max - min);
+        final long bitsSize = 2 + varintSize(zigzag(min)) + ((long) count * width + 7) / 8;
+        if (runsSize(values, offset, count) < bitsSize) {
+            target.put(RUNS);
+            writeRuns(values, offset, count, target);
+        } else {
+            target.put(BITS);
+            writeVarint(target, zigzag(min));
+            target.put((byte) width);
+            writeBits(values, offset, count, min, width, target);
+        }
+        return target.position() - start;
+    }
+
+    /**
+     * Decodes a block of {@code count} entries at the position of {@code source} into {@code target}.
+     */
+    static void decode(ByteBuffer source, int[] target, int offset, int count) {
+        final byte mode = source.get();
+        if (mode == ZEROS) {
+            for (int i = offset; i < offset + count; i++) {
+                target[i] = 0;
+            }
+        } else if (mode == BITS) {
+            final int min = unzigzag(readVarint(source));
+            readBits(source, target, offset, count, min, source.get());
+        } else if (mode == RUNS) {
+            readRuns(source, target, offset, count);
+        } else {
+            throw new IllegalStateException("Unknown block mode " + mode);
+        }
+    }
+
+    private static long runsSize(int[] values, int offset, int count) {
+        long size = 0;
+        int i = offset;
+        final int end = offset + count;
+        while (i < end) {
+            final int zerosStart = i;
+            while (i < end && values[i] == 0) i++;
+            final int literalsStart = i;
+            while (i < end && values[i] != 0) {
+                size += varintSize(values[i] & 0xFFFFFFFFL);
+                i++;
+            }
+            size += varintSize(literalsStart - zerosStart) + varintSize(i - literalsStart);
+        }
+        return size;
+    }
+
+    private static void writeRuns(int[] values, int offset, int count, ByteBuffer target) {
+        int i = offset;
+        final int end = offset + count;
+        while (i < end) {
+            final int zerosStart = i;
+            while (i < end && values[i] == 0) i++;
+            final int literalsStart = i;
+            while (i < end && values[i] != 0) i++;
+            writeVarint(target, literalsStart - zerosStart);
+            writeVarint(target, i - literalsStart);
+            for (int j = literalsStart; j < i; j++) {
+                writeVarint(target, values[j] & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    private static void readRuns(ByteBuffer source, int[] target, int offset, int count) {
+        int i = offset;
+        final int end = offset + count;
+        while (i < end) {
+            final int zeros = (int) readVarint(source);
+            for (int j = 0; j < zeros; j++) {
+                target[i++] = 0;
+            }
+            final int literals = (int) readVarint(source);
+            for (int j = 0; j < literals; j++) {
+                target[i++] = (int) readVarint(source);
+            }
+        }
+    }
+
+    private static void writeBits(int[] values, int offset, int count, int min, int width, ByteBuffer target) {
+        long buffer = 0;
+        int bits = 0;
+        for (int i = offset; i < offset + count; i++) {
+            buffer |= ((long) values[i] - min) << bits;
+            bits += width;
+            while (bits >= 8) {
+                target.put((byte) buffer);
+                buffer >>>= 8;
+                bits -= 8;
+            }
+        }
+        if (bits > 0) target.put((byte) buffer);
+    }
+
+    private static void readBits(ByteBuffer source, int[] target, int offset, int count, int min, int width) {
+        final long mask = (1L << width) - 1;
+        long buffer = 0;
+        int bits = 0;
+        for (int i = offset; i < offset + count; i++) {
+            while (bits < width) {
+                buffer |= (source.get() & 0xFFL) << bits;
+                bits += 8;
+            }
+            target[i] = (int) (min + (buffer & mask));
+            buffer >>>= width;
+            bits -= width;
+        }
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeVarint(ByteBuffer target, long value) {
+        while ((value & ~0x7FL) != 0) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    private static long readVarint(ByteBuffer source) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = source.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
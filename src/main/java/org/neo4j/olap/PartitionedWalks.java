@@ -0,0 +1,241 @@
+package org.neo4j.olap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Random walks over a graph that does not fit into memory. The node ids are split into partitions of which
+ * only one is loaded at a time. A walk that leaves the loaded partition is spilled to the {@link WalkQueue}
+ * of the partition it moves to and continues when that partition is loaded, instead of being dropped.
+ * <p>
+ * The first sweep loads every partition and starts its share of the walks, proportional to its node count.
+ * Further sweeps load only the partitions with waiting walks until all walks ended or {@code maxSweeps}
+ * was reached. Memory is bounded by one partition's snapshot plus the spill buffers of the threads.
+ * Fresh walks are seeded per partition and chunk, the order in which spilled walks continue depends on
+ * the threads.
+ *
+ * @author mh
+ * @since 04.01.13
+ */
+public class PartitionedWalks {
+    public static final int DEFAULT_MAX_SWEEPS = 100;
+    static final int SPILL_BATCH = 1024;
+    private static final int WALKS_PER_CHUNK = WalkScheduler.DEFAULT_WALKS_PER_CHUNK;
+
+    private final EdgeSource edges;
+    private final Projection projection;
+    private final long maxNodeId;
+    private final long nodesPerPartition;
+    private final int partitions;
+    private final VisitCounters.Mode counterMode;
+    private final int threads;
+    private final WalkQueue[] queues;
+    private int maxSweeps = DEFAULT_MAX_SWEEPS;
+    private boolean compressed;
+    private long spilled;
+    private long dropped;
+    private int sweeps;
+    private int loads;
+
+    public PartitionedWalks(EdgeSource edges, long maxNodeId, long nodesPerPartition, VisitCounters.Mode counterMode, int threads, File spillDir) {
+        this(edges, Projection.ALL, maxNodeId, nodesPerPartition, counterMode, threads, spillDir);
+    }
+
+    /**
+     * Walks the relationships of a resolved {@link Projection} only.
+     */
+    public PartitionedWalks(EdgeSource edges, Projection projection, long maxNodeId, long nodesPerPartition, VisitCounters.Mode counterMode, int threads, File spillDir) {
+        this.edges = edges;
+        this.projection = projection;
+        this.maxNodeId = maxNodeId;
+        this.nodesPerPartition = nodesPerPartition;
+        this.partitions = (int) ((maxNodeId + nodesPerPartition - 1) / nodesPerPartition);
+        this.counterMode = counterMode;
+        this.threads = threads;
+        spillDir.mkdirs();
+        this.queues = new WalkQueue[partitions];
+        for (int p = 0; p < partitions; p++) {
+            queues[p] = new WalkQueue(new File(spillDir, String.format("walks_%d.queue", p)));
+        }
+    }
+
+    public void setMaxSweeps(int maxSweeps) {
+        this.maxSweeps = maxSweeps;
+    }
+
+    /**
+     * Loads partitions as {@link CompressedGraph}, so larger partitions fit into memory.
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Runs {@code walks} walks with uniformly distributed starts and adds the visits to {@code nodes}.
+     */
+    public void run(int[] nodes, long walks, long seed) throws ExecutionException, InterruptedException, IOException {
+        long time = System.currentTimeMillis();
+        try {
+            for (sweeps = 0; sweeps < maxSweeps; sweeps++) {
+                final long pending = pending();
+                if (sweeps > 0 && pending == 0) break;
+                final long sweepTime = System.currentTimeMillis();
+                final long spilledBefore = spilled;
+                int loaded = 0;
+                for (int p = 0; p < partitions; p++) {
+                    final long minNodeId = p * nodesPerPartition;
+                    final long nodeCount = Math.min(nodesPerPartition, maxNodeId - minNodeId);
+                    final long fresh = sweeps == 0 ? share(walks, minNodeId, nodeCount) : 0;
+                    if (fresh == 0 && queues[p].size() == 0) continue;
+                    runPartition(nodes, p, minNodeId, nodeCount, fresh, seed);
+                    loaded++;
+                }
+                loads += loaded;
+                System.out.printf("Sweep %d loaded %d of %d partitions, %d walks waiting before, %d spilled in %d ms%n",
+                        sweeps, loaded, partitions, pending, spilled - spilledBefore, System.currentTimeMillis() - sweepTime);
+            }
+            dropped = pending();
+        } finally {
+            for (WalkQueue queue : queues) {
+                queue.discard();
+            }
+        }
+        System.out.printf("Partitioned walks: %d sweeps %d partition loads, %d walks spilled (%d MB), %d dropped in %d ms%n",
+                sweeps, loads, spilled, getSpilledBytes() / (1024 * 1024), dropped, System.currentTimeMillis() - time);
+    }
+
+    private long share(long walks, long minNodeId, long nodeCount) {
+        // cumulative rounding, so the shares add up to the budget
+        return walks * (minNodeId + nodeCount) / maxNodeId - walks * minNodeId / maxNodeId;
+    }
+
+    private long pending() {
+        long pending = 0;
+        for (WalkQueue queue : queues) {
+            pending += queue.size();
+        }
+        return pending;
+    }
+
+    private void runPartition(int[] nodes, final int partition, long minNodeId, long nodeCount, final long fresh, final long seed) throws ExecutionException, InterruptedException {
+        final Adjacency graph = compressed ? projection.compressedSnapshot(edges, minNodeId, nodeCount, threads) : projection.snapshot(edges, minNodeId, nodeCount);
+        final VisitCounters counters = VisitCounters.create(counterMode, minNodeId, nodeCount, threads);
+        final long chunks = (fresh + WALKS_PER_CHUNK - 1) / WALKS_PER_CHUNK;
+        final AtomicLong nextChunk = new AtomicLong();
+        final AtomicLong spills = new AtomicLong();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Long>> futures = new ArrayList<Future<Long>>(threads);
+            for (int i = 0; i < threads; i++) {
+                final int worker = i;
+                final VisitCounter counter = counters.forThread(i);
+                futures.add(pool.submit(new Callable<Long>() {
+                    public Long call() throws IOException {
+                        final Spill spill = new Spill();
+                        final RandomWalker walker = new RandomWalker(graph, counter, RandomWalker.RESTART_PROBABILITY, spill);
+                        final Random random = new XorShiftRandom();
+                        long hits = 0;
+                        long chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                            random.setSeed(WalkScheduler.chunkSeed(seed, partition * (long) Integer.MAX_VALUE + chunk));
+                            final long count = Math.min(WALKS_PER_CHUNK, fresh - chunk * WALKS_PER_CHUNK);
+                            for (long w = 0; w < count; w++) {
+                                hits += walker.walk(walker.randomStart(random), random);
+                            }
+                            spill.flush();
+                        }
+                        random.setSeed(WalkScheduler.chunkSeed(seed + sweeps, partition * (long) threads + worker));
+                        final long[] waiting = new long[SPILL_BATCH];
+                        int count;
+                        while ((count = queues[partition].take(waiting)) > 0) {
+                            for (int w = 0; w < count; w++) {
+                                hits += walker.resume(waiting[w], random);
+                            }
+                            spill.flush();
+                        }
+                        spill.flush();
+                        counter.flush();
+                        spills.addAndGet(spill.count);
+                        return hits;
+                    }
+                }));
+            }
+            for (Future<Long> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        counters.mergeInto(nodes);
+        spilled += spills.get();
+    }
+
+    public long getSpilled() {
+        return spilled;
+    }
+
+    public long getSpilledBytes() {
+        long bytes = 0;
+        for (WalkQueue queue : queues) {
+            bytes += queue.getSpilledBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return walks still waiting after the last sweep
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public int getSweeps() {
+        return sweeps;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Buffers the walks leaving the partition per target partition and appends them to its queue in batches.
+     */
+    private class Spill implements RandomWalker.Handoff {
+        private final long[][] buffers = new long[partitions][];
+        private final int[] sizes = new int[partitions];
+        private long count;
+
+        public void handOff(long nodeId) {
+            if (nodeId < 0 || nodeId >= maxNodeId) return;
+            final int partition = (int) (nodeId / nodesPerPartition);
+            if (buffers[partition] == null) buffers[partition] = new long[SPILL_BATCH];
+            buffers[partition][sizes[partition]++] = nodeId;
+            count++;
+            if (sizes[partition] == SPILL_BATCH) append(partition);
+        }
+
+        void flush() {
+            for (int p = 0; p < partitions; p++) {
+                if (sizes[p] > 0) append(p);
+            }
+        }
+
+        private void append(int partition) {
+            try {
+                queues[partition].append(buffers[partition], sizes[partition]);
+                sizes[partition] = 0;
+            } catch (IOException e) {
+                throw new RuntimeException("Error spilling walks to partition " + partition, e);
+            }
+        }
+    }
+}
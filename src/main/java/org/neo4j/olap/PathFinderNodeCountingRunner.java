@@ -13,8 +13,8 @@ import org.neo4j.kernel.GraphDatabaseAPI;
 public class PathFinderNodeCountingRunner extends OlapRunner {
     private final PathFinder<Path> pathFinder;
 
-    public PathFinderNodeCountingRunner(GraphDatabaseAPI db, int id, long minNodeId, long nodeCount, int timeInSeconds, final int[] nodes, int maxDepth) {
-        super(timeInSeconds, id, nodes, db, minNodeId, nodeCount);
+    public PathFinderNodeCountingRunner(GraphDatabaseAPI db, int id, long minNodeId, long nodeCount, int timeInSeconds, final VisitCounter counter, int maxDepth) {
+        super(timeInSeconds, id, counter, db, minNodeId, nodeCount);
         pathFinder = GraphAlgoFactory.shortestPath(new PathExpander() {
             @Override
             public Iterable<Relationship> expand(Path path, BranchState state) {
@@ -34,15 +34,18 @@ public class PathFinderNodeCountingRunner extends OlapRunner {
 
     public void run() {
         long time = System.currentTimeMillis();
+        final ThreadMetrics metrics = OlapMetrics.forCurrentThread();
         while (true) {
             final Iterable<Path> paths = pathFinder.findAllPaths(randomNode(), randomNode());
             for (Path path : paths) {
                 hitCount++;
                 countNodes(path);
                 nodeCount += path.length()+1;
+                metrics.walked(Math.max(0, path.length() - 1), path.length());
             }
             if (System.currentTimeMillis() - time > timeInMillis) break;
         }
+        counter.flush();
         System.out.printf("Thread %d In %d seconds %d paths %d nodes %n", id, (System.currentTimeMillis() - time)/1000, getHitCount(), nodeCount);
     }
 
@@ -0,0 +1,244 @@
+package org.neo4j.olap;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Betweenness estimation by sampling node pairs, one instance per thread. For a pair {@code (s, t)} a
+ * bidirectional breadth first search expands the smaller frontier a level at a time, counting the shortest
+ * paths reaching every node, until the frontiers meet. The paths are never materialized: like in Brandes'
+ * dependency accumulation the path counts towards the other end are summed back over the search levels, so
+ * every inner node {@code v} gets its share {@code sigma_s(v) * sigma_t(v) / sigma_st} of the pair's shortest
+ * paths. The share is added to the {@link VisitCounter} in fixed point with {@link #SCALE} steps per path,
+ * rounded randomly so that small shares are not lost.
+ * <p>
+ * On a directed snapshot the search from {@code t} follows the relationships backwards through a snapshot of the
+ * reversed projection, on an undirected one both searches share the same snapshot.
+ * <p>
+ * Frontiers are primitive arrays of node indexes, visited nodes are kept in bitsets, all are allocated once
+ * and only the entries touched by a search are reset. Nodes outside the range of the {@link Adjacency}
+ * are ignored.
+ *
+ * @author mh
+ * @since 09.01.13
+ */
+public class PathSampler {
+    public static final int SCALE = 16;
+    // distance, path count, queue entry and visited bit of both searches, rounded up
+    public static final int BYTES_PER_NODE = 2 * (Integer.SIZE + Double.SIZE + Integer.SIZE + 1) / 8 + 1;
+
+    private final Adjacency graph;
+    private final VisitCounter counter;
+    private final int maxDepth;
+    private final long minNodeId;
+    private final Side forward;
+    private final Side backward;
+    private double paths;
+    private int length;
+
+    public PathSampler(Adjacency graph, VisitCounter counter, int maxDepth) {
+        this(graph, graph, counter, maxDepth);
+    }
+
+    /**
+     * @param reverse the same node range with the relationships of {@code graph} reversed
+     */
+    public PathSampler(Adjacency graph, Adjacency reverse, VisitCounter counter, int maxDepth) {
+        if (graph.getNodeCount() > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many nodes " + graph.getNodeCount());
+        if (reverse.getMinNodeId() != graph.getMinNodeId() || reverse.getNodeCount() != graph.getNodeCount()) {
+            throw new IllegalArgumentException("Reversed snapshot of nodes " + reverse.getMinNodeId() + " + " + reverse.getNodeCount()
+                    + " does not match " + graph.getMinNodeId() + " + " + graph.getNodeCount());
+        }
+        this.graph = graph;
+        this.counter = counter;
+        this.maxDepth = maxDepth;
+        this.minNodeId = graph.getMinNodeId();
+        final int nodeCount = (int) graph.getNodeCount();
+        this.forward = new Side(graph, nodeCount);
+        this.backward = new Side(reverse, nodeCount);
+    }
+
+    /**
+     * Counts the shortest paths between {@code source} and {@code target} of at most {@code maxDepth}
+     * relationships and adds the inner nodes' dependencies to the counter.
+     *
+     * @return the number of shortest paths, 0 if there are none
+     */
+    public long sample(long source, long target, Random random) {
+        paths = 0;
+        length = 0;
+        if (source == target || !graph.contains(source) || !graph.contains(target)) return 0;
+        try {
+            forward.start((int) (source - minNodeId));
+            backward.start((int) (target - minNodeId));
+            while (forward.depth + backward.depth < maxDepth) {
+                final Side side = forward.frontierSize() <= backward.frontierSize() ? forward : backward;
+                if (side.frontierSize() == 0) return 0;
+                if (side.expand(side == forward ? backward : forward)) {
+                    accumulate(random);
+                    return (long) paths;
+                }
+            }
+            return 0;
+        } finally {
+            forward.reset();
+            backward.reset();
+        }
+    }
+
+    /**
+     * @return the length of the shortest paths found by the last sample
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public Adjacency getGraph() {
+        return graph;
+    }
+
+    /**
+     * The frontiers met at the last level of {@code forward} and {@code backward}, every shortest path goes
+     * through exactly one of the nodes visited by both.
+     */
+    private void accumulate(Random random) {
+        length = forward.depth + backward.depth;
+        final int meetStart = forward.levels[forward.depth];
+        for (int i = meetStart; i < forward.size; i++) {
+            final int node = forward.queue[i];
+            if (backward.isVisited(node)) paths += forward.sigma[node] * backward.sigma[node];
+        }
+        // paths to the other end, kept in the other side's sigma which is unused for nodes it did not visit
+        forward.countPathsBack(backward);
+        backward.countPathsBack(forward);
+        for (int i = meetStart; i < forward.size; i++) {
+            final int node = forward.queue[i];
+            if (backward.isVisited(node)) addDependency(node, forward.sigma[node] * backward.sigma[node], random);
+        }
+        forward.addDependencies(backward, random);
+        backward.addDependencies(forward, random);
+    }
+
+    private void addDependency(int node, double throughPaths, Random random) {
+        if (node == forward.queue[0] || node == backward.queue[0]) return;
+        final int delta = (int) (throughPaths / paths * SCALE + random.nextDouble());
+        if (delta > 0) counter.add(minNodeId + node, delta);
+    }
+
+    /**
+     * Breadth first search state of one end, {@code queue[levels[d] .. levels[d+1])} are the nodes at distance d.
+     */
+    private class Side {
+        // the relationships in the direction this side searches
+        private final Adjacency graph;
+        private final long[] visited;
+        private final int[] distance;
+        private final double[] sigma;
+        private final int[] queue;
+        private int[] levels = new int[16];
+        private int size;
+        private int depth;
+
+        Side(Adjacency graph, int nodeCount) {
+            this.graph = graph;
+            this.visited = new long[(nodeCount + 63) / 64];
+            this.distance = new int[nodeCount];
+            this.sigma = new double[nodeCount];
+            this.queue = new int[nodeCount];
+        }
+
+        void start(int node) {
+            visit(node, 0, 1);
+            levels[0] = 0;
+            levels[1] = 1;
+            depth = 0;
+        }
+
+        boolean isVisited(int node) {
+            return (visited[node >>> 6] & (1L << node)) != 0;
+        }
+
+        private void visit(int node, int distance, double sigma) {
+            visited[node >>> 6] |= 1L << node;
+            this.distance[node] = distance;
+            this.sigma[node] = sigma;
+            queue[size++] = node;
+        }
+
+        int frontierSize() {
+            return size - levels[depth];
+        }
+
+        /**
+         * Visits the next level, the path counts of its nodes are complete once all of the frontier was expanded.
+         *
+         * @return true if a node of the new level was visited by the other side
+         */
+        boolean expand(Side other) {
+            final int next = depth + 1;
+            final int end = size;
+            boolean met = false;
+            for (int i = levels[depth]; i < end; i++) {
+                final int node = queue[i];
+                final long nodeId = minNodeId + node;
+                final int degree = graph.degree(nodeId);
+                for (int r = 0; r < degree; r++) {
+                    final long neighbourId = graph.neighbour(nodeId, r);
+                    if (!graph.contains(neighbourId)) continue;
+                    final int neighbour = (int) (neighbourId - minNodeId);
+                    if (!isVisited(neighbour)) {
+                        visit(neighbour, next, sigma[node]);
+                        if (other.isVisited(neighbour)) met = true;
+                    } else if (distance[neighbour] == next) {
+                        sigma[neighbour] += sigma[node];
+                    }
+                }
+            }
+            depth = next;
+            if (levels.length <= next + 1) levels = Arrays.copyOf(levels, levels.length * 2);
+            levels[next + 1] = size;
+            return met;
+        }
+
+        /**
+         * Sums the shortest paths to the other end from the meeting level back to level 1 into {@code other.sigma}.
+         * Nodes below the last level were not visited by the other side, the search would have met earlier.
+         */
+        void countPathsBack(Side other) {
+            for (int d = depth - 1; d >= 1; d--) {
+                for (int i = levels[d]; i < levels[d + 1]; i++) {
+                    final int node = queue[i];
+                    final long nodeId = minNodeId + node;
+                    final int degree = graph.degree(nodeId);
+                    double toOtherEnd = 0;
+                    for (int r = 0; r < degree; r++) {
+                        final long neighbourId = graph.neighbour(nodeId, r);
+                        if (!graph.contains(neighbourId)) continue;
+                        final int neighbour = (int) (neighbourId - minNodeId);
+                        if (!isVisited(neighbour) || distance[neighbour] != d + 1) continue;
+                        // on the last level only the meeting nodes lead to the other end
+                        if (d + 1 == depth && !other.isVisited(neighbour)) continue;
+                        toOtherEnd += other.sigma[neighbour];
+                    }
+                    other.sigma[node] = toOtherEnd;
+                }
+            }
+        }
+
+        void addDependencies(Side other, Random random) {
+            for (int i = levels[1]; i < levels[depth]; i++) {
+                final int node = queue[i];
+                final double toOtherEnd = other.sigma[node];
+                if (toOtherEnd > 0) addDependency(node, sigma[node] * toOtherEnd, random);
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < size; i++) {
+                visited[queue[i] >>> 6] = 0;
+            }
+            size = 0;
+            depth = 0;
+        }
+    }
+}
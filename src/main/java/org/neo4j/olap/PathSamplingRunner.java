@@ -0,0 +1,50 @@
+package org.neo4j.olap;
+
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+/**
+ * Estimates betweenness on a primitive {@link Adjacency} snapshot by counting the shortest paths between
+ * random node pairs with a {@link PathSampler}, no objects are created per pair.
+ * Replaces the {@link PathFinderNodeCountingRunner}, which materializes every path.
+ *
+ * @author mh
+ * @since 09.01.13
+ */
+public class PathSamplingRunner extends OlapRunner {
+    public static final int DEFAULT_MAX_DEPTH = 8;
+    private static final int CHECK_TIME_EVERY = 64;
+
+    private final PathSampler sampler;
+
+    public PathSamplingRunner(GraphDatabaseAPI db, int id, Adjacency graph, int timeInSeconds, final VisitCounter counter, int maxDepth) {
+        this(db, id, graph, graph, timeInSeconds, counter, maxDepth);
+    }
+
+    /**
+     * @param reverse the snapshot of the reversed projection for a directed {@code graph}, see {@link PathSampler}
+     */
+    public PathSamplingRunner(GraphDatabaseAPI db, int id, Adjacency graph, Adjacency reverse, int timeInSeconds, final VisitCounter counter, int maxDepth) {
+        super(timeInSeconds, id, counter, db, graph.getMinNodeId(), graph.getNodeCount());
+        this.sampler = new PathSampler(graph, reverse, counter, maxDepth);
+    }
+
+    public void run() {
+        long time = System.currentTimeMillis();
+        final ThreadMetrics metrics = OlapMetrics.forCurrentThread();
+        long pairs = 0;
+        if (sampler.getGraph().getRelationshipCount() > 0) {
+            while (System.currentTimeMillis() - time <= timeInMillis) {
+                for (int i = 0; i < CHECK_TIME_EVERY; i++) {
+                    final long paths = sampler.sample(randomNodeId(), randomNodeId(), random);
+                    pairs++;
+                    if (paths == 0) continue;
+                    hitCount += paths;
+                    nodeCount += sampler.getLength() + 1;
+                    metrics.walked(Math.max(0, sampler.getLength() - 1), sampler.getLength());
+                }
+            }
+            counter.flush();
+        }
+        System.out.printf("Thread %d In %d seconds %d pairs %d paths %d nodes %n", id, (System.currentTimeMillis() - time) / 1000, pairs, hitCount, nodeCount);
+    }
+}
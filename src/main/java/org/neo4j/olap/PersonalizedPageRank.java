@@ -0,0 +1,179 @@
+package org.neo4j.olap;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Personalized PageRank relative to a set of seed nodes, answered from stored {@link WalkSegments} instead of
+ * walking the graph. Every walk starts at a random seed and ends with the restart probability before each
+ * step. Steps are read from the segments of the current node, when a segment is used up the walk continues
+ * with a segment of the node it ended at. Each query uses the segments of a node in order and only reuses
+ * them at random once all were taken, so walks of one query are independent as long as the segments last.
+ * <p>
+ * The visit counts of all walks, including their starts, estimate the personalized PageRank scores once
+ * divided by {@link #getVisits()}. A query of {@code walks} walks costs about {@code walks / restartProbability}
+ * reads of the segment file. Not thread safe, use one instance per thread.
+ * Usage: PersonalizedPageRank segmentFile seedNodeId...
+ *
+ * @author mh
+ * @since 10.01.13
+ */
+public class PersonalizedPageRank {
+    public static final int DEFAULT_WALKS = 1000;
+
+    private final WalkSegments segments;
+    private final double restartProbability;
+    private final int segmentLength;
+    private final NodeCounts visits = new NodeCounts();
+    private final NodeCounts used = new NodeCounts();
+    private long totalVisits;
+
+    public PersonalizedPageRank(WalkSegments segments, double restartProbability) {
+        this.segments = segments;
+        this.restartProbability = restartProbability;
+        this.segmentLength = segments.getSegmentLength();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final WalkSegments segments = WalkSegments.open(args[0]);
+        final long[] seeds = new long[args.length - 1];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = Long.parseLong(args[i + 1]);
+        }
+        final PersonalizedPageRank pageRank = new PersonalizedPageRank(segments,
+                Double.parseDouble(System.getProperty("olap.restart", String.valueOf(RandomWalker.RESTART_PROBABILITY))));
+        final long time = System.nanoTime();
+        final TopNSelector.TopN top = pageRank.query(seeds, Integer.getInteger("olap.walks", DEFAULT_WALKS), 10, new Random());
+        System.out.printf("Query of %d seeds %d visits in %d us%n", seeds.length, pageRank.getVisits(), (System.nanoTime() - time) / 1000);
+        for (int i = 0; i < top.size(); i++) {
+            System.out.printf("Node %d Score %.5f%n", top.getId(i), top.getCount(i) / (double) pageRank.getVisits());
+        }
+    }
+
+    /**
+     * @return the {@code howMany} nodes visited most by {@code walks} walks from the seeds, with their visit counts
+     */
+    public TopNSelector.TopN query(long[] seeds, int walks, int howMany, Random random) {
+        for (long seed : seeds) {
+            if (!segments.contains(seed)) throw new IllegalArgumentException("Seed node " + seed + " has no segments");
+        }
+        visits.clear();
+        used.clear();
+        totalVisits = 0;
+        for (int w = 0; w < walks; w++) {
+            long node = seeds[random.nextInt(seeds.length)];
+            visit(node);
+            long position = 0;
+            int remaining = 0;
+            while (random.nextDouble() >= restartProbability) {
+                if (remaining == 0) {
+                    position = segments.offset(node, nextSegment(node, random));
+                    remaining = segmentLength;
+                }
+                final int next = segments.step(position++);
+                remaining--;
+                if (next == WalkSegments.END) break;
+                node = next;
+                visit(node);
+            }
+        }
+        final TopNSelector.Heap heap = new TopNSelector.Heap(howMany);
+        for (int i = 0; i < visits.capacity(); i++) {
+            if (visits.isUsed(i)) heap.offer(visits.key(i), visits.value(i));
+        }
+        return heap.toTopN(null);
+    }
+
+    private void visit(long node) {
+        visits.increment(node);
+        totalVisits++;
+    }
+
+    private int nextSegment(long node, Random random) {
+        final int taken = used.increment(node);
+        return taken < segments.getSegmentsPerNode() ? taken : random.nextInt(segments.getSegmentsPerNode());
+    }
+
+    /**
+     * @return visits of all walks of the last query
+     */
+    public long getVisits() {
+        return totalVisits;
+    }
+
+    /**
+     * Open addressing map from node id to count, sized by the nodes a query touches and reused between queries.
+     */
+    static class NodeCounts {
+        private static final long FREE = -1;
+        private long[] keys = newKeys(1024);
+        private int[] values = new int[1024];
+        private int size;
+
+        private static long[] newKeys(int capacity) {
+            final long[] keys = new long[capacity];
+            Arrays.fill(keys, FREE);
+            return keys;
+        }
+
+        /**
+         * @return the count before the increment
+         */
+        int increment(long key) {
+            int slot = slot(key, keys);
+            if (keys[slot] == FREE) {
+                if (2 * (size + 1) > keys.length) {
+                    grow();
+                    slot = slot(key, keys);
+                }
+                keys[slot] = key;
+                size++;
+            }
+            return values[slot]++;
+        }
+
+        private static int slot(long key, long[] keys) {
+            final int mask = keys.length - 1;
+            int slot = (int) GraphGenerator.mix(key) & mask;
+            while (keys[slot] != FREE && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            final long[] oldKeys = keys;
+            final int[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == FREE) continue;
+                final int slot = slot(oldKeys[i], keys);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+
+        void clear() {
+            Arrays.fill(keys, FREE);
+            Arrays.fill(values, 0);
+            size = 0;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        boolean isUsed(int slot) {
+            return keys[slot] != FREE;
+        }
+
+        long key(int slot) {
+            return keys[slot];
+        }
+
+        int value(int slot) {
+            return values[slot];
+        }
+    }
+}
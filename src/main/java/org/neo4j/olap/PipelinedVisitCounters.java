@@ -0,0 +1,218 @@
+package org.neo4j.olap;
+
+import com.lmax.disruptor.BlockingWaitStrategy;
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.MultiThreadedClaimStrategy;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.dsl.Disruptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walker threads only produce, they collect visited indexes per consumer and publish full batches into that
+ * consumer's ring buffer. Every consumer owns a disjoint slice of the node range and is the only thread
+ * writing its counts, so no counter memory is shared between cores.
+ * Full ring buffers block the producers, which is reported as back pressure. Weighted adds are sent as a
+ * negative delta followed by the index, ids are never negative. Negative deltas are rejected, zero deltas dropped.
+ *
+ * @author mh
+ * @since 02.01.13
+ */
+class PipelinedVisitCounters extends VisitCounters {
+    static final int BATCH_SIZE = 4096;
+    static final int RING_SIZE = 1024;
+
+    private final int consumers;
+    private final int sliceSize;
+    private final ExecutorService executor;
+    private final List<Disruptor<VisitBatch>> disruptors = new ArrayList<Disruptor<VisitBatch>>();
+    private final RingBuffer<VisitBatch>[] rings;
+    private final Consumer[] handlers;
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong[] publishedTo;
+    private final AtomicLong stalls = new AtomicLong();
+    private final AtomicLong stalledNanos = new AtomicLong();
+    private final long start = System.nanoTime();
+    private boolean drained;
+
+    @SuppressWarnings("unchecked")
+    PipelinedVisitCounters(long minNodeId, long nodeCount, int consumers) {
+        super(minNodeId, nodeCount);
+        this.consumers = consumers;
+        this.sliceSize = Math.max(1, (this.nodeCount + consumers - 1) / consumers);
+        this.executor = Executors.newFixedThreadPool(consumers);
+        this.rings = new RingBuffer[consumers];
+        this.handlers = new Consumer[consumers];
+        this.publishedTo = new AtomicLong[consumers];
+        for (int i = 0; i < consumers; i++) {
+            final int sliceStart = i * sliceSize;
+            publishedTo[i] = new AtomicLong();
+            handlers[i] = new Consumer(sliceStart, Math.max(0, Math.min(sliceSize, this.nodeCount - sliceStart)));
+            final Disruptor<VisitBatch> disruptor = new Disruptor<VisitBatch>(VisitBatch.FACTORY, executor,
+                    new MultiThreadedClaimStrategy(RING_SIZE), new BlockingWaitStrategy());
+            disruptor.handleEventsWith(handlers[i]);
+            rings[i] = disruptor.start();
+            disruptors.add(disruptor);
+        }
+    }
+
+    public VisitCounter forThread(int thread) {
+        return new VisitCounter() {
+            private final int[][] buffers = new int[consumers][BATCH_SIZE];
+            private final int[] sizes = new int[consumers];
+
+            public void increment(long nodeId) {
+                final int index = index(nodeId);
+                final int consumer = index / sliceSize;
+                final int size = sizes[consumer];
+                buffers[consumer][size] = index;
+                sizes[consumer] = size + 1;
+                if (size + 1 == BATCH_SIZE) publish(consumer);
+            }
+
+            // encoded as the negated delta followed by the index, both always end up in the same batch
+            public void add(long nodeId, int delta) {
+                // a delta that is not positive would be decoded as an index
+                if (delta < 0) throw new IllegalArgumentException("Can't add negative delta " + delta + " to node " + nodeId);
+                if (delta == 0) return;
+                final int index = index(nodeId);
+                final int consumer = index / sliceSize;
+                if (sizes[consumer] + 2 > BATCH_SIZE) publish(consumer);
+                final int size = sizes[consumer];
+                buffers[consumer][size] = -delta;
+                buffers[consumer][size + 1] = index;
+                sizes[consumer] = size + 2;
+                if (size + 2 == BATCH_SIZE) publish(consumer);
+            }
+
+            public void flush() {
+                for (int consumer = 0; consumer < consumers; consumer++) {
+                    if (sizes[consumer] > 0) publish(consumer);
+                }
+            }
+
+            private void publish(int consumer) {
+                final RingBuffer<VisitBatch> ring = rings[consumer];
+                final long sequence;
+                final long time = System.nanoTime();
+                if (ring.hasAvailableCapacity(1)) {
+                    sequence = ring.next();
+                } else {
+                    sequence = ring.next();
+                    stalls.incrementAndGet();
+                    stalledNanos.addAndGet(System.nanoTime() - time);
+                }
+                final VisitBatch batch = ring.get(sequence);
+                // hand over the filled buffer and continue with the batch's consumed one
+                final int[] ids = batch.ids;
+                batch.ids = buffers[consumer];
+                batch.size = sizes[consumer];
+                buffers[consumer] = ids;
+                sizes[consumer] = 0;
+                ring.publish(sequence);
+                publishedTo[consumer].incrementAndGet();
+                published.incrementAndGet();
+                OlapMetrics.forCurrentThread().flushed(System.nanoTime() - time);
+            }
+        };
+    }
+
+    /**
+     * Waits until the consumers have processed all published batches, then stops them.
+     */
+    private synchronized void drain() {
+        if (drained) return;
+        for (Disruptor<VisitBatch> disruptor : disruptors) {
+            disruptor.shutdown();
+        }
+        executor.shutdown();
+        drained = true;
+    }
+
+    /**
+     * Waits until the consumers have processed the batches published so far, while no walker publishes.
+     */
+    @Override
+    public void awaitApplied() {
+        for (int i = 0; i < consumers; i++) {
+            final long target = publishedTo[i].get();
+            while (handlers[i].batches < target) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        drain();
+    }
+
+    public void mergeInto(int[] nodes) {
+        drain();
+        final int offset = (int) minNodeId;
+        for (Consumer consumer : handlers) {
+            final int[] counts = consumer.counts;
+            for (int i = 0; i < counts.length; i++) {
+                nodes[offset + consumer.sliceStart + i] += counts[i];
+            }
+        }
+    }
+
+    protected int count(int index) {
+        final Consumer consumer = handlers[index / sliceSize];
+        return consumer.counts[index - consumer.sliceStart];
+    }
+
+    @Override
+    public void printStatistics() {
+        final long millis = Math.max(1, (System.nanoTime() - start) / 1000000);
+        System.out.printf("Pipeline %d consumers published %d batches (%.0f/s), producers blocked %d times for %d ms%n",
+                consumers, published.get(), published.get() * 1000.0 / millis, stalls.get(), stalledNanos.get() / 1000000);
+        for (int i = 0; i < handlers.length; i++) {
+            System.out.printf("Consumer %2d slice %d + %d batches %d visits %d%n", i, minNodeId + handlers[i].sliceStart,
+                    handlers[i].counts.length, handlers[i].batches, handlers[i].visits);
+        }
+    }
+
+    static class VisitBatch {
+        static final EventFactory<VisitBatch> FACTORY = new EventFactory<VisitBatch>() {
+            public VisitBatch newInstance() {
+                return new VisitBatch();
+            }
+        };
+        int[] ids = new int[BATCH_SIZE];
+        int size;
+    }
+
+    private static class Consumer implements EventHandler<VisitBatch> {
+        private final int sliceStart;
+        private final int[] counts;
+        // written last by the consumer, so the counts of the batches are visible once it is read
+        private volatile long batches;
+        private long visits;
+
+        Consumer(int sliceStart, int sliceLength) {
+            this.sliceStart = sliceStart;
+            this.counts = new int[sliceLength];
+        }
+
+        public void onEvent(VisitBatch batch, long sequence, boolean endOfBatch) {
+            final int[] ids = batch.ids;
+            for (int i = 0; i < batch.size; i++) {
+                final int id = ids[i];
+                if (id < 0) {
+                    counts[ids[++i] - sliceStart] -= id;
+                } else {
+                    counts[id - sliceStart]++;
+                }
+            }
+            visits += batch.size;
+            batches++;
+        }
+    }
+}
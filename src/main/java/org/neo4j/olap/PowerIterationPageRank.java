@@ -0,0 +1,173 @@
+package org.neo4j.olap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Deterministic PageRank by power iteration over an {@link Adjacency} that covers all nodes.
+ * Ranks are pulled from the neighbours, so the adjacency must be symmetric as the undirected {@link CsrGraph}
+ * snapshot is. For a directed graph the ranks are pulled from the predecessors in its transpose, while the
+ * degrees that split a node's rank are the ones of the graph itself.
+ * The rank of nodes without relationships is spread evenly over all nodes.
+ * <p>
+ * The node range is split into fixed size chunks computed in parallel; partial sums are combined in chunk
+ * order so the result does not depend on the number of threads. Iteration stops when the L1 distance of two
+ * iterations falls below the tolerance or after the maximum number of iterations.
+ *
+ * @author mh
+ * @since 21.12.12
+ */
+public class PowerIterationPageRank {
+    public static final double DEFAULT_DAMPING = 0.85;
+    public static final double DEFAULT_TOLERANCE = 1e-6;
+    public static final int DEFAULT_MAX_ITERATIONS = 100;
+    /**
+     * average score of a node in {@link #toCounts(double[])}
+     */
+    public static final int SCORE_SCALE = 1000;
+    static final int CHUNK_SIZE = 1 << 16;
+
+    private final Adjacency graph;
+    private final Adjacency transpose;
+    private final double damping;
+    private final double tolerance;
+    private final int maxIterations;
+    private final int threads;
+    private final int nodeCount;
+    private final long minNodeId;
+
+    private int iterations;
+    private double residual;
+
+    /**
+     * @param transpose the reversed relationships of {@code graph}, or {@code graph} itself if it is symmetric
+     */
+    public PowerIterationPageRank(Adjacency graph, Adjacency transpose, double damping, double tolerance, int maxIterations, int threads) {
+        if (graph.getNodeCount() > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many nodes " + graph.getNodeCount());
+        if (transpose.getMinNodeId() != graph.getMinNodeId() || transpose.getNodeCount() != graph.getNodeCount()) {
+            throw new IllegalArgumentException("Transpose covers other nodes than the graph");
+        }
+        this.graph = graph;
+        this.transpose = transpose;
+        this.damping = damping;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+        this.threads = threads;
+        this.nodeCount = (int) graph.getNodeCount();
+        this.minNodeId = graph.getMinNodeId();
+    }
+
+    public PowerIterationPageRank(Adjacency graph, double damping, double tolerance, int maxIterations, int threads) {
+        this(graph, graph, damping, tolerance, maxIterations, threads);
+    }
+
+    public PowerIterationPageRank(Adjacency graph, int threads) {
+        this(graph, DEFAULT_DAMPING, DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS, threads);
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public double getResidual() {
+        return residual;
+    }
+
+    /**
+     * @return the rank of each node in the range, summing up to 1
+     */
+    public double[] compute() throws ExecutionException, InterruptedException {
+        final double[] rank = new double[nodeCount];
+        final double[][] contributions = {new double[nodeCount], new double[nodeCount]};
+        final double initial = 1.0 / nodeCount;
+        double dangling = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            rank[i] = initial;
+            final int degree = graph.degree(minNodeId + i);
+            if (degree == 0) dangling += initial;
+            else contributions[0][i] = initial / degree;
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            residual = Double.MAX_VALUE;
+            for (iterations = 0; iterations < maxIterations && residual > tolerance; iterations++) {
+                long time = System.currentTimeMillis();
+                final double[] current = contributions[iterations % 2];
+                final double[] next = contributions[(iterations + 1) % 2];
+                final double base = (1 - damping + damping * dangling) / nodeCount;
+
+                List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+                for (int start = 0; start < nodeCount; start += CHUNK_SIZE) {
+                    futures.add(pool.submit(new Chunk(start, Math.min(nodeCount, start + CHUNK_SIZE), base, rank, current, next)));
+                }
+                residual = 0;
+                dangling = 0;
+                for (Future<double[]> future : futures) {
+                    final double[] sums = future.get();
+                    residual += sums[0];
+                    dangling += sums[1];
+                }
+                System.out.printf("Iteration %d residual %.3e in %d ms%n", iterations + 1, residual, System.currentTimeMillis() - time);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return rank;
+    }
+
+    /**
+     * Scales the ranks so that the average node has {@link #SCORE_SCALE}, to store them like visit counts.
+     */
+    public int[] toCounts(double[] rank) {
+        final int[] counts = new int[rank.length];
+        final double scale = (double) nodeCount * SCORE_SCALE;
+        for (int i = 0; i < rank.length; i++) {
+            counts[i] = (int) Math.min(Integer.MAX_VALUE, Math.round(rank[i] * scale));
+        }
+        return counts;
+    }
+
+    private class Chunk implements Callable<double[]> {
+        private final int start;
+        private final int end;
+        private final double base;
+        private final double[] rank;
+        private final double[] current;
+        private final double[] next;
+
+        Chunk(int start, int end, double base, double[] rank, double[] current, double[] next) {
+            this.start = start;
+            this.end = end;
+            this.base = base;
+            this.rank = rank;
+            this.current = current;
+            this.next = next;
+        }
+
+        public double[] call() {
+            double residual = 0, dangling = 0;
+            for (int i = start; i < end; i++) {
+                final long nodeId = minNodeId + i;
+                final int predecessors = transpose.degree(nodeId);
+                double sum = 0;
+                for (int j = 0; j < predecessors; j++) {
+                    final long neighbour = transpose.neighbour(nodeId, j);
+                    if (transpose.contains(neighbour)) sum += current[((int) (neighbour - minNodeId))];
+                }
+                final int degree = graph.degree(nodeId);
+                final double newRank = base + damping * sum;
+                residual += Math.abs(newRank - rank[i]);
+                rank[i] = newRank;
+                if (degree == 0) dangling += newRank;
+                else next[i] = newRank / degree;
+            }
+            return new double[]{residual, dangling};
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.neo4j.olap;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The subgraph an analysis runs on: relationships of the given types followed in the given direction, between
+ * nodes that have a property with the given value. Every part is optional, {@link #ALL} is the whole graph.
+ * Configured with the system properties {@code olap.types} (comma separated names), {@code olap.direction}
+ * and {@code olap.filter} ({@code key=value}).
+ * <p>
+ * Type names have to be {@link #resolve resolved} to the store's type ids and the node filter to a bitset of
+ * the admitted nodes before the projection is applied to store scans. Resolving the node filter reads the
+ * property of every node once, in parallel chunks.
+ *
+ * @author mh
+ * @since 11.01.13
+ */
+public class Projection {
+    public static final Projection ALL = new Projection(null, Direction.BOTH, null, null);
+    static final int MAX_TYPES = 1 << 16;
+    static final int NODES_PER_CHUNK = 1 << 16;
+
+    private final String[] typeNames;
+    private final RelationshipType[] types;
+    private final Direction direction;
+    private final String propertyKey;
+    private final String propertyValue;
+    // resolved, null admits all
+    private final long[] typeIds;
+    private final long[] nodes;
+
+    public Projection(String[] typeNames, Direction direction, String propertyKey, String propertyValue) {
+        this(typeNames, direction, propertyKey, propertyValue, null, null);
+    }
+
+    Projection(String[] typeNames, Direction direction, String propertyKey, String propertyValue, long[] typeIds, long[] nodes) {
+        this.typeNames = typeNames;
+        this.direction = direction;
+        this.propertyKey = propertyKey;
+        this.propertyValue = propertyValue;
+        this.typeIds = typeIds;
+        this.nodes = nodes;
+        if (typeNames == null) {
+            this.types = null;
+        } else {
+            this.types = new RelationshipType[typeNames.length];
+            for (int i = 0; i < typeNames.length; i++) {
+                types[i] = DynamicRelationshipType.withName(typeNames[i]);
+            }
+        }
+    }
+
+    public static Projection fromProperties() {
+        final String types = System.getProperty("olap.types");
+        final String filter = System.getProperty("olap.filter");
+        final int split = filter == null ? -1 : filter.indexOf('=');
+        if (filter != null && split < 0) throw new IllegalArgumentException("Node filter " + filter + " is not key=value");
+        return new Projection(types == null ? null : types.split(","),
+                Direction.valueOf(System.getProperty("olap.direction", Direction.BOTH.name())),
+                split < 0 ? null : filter.substring(0, split), split < 0 ? null : filter.substring(split + 1));
+    }
+
+    /**
+     * @return a projection with the type ids of the store and the nodes in {@code [0, maxNodeId)} passing the filter
+     */
+    public Projection resolve(final NodeManager nodeManager, long maxNodeId, int threads) throws ExecutionException, InterruptedException {
+        long[] typeIds = null;
+        if (typeNames != null) {
+            typeIds = new long[MAX_TYPES / 64];
+            for (RelationshipType type : types) {
+                final int id = nodeManager.getRelationshipTypeIdFor(type);
+                // unknown types have no relationships
+                if (id >= 0) typeIds[id >>> 6] |= 1L << id;
+            }
+        }
+        return new Projection(typeNames, direction, propertyKey, propertyValue, typeIds,
+                propertyKey == null ? null : selectNodes(nodeManager, maxNodeId, threads));
+    }
+
+    private long[] selectNodes(final NodeManager nodeManager, final long maxNodeId, int threads) throws ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        if (maxNodeId > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many nodes " + maxNodeId);
+        final long[] selected = new long[(int) ((maxNodeId + 63) / 64)];
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+            // chunks are multiples of 64, so threads never share a word
+            for (long start = 0; start < maxNodeId; start += NODES_PER_CHUNK) {
+                final long from = start;
+                futures.add(pool.submit(new Callable<Long>() {
+                    public Long call() {
+                        long count = 0;
+                        final long to = Math.min(maxNodeId, from + NODES_PER_CHUNK);
+                        for (long id = from; id < to; id++) {
+                            final Node node = nodeManager.getNodeByIdOrNull(id);
+                            if (node == null || !propertyValue.equals(String.valueOf(node.getProperty(propertyKey, null)))) continue;
+                            selected[(int) (id >>> 6)] |= 1L << id;
+                            count++;
+                        }
+                        return count;
+                    }
+                }));
+            }
+            long count = 0;
+            for (Future<Long> future : futures) {
+                count += future.get();
+            }
+            System.out.printf("Projection %s=%s admits %d of %d nodes in %d ms%n", propertyKey, propertyValue, count, maxNodeId, System.currentTimeMillis() - time);
+        } finally {
+            pool.shutdown();
+        }
+        return selected;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return the same subgraph with the relationships followed in the opposite direction
+     */
+    public Projection reverse() {
+        final Direction reversed = direction == Direction.OUTGOING ? Direction.INCOMING : direction == Direction.INCOMING ? Direction.OUTGOING : Direction.BOTH;
+        return new Projection(typeNames, reversed, propertyKey, propertyValue, typeIds, nodes);
+    }
+
+    /**
+     * @return the same subgraph with the relationships followed in both directions
+     */
+    public Projection undirected() {
+        return direction == Direction.BOTH ? this : new Projection(typeNames, Direction.BOTH, propertyKey, propertyValue, typeIds, nodes);
+    }
+
+    public boolean acceptsType(int typeId) {
+        return typeIds == null || (typeIds[typeId >>> 6] & (1L << typeId)) != 0;
+    }
+
+    public boolean acceptsNode(long nodeId) {
+        return nodes == null || (nodeId >>> 6 < nodes.length && (nodes[(int) (nodeId >>> 6)] & (1L << nodeId)) != 0);
+    }
+
+    /**
+     * Checks type and nodes of a scanned relationship, the direction is applied when it is added to an adjacency.
+     */
+    public boolean accepts(int typeId, long startNode, long endNode) {
+        return acceptsType(typeId) && acceptsNode(startNode) && acceptsNode(endNode);
+    }
+
+    /**
+     * @return the store scan restricted to the projected relationships
+     */
+    public EdgeSource filter(final EdgeSource source) {
+        if (typeIds == null && nodes == null) return source;
+        return new EdgeSource() {
+            public long accept(final EdgeVisitor visitor) {
+                return source.accept(new EdgeVisitor() {
+                    public void visit(long relationshipId, long startNode, long endNode, int type) {
+                        if (accepts(type, startNode, endNode)) visitor.visit(relationshipId, startNode, endNode, type);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * @return a snapshot of the projected relationships of the node range
+     */
+    public CsrGraph snapshot(EdgeSource source, long minNodeId, long nodeCount) {
+        return CsrGraph.build(filter(source), minNodeId, nodeCount, direction);
+    }
+
+    /**
+     * @return a {@link CompressedGraph} of the projected relationships of the node range
+     */
+    public CompressedGraph compressedSnapshot(EdgeSource source, long minNodeId, long nodeCount, int threads) throws ExecutionException, InterruptedException {
+        return CompressedGraph.build(filter(source), minNodeId, nodeCount, direction, threads);
+    }
+
+    /**
+     * @return a {@link WeightedGraph} of the projected relationships of the node range
+     */
+    public WeightedGraph weightedSnapshot(EdgeSource source, WeightedGraph.Weights weights, long minNodeId, long nodeCount, int threads) throws ExecutionException, InterruptedException {
+        return WeightedGraph.build(filter(source), weights, minNodeId, nodeCount, direction, threads);
+    }
+
+    /**
+     * @return the relationships of {@code node} of the projected types and direction, the other node is not checked
+     */
+    public Iterable<Relationship> relationships(Node node) {
+        return types == null ? node.getRelationships(direction) : node.getRelationships(direction, types);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("types %s direction %s filter %s", typeNames == null ? "all" : Arrays.toString(typeNames), direction,
+                propertyKey == null ? "none" : propertyKey + "=" + propertyValue);
+    }
+}
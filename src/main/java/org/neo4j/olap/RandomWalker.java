@@ -0,0 +1,136 @@
+package org.neo4j.olap;
+
+import java.util.Random;
+
+/**
+ * Walks an {@link Adjacency} with primitive ids, counting every visited node in range.
+ * A walk moves to a uniformly random neighbour, or one chosen by weight on a {@link WeightedGraph}, until it ends
+ * with {@link #RESTART_PROBABILITY}, at a node without relationships or when it leaves the node range. With a
+ * {@link Handoff} walks leaving the range are handed over to be continued later with {@link #resume}.
+ * Not thread safe, use one walker per thread.
+ *
+ * @author mh
+ * @since 28.12.12
+ */
+public class RandomWalker {
+    public static final double RESTART_PROBABILITY = 0.15;
+    private static final int START_ATTEMPTS = 32;
+
+    private final Adjacency graph;
+    private final WeightedGraph weighted;
+    private final VisitCounter counter;
+    private final double restartProbability;
+    private final Handoff handoff;
+    private ThreadMetrics metrics;
+    private long steps;
+
+    /**
+     * Receives walks that left the node range, the restart decision is memoryless so the node is the whole state.
+     */
+    public interface Handoff {
+        void handOff(long nodeId);
+    }
+
+    public RandomWalker(Adjacency graph, VisitCounter counter, double restartProbability, Handoff handoff) {
+        this.graph = graph;
+        this.weighted = graph instanceof WeightedGraph ? (WeightedGraph) graph : null;
+        this.counter = counter;
+        this.restartProbability = restartProbability;
+        this.handoff = handoff;
+    }
+
+    public RandomWalker(Adjacency graph, VisitCounter counter, double restartProbability) {
+        this(graph, counter, restartProbability, null);
+    }
+
+    public RandomWalker(Adjacency graph, VisitCounter counter) {
+        this(graph, counter, RESTART_PROBABILITY);
+    }
+
+    /**
+     * @return a random node in range, preferring nodes with relationships
+     */
+    public long randomStart(Random random) {
+        final long minNodeId = graph.getMinNodeId();
+        final long nodeCount = graph.getNodeCount();
+        long node = minNodeId;
+        for (int i = 0; i < START_ATTEMPTS; i++) {
+            node = minNodeId + (long) (random.nextDouble() * nodeCount);
+            if (graph.degree(node) > 0) break;
+        }
+        return node;
+    }
+
+    /**
+     * @return the number of nodes visited in range, not counting the start node
+     */
+    public long walk(long node, Random random) {
+        int hits = 0;
+        int walkSteps = 0;
+        while (true) {
+            final int degree = graph.degree(node);
+            if (degree == 0 || random.nextDouble() < restartProbability) break;
+            final long next = next(node, degree, random);
+            walkSteps++;
+            if (!graph.contains(next)) {
+                if (handoff != null) handoff.handOff(next);
+                break;
+            }
+            hits++;
+            counter.increment(next);
+            node = next;
+        }
+        steps += walkSteps;
+        // walkers are used by a single thread
+        if (metrics == null) metrics = OlapMetrics.forCurrentThread();
+        metrics.walked(hits, walkSteps);
+        return hits;
+    }
+
+    /**
+     * Continues a walk that was handed off by another range and arrived at {@code node}, counting the arrival.
+     *
+     * @return the number of nodes visited in range, including {@code node}
+     */
+    public long resume(long node, Random random) {
+        counter.increment(node);
+        return 1 + walk(node, random);
+    }
+
+    /**
+     * Walks up to {@code length} steps from {@code node} without restarting, writing the visited node ids to
+     * {@code target}. Stops early at a node without relationships or before leaving the range, nothing is counted.
+     *
+     * @return the number of steps written
+     */
+    public int segment(long node, Random random, int[] target, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            final int degree = graph.degree(node);
+            if (degree == 0) return i;
+            final long next = next(node, degree, random);
+            if (!graph.contains(next)) return i;
+            target[offset + i] = (int) next;
+            node = next;
+        }
+        return length;
+    }
+
+    private long next(long node, int degree, Random random) {
+        return weighted == null ? graph.neighbour(node, random.nextInt(degree)) : weighted.sample(node, random);
+    }
+
+    /**
+     * @return the number of relationships followed so far, including the ones leaving the range
+     */
+    public long getSteps() {
+        return steps;
+    }
+
+    public Adjacency getGraph() {
+        return graph;
+    }
+
+    public VisitCounter getCounter() {
+        return counter;
+    }
+}
@@ -5,32 +5,72 @@ import org.neo4j.graphdb.Relationship;
 import org.neo4j.kernel.GraphDatabaseAPI;
 
 /**
+ * Random walks over the object API. Every hop picks one of the relationships of the projection leading into the
+ * node range in a single pass, uniformly or in proportion to a weight property, by reservoir sampling, so no
+ * relationship list is materialized. A node whose weights are all zero chooses uniformly. A walk restarts at a
+ * random node with {@link RandomWalker#RESTART_PROBABILITY} and at nodes without such relationships.
+ *
  * @author mh
  * @since 23.11.12
  */
 public class RandomWalkingRunner extends OlapRunner {
-    public RandomWalkingRunner(GraphDatabaseAPI db, int id, long minNodeId, final long nodeCount, int timeInSeconds, final int[] nodes) {
-        super(timeInSeconds, id, nodes, db,minNodeId, nodeCount);
+    private String weightProperty;
+
+    public RandomWalkingRunner(GraphDatabaseAPI db, int id, long minNodeId, final long nodeCount, int timeInSeconds, final VisitCounter counter) {
+        super(timeInSeconds, id, counter, db,minNodeId, nodeCount);
+    }
+
+    /**
+     * Chooses relationships with probability proportional to the numeric property {@code key}, relationships without
+     * it weigh 1.
+     */
+    public RandomWalkingRunner withWeightProperty(String key) {
+        this.weightProperty = key;
+        return this;
     }
 
     public void run() {
         long time = System.currentTimeMillis();
+        final ThreadMetrics metrics = OlapMetrics.forCurrentThread();
         Node node=randomNode();
+        int length = 0, steps = 0;
         while (true) {
             Node newNode=null;
-            for (Relationship relationship : node.getRelationships()) {
-                Node otherNode = relationship.getOtherNode(node);
-                nodeCount++;
-                if (random.nextBoolean() && this.isInNodeRange(otherNode.getId())) {
-                    newNode = otherNode;
-                    hitCount++;
-                    nodes[((int) newNode.getId())]++;
-                    break;
+            if (random.nextDouble() >= RandomWalker.RESTART_PROBABILITY) {
+                double total = 0;
+                int candidates = 0;
+                Node uniform = null;
+                for (Relationship relationship : projection.relationships(node)) {
+                    Node otherNode = relationship.getOtherNode(node);
+                    nodeCount++;
+                    steps++;
+                    if (!this.isInNodeRange(otherNode.getId()) || !projection.acceptsNode(otherNode.getId())) continue;
+                    if (weightProperty == null) {
+                        if (random.nextInt(++candidates) == 0) newNode = otherNode;
+                        continue;
+                    }
+                    final double weight = Math.max(0, WeightedGraph.toWeight(relationship.getProperty(weightProperty, null)));
+                    total += weight;
+                    if (weight > 0 && random.nextDouble() * total < weight) newNode = otherNode;
+                    if (total == 0 && random.nextInt(++candidates) == 0) uniform = otherNode;
                 }
+                // like the weighted snapshot, all weights zero chooses uniformly
+                if (total == 0 && uniform != null) newNode = uniform;
+            }
+            if (newNode==null) {
+                metrics.walked(length, steps);
+                length = 0;
+                steps = 0;
+                node=randomNode();
+            } else {
+                hitCount++;
+                length++;
+                counter.increment(newNode.getId());
+                node = newNode;
             }
-            if (newNode==null) node=randomNode();
             if (System.currentTimeMillis() - time > timeInMillis) break;
         }
+        counter.flush();
         System.out.printf("Thread %d In %d seconds %d hits %d nodes %n", id, (System.currentTimeMillis() - time)/1000, hitCount, nodeCount);
     }
 }
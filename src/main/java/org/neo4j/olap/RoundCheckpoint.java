@@ -0,0 +1,332 @@
+package org.neo4j.olap;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * Self describing checkpoint of an analysis: the counts plus the parameters needed to continue it.
+ * The header holds a magic, the version, the node range of the next round to run, the seed and walk budget,
+ * whether the round is only partially done and how far it got (walks, or milliseconds for timed rounds),
+ * followed by a CRC32 over header and counts.
+ * <p>
+ * {@link #withPacked Packed} checkpoints, of version {@link #PACKED_VERSION}, hold the counts in chunks of
+ * {@link PackedInts} blocks, each chunk prefixed with its int byte length.
+ * <p>
+ * Partial checkpoints of rounds with a walk budget, of version {@link #CHUNKS_VERSION}, are followed by the
+ * {@link WalkScheduler} chunks done as an int count of longs and the longs of the bitmap, also covered by the CRC.
+ * <p>
+ * Checkpoints are written to a temporary file, forced to disk and then renamed over the target, so the
+ * target always holds either the previous or the new complete checkpoint.
+ *
+ * @author mh
+ * @since 03.01.13
+ */
+public class RoundCheckpoint {
+    static final int MAGIC = 0xC4EC9001;
+    static final int VERSION = 1;
+    static final int PACKED_VERSION = 2;
+    static final int CHUNKS_VERSION = 3;
+    private static final int PACKED_FLAG = 2;
+    private static final int CHUNKS_FLAG = 4;
+    static final int HEADER_SIZE = 80;
+    private static final int CHECKSUM_OFFSET = HEADER_SIZE - 8;
+    private static final int INT_SIZE = Integer.SIZE / 8;
+    private static final int CHUNK = 1024 * 1024;
+
+    private final long maxNodeId;
+    private final long minNodeId;
+    private final long nodesPerRound;
+    private final long seed;
+    private final long walksPerRound;
+    private final boolean partial;
+    private final long progress;
+    private boolean packed;
+    private BitSet doneChunks;
+    private long created;
+    private int[] nodes;
+
+    public RoundCheckpoint(long maxNodeId, long minNodeId, long nodesPerRound, long seed, long walksPerRound, boolean partial, long progress) {
+        this.maxNodeId = maxNodeId;
+        this.minNodeId = minNodeId;
+        this.nodesPerRound = nodesPerRound;
+        this.seed = seed;
+        this.walksPerRound = walksPerRound;
+        this.partial = partial;
+        this.progress = progress;
+    }
+
+    /**
+     * @param packed whether {@link #write} packs the counts
+     */
+    public RoundCheckpoint withPacked(boolean packed) {
+        this.packed = packed;
+        return this;
+    }
+
+    /**
+     * @param doneChunks the chunks of the round that {@link #write} records as done, null for none
+     */
+    public RoundCheckpoint withDoneChunks(BitSet doneChunks) {
+        this.doneChunks = doneChunks;
+        return this;
+    }
+
+    public static boolean isCheckpoint(File file) {
+        if (!file.isFile() || file.length() < HEADER_SIZE) return false;
+        try {
+            final FileInputStream is = new FileInputStream(file);
+            try {
+                final ByteBuffer magic = ByteBuffer.allocate(INT_SIZE);
+                is.getChannel().read(magic, 0);
+                return magic.getInt(0) == MAGIC;
+            } finally {
+                is.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads and verifies a checkpoint including its counts.
+     */
+    public static RoundCheckpoint read(File file) throws IOException {
+        final FileInputStream is = new FileInputStream(file);
+        try {
+            final FileChannel channel = is.getChannel();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != MAGIC) throw new IOException("Not a checkpoint " + file);
+            final int version = header.getInt();
+            if (version != VERSION && version != PACKED_VERSION && version != CHUNKS_VERSION) throw new IOException("Unsupported checkpoint version " + version + " of " + file);
+            final int flags = header.getInt();
+            final int length = header.getInt();
+            final RoundCheckpoint checkpoint = new RoundCheckpoint(header.getLong(), header.getLong(), header.getLong(),
+                    header.getLong(), header.getLong(), (flags & 1) != 0, header.getLong());
+            checkpoint.packed = (flags & PACKED_FLAG) != 0;
+            checkpoint.created = header.getLong();
+            final long checksum = header.getLong();
+
+            final CRC32 crc = new CRC32();
+            header.putLong(CHECKSUM_OFFSET, 0);
+            crc.update(header.array(), 0, HEADER_SIZE);
+            final int[] nodes = new int[length];
+            if (checkpoint.packed) {
+                readPacked(channel, nodes, crc);
+            } else {
+                readChunks(channel, nodes, crc);
+            }
+            if ((flags & CHUNKS_FLAG) != 0) checkpoint.doneChunks = readBitmap(channel, crc);
+            if (crc.getValue() != checksum) throw new IOException("Checksum mismatch in checkpoint " + file);
+            checkpoint.nodes = nodes;
+            return checkpoint;
+        } finally {
+            is.close();
+        }
+    }
+
+    private static void readChunks(FileChannel channel, int[] nodes, CRC32 crc) throws IOException {
+        final int length = nodes.length;
+        final ByteBuffer buffer = ByteBuffer.allocate(CHUNK * INT_SIZE);
+        for (int position = 0; position < length; position += CHUNK) {
+            final int count = Math.min(CHUNK, length - position);
+            buffer.clear();
+            buffer.limit(count * INT_SIZE);
+            readFully(channel, buffer);
+            crc.update(buffer.array(), 0, count * INT_SIZE);
+            buffer.flip();
+            buffer.asIntBuffer().get(nodes, position, count);
+        }
+    }
+
+    private static void readPacked(FileChannel channel, int[] nodes, CRC32 crc) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(packedChunkBytes());
+        for (int position = 0; position < nodes.length; position += CHUNK) {
+            buffer.clear();
+            buffer.limit(INT_SIZE);
+            readFully(channel, buffer);
+            final int bytes = buffer.getInt(0);
+            if (bytes < 0 || bytes > buffer.capacity() - INT_SIZE) throw new IOException("Corrupt chunk of " + bytes + " bytes in checkpoint");
+            buffer.limit(INT_SIZE + bytes);
+            readFully(channel, buffer);
+            crc.update(buffer.array(), 0, INT_SIZE + bytes);
+            buffer.flip();
+            buffer.position(INT_SIZE);
+            final int end = Math.min(nodes.length, position + CHUNK);
+            for (int offset = position; offset < end; offset += PackedInts.BLOCK_SIZE) {
+                PackedInts.decode(buffer, nodes, offset, Math.min(PackedInts.BLOCK_SIZE, end - offset));
+            }
+        }
+    }
+
+    private static BitSet readBitmap(FileChannel channel, CRC32 crc) throws IOException {
+        final ByteBuffer count = ByteBuffer.allocate(INT_SIZE);
+        readFully(channel, count);
+        crc.update(count.array(), 0, INT_SIZE);
+        final int words = count.getInt(0);
+        if (words < 0 || words > Integer.MAX_VALUE / 64) throw new IOException("Corrupt bitmap of " + words + " longs in checkpoint");
+        final ByteBuffer buffer = ByteBuffer.allocate(words * 8);
+        readFully(channel, buffer);
+        crc.update(buffer.array(), 0, buffer.capacity());
+        buffer.flip();
+        final BitSet bits = new BitSet(words * 64);
+        for (int word = 0; word < words; word++) {
+            final long value = buffer.getLong();
+            for (int bit = 0; bit < 64; bit++) {
+                if ((value & (1L << bit)) != 0) bits.set(word * 64 + bit);
+            }
+        }
+        return bits;
+    }
+
+    private static ByteBuffer bitmap(BitSet bits) {
+        final int words = (bits.length() + 63) / 64;
+        final ByteBuffer buffer = ByteBuffer.allocate(INT_SIZE + words * 8);
+        buffer.putInt(words);
+        for (int word = 0; word < words; word++) {
+            long value = 0;
+            for (int bit = 0; bit < 64; bit++) {
+                if (bits.get(word * 64 + bit)) value |= 1L << bit;
+            }
+            buffer.putLong(value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int packedChunkBytes() {
+        return INT_SIZE + CHUNK / PackedInts.BLOCK_SIZE * PackedInts.maxBytes(PackedInts.BLOCK_SIZE);
+    }
+
+    /**
+     * Durably replaces {@code file} with this checkpoint of {@code nodes}. If {@code running} is given, the
+     * counts collected so far in the current round are added while writing, without stopping the walkers.
+     *
+     * @return bytes written
+     */
+    public long write(File file, int[] nodes, VisitCounters running) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        final int version = doneChunks != null ? CHUNKS_VERSION : packed ? PACKED_VERSION : VERSION;
+        final int flags = (partial ? 1 : 0) | (packed ? PACKED_FLAG : 0) | (doneChunks != null ? CHUNKS_FLAG : 0);
+        header.putInt(MAGIC).putInt(version).putInt(flags).putInt(nodes.length)
+                .putLong(maxNodeId).putLong(minNodeId).putLong(nodesPerRound).putLong(seed)
+                .putLong(walksPerRound).putLong(progress).putLong(System.currentTimeMillis()).putLong(0);
+        final CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, HEADER_SIZE);
+
+        long written = HEADER_SIZE;
+        final FileOutputStream os = new FileOutputStream(tmp);
+        try {
+            final FileChannel channel = os.getChannel();
+            channel.position(HEADER_SIZE);
+            final int[] chunk = new int[CHUNK];
+            final ByteBuffer buffer = ByteBuffer.allocate(packed ? packedChunkBytes() : CHUNK * INT_SIZE);
+            for (int position = 0; position < nodes.length; position += CHUNK) {
+                final int count = Math.min(CHUNK, nodes.length - position);
+                System.arraycopy(nodes, position, chunk, 0, count);
+                if (running != null) running.snapshotInto(chunk, 0, position, count);
+                buffer.clear();
+                if (packed) {
+                    buffer.position(INT_SIZE);
+                    for (int offset = 0; offset < count; offset += PackedInts.BLOCK_SIZE) {
+                        PackedInts.encode(chunk, offset, Math.min(PackedInts.BLOCK_SIZE, count - offset), buffer);
+                    }
+                    buffer.putInt(0, buffer.position() - INT_SIZE);
+                    buffer.flip();
+                } else {
+                    buffer.asIntBuffer().put(chunk, 0, count);
+                    buffer.limit(count * INT_SIZE);
+                }
+                crc.update(buffer.array(), 0, buffer.limit());
+                written += buffer.limit();
+                writeFully(channel, buffer);
+            }
+            if (doneChunks != null) {
+                final ByteBuffer bitmap = bitmap(doneChunks);
+                crc.update(bitmap.array(), 0, bitmap.limit());
+                written += bitmap.limit();
+                writeFully(channel, bitmap);
+            }
+            header.putLong(CHECKSUM_OFFSET, crc.getValue());
+            header.flip();
+            channel.position(0);
+            writeFully(channel, header);
+            channel.force(true);
+        } finally {
+            os.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // rename does not replace existing files on every platform
+            file.delete();
+            if (!tmp.renameTo(file)) throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+        return written;
+    }
+
+    public long getMaxNodeId() {
+        return maxNodeId;
+    }
+
+    public long getMinNodeId() {
+        return minNodeId;
+    }
+
+    public long getNodesPerRound() {
+        return nodesPerRound;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getWalksPerRound() {
+        return walksPerRound;
+    }
+
+    public boolean isPacked() {
+        return packed;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public long getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return the chunks done in a partial round with a walk budget, null if not recorded
+     */
+    public BitSet getDoneChunks() {
+        return doneChunks;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public int[] getNodes() {
+        return nodes;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) throw new IOException("Unexpected end of checkpoint");
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
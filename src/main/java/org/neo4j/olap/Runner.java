@@ -1,21 +1,25 @@
 package org.neo4j.olap;
 
 import org.neo4j.graphdb.DependencyResolver;
+import org.neo4j.graphdb.Direction;
 import org.neo4j.graphdb.Node;
 import org.neo4j.graphdb.Relationship;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
-import org.neo4j.helpers.Pair;
 import org.neo4j.helpers.collection.MapUtil;
 import org.neo4j.kernel.GraphDatabaseAPI;
 import org.neo4j.kernel.impl.core.NodeManager;
 import org.neo4j.kernel.impl.core.NodePreloader;
+import org.neo4j.kernel.impl.core.PageCacheWarmer;
 import org.neo4j.kernel.impl.core.Preloader;
 import org.neo4j.kernel.impl.core.RelationshipPreloader;
+import org.neo4j.kernel.impl.core.StoreScanner;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -29,8 +33,25 @@ public class Runner {
     public static final int MEMORY_PER_NODE = 1024;
     private static final int MEGABYTE = 1024 * 1024;
     private static final int timeInSeconds = 100;
+    private static final VisitCounters.Mode counterMode = VisitCounters.Mode.valueOf(System.getProperty("olap.counters", VisitCounters.Mode.BATCHED.name()));
+    private static final Algorithm algorithm = Algorithm.valueOf(System.getProperty("olap.algorithm", Algorithm.WALK.name()));
+    private static final long walksPerRound = Long.getLong("olap.walks", 0);
+    private static final long seed = Long.getLong("olap.seed", 42);
+    private static final long snapshotSeconds = Long.getLong("olap.snapshot", 60);
+    private static final long reportSeconds = Long.getLong("olap.report", 10);
+    private static final boolean compressSnapshots = Boolean.getBoolean("olap.compress");
+    private static final boolean packResults = Boolean.getBoolean("olap.packed");
+    private static final boolean warmStores = !"false".equals(System.getProperty("olap.warm"));
+    private static final String writeProperty = System.getProperty("olap.write");
+    private static final String weightProperty = System.getProperty("olap.weight");
+    private static final Relabeling.Order relabelOrder = Relabeling.Order.valueOf(System.getProperty("olap.relabel", Relabeling.Order.NONE.name()));
+
+    public enum Algorithm {WALK, POWER, PARTITIONED, COMPONENTS, SSSP, BETWEENNESS, SEGMENTS, REPAIR, SHARDED, WORKER}
 
     private final GraphDatabaseAPI db;
+    private Projection projection = Projection.ALL;
+    // set by the first full snapshot when olap.relabel is given, the ids of all later snapshots and counts
+    private Relabeling relabeling;
 
     public Runner(GraphDatabaseAPI db) {
         this.db = db;
@@ -38,7 +59,7 @@ public class Runner {
 
     public static void main(String[] args) throws Exception {
         final String path = args[0];
-        final GraphDatabaseAPI db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(path).setConfig(config()).newGraphDatabase();
+        final GraphDatabaseAPI db = (GraphDatabaseAPI) new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(path).setConfig(config(path)).newGraphDatabase();
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
@@ -52,32 +73,270 @@ public class Runner {
 
     public void runAnalysis(String file) throws Exception {
         System.out.println("threads = " + getMaxNumberOfThreads());
+        OlapMetrics.INSTANCE.start(reportSeconds);
         NodeManager nodeManager = db.getDependencyResolver().resolveDependency(NodeManager.class);
         long maxNodeId = nodeManager.getHighestPossibleIdInUse(Node.class) + 1;
+        projection = Projection.fromProperties().resolve(nodeManager, maxNodeId, Runtime.getRuntime().availableProcessors());
+        System.out.println("projection = " + projection);
+
+        if (algorithm == Algorithm.SEGMENTS || algorithm == Algorithm.REPAIR) {
+            final String segmentFile = file != null ? file : "walk_segments.ints";
+            // the visit counts of the segments are the ranking, a repair updates them in place in their own file
+            final int[] nodes = algorithm == Algorithm.SEGMENTS ? storeWalkSegments(maxNodeId, segmentFile) : repairWalkSegments(segmentFile);
+            OlapMetrics.INSTANCE.stop();
+            printTop(nodes, 10);
+            storeArray("page_rank.int", nodes);
+            return;
+        }
+        if (algorithm == Algorithm.WORKER) {
+            runShardWorker();
+            OlapMetrics.INSTANCE.stop();
+            return;
+        }
+        int[] nodes;
+        if (algorithm == Algorithm.POWER) {
+            nodes = runPowerIteration(maxNodeId);
+        } else if (algorithm == Algorithm.PARTITIONED) {
+            nodes = runPartitionedWalks(maxNodeId);
+        } else if (algorithm == Algorithm.SHARDED) {
+            nodes = runShardCoordinator(maxNodeId);
+        } else if (algorithm == Algorithm.COMPONENTS || algorithm == Algorithm.SSSP) {
+            nodes = runVertexProgram(maxNodeId);
+        } else {
+            AnalysisRound analysisRound = new AnalysisRound(file, maxNodeId).initialize();
+
+            analysisRound.runRounds();
+
+            nodes = analysisRound.getNodes();
+        }
+        OlapMetrics.INSTANCE.report();
+        OlapMetrics.INSTANCE.stop();
+        if (relabeling != null) nodes = relabeling.toOriginal(nodes);
+        printTop(nodes, 10);
+        storeArray("page_rank.int", nodes);
+        // a failed write-back continues with ScoreWriter from page_rank.int
+        if (writeProperty != null) ScoreWriter.fromProperties(db, writeProperty).write(nodes, ScoreWriter.progressFile(writeProperty));
+    }
+
+    private int[] runPowerIteration(long maxNodeId) throws ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        final Adjacency graph = loadSnapshot(0, maxNodeId);
+        // ranks are pulled against the direction of the projection
+        final Adjacency transpose = projection.getDirection() == Direction.BOTH ? graph : loadSnapshot(projection.reverse(), 0, maxNodeId);
+        System.out.printf("loaded snapshot of %d nodes, %d relationships in %d ms%n", maxNodeId, graph.getRelationshipCount(), System.currentTimeMillis() - time);
+        time = System.currentTimeMillis();
+        final PowerIterationPageRank pageRank = new PowerIterationPageRank(graph, transpose,
+                Double.parseDouble(System.getProperty("olap.damping", String.valueOf(PowerIterationPageRank.DEFAULT_DAMPING))),
+                Double.parseDouble(System.getProperty("olap.tolerance", String.valueOf(PowerIterationPageRank.DEFAULT_TOLERANCE))),
+                Integer.getInteger("olap.iterations", PowerIterationPageRank.DEFAULT_MAX_ITERATIONS),
+                Runtime.getRuntime().availableProcessors());
+        final int[] nodes = pageRank.toCounts(pageRank.compute());
+        System.out.printf("PageRank after %d iterations residual %.3e in %d ms%n", pageRank.getIterations(), pageRank.getResidual(), System.currentTimeMillis() - time);
+        return nodes;
+    }
 
-        AnalysisRound analysisRound = new AnalysisRound(file, maxNodeId).initialize();
+    /**
+     * Precomputes the segments for {@link PersonalizedPageRank} queries, {@code olap.segments} per node of
+     * {@code olap.segment.length} steps.
+     *
+     * @return the visit counts of the segments
+     */
+    private int[] storeWalkSegments(long maxNodeId, String file) throws ExecutionException, InterruptedException, IOException {
+        long time = System.currentTimeMillis();
+        final Adjacency graph = loadSnapshot(0, maxNodeId);
+        System.out.printf("loaded snapshot of %d nodes, %d relationships in %d ms%n", maxNodeId, graph.getRelationshipCount(), System.currentTimeMillis() - time);
+        final WalkSegments segments = WalkSegments.build(graph,
+                Integer.getInteger("olap.segments", WalkSegments.DEFAULT_SEGMENTS_PER_NODE),
+                Integer.getInteger("olap.segment.length", WalkSegments.DEFAULT_SEGMENT_LENGTH),
+                seed, Runtime.getRuntime().availableProcessors());
+        time = System.currentTimeMillis();
+        final long bytes = segments.store(file);
+        System.out.printf("Stored walk segments to %s, %d MB in %d ms%n", file, bytes / MEGABYTE, System.currentTimeMillis() - time);
+        final int[] counts = segments.countVisits();
+        newArrayStore(WalkSegments.countsFile(file).getPath()).write(counts);
+        return counts;
+    }
 
-        analysisRound.runRounds();
+    /**
+     * Walks the segments affected by the relationships logged to {@code olap.changes} by a {@link ChangeLog} again
+     * and updates their visit counts in the {@link WalkSegments#countsFile}, see {@link SegmentRepair}. The log is
+     * deleted once applied. Changes at nodes outside the segments, like new ones, need a new build with SEGMENTS.
+     *
+     * @return the updated visit counts
+     */
+    private int[] repairWalkSegments(String file) throws ExecutionException, InterruptedException, IOException {
+        final WalkSegments segments = WalkSegments.openWritable(file);
+        final File countsFile = WalkSegments.countsFile(file);
+        if (!countsFile.exists()) throw new IOException("No visit counts " + countsFile + " of " + file + ", build the segments again with -Dolap.algorithm=SEGMENTS");
+        final OffHeapIntArray counts = new ArrayStore(countsFile.getPath()).map(true);
+        final File log = new File(System.getProperty("olap.changes", "changes.log"));
+        final File redo = SegmentRepair.redoFile(file);
+        final Adjacency graph = new DatabaseAdjacency(db, projection, segments.getMinNodeId(), segments.getNodeCount());
+        final SegmentRepair repair = new SegmentRepair(segments, counts, graph, Runtime.getRuntime().availableProcessors());
+        // a crash while applying left a redo file, the log would be applied to partly rewritten segments
+        if (!repair.replay(redo)) {
+            final ChangeLog.Changes changes = ChangeLog.read(log, segments.getMinNodeId(), segments.getNodeCount());
+            if (changes.getOutside() > 0) {
+                System.err.printf("%d changed relationship ends outside the %d nodes from %d of the segments are not repaired, build the segments again with -Dolap.algorithm=SEGMENTS%n",
+                        changes.getOutside(), segments.getNodeCount(), segments.getMinNodeId());
+            }
+            // the rewalked segments read the stores through the database, unlike snapshots, which scan them once
+            if (warmStores) warmStores(segments.getMinNodeId(), segments.getNodeCount());
+            repair.repair(changes, seed + log.lastModified(), redo);
+        }
+        // segments and counts are forced, the redo file goes last so a crash in between replays it again
+        log.delete();
+        redo.delete();
+        final int[] nodes = new int[(int) counts.length()];
+        counts.get(0, nodes, 0, nodes.length);
+        return nodes;
+    }
 
-        final int[] nodes = analysisRound.getNodes();
-        printTop(nodes, 10);
-        storeArray("page_rank.int", nodes);
+    /**
+     * Runs connected components, storing the size of each node's component, or hop distances from
+     * {@code olap.source}, storing -1 for unreachable nodes. Components are weakly connected, they ignore the
+     * direction of the projection, hop distances follow it.
+     */
+    private int[] runVertexProgram(long maxNodeId) throws ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        final Adjacency graph = loadSnapshot(algorithm == Algorithm.COMPONENTS ? projection.undirected() : projection, 0, maxNodeId);
+        System.out.printf("loaded snapshot of %d nodes, %d relationships in %d ms%n", maxNodeId, graph.getRelationshipCount(), System.currentTimeMillis() - time);
+        final VertexProgram program = algorithm == Algorithm.COMPONENTS ? new ConnectedComponents() : new SingleSourceShortestPaths(toInternal(Long.getLong("olap.source", 0)));
+        final long[] values = new BspEngine(graph, Runtime.getRuntime().availableProcessors())
+                .run(program, Integer.getInteger("olap.supersteps", Integer.MAX_VALUE));
+        final int[] nodes = new int[(int) maxNodeId];
+        if (algorithm == Algorithm.COMPONENTS) {
+            int components = 0;
+            for (long label : values) {
+                if (nodes[(int) label]++ == 0) components++;
+            }
+            // labels are the smallest id of their component, so sizes are read before they are overwritten
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = nodes[(int) values[i]];
+            }
+            System.out.printf("Found %d connected components%n", components);
+        } else {
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = values[i] == SingleSourceShortestPaths.UNREACHABLE ? -1 : (int) values[i];
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Walks across partitions of {@link #determineNodesPerRound} nodes, spilling walks that leave the loaded one.
+     * Runs {@code olap.walks} walks, one per node by default.
+     */
+    private int[] runPartitionedWalks(long maxNodeId) throws ExecutionException, InterruptedException, IOException {
+        final NodeManager nodeManager = db.getDependencyResolver().resolveDependency(NodeManager.class);
+        final long highestRelId = nodeManager.getHighestPossibleIdInUse(Relationship.class);
+        final PartitionedWalks walks = new PartitionedWalks(new StoreScanner(db.getStoreDir()).relationships(highestRelId), projection,
+                maxNodeId, determineNodesPerRound(maxNodeId), counterMode, Runtime.getRuntime().availableProcessors(),
+                new File(System.getProperty("olap.spill", "walks")));
+        walks.setMaxSweeps(Integer.getInteger("olap.sweeps", PartitionedWalks.DEFAULT_MAX_SWEEPS));
+        walks.setCompressed(compressSnapshots);
+        final int[] nodes = new int[(int) maxNodeId];
+        walks.run(nodes, walksPerRound > 0 ? walksPerRound : maxNodeId, seed);
+        return nodes;
+    }
+
+    /**
+     * Coordinates {@code olap.workers} {@link ShardWorker}s started with {@code -Dolap.algorithm=WORKER} on the same
+     * store, listening on {@code olap.port}. Runs {@code olap.walks} walks, one per node by default, for at most
+     * {@code olap.supersteps} supersteps. Workers and coordinator wait {@code olap.timeout} seconds for a message.
+     */
+    private int[] runShardCoordinator(long maxNodeId) throws IOException, ExecutionException, InterruptedException {
+        final ShardCoordinator coordinator = new ShardCoordinator(Integer.getInteger("olap.port", ShardCoordinator.DEFAULT_PORT),
+                Integer.getInteger("olap.workers", 2), maxNodeId, walksPerRound > 0 ? walksPerRound : maxNodeId, seed);
+        coordinator.setMaxSupersteps(Integer.getInteger("olap.supersteps", ShardCoordinator.DEFAULT_MAX_SUPERSTEPS));
+        coordinator.setTimeout(Integer.getInteger("olap.timeout", ShardCoordinator.DEFAULT_TIMEOUT_SECONDS) * 1000);
+        System.out.printf("Waiting for workers on port %d%n", coordinator.getPort());
+        return coordinator.run();
     }
 
-    private void storeRound(int[] nodes, long nodesPerRound, long minNodeId) throws IOException {
-        storeArray(roundFileName(minNodeId, nodesPerRound), nodes);
-        final File previousFile = new File(roundFileName(minNodeId - nodesPerRound, nodesPerRound));
-        previousFile.delete();
+    /**
+     * Walks the shard assigned by the coordinator at {@code olap.coordinator} (host:port), which gets the counts.
+     */
+    private void runShardWorker() throws IOException, ExecutionException, InterruptedException {
+        final String address = System.getProperty("olap.coordinator", "localhost:" + ShardCoordinator.DEFAULT_PORT);
+        final int colon = address.lastIndexOf(':');
+        final NodeManager nodeManager = db.getDependencyResolver().resolveDependency(NodeManager.class);
+        final long highestRelId = nodeManager.getHighestPossibleIdInUse(Relationship.class);
+        final ShardWorker worker = new ShardWorker(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)),
+                new StoreScanner(db.getStoreDir()).relationships(highestRelId), projection, counterMode, Runtime.getRuntime().availableProcessors());
+        worker.setCompressed(compressSnapshots);
+        worker.setTimeout(Integer.getInteger("olap.timeout", ShardCoordinator.DEFAULT_TIMEOUT_SECONDS) * 1000);
+        worker.run();
+    }
+
+    /**
+     * Checkpoints the finished round as the start of the next one, the files of the finished round are only
+     * deleted after the new checkpoint is durable.
+     */
+    private void storeRound(AnalysisRound round, long nodeCount) throws IOException {
+        long time = System.currentTimeMillis();
+        final long nextNodeId = round.minNodeId + nodeCount;
+        new RoundCheckpoint(round.maxNodeId, nextNodeId, round.nodesPerRound, round.seed, round.walksPerRound, false, 0)
+                .withPacked(packResults).write(new File(roundFileName(nextNodeId, round.nodesPerRound)), round.nodes, null);
+        System.out.printf("Checkpointed %d nodes next round %d in %d ms.%n", round.nodes.length, nextNodeId, System.currentTimeMillis() - time);
+        new File(roundFileName(round.minNodeId, round.nodesPerRound)).delete();
+        new File(partialFileName(round.minNodeId, round.nodesPerRound)).delete();
     }
 
     private String roundFileName(long minNodeId, long nodesPerRound) {
-        return String.format("page_rank_%d_%d.int", minNodeId, nodesPerRound);
+        return String.format("page_rank_%d_%d.round", minNodeId, nodesPerRound);
+    }
+
+    private String partialFileName(long minNodeId, long nodesPerRound) {
+        return String.format("page_rank_%d_%d.partial", minNodeId, nodesPerRound);
+    }
+
+    /**
+     * Periodically calls {@code snapshot}, which writes the partial checkpoint of the running round and returns
+     * its progress.
+     */
+    private ScheduledExecutorService startSnapshots(final AnalysisRound round, final long nodeCount, final Callable<Long> snapshot) {
+        if (snapshotSeconds <= 0) return null;
+        final ScheduledExecutorService snapshots = Executors.newSingleThreadScheduledExecutor();
+        snapshots.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    long time = System.currentTimeMillis();
+                    final long done = snapshot.call();
+                    System.out.printf("Snapshot of round %d + %d at progress %d in %d ms.%n", round.minNodeId, nodeCount, done, System.currentTimeMillis() - time);
+                } catch (Exception e) {
+                    System.out.println("Snapshot failed " + e.getMessage());
+                }
+            }
+        }, snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+        return snapshots;
     }
 
-    private void storeArray(String fileName, int[] nodes) throws IOException {
+    /**
+     * Writes the counts of the finished rounds plus those of the running one to the partial checkpoint.
+     */
+    private void writePartial(AnalysisRound round, VisitCounters counters, long progress, BitSet doneChunks) throws IOException {
+        new RoundCheckpoint(round.maxNodeId, round.minNodeId, round.nodesPerRound, round.seed, round.walksPerRound, true, progress)
+                .withPacked(packResults).withDoneChunks(doneChunks)
+                .write(new File(partialFileName(round.minNodeId, round.nodesPerRound)), round.nodes, counters);
+    }
+
+    private void stopSnapshots(ScheduledExecutorService snapshots) throws InterruptedException {
+        if (snapshots == null) return;
+        snapshots.shutdown();
+        snapshots.awaitTermination(1, TimeUnit.HOURS);
+    }
+
+    /**
+     * With {@code olap.packed} the counts are stored {@link ArrayStore#writePacked packed}, except the counts of
+     * walk segments, which a repair updates in a mapping of the file.
+     */
+    private void storeArray(String fileName, int[] nodes) throws IOException, ExecutionException, InterruptedException {
         long time = System.currentTimeMillis();
-        newArrayStore(fileName).write(nodes);
-        System.out.printf("Stored %d nodes in %d ms.%n", nodes.length, System.currentTimeMillis() - time);
+        final long bytes = packResults
+                ? newArrayStore(fileName).writePacked(nodes, Runtime.getRuntime().availableProcessors())
+                : newArrayStore(fileName).write(nodes);
+        System.out.printf("Stored %d nodes in %d bytes in %d ms.%n", nodes.length, bytes, System.currentTimeMillis() - time);
     }
 
     protected int[] loadArray(final String fileName) throws IOException {
@@ -88,15 +347,32 @@ public class Runner {
     }
 
     private ArrayStore newArrayStore(String fileName) {
-        return new ArrayStore(fileName);
+        return new ArrayStore(fileName, true);
     }
 
+    /**
+     * With {@code olap.compress} the memory per node is estimated from the average degree of the store instead of
+     * {@link #MEMORY_PER_NODE}. Betweenness rounds also hold the {@link PathSampler} of every runner thread and, on a
+     * directed projection, the snapshot of the reversed projection. SHARDED counters hold an int per node and thread.
+     */
     private long determineNodesPerRound(long maxNodeId) {
         long memory = Runtime.getRuntime().freeMemory();
-        long nodesInMemory = memory / 2 / MEMORY_PER_NODE;
+        long memoryPerNode = MEMORY_PER_NODE;
+        if (compressSnapshots) {
+            final NodeManager nodeManager = db.getDependencyResolver().resolveDependency(NodeManager.class);
+            final long relationships = nodeManager.getHighestPossibleIdInUse(Relationship.class) + 1;
+            // the compressed lists and the int count of each node
+            memoryPerNode = CompressedGraph.estimateBytes(maxNodeId, relationships) / Math.max(1, maxNodeId) + Integer.SIZE / 8;
+        }
+        if (algorithm == Algorithm.BETWEENNESS) {
+            if (projection.getDirection() != Direction.BOTH) memoryPerNode *= 2;
+            memoryPerNode += (long) getMaxNumberOfThreads() * PathSampler.BYTES_PER_NODE;
+        }
+        if (counterMode == VisitCounters.Mode.SHARDED) memoryPerNode += (long) getMaxNumberOfThreads() * Integer.SIZE / 8;
+        long nodesInMemory = memory / 2 / memoryPerNode;
         final long nodesPerRound = Math.min(nodesInMemory, maxNodeId);
 
-        System.out.printf("maxNodeId = %d memory %d MB nodes in memory %d nodesPerRound %d%n", maxNodeId, memory / MEGABYTE, nodesInMemory, nodesPerRound);
+        System.out.printf("maxNodeId = %d memory %d MB per node %d bytes nodes in memory %d nodesPerRound %d%n", maxNodeId, memory / MEGABYTE, memoryPerNode, nodesInMemory, nodesPerRound);
         return nodesPerRound;
     }
 
@@ -104,32 +380,150 @@ public class Runner {
         return Runtime.getRuntime().availableProcessors() * 2;
     }
 
-    private void runRound(int[] nodes, long minNodeId, long nodeCount) throws ExecutionException, InterruptedException {
-        final DependencyResolver dependencyResolver = db.getDependencyResolver();
+    private void runRound(final AnalysisRound round, long nodeCount) throws ExecutionException, InterruptedException {
         final int processors = getMaxNumberOfThreads();
+        final long minNodeId = round.minNodeId;
 
         long time = System.currentTimeMillis();
-        // nodeManager.clearCache();
-        long nodeAndRelCount = fillCache(minNodeId, nodeCount, processors / 4, dependencyResolver);
-        System.out.printf("filled cache with up to %d nodes, %d nodes+relationships in %d ms, memory %d MB%n", nodeCount, nodeAndRelCount,
+        final Adjacency graph = loadSnapshot(minNodeId, nodeCount);
+        System.out.printf("loaded snapshot of %d nodes, %d relationships in %d ms, memory %d MB%n", nodeCount, graph.getRelationshipCount(),
                 System.currentTimeMillis() - time, Runtime.getRuntime().freeMemory() / MEGABYTE);
 
 
+        if (round.walksPerRound > 0 && algorithm == Algorithm.WALK) {
+            runScheduledRound(graph, round, nodeCount);
+            return;
+        }
+        // a resumed round only runs for the time that was left
+        final int seconds = (int) Math.max(1, timeInSeconds - round.progress / 1000);
+        OlapMetrics.INSTANCE.startRound(minNodeId, nodeCount, 0, seconds * 1000L);
+        final long start = System.currentTimeMillis() - round.progress;
+        // the paths towards the target of a pair follow the relationships backwards
+        final Adjacency reverse = algorithm == Algorithm.BETWEENNESS && projection.getDirection() != Direction.BOTH
+                ? loadSnapshot(projection.reverse(), minNodeId, nodeCount) : graph;
+        final VisitCounters counters = VisitCounters.create(counterMode, minNodeId, nodeCount, processors);
         final ExecutorService pool = Executors.newFixedThreadPool(processors);
         Collection<OlapRunner> runners = new ArrayList<OlapRunner>();
+        final Collection<Future<?>> futures = new ArrayList<Future<?>>(processors);
         for (int i = 0; i < processors; i++) {
-            final OlapRunner runner = createRunner(db, nodes, minNodeId, nodeCount, i);
+            final OlapRunner runner = createRunner(db, graph, reverse, counters.forThread(i), i, seconds);
             runners.add(runner);
-            pool.submit(runner);
+            futures.add(pool.submit(runner));
         }
         pool.shutdown();
-        pool.awaitTermination(timeInSeconds * 2, TimeUnit.SECONDS);
-        pool.shutdownNow();
-        printNumbers(runners, timeInSeconds);
+        // timed rounds have no result to reproduce, they are snapshot while the walkers run
+        final ScheduledExecutorService snapshots = startSnapshots(round, nodeCount, new Callable<Long>() {
+            public Long call() throws IOException {
+                final long progress = System.currentTimeMillis() - start;
+                writePartial(round, counters, progress, null);
+                return progress;
+            }
+        });
+        try {
+            if (!pool.awaitTermination(seconds * 2, TimeUnit.SECONDS)) pool.shutdownNow();
+            // interrupted runners still flush their counters before they return
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            stopSnapshots(snapshots);
+        }
+        counters.mergeInto(round.nodes);
+        counters.printStatistics();
+        printNumbers(runners, seconds);
     }
 
-    protected RandomWalkingRunner createRunner(GraphDatabaseAPI db, int[] nodes, long minNodeId, long nodeCount, int i) {
-        return new RandomWalkingRunner(db, i, minNodeId, nodeCount, timeInSeconds, nodes);
+    /**
+     * Runs a fixed budget of walks, the counts only depend on the seed and the round, optionally stops at a deadline.
+     */
+    private void runScheduledRound(Adjacency graph, final AnalysisRound round, long nodeCount) throws ExecutionException, InterruptedException {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final VisitCounters counters = VisitCounters.create(counterMode, round.minNodeId, nodeCount, threads);
+        final WalkScheduler scheduler = new WalkScheduler(graph, counters, threads, Integer.getInteger("olap.chunk", WalkScheduler.DEFAULT_WALKS_PER_CHUNK));
+        final long deadlineSeconds = Long.getLong("olap.deadline", 0);
+        final long deadline = deadlineSeconds > 0 ? System.currentTimeMillis() + deadlineSeconds * 1000 : 0;
+        // a resumed round skips the chunks in its checkpoint and walks the others with their original seeds
+        final BitSet done = round.doneChunks != null ? round.doneChunks : new BitSet();
+        OlapMetrics.INSTANCE.startRound(round.minNodeId, nodeCount, round.walksPerRound - round.progress, 0);
+        final ScheduledExecutorService snapshots = startSnapshots(round, nodeCount, new Callable<Long>() {
+            public Long call() throws IOException {
+                final long[] progress = new long[1];
+                scheduler.checkpoint(new WalkScheduler.Checkpoint() {
+                    public void write(BitSet doneChunks, long walks) throws IOException {
+                        writePartial(round, counters, walks, doneChunks);
+                        progress[0] = walks;
+                    }
+                });
+                return progress[0];
+            }
+        });
+        final WalkScheduler.Result result;
+        try {
+            if (round.doneChunks == null && round.progress > 0) {
+                // checkpoints without chunks only record the number of walks done
+                result = scheduler.run(round.walksPerRound - round.progress, round.seed + round.minNodeId + round.progress, deadline);
+            } else {
+                result = scheduler.run(round.walksPerRound, round.seed + round.minNodeId, deadline, done);
+            }
+        } finally {
+            stopSnapshots(snapshots);
+        }
+        counters.mergeInto(round.nodes);
+        counters.printStatistics();
+        result.print();
+    }
+
+    /**
+     * @param reverse the snapshot of the reversed projection for betweenness on a directed projection, otherwise {@code graph}
+     */
+    protected OlapRunner createRunner(GraphDatabaseAPI db, Adjacency graph, Adjacency reverse, VisitCounter counter, int i, int seconds) {
+        if (algorithm == Algorithm.BETWEENNESS) {
+            return new PathSamplingRunner(db, i, graph, reverse, seconds, counter, Integer.getInteger("olap.depth", PathSamplingRunner.DEFAULT_MAX_DEPTH));
+        }
+        return new SnapshotWalkingRunner(db, i, graph, seconds, counter);
+    }
+
+    protected Adjacency loadSnapshot(long minNodeId, long nodeCount) throws ExecutionException, InterruptedException {
+        return loadSnapshot(projection, minNodeId, nodeCount);
+    }
+
+    /**
+     * With {@code olap.relabel} a snapshot of all nodes is relabeled, the counts of walks on it are in relabeled
+     * ids until {@link #runAnalysis} maps them back. Snapshots of node ranges and for stored walk segments keep the
+     * store ids. With {@code olap.compress} snapshots are loaded as {@link CompressedGraph}. With {@code olap.weight}
+     * snapshots are loaded as {@link WeightedGraph} with the relationship property of that name as weight, neither
+     * relabeled nor compressed.
+     */
+    protected Adjacency loadSnapshot(Projection projection, long minNodeId, long nodeCount) throws ExecutionException, InterruptedException {
+        final NodeManager nodeManager = db.getDependencyResolver().resolveDependency(NodeManager.class);
+        final long highestRelId = nodeManager.getHighestPossibleIdInUse(Relationship.class);
+        final EdgeSource edges = new StoreScanner(db.getStoreDir()).relationships(highestRelId);
+        final int threads = Runtime.getRuntime().availableProcessors();
+        final long maxNodeId = nodeManager.getHighestPossibleIdInUse(Node.class) + 1;
+        if (weightProperty != null) {
+            return projection.weightedSnapshot(edges, WeightedGraph.property(db, weightProperty), minNodeId, nodeCount, threads);
+        }
+        if (relabelOrder == Relabeling.Order.NONE || algorithm == Algorithm.SEGMENTS || minNodeId != 0 || nodeCount != maxNodeId) {
+            return compressSnapshots ? projection.compressedSnapshot(edges, minNodeId, nodeCount, threads) : projection.snapshot(edges, minNodeId, nodeCount);
+        }
+        final CsrGraph graph = projection.snapshot(edges, minNodeId, nodeCount);
+        if (relabeling == null) relabeling = Relabeling.compute(graph, relabelOrder);
+        final CsrGraph relabeled = relabeling.apply(graph, threads);
+        return compressSnapshots ? CompressedGraph.compress(relabeled, threads) : relabeled;
+    }
+
+    private long toInternal(long nodeId) {
+        return relabeling == null ? nodeId : relabeling.toInternal(nodeId);
+    }
+
+    /**
+     * Reads the store records of the node range into the page cache before walks that read them through the
+     * database, unless {@code olap.warm=false}.
+     */
+    protected long warmStores(long minNodeId, long nodeCount) throws ExecutionException, InterruptedException {
+        final NodeManager nodeManager = db.getDependencyResolver().resolveDependency(NodeManager.class);
+        final long highestRelId = nodeManager.getHighestPossibleIdInUse(Relationship.class);
+        return new PageCacheWarmer(db.getStoreDir(), getMaxNumberOfThreads()).warm(minNodeId, nodeCount, highestRelId);
     }
 
     protected long fillCache(final long minNodeId, final long nodeCount, int processors, final DependencyResolver dependencyResolver) throws ExecutionException, InterruptedException {
@@ -146,17 +540,17 @@ public class Runner {
 
     private long preloadNodes(long minNodeId, long nodeCount, int processors, DependencyResolver dependencyResolver, ExecutorService pool) throws InterruptedException, ExecutionException {
         long time=System.currentTimeMillis();
-        final long nodeSegment = nodeCount / processors;
+        final long nodeSegment = (nodeCount + processors - 1) / processors;
         Collection<Future<Integer>> futures = new ArrayList<Future<Integer>>(processors);
         for (int i = 0; i < processors; i++) {
-            Preloader loader = new NodePreloader(i,nodeSegment,minNodeId,nodeSegment, dependencyResolver);
+            Preloader loader = new NodePreloader(i, nodeSegment, minNodeId, nodeCount, dependencyResolver, db.getStoreDir(), projection);
             futures.add(pool.submit(loader));
         }
         long count = 0;
         for (Future<Integer> future : futures) {
             count += future.get();
         }
-        System.out.printf("Preloaded %d nodes and relationships in %d ms%n",count,(System.currentTimeMillis()-time));
+        System.out.printf("Preloaded %d nodes in %d ms%n",count,(System.currentTimeMillis()-time));
         return count;
     }
 
@@ -166,11 +560,11 @@ public class Runner {
         final NodeManager nodeManager = dependencyResolver.resolveDependency(NodeManager.class);
 
         final long highestRelId = nodeManager.getHighestPossibleIdInUse(Relationship.class);
-        final long relSegment = highestRelId / processors;
+        final long relSegment = (highestRelId + processors) / processors;
 
         Collection<Future<Integer>> futures = new ArrayList<Future<Integer>>(processors);
         for (int i = 0; i < processors; i++) {
-            Callable<Integer> loader = new RelationshipPreloader(i, relSegment, minNodeId, nodeCount,dependencyResolver);
+            Callable<Integer> loader = new RelationshipPreloader(i, relSegment, minNodeId, nodeCount,dependencyResolver, db.getStoreDir(), projection);
             futures.add(pool.submit(loader));
         }
         long count = 0;
@@ -190,11 +584,12 @@ public class Runner {
         System.out.printf("In %d seconds %d paths %d nodes %n", timeInSeconds, pathCount, nodeCount);
     }
 
-    protected void printTop(int[] nodes, int howMany) {
-        final TopNSelector selector = new TopNSelector(nodes);
-        for (Pair<Integer, Integer> pair : selector.selectTopN(howMany)) {
-            System.out.printf("Node %d Count %d%n", pair.first(), pair.other());
+    protected void printTop(int[] nodes, int howMany) throws ExecutionException, InterruptedException {
+        final TopNSelector.TopN top = new TopNSelector(nodes).select(howMany);
+        for (int i = 0; i < top.size(); i++) {
+            System.out.printf("Node %d Count %d%n", top.getId(i), top.getCount(i));
         }
+        System.out.printf("Counts %s%n", top.getHistogram());
     }
 
     static Map<String, String> config() {
@@ -205,14 +600,7 @@ public class Runner {
             } else {
                 System.out.println("Writing Configuration File to batch.properties");
                 FileWriter fw = new FileWriter("batch.properties");
-                fw.append("use_memory_mapped_buffers=true\n"
-                        + "neostore.nodestore.db.mapped_memory=100M\n"
-                        + "neostore.relationshipstore.db.mapped_memory=500M\n"
-                        + "neostore.propertystore.db.mapped_memory=1G\n"
-                        + "neostore.propertystore.db.strings.mapped_memory=200M\n"
-                        + "neostore.propertystore.db.arrays.mapped_memory=0M\n"
-                        + "neostore.propertystore.db.index.keys.mapped_memory=15M\n"
-                        + "neostore.propertystore.db.index.mapped_memory=15M");
+                fw.append("use_memory_mapped_buffers=true\n");
                 fw.close();
             }
 
@@ -224,11 +612,27 @@ public class Runner {
         return config;
     }
 
+    /**
+     * {@link #config()} with the {@code mapped_memory} windows sized for the store at {@code storeDir} by
+     * {@link MappedMemory}, settings of batch.properties take precedence.
+     */
+    static Map<String, String> config(String storeDir) {
+        final Map<String, String> config = config();
+        for (Map.Entry<String, String> setting : MappedMemory.forStore(storeDir).entrySet()) {
+            if (!config.containsKey(setting.getKey())) config.put(setting.getKey(), setting.getValue());
+        }
+        return config;
+    }
+
     public class AnalysisRound {
         private String file;
         private long maxNodeId;
         private long minNodeId;
         private long nodesPerRound;
+        private long seed = Runner.seed;
+        private long walksPerRound = Runner.walksPerRound;
+        private long progress;
+        private BitSet doneChunks;
         private int[] nodes;
 
         public AnalysisRound(String file, long maxNodeId) {
@@ -252,11 +656,30 @@ public class Runner {
             return nodes;
         }
 
+        /**
+         * @return walks or milliseconds already done in the first round when resuming a partial checkpoint
+         */
+        public long getProgress() {
+            return progress;
+        }
+
         public AnalysisRound initialize() throws IOException {
             if (file == null) {
                 minNodeId = 0;
                 nodes = new int[(int) maxNodeId];
                 nodesPerRound = determineNodesPerRound(maxNodeId);
+            } else if (RoundCheckpoint.isCheckpoint(new File(file))) {
+                final RoundCheckpoint checkpoint = RoundCheckpoint.read(new File(file));
+                minNodeId = checkpoint.getMinNodeId();
+                nodesPerRound = checkpoint.getNodesPerRound();
+                seed = checkpoint.getSeed();
+                walksPerRound = checkpoint.getWalksPerRound();
+                progress = checkpoint.isPartial() ? checkpoint.getProgress() : 0;
+                doneChunks = checkpoint.isPartial() ? checkpoint.getDoneChunks() : null;
+                nodes = checkpoint.getNodes();
+                if (nodes.length < maxNodeId) nodes = Arrays.copyOf(nodes, (int) maxNodeId);
+                System.out.printf("Resuming %s round %d + %d progress %d of checkpoint from %tc%n", checkpoint.isPartial() ? "partial" : "at",
+                        minNodeId, nodesPerRound, progress, checkpoint.getCreated());
             } else {
                 final String[] parts = file.split("[_.]");
                 minNodeId = Long.parseLong(parts[2]);
@@ -267,9 +690,12 @@ public class Runner {
         }
 
         public void runRounds() throws Exception {
-            for (; minNodeId + nodesPerRound < maxNodeId; minNodeId += nodesPerRound) {
-                runRound(nodes, minNodeId, nodesPerRound);
-                storeRound(nodes, nodesPerRound, minNodeId);
+            for (; minNodeId < maxNodeId; minNodeId += nodesPerRound) {
+                final long nodeCount = Math.min(nodesPerRound, maxNodeId - minNodeId);
+                runRound(this, nodeCount);
+                storeRound(this, nodeCount);
+                progress = 0;
+                doneChunks = null;
             }
         }
     }
@@ -0,0 +1,217 @@
+package org.neo4j.olap;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the counts of an analysis back to the graph as a node property, either as int count or normalized by the
+ * sum of all counts as double score. The node ids are split into ranges of {@link #NODES_PER_RANGE} written by
+ * parallel threads in transactions of at most {@code batchSize} nodes, so the transaction state stays small.
+ * <p>
+ * Finished ranges are recorded in a progress file. A write-back that failed continues with the unfinished ranges
+ * when it is run again with the same progress file, ranges that were partially written are written again.
+ * The progress file is deleted once all ranges are done.
+ * Usage: ScoreWriter storeDir countFile property
+ *
+ * @author mh
+ * @since 14.01.13
+ */
+public class ScoreWriter {
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    static final int NODES_PER_RANGE = 1 << 20;
+
+    private final GraphDatabaseService db;
+    private final String property;
+    private final int batchSize;
+    private final boolean normalize;
+    private final int threads;
+    private final int nodesPerRange;
+
+    public ScoreWriter(GraphDatabaseService db, String property, int batchSize, boolean normalize, int threads) {
+        this(db, property, batchSize, normalize, threads, NODES_PER_RANGE);
+    }
+
+    ScoreWriter(GraphDatabaseService db, String property, int batchSize, boolean normalize, int threads, int nodesPerRange) {
+        this.db = db;
+        this.property = property;
+        this.batchSize = batchSize;
+        this.normalize = normalize;
+        this.threads = threads;
+        this.nodesPerRange = nodesPerRange;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabaseBuilder(args[0]).setConfig(Runner.config(args[0])).newGraphDatabase();
+        try {
+            final int[] counts = new ArrayStore(args[1], true).read();
+            fromProperties(db, args[2]).write(counts, progressFile(args[2]));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    /**
+     * Configured with {@code olap.write.batch} and {@code olap.write.normalize}.
+     */
+    public static ScoreWriter fromProperties(GraphDatabaseService db, String property) {
+        return new ScoreWriter(db, property, Integer.getInteger("olap.write.batch", DEFAULT_BATCH_SIZE),
+                Boolean.getBoolean("olap.write.normalize"), Runtime.getRuntime().availableProcessors());
+    }
+
+    public static File progressFile(String property) {
+        return new File(property + ".progress");
+    }
+
+    /**
+     * @return the number of nodes written, nodes that do not exist are skipped
+     */
+    public long write(final int[] counts, File progressFile) throws IOException, ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        final int ranges = (counts.length + nodesPerRange - 1) / nodesPerRange;
+        final Progress progress = Progress.open(progressFile, counts.length, nodesPerRange);
+        final double total = normalize ? total(counts) : 0;
+        final AtomicLong written = new AtomicLong();
+        final AtomicInteger finished = new AtomicInteger(progress.getDone());
+        if (finished.get() > 0) System.out.printf("Resuming write-back of %s with %d of %d ranges done%n", property, finished.get(), ranges);
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int r = 0; r < ranges; r++) {
+                if (progress.isDone(r)) continue;
+                final int range = r;
+                futures.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        final long rangeTime = System.currentTimeMillis();
+                        final int from = range * nodesPerRange;
+                        final int to = Math.min(counts.length, from + nodesPerRange);
+                        long count = 0;
+                        for (int batch = from; batch < to; batch += batchSize) {
+                            count += writeBatch(counts, batch, Math.min(to, batch + batchSize), total);
+                        }
+                        progress.markDone(range);
+                        written.addAndGet(count);
+                        System.out.printf("Wrote %s of %d nodes of range %d, %d of %d ranges done in %d ms%n",
+                                property, count, range, finished.incrementAndGet(), ranges, System.currentTimeMillis() - rangeTime);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+            progress.close();
+        }
+        progressFile.delete();
+        System.out.printf("Wrote %s of %d nodes in %d ms%n", property, written.get(), System.currentTimeMillis() - time);
+        return written.get();
+    }
+
+    private long writeBatch(int[] counts, int from, int to, double total) {
+        long count = 0;
+        final Transaction tx = db.beginTx();
+        try {
+            for (int id = from; id < to; id++) {
+                try {
+                    db.getNodeById(id).setProperty(property, normalize ? (Object) score(counts[id], total) : (Object) counts[id]);
+                    count++;
+                } catch (NotFoundException nfe) {
+                    // deleted node
+                }
+            }
+            tx.success();
+        } finally {
+            tx.finish();
+        }
+        return count;
+    }
+
+    static double total(int[] counts) {
+        long total = 0;
+        for (int count : counts) {
+            if (count > 0) total += count;
+        }
+        return total;
+    }
+
+    static double score(int count, double total) {
+        return total == 0 ? 0 : count / total;
+    }
+
+    /**
+     * One byte per range after a header of the node count and range size, a range is marked once all of its
+     * transactions are committed.
+     */
+    static class Progress {
+        private static final int MAGIC = 0x5C09E001;
+        static final int HEADER_SIZE = 16;
+
+        private final RandomAccessFile file;
+        private final byte[] done;
+
+        private Progress(RandomAccessFile file, byte[] done) {
+            this.file = file;
+            this.done = done;
+        }
+
+        static Progress open(File progressFile, long nodeCount, int nodesPerRange) throws IOException {
+            final int ranges = (int) ((nodeCount + nodesPerRange - 1) / nodesPerRange);
+            final boolean exists = progressFile.exists();
+            final RandomAccessFile file = new RandomAccessFile(progressFile, "rw");
+            final byte[] done = new byte[ranges];
+            if (exists) {
+                if (file.length() != HEADER_SIZE + ranges || file.readInt() != MAGIC || file.readLong() != nodeCount || file.readInt() != nodesPerRange) {
+                    file.close();
+                    throw new IOException("Progress file " + progressFile + " does not belong to a write-back of " + nodeCount + " nodes");
+                }
+                file.readFully(done);
+            } else {
+                file.writeInt(MAGIC);
+                file.writeLong(nodeCount);
+                file.writeInt(nodesPerRange);
+                file.write(done);
+                file.getChannel().force(false);
+            }
+            return new Progress(file, done);
+        }
+
+        synchronized boolean isDone(int range) {
+            return done[range] != 0;
+        }
+
+        synchronized int getDone() {
+            int count = 0;
+            for (byte range : done) {
+                if (range != 0) count++;
+            }
+            return count;
+        }
+
+        synchronized void markDone(int range) throws IOException {
+            done[range] = 1;
+            file.seek(HEADER_SIZE + range);
+            file.write(1);
+            file.getChannel().force(false);
+        }
+
+        void close() throws IOException {
+            file.close();
+        }
+    }
+}
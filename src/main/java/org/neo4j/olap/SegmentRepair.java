@@ -0,0 +1,334 @@
+package org.neo4j.olap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Brings stored {@link WalkSegments} and their visit counts up to date after relationships changed, instead of
+ * walking all segments again. A segment only has to change from the first step it takes at a node whose
+ * relationships changed, so that step and the rest of the segment are walked again on the current graph and
+ * the counts of the old steps are replaced by those of the new ones. Resampling the whole step instead of
+ * only moving the walks that now take a new relationship keeps the segments distributed as fresh walks.
+ * <p>
+ * Segments are scanned in parallel chunks for changed nodes, the walks go to {@code graph}, usually a
+ * {@link DatabaseAdjacency}, which has to be thread safe. The counts are indexed by {@code nodeId - minNodeId}
+ * like {@link WalkSegments#countVisits()}. Segments and counts are only updated once every chunk is repaired,
+ * a failed repair changes neither.
+ * <p>
+ * Before they are applied, the new steps and the new counts, as absolute values, are forced to a redo file.
+ * Both mappings are forced once they are applied. A repair that crashed while applying is finished by
+ * {@link #replay} of its redo file, which writes the same values again, instead of by diffing the changes
+ * against partly rewritten segments. The caller deletes the change log and then the redo file.
+ *
+ * @author mh
+ * @since 15.01.13
+ */
+public class SegmentRepair {
+    static final int NODES_PER_CHUNK = 1 << 14;
+    static final int REDO_MAGIC = 0x5E6D0001;
+
+    private final WalkSegments segments;
+    private final OffHeapIntArray counts;
+    private final Adjacency graph;
+    private final int threads;
+
+    public SegmentRepair(WalkSegments segments, OffHeapIntArray counts, Adjacency graph, int threads) {
+        this.segments = segments;
+        this.counts = counts;
+        this.graph = graph;
+        this.threads = threads;
+    }
+
+    /**
+     * @return the redo file of the repairs of the segments stored in {@code file}
+     */
+    public static File redoFile(String file) {
+        return new File(file + ".redo");
+    }
+
+    /**
+     * Repairs without a redo file, a crash while applying leaves segments and counts inconsistent.
+     *
+     * @return the number of segments walked again
+     */
+    public long repair(ChangeLog.Changes changes, long seed) throws ExecutionException, InterruptedException {
+        try {
+            return repair(changes, seed, null);
+        } catch (IOException e) {
+            throw new IllegalStateException("No redo file to write", e);
+        }
+    }
+
+    /**
+     * @param redo the file the writes are forced to before they are applied
+     * @return the number of segments walked again
+     */
+    public long repair(final ChangeLog.Changes changes, final long seed, File redo) throws ExecutionException, InterruptedException, IOException {
+        long time = System.currentTimeMillis();
+        final long nodeCount = segments.getNodeCount();
+        final long chunks = (nodeCount + NODES_PER_CHUNK - 1) / NODES_PER_CHUNK;
+        final AtomicLong nextChunk = new AtomicLong();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long repaired = 0;
+        long stepsBefore = 0;
+        long stepsAfter = 0;
+        try {
+            final List<Future<Deltas>> futures = new ArrayList<Future<Deltas>>(threads);
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(new Callable<Deltas>() {
+                    public Deltas call() {
+                        final Deltas deltas = new Deltas();
+                        final RandomWalker walker = new RandomWalker(graph, null);
+                        final Random random = new XorShiftRandom();
+                        final int length = segments.getSegmentLength();
+                        final int[] buffer = new int[length];
+                        long chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                            random.setSeed(WalkScheduler.chunkSeed(seed, chunk));
+                            final long end = Math.min(nodeCount, (chunk + 1) * NODES_PER_CHUNK);
+                            for (long index = chunk * NODES_PER_CHUNK; index < end; index++) {
+                                final long nodeId = segments.getMinNodeId() + index;
+                                for (int s = 0; s < segments.getSegmentsPerNode(); s++) {
+                                    final long position = segments.offset(nodeId, s);
+                                    long from = nodeId;
+                                    for (int i = 0; i < length && from != WalkSegments.END; i++) {
+                                        if (changes.contains(from)) {
+                                            rewalk(walker, random, buffer, from, position + i, length - i, deltas);
+                                            break;
+                                        }
+                                        from = segments.step(position + i);
+                                    }
+                                }
+                            }
+                        }
+                        return deltas;
+                    }
+                }));
+            }
+            final List<Deltas> done = new ArrayList<Deltas>(threads);
+            for (Future<Deltas> future : futures) {
+                done.add(future.get());
+            }
+            for (Deltas deltas : done) {
+                repaired += deltas.segments;
+                stepsBefore += deltas.stepsBefore;
+                stepsAfter += deltas.stepsAfter;
+            }
+            // nothing is written before every thread succeeded, so a failed repair leaves segments and counts as they were
+            final Writes writes = toWrites(done);
+            if (redo != null) writes.store(redo);
+            apply(writes);
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("Repaired %d segments at %d changed nodes (%d created, %d deleted relationships), %d steps replaced by %d in %d ms%n",
+                repaired, changes.getChangedNodes(), changes.getCreated(), changes.getDeleted(), stepsBefore, stepsAfter, System.currentTimeMillis() - time);
+        return repaired;
+    }
+
+    /**
+     * Applies the writes of a repair that did not finish, again if some were applied already.
+     *
+     * @return whether there was a redo file
+     */
+    public boolean replay(File redo) throws IOException {
+        if (!redo.exists()) return false;
+        final Writes writes = Writes.load(redo);
+        apply(writes);
+        System.out.printf("Replayed %d steps and %d counts of an unfinished repair from %s%n", writes.steps.length, writes.counts.length, redo);
+        return true;
+    }
+
+    private void apply(Writes writes) {
+        for (int i = 0; i < writes.positions.length; i++) {
+            segments.setStep(writes.positions[i], writes.steps[i]);
+        }
+        for (int i = 0; i < writes.indexes.length; i++) {
+            counts.set(writes.indexes[i], writes.counts[i]);
+        }
+        segments.force();
+        counts.force();
+    }
+
+    /**
+     * @return the new steps and the new counts of the nodes whose counts change
+     */
+    private Writes toWrites(List<Deltas> done) {
+        int positions = 0;
+        int deltas = 0;
+        for (Deltas d : done) {
+            positions += d.writes;
+            deltas += d.size / 2;
+        }
+        final Writes writes = new Writes(positions, 0);
+        long[] indexes = new long[deltas];
+        positions = 0;
+        deltas = 0;
+        for (Deltas d : done) {
+            System.arraycopy(d.positions, 0, writes.positions, positions, d.writes);
+            System.arraycopy(d.steps, 0, writes.steps, positions, d.writes);
+            positions += d.writes;
+            for (int i = 0; i < d.size; i += 2) {
+                indexes[deltas++] = d.values[i] - segments.getMinNodeId();
+            }
+        }
+        Arrays.sort(indexes);
+        int unique = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (i == 0 || indexes[i] != indexes[i - 1]) indexes[unique++] = indexes[i];
+        }
+        indexes = Arrays.copyOf(indexes, unique);
+        final int[] values = new int[unique];
+        for (int i = 0; i < unique; i++) {
+            values[i] = counts.get(indexes[i]);
+        }
+        for (Deltas d : done) {
+            for (int i = 0; i < d.size; i += 2) {
+                values[Arrays.binarySearch(indexes, d.values[i] - segments.getMinNodeId())] += d.values[i + 1];
+            }
+        }
+        writes.indexes = indexes;
+        writes.counts = values;
+        return writes;
+    }
+
+    private void rewalk(RandomWalker walker, Random random, int[] buffer, long from, long position, int length, Deltas deltas) {
+        for (int i = 0; i < length; i++) {
+            final int step = segments.step(position + i);
+            if (step == WalkSegments.END) break;
+            deltas.add(step, -1);
+            deltas.stepsBefore++;
+        }
+        final int written = walker.segment(from, random, buffer, 0, length);
+        Arrays.fill(buffer, written, length, WalkSegments.END);
+        for (int i = 0; i < length; i++) {
+            deltas.write(position + i, buffer[i]);
+            if (i < written) deltas.add(buffer[i], 1);
+        }
+        deltas.stepsAfter += written;
+        deltas.segments++;
+    }
+
+    /**
+     * Absolute writes of a repair, the same when applied twice. Stored as the magic, the int count and the
+     * long positions and int steps of the segment writes, the int count and the long indexes and int values of the
+     * count writes and a CRC32 of all before it. Written to a temporary file that is forced and renamed.
+     */
+    private static class Writes {
+        private final long[] positions;
+        private final int[] steps;
+        private long[] indexes;
+        private int[] counts;
+
+        Writes(int steps, int counts) {
+            this.positions = new long[steps];
+            this.steps = new int[steps];
+            this.indexes = new long[counts];
+            this.counts = new int[counts];
+        }
+
+        void store(File file) throws IOException {
+            final File tmp = new File(file.getPath() + ".tmp");
+            final FileOutputStream os = new FileOutputStream(tmp);
+            try {
+                final CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(os), new CRC32());
+                final DataOutputStream out = new DataOutputStream(checked);
+                out.writeInt(REDO_MAGIC);
+                out.writeInt(steps.length);
+                for (int i = 0; i < steps.length; i++) {
+                    out.writeLong(positions[i]);
+                    out.writeInt(steps[i]);
+                }
+                out.writeInt(counts.length);
+                for (int i = 0; i < counts.length; i++) {
+                    out.writeLong(indexes[i]);
+                    out.writeInt(counts[i]);
+                }
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                os.getChannel().force(true);
+            } finally {
+                os.close();
+            }
+            if (!tmp.renameTo(file)) {
+                // rename does not replace existing files on every platform
+                file.delete();
+                if (!tmp.renameTo(file)) throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        }
+
+        static Writes load(File file) throws IOException {
+            final CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(new FileInputStream(file)), new CRC32());
+            final DataInputStream in = new DataInputStream(checked);
+            try {
+                if (in.readInt() != REDO_MAGIC) throw new IOException("Unknown format of redo file " + file);
+                final Writes writes = new Writes(in.readInt(), 0);
+                for (int i = 0; i < writes.steps.length; i++) {
+                    writes.positions[i] = in.readLong();
+                    writes.steps[i] = in.readInt();
+                }
+                final int counts = in.readInt();
+                writes.indexes = new long[counts];
+                writes.counts = new int[counts];
+                for (int i = 0; i < counts; i++) {
+                    writes.indexes[i] = in.readLong();
+                    writes.counts[i] = in.readInt();
+                }
+                final long crc = checked.getChecksum().getValue();
+                if (in.readLong() != crc) throw new IOException("Checksum mismatch of redo file " + file);
+                return writes;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Count changes of one thread as pairs of node id and delta and the new steps of its segments, applied once
+     * all threads are done.
+     */
+    private static class Deltas {
+        private int[] values = new int[64];
+        private int size;
+        private long[] positions = new long[64];
+        private int[] steps = new int[64];
+        private int writes;
+        private long segments;
+        private long stepsBefore;
+        private long stepsAfter;
+
+        void add(int nodeId, int delta) {
+            if (size == values.length) values = Arrays.copyOf(values, 2 * size);
+            values[size++] = nodeId;
+            values[size++] = delta;
+        }
+
+        void write(long position, int step) {
+            if (writes == positions.length) {
+                positions = Arrays.copyOf(positions, 2 * writes);
+                steps = Arrays.copyOf(steps, 2 * writes);
+            }
+            positions[writes] = position;
+            steps[writes++] = step;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package org.neo4j.olap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs random walks on several {@link ShardWorker} processes, each holding the snapshot of one shard of the node
+ * ids, so the graph is spread over several heaps. The coordinator splits {@code [0, maxNodeId)} into equal shards
+ * in the order the workers connect and relays the walks that leave a shard to its owner.
+ * <p>
+ * The walks run in supersteps: the first starts every worker's share of the fresh walks, proportional to its
+ * node count, later ones continue the walks handed over in the previous one. While a superstep runs, workers send
+ * the walks leaving their shard in blocks of at most {@link #HANDOFF_BLOCK} offsets into the target shard, which
+ * a reader thread per worker forwards to the target as they arrive, so the coordinator holds no more than a block
+ * per worker. Once every worker ended the superstep, the coordinator starts the next one, or ends the run once no
+ * walk is left or after {@code maxSupersteps}. The workers then send the counts of their shard, as
+ * {@link PackedInts} blocks, which are merged into one array.
+ * <p>
+ * The protocol runs over one socket per worker, messages start with a byte type:
+ * <pre>
+ * ASSIGN   coordinator to worker: magic, shard, workers, maxNodeId, fresh walks, seed
+ * HANDOFF  worker to coordinator: target shard, offset count, int offsets in the target shard
+ * HANDOFF  coordinator to worker: offset count, int offsets in the worker's shard
+ * STEP     worker to coordinator: superstep, hits, handoffs sent in the superstep
+ * RESUME   coordinator to worker, after all handoffs of the superstep
+ * FINISH   coordinator to worker
+ * COUNTS   worker to coordinator: minNodeId, nodeCount, chunks of int byte length and packed blocks
+ * </pre>
+ * Both sides time out reads after {@link #setTimeout}, so a hung worker ends the run instead of blocking it. The
+ * timeout has to be longer than loading a shard and the longest superstep, in which a worker may send nothing.
+ *
+ * @author mh
+ * @since 19.01.13
+ */
+public class ShardCoordinator {
+    public static final int DEFAULT_PORT = 7480;
+    public static final int DEFAULT_MAX_SUPERSTEPS = 100;
+    public static final int DEFAULT_TIMEOUT_SECONDS = 1800;
+    static final int MAGIC = 0x5A4D0002;
+    static final byte ASSIGN = 1;
+    static final byte STEP = 2;
+    static final byte RESUME = 3;
+    static final byte FINISH = 4;
+    static final byte COUNTS = 5;
+    static final byte HANDOFF = 6;
+    // offsets per handoff block
+    static final int HANDOFF_BLOCK = 4096;
+    // ints of counts per packed chunk
+    static final int COUNT_CHUNK = 1 << 20;
+    private static final int INT_SIZE = Integer.SIZE / 8;
+
+    private final ServerSocket server;
+    private final int workers;
+    private final long maxNodeId;
+    private final long walks;
+    private final long seed;
+    private final long[] boundaries;
+    // forwarders hold the read lock, so no handoff of the next superstep overtakes the start of it
+    private final ReadWriteLock forwarding = new ReentrantReadWriteLock();
+    private int maxSupersteps = DEFAULT_MAX_SUPERSTEPS;
+    private int timeoutMillis = DEFAULT_TIMEOUT_SECONDS * 1000;
+    private int supersteps;
+    private long relayed;
+    private long dropped;
+    private long hits;
+
+    /**
+     * Listens on {@code port} right away, 0 chooses a free port, see {@link #getPort}.
+     */
+    public ShardCoordinator(int port, int workers, long maxNodeId, long walks, long seed) throws IOException {
+        if (maxNodeId > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many nodes to merge " + maxNodeId);
+        this.server = new ServerSocket(port);
+        this.workers = workers;
+        this.maxNodeId = maxNodeId;
+        this.walks = walks;
+        this.seed = seed;
+        this.boundaries = boundaries(maxNodeId, workers);
+    }
+
+    public void setMaxSupersteps(int maxSupersteps) {
+        this.maxSupersteps = maxSupersteps;
+    }
+
+    /**
+     * @param timeoutMillis how long to wait for a worker to connect or to send the next message
+     */
+    public void setTimeout(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return the first node id of every shard followed by {@code maxNodeId}
+     */
+    static long[] boundaries(long maxNodeId, int shards) {
+        final long[] boundaries = new long[shards + 1];
+        for (int i = 0; i <= shards; i++) {
+            boundaries[i] = maxNodeId * i / shards;
+        }
+        return boundaries;
+    }
+
+    /**
+     * @return the shard of {@code nodeId}, which has to be in {@code [0, maxNodeId)}
+     */
+    static int shardOf(long[] boundaries, long nodeId) {
+        final int shards = boundaries.length - 1;
+        // the estimate is off by at most one because of the rounding of the boundaries
+        int shard = (int) (nodeId * shards / boundaries[shards]);
+        while (boundaries[shard + 1] <= nodeId) shard++;
+        while (boundaries[shard] > nodeId) shard--;
+        return shard;
+    }
+
+    /**
+     * Waits for the workers, runs the walks and returns the merged counts of all nodes.
+     */
+    public int[] run() throws IOException, ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        final Socket[] sockets = new Socket[workers];
+        final DataOutputStream[] out = new DataOutputStream[workers];
+        final ExecutorService readers = Executors.newFixedThreadPool(workers);
+        try {
+            server.setSoTimeout(timeoutMillis);
+            final DataInputStream[] in = new DataInputStream[workers];
+            for (int shard = 0; shard < workers; shard++) {
+                sockets[shard] = server.accept();
+                sockets[shard].setTcpNoDelay(true);
+                sockets[shard].setSoTimeout(timeoutMillis);
+                in[shard] = new DataInputStream(new BufferedInputStream(sockets[shard].getInputStream()));
+                out[shard] = new DataOutputStream(new BufferedOutputStream(sockets[shard].getOutputStream()));
+                final long minNodeId = boundaries[shard];
+                out[shard].writeByte(ASSIGN);
+                out[shard].writeInt(MAGIC);
+                out[shard].writeInt(shard);
+                out[shard].writeInt(workers);
+                out[shard].writeLong(maxNodeId);
+                // cumulative rounding, so the shares add up to the budget
+                out[shard].writeLong(walks * boundaries[shard + 1] / maxNodeId - walks * minNodeId / maxNodeId);
+                out[shard].writeLong(seed);
+                out[shard].flush();
+                System.out.printf("Worker %d from %s owns nodes %d + %d%n", shard, sockets[shard].getRemoteSocketAddress(), minNodeId, boundaries[shard + 1] - minNodeId);
+            }
+            final int[] nodes = new int[(int) maxNodeId];
+            final BlockingQueue<long[]> steps = new LinkedBlockingQueue<long[]>();
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+            for (int shard = 0; shard < workers; shard++) {
+                futures.add(readers.submit(new Reader(shard, in[shard], out, steps, nodes)));
+            }
+            for (supersteps = 0; supersteps < maxSupersteps; ) {
+                final long stepTime = System.currentTimeMillis();
+                long handoffs = 0;
+                for (int i = 0; i < workers; i++) {
+                    final long[] step = nextStep(steps, futures);
+                    if (step[0] != supersteps) throw new IOException("Worker is at superstep " + step[0] + " instead of " + supersteps);
+                    hits += step[1];
+                    handoffs += step[2];
+                }
+                System.out.printf("Superstep %d relayed %d walks in %d ms%n", supersteps, handoffs, System.currentTimeMillis() - stepTime);
+                supersteps++;
+                if (handoffs == 0 || supersteps == maxSupersteps) {
+                    dropped = handoffs;
+                    break;
+                }
+                relayed += handoffs;
+                broadcast(out, RESUME);
+            }
+            broadcast(out, FINISH);
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            System.out.printf("Sharded walks: %d workers %d supersteps %d hits, %d walks relayed, %d dropped in %d ms%n",
+                    workers, supersteps, hits, relayed, dropped, System.currentTimeMillis() - time);
+            return nodes;
+        } finally {
+            readers.shutdownNow();
+            for (Socket socket : sockets) {
+                if (socket != null) socket.close();
+            }
+            server.close();
+        }
+    }
+
+    /**
+     * @return superstep, hits and handoffs of the next worker that ended a superstep
+     */
+    private long[] nextStep(BlockingQueue<long[]> steps, List<Future<Void>> readers) throws InterruptedException, ExecutionException, IOException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            final long[] step = steps.poll(1, TimeUnit.SECONDS);
+            if (step != null) return step;
+            // a reader only ends early if its worker failed
+            for (Future<Void> reader : readers) {
+                if (reader.isDone()) reader.get();
+            }
+        }
+        throw new IOException("No worker ended superstep " + supersteps + " within " + timeoutMillis + " ms");
+    }
+
+    private void broadcast(DataOutputStream[] out, byte type) throws IOException {
+        forwarding.writeLock().lock();
+        try {
+            for (DataOutputStream stream : out) {
+                synchronized (stream) {
+                    stream.writeByte(type);
+                    stream.flush();
+                }
+            }
+        } finally {
+            forwarding.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the messages of one worker: forwards its handoffs, reports its supersteps and merges its counts.
+     */
+    private class Reader implements Callable<Void> {
+        private final int shard;
+        private final DataInputStream in;
+        private final DataOutputStream[] out;
+        private final BlockingQueue<long[]> steps;
+        private final int[] nodes;
+
+        Reader(int shard, DataInputStream in, DataOutputStream[] out, BlockingQueue<long[]> steps, int[] nodes) {
+            this.shard = shard;
+            this.in = in;
+            this.out = out;
+            this.steps = steps;
+            this.nodes = nodes;
+        }
+
+        public Void call() throws IOException, InterruptedException {
+            final byte[] block = new byte[HANDOFF_BLOCK * INT_SIZE];
+            long handoffs = 0;
+            while (true) {
+                final byte type = in.readByte();
+                if (type == HANDOFF) {
+                    final int target = in.readInt();
+                    final int count = in.readInt();
+                    if (target < 0 || target >= workers || target == shard || count <= 0 || count > HANDOFF_BLOCK) {
+                        throw new IOException("Worker " + shard + " sent " + count + " handoffs to " + target);
+                    }
+                    in.readFully(block, 0, count * INT_SIZE);
+                    forward(target, block, count);
+                    handoffs += count;
+                } else if (type == STEP) {
+                    final int step = in.readInt();
+                    final long stepHits = in.readLong();
+                    final long sent = in.readLong();
+                    if (sent != handoffs) throw new IOException("Worker " + shard + " sent " + handoffs + " handoffs instead of " + sent);
+                    steps.put(new long[]{step, stepHits, sent});
+                    handoffs = 0;
+                } else if (type == COUNTS) {
+                    readCounts(in, nodes, shard);
+                    return null;
+                } else {
+                    throw new IOException("Unexpected message " + type + " from " + shard);
+                }
+            }
+        }
+
+        private void forward(int target, byte[] block, int count) throws IOException {
+            forwarding.readLock().lock();
+            try {
+                final DataOutputStream stream = out[target];
+                synchronized (stream) {
+                    stream.writeByte(HANDOFF);
+                    stream.writeInt(count);
+                    stream.write(block, 0, count * INT_SIZE);
+                }
+            } finally {
+                forwarding.readLock().unlock();
+            }
+        }
+    }
+
+    private void readCounts(DataInputStream in, int[] nodes, int shard) throws IOException {
+        final long minNodeId = in.readLong();
+        final int nodeCount = in.readInt();
+        if (minNodeId != boundaries[shard] || nodeCount != boundaries[shard + 1] - minNodeId) {
+            throw new IOException("Worker " + shard + " sent counts of " + minNodeId + " + " + nodeCount);
+        }
+        final int[] chunk = new int[COUNT_CHUNK];
+        for (int offset = 0; offset < nodeCount; offset += COUNT_CHUNK) {
+            final int count = Math.min(COUNT_CHUNK, nodeCount - offset);
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            for (int block = 0; block < count; block += PackedInts.BLOCK_SIZE) {
+                PackedInts.decode(buffer, chunk, block, Math.min(PackedInts.BLOCK_SIZE, count - block));
+            }
+            for (int i = 0; i < count; i++) {
+                nodes[(int) minNodeId + offset + i] += chunk[i];
+            }
+        }
+    }
+
+    /**
+     * Writes {@code counts[0, nodeCount)} of the nodes from {@code minNodeId} as a COUNTS message.
+     */
+    static void writeCounts(DataOutputStream out, long minNodeId, int[] counts, int nodeCount) throws IOException {
+        out.writeByte(COUNTS);
+        out.writeLong(minNodeId);
+        out.writeInt(nodeCount);
+        final ByteBuffer buffer = ByteBuffer.allocate(COUNT_CHUNK / PackedInts.BLOCK_SIZE * PackedInts.maxBytes(PackedInts.BLOCK_SIZE));
+        for (int offset = 0; offset < nodeCount; offset += COUNT_CHUNK) {
+            final int count = Math.min(COUNT_CHUNK, nodeCount - offset);
+            buffer.clear();
+            for (int block = 0; block < count; block += PackedInts.BLOCK_SIZE) {
+                PackedInts.encode(counts, offset + block, Math.min(PackedInts.BLOCK_SIZE, count - block), buffer);
+            }
+            out.writeInt(buffer.position());
+            out.write(buffer.array(), 0, buffer.position());
+        }
+        out.flush();
+    }
+
+    public int getSupersteps() {
+        return supersteps;
+    }
+
+    public long getRelayed() {
+        return relayed;
+    }
+
+    /**
+     * @return walks still waiting after the last superstep
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+}
@@ -0,0 +1,301 @@
+package org.neo4j.olap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Worker process of a {@link ShardCoordinator}: loads the snapshot of the shard it is assigned and walks on it
+ * with all threads. Walks leaving the shard are collected per target shard by every thread and sent to the
+ * coordinator in blocks of {@link ShardCoordinator#HANDOFF_BLOCK} offsets as soon as a block is full. A receiver
+ * thread collects the blocks arriving from other shards, which are continued in the next superstep. The snapshot
+ * and the counters are kept for the whole run, the worker only needs the memory of its shard.
+ *
+ * @author mh
+ * @since 19.01.13
+ */
+public class ShardWorker {
+    static final int WALKS_PER_CHUNK = WalkScheduler.DEFAULT_WALKS_PER_CHUNK;
+    // marks the end of the run in the queue of arrived walks
+    private static final List<int[]> FINISHED = new ArrayList<int[]>();
+
+    private final String host;
+    private final int port;
+    private final EdgeSource edges;
+    private final Projection projection;
+    private final VisitCounters.Mode counterMode;
+    private final int threads;
+    private boolean compressed;
+    private int timeoutMillis = ShardCoordinator.DEFAULT_TIMEOUT_SECONDS * 1000;
+    private int shard = -1;
+    private long hits;
+
+    public ShardWorker(String host, int port, EdgeSource edges, Projection projection, VisitCounters.Mode counterMode, int threads) {
+        this.host = host;
+        this.port = port;
+        this.edges = edges;
+        this.projection = projection;
+        this.counterMode = counterMode;
+        this.threads = threads;
+    }
+
+    /**
+     * Loads the shard as {@link CompressedGraph}.
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * @param timeoutMillis how long to wait for the next message of the coordinator
+     */
+    public void setTimeout(int timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Connects to the coordinator and walks until it ends the run.
+     */
+    public void run() throws IOException, ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        final Socket socket = new Socket(host, port);
+        final ExecutorService receiver = Executors.newSingleThreadExecutor();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(timeoutMillis);
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            final byte type = in.readByte();
+            if (type != ShardCoordinator.ASSIGN || in.readInt() != ShardCoordinator.MAGIC) throw new IOException("Unknown coordinator at " + host + ":" + port);
+            shard = in.readInt();
+            final int workers = in.readInt();
+            final long[] boundaries = ShardCoordinator.boundaries(in.readLong(), workers);
+            final long fresh = in.readLong();
+            final long seed = in.readLong();
+            final long minNodeId = boundaries[shard];
+            final long nodeCount = boundaries[shard + 1] - minNodeId;
+
+            final Adjacency graph = compressed ? projection.compressedSnapshot(edges, minNodeId, nodeCount, threads) : projection.snapshot(edges, minNodeId, nodeCount);
+            System.out.printf("Shard %d loaded nodes %d + %d, %d relationships in %d ms%n", shard, minNodeId, nodeCount, graph.getRelationshipCount(), System.currentTimeMillis() - time);
+            final VisitCounters counters = VisitCounters.create(counterMode, minNodeId, nodeCount, threads);
+            try {
+                // the handles count across all supersteps
+                final VisitCounter[] handles = new VisitCounter[threads];
+                for (int i = 0; i < threads; i++) {
+                    handles[i] = counters.forThread(i);
+                }
+                final BlockingQueue<List<int[]>> arrivals = new LinkedBlockingQueue<List<int[]>>();
+                final Future<Void> receiving = receiver.submit(new Receiver(in, arrivals));
+                List<int[]> arrived = new ArrayList<int[]>();
+                for (int superstep = 0; ; superstep++) {
+                    final AtomicLong sent = new AtomicLong();
+                    final long stepHits = superstep(graph, handles, boundaries, superstep == 0 ? fresh : 0, arrived, seed, superstep, out, sent);
+                    hits += stepHits;
+                    synchronized (out) {
+                        out.writeByte(ShardCoordinator.STEP);
+                        out.writeInt(superstep);
+                        out.writeLong(stepHits);
+                        out.writeLong(sent.get());
+                        out.flush();
+                    }
+                    arrived = nextArrivals(arrivals, receiving);
+                    if (arrived == FINISHED) break;
+                }
+                final int[] counts = new int[(int) nodeCount];
+                counters.awaitApplied();
+                counters.snapshotInto(counts, 0, minNodeId, counts.length);
+                synchronized (out) {
+                    ShardCoordinator.writeCounts(out, minNodeId, counts, counts.length);
+                }
+                receiving.get();
+            } finally {
+                counters.shutdown();
+            }
+            System.out.printf("Shard %d walked %d hits in %d ms%n", shard, hits, System.currentTimeMillis() - time);
+        } finally {
+            receiver.shutdownNow();
+            socket.close();
+        }
+    }
+
+    private List<int[]> nextArrivals(BlockingQueue<List<int[]>> arrivals, Future<Void> receiving) throws InterruptedException, ExecutionException, IOException {
+        while (true) {
+            final List<int[]> arrived = arrivals.poll(1, TimeUnit.SECONDS);
+            if (arrived != null) return arrived;
+            // the receiver only ends early if the connection failed or timed out
+            if (receiving.isDone()) {
+                receiving.get();
+                throw new IOException("Coordinator ended the connection");
+            }
+        }
+    }
+
+    /**
+     * Starts {@code fresh} walks and continues the {@code arrived} ones, sending the walks leaving the shard.
+     *
+     * @return the nodes visited in the shard
+     */
+    private long superstep(final Adjacency graph, final VisitCounter[] handles, final long[] boundaries, final long fresh,
+                           final List<int[]> arrived, final long seed, final int superstep, final DataOutputStream out, final AtomicLong sent) throws ExecutionException, InterruptedException {
+        final long chunks = (fresh + WALKS_PER_CHUNK - 1) / WALKS_PER_CHUNK;
+        final AtomicLong nextChunk = new AtomicLong();
+        final AtomicInteger nextBlock = new AtomicInteger();
+        final long minNodeId = graph.getMinNodeId();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Long>> futures = new ArrayList<Future<Long>>(threads);
+            for (int i = 0; i < threads; i++) {
+                final int worker = i;
+                final VisitCounter counter = handles[i];
+                futures.add(pool.submit(new Callable<Long>() {
+                    public Long call() throws IOException {
+                        final Outbox outbox = new Outbox(boundaries, out, sent);
+                        final RandomWalker walker = new RandomWalker(graph, counter, RandomWalker.RESTART_PROBABILITY, outbox);
+                        final Random random = new XorShiftRandom();
+                        long walked = 0;
+                        long chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                            random.setSeed(WalkScheduler.chunkSeed(seed, shard * (long) Integer.MAX_VALUE + chunk));
+                            final long count = Math.min(WALKS_PER_CHUNK, fresh - chunk * WALKS_PER_CHUNK);
+                            for (long w = 0; w < count; w++) {
+                                walked += walker.walk(walker.randomStart(random), random);
+                            }
+                        }
+                        random.setSeed(WalkScheduler.chunkSeed(seed + superstep, shard * (long) threads + worker));
+                        int block;
+                        while ((block = nextBlock.getAndIncrement()) < arrived.size()) {
+                            for (int offset : arrived.get(block)) {
+                                walked += walker.resume(minNodeId + offset, random);
+                            }
+                        }
+                        counter.flush();
+                        outbox.flush();
+                        return walked;
+                    }
+                }));
+            }
+            long walked = 0;
+            for (Future<Long> future : futures) {
+                walked += future.get();
+            }
+            return walked;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Collects the walks of one thread leaving the shard per target shard and sends full blocks.
+     */
+    private static class Outbox implements RandomWalker.Handoff {
+        private final long[] boundaries;
+        private final DataOutputStream out;
+        private final AtomicLong sent;
+        private final int[][] blocks;
+        private final int[] sizes;
+
+        Outbox(long[] boundaries, DataOutputStream out, AtomicLong sent) {
+            this.boundaries = boundaries;
+            this.out = out;
+            this.sent = sent;
+            this.blocks = new int[boundaries.length - 1][];
+            this.sizes = new int[boundaries.length - 1];
+        }
+
+        public void handOff(long nodeId) {
+            // walks to nodes beyond the highest id in use end
+            if (nodeId < 0 || nodeId >= boundaries[boundaries.length - 1]) return;
+            final int target = ShardCoordinator.shardOf(boundaries, nodeId);
+            if (blocks[target] == null) blocks[target] = new int[ShardCoordinator.HANDOFF_BLOCK];
+            blocks[target][sizes[target]++] = (int) (nodeId - boundaries[target]);
+            if (sizes[target] == ShardCoordinator.HANDOFF_BLOCK) send(target);
+        }
+
+        void flush() {
+            for (int target = 0; target < sizes.length; target++) {
+                if (sizes[target] > 0) send(target);
+            }
+        }
+
+        private void send(int target) {
+            final int[] block = blocks[target];
+            final int count = sizes[target];
+            try {
+                synchronized (out) {
+                    out.writeByte(ShardCoordinator.HANDOFF);
+                    out.writeInt(target);
+                    out.writeInt(count);
+                    for (int i = 0; i < count; i++) {
+                        out.writeInt(block[i]);
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not hand off walks to shard " + target, e);
+            }
+            sizes[target] = 0;
+            sent.addAndGet(count);
+        }
+    }
+
+    /**
+     * Collects the blocks of walks arriving from other shards, passing them on when the coordinator starts the
+     * next superstep.
+     */
+    private static class Receiver implements Callable<Void> {
+        private final DataInputStream in;
+        private final BlockingQueue<List<int[]>> arrivals;
+
+        Receiver(DataInputStream in, BlockingQueue<List<int[]>> arrivals) {
+            this.in = in;
+            this.arrivals = arrivals;
+        }
+
+        public Void call() throws IOException, InterruptedException {
+            List<int[]> next = new ArrayList<int[]>();
+            while (true) {
+                final byte type = in.readByte();
+                if (type == ShardCoordinator.HANDOFF) {
+                    final int count = in.readInt();
+                    if (count <= 0 || count > ShardCoordinator.HANDOFF_BLOCK) throw new IOException("Coordinator sent block of " + count + " walks");
+                    final int[] block = new int[count];
+                    for (int i = 0; i < count; i++) {
+                        block[i] = in.readInt();
+                    }
+                    next.add(block);
+                } else if (type == ShardCoordinator.RESUME) {
+                    arrivals.put(next);
+                    next = new ArrayList<int[]>();
+                } else if (type == ShardCoordinator.FINISH) {
+                    arrivals.put(FINISHED);
+                    return null;
+                } else {
+                    throw new IOException("Unexpected message " + type + " from coordinator");
+                }
+            }
+        }
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+}
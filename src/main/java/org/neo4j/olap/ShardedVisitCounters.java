@@ -0,0 +1,49 @@
+package org.neo4j.olap;
+
+/**
+ * @author mh
+ * @since 20.12.12
+ */
+class ShardedVisitCounters extends VisitCounters {
+    private final int[][] shards;
+
+    ShardedVisitCounters(long minNodeId, long nodeCount, int threads) {
+        super(minNodeId, nodeCount);
+        this.shards = new int[threads][];
+    }
+
+    public VisitCounter forThread(int thread) {
+        final int[] shard = new int[nodeCount];
+        shards[thread] = shard;
+        return new VisitCounter() {
+            public void increment(long nodeId) {
+                shard[index(nodeId)]++;
+            }
+
+            public void add(long nodeId, int delta) {
+                shard[index(nodeId)] += delta;
+            }
+
+            public void flush() {
+            }
+        };
+    }
+
+    public void mergeInto(int[] nodes) {
+        final int offset = (int) minNodeId;
+        for (int[] shard : shards) {
+            if (shard == null) continue;
+            for (int i = 0; i < nodeCount; i++) {
+                nodes[offset + i] += shard[i];
+            }
+        }
+    }
+
+    protected int count(int index) {
+        int count = 0;
+        for (int[] shard : shards) {
+            if (shard != null) count += shard[index];
+        }
+        return count;
+    }
+}
@@ -0,0 +1,37 @@
+package org.neo4j.olap;
+
+/**
+ * Number of hops from a source node to every node, {@link #UNREACHABLE} for nodes that cannot be reached.
+ * The snapshots carry no weights, so every relationship has length one. Paths follow the relationships in the
+ * direction of the snapshot, on a snapshot of both directions they are undirected.
+ *
+ * @author mh
+ * @since 08.01.13
+ */
+public class SingleSourceShortestPaths extends VertexProgram {
+    public static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private final long source;
+
+    public SingleSourceShortestPaths(long source) {
+        this.source = source;
+    }
+
+    public long initialValue(long nodeId) {
+        return nodeId == source ? 0 : UNREACHABLE;
+    }
+
+    public void compute(BspEngine.Vertex vertex) {
+        if (vertex.getSuperstep() == 0) {
+            if (vertex.getId() == source) vertex.sendToNeighbours(1);
+        } else if (vertex.getMessage() < vertex.getValue()) {
+            vertex.setValue(vertex.getMessage());
+            vertex.sendToNeighbours(vertex.getValue() + 1);
+        }
+        vertex.voteToHalt();
+    }
+
+    public Combiner getCombiner() {
+        return Combiner.MIN;
+    }
+}
@@ -0,0 +1,37 @@
+package org.neo4j.olap;
+
+import org.neo4j.kernel.GraphDatabaseAPI;
+
+/**
+ * Random walker on a primitive {@link Adjacency} snapshot, no objects are created per hop.
+ * Starts a new {@link RandomWalker} walk at a random node whenever the previous one ended.
+ *
+ * @author mh
+ * @since 19.12.12
+ */
+public class SnapshotWalkingRunner extends OlapRunner {
+    private static final int CHECK_TIME_EVERY = 256;
+
+    private final RandomWalker walker;
+
+    public SnapshotWalkingRunner(GraphDatabaseAPI db, int id, Adjacency graph, int timeInSeconds, final VisitCounter counter) {
+        super(timeInSeconds, id, counter, db, graph.getMinNodeId(), graph.getNodeCount());
+        this.walker = new RandomWalker(graph, counter);
+    }
+
+    public void run() {
+        long time = System.currentTimeMillis();
+        if (walker.getGraph().getRelationshipCount() > 0) {
+            long hits = 0;
+            while (System.currentTimeMillis() - time <= timeInMillis) {
+                for (int i = 0; i < CHECK_TIME_EVERY; i++) {
+                    hits += walker.walk(walker.randomStart(random), random);
+                }
+                nodeCount = walker.getSteps();
+                hitCount = hits;
+            }
+            counter.flush();
+        }
+        System.out.printf("Thread %d In %d seconds %d hits %d nodes %n", id, (System.currentTimeMillis() - time) / 1000, hitCount, nodeCount);
+    }
+}
@@ -0,0 +1,89 @@
+package org.neo4j.olap;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Metrics of one worker thread. Only the owning thread writes, so updates need no locks or atomic
+ * operations, the per walk totals are published with ordered stores that do not stall the walker.
+ * The reporter reads the volatile totals and possibly slightly stale histograms.
+ * Updated once per walk, path, flush or block of records, never per hop.
+ *
+ * @author mh
+ * @since 07.01.13
+ */
+public class ThreadMetrics {
+    private static final AtomicLongFieldUpdater<ThreadMetrics> WALKS = AtomicLongFieldUpdater.newUpdater(ThreadMetrics.class, "walks");
+    private static final AtomicLongFieldUpdater<ThreadMetrics> HITS = AtomicLongFieldUpdater.newUpdater(ThreadMetrics.class, "hits");
+    private static final AtomicLongFieldUpdater<ThreadMetrics> STEPS = AtomicLongFieldUpdater.newUpdater(ThreadMetrics.class, "steps");
+
+    private final Thread thread;
+    private final CountHistogram walkLengths = new CountHistogram();
+    private final CountHistogram flushMicros = new CountHistogram();
+    private volatile long walks;
+    private volatile long hits;
+    private volatile long steps;
+    private volatile long flushes;
+    private volatile long flushNanos;
+    private volatile long records;
+
+    ThreadMetrics(Thread thread) {
+        this.thread = thread;
+    }
+
+    public void walked(int hits, int steps) {
+        WALKS.lazySet(this, this.walks + 1);
+        HITS.lazySet(this, this.hits + hits);
+        STEPS.lazySet(this, this.steps + steps);
+        walkLengths.add(hits);
+    }
+
+    public void flushed(long nanos) {
+        flushes++;
+        flushNanos += nanos;
+        flushMicros.add((int) Math.min(Integer.MAX_VALUE, nanos / 1000));
+    }
+
+    public void loaded(long records) {
+        this.records += records;
+    }
+
+    public String getName() {
+        return thread.getName();
+    }
+
+    boolean isAlive() {
+        return thread.isAlive();
+    }
+
+    public long getWalks() {
+        return walks;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getSteps() {
+        return steps;
+    }
+
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public long getFlushNanos() {
+        return flushNanos;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    CountHistogram getWalkLengths() {
+        return walkLengths;
+    }
+
+    CountHistogram getFlushMicros() {
+        return flushMicros;
+    }
+}
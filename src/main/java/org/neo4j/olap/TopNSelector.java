@@ -3,51 +3,207 @@ package org.neo4j.olap;
 import org.neo4j.helpers.Pair;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+* Selects the ids with the highest counts from an int[] or a long indexed {@link OffHeapIntArray}.
+* The range is split between threads, each keeps a primitive min heap of the best candidates and a
+* {@link CountHistogram} of all counts, which are merged at the end. Only positive counts are selected,
+* equal counts are ordered by ascending id.
+*
 * @author mh
 * @since 12.12.12
 */
 public class TopNSelector {
     private final int[] nodes;
+    private final OffHeapIntArray counts;
     private final long maxNodeId;
 
     public TopNSelector(int[] nodes) {
         this.nodes = nodes;
+        this.counts = null;
         this.maxNodeId = nodes.length;
     }
 
+    public TopNSelector(OffHeapIntArray counts) {
+        this.nodes = null;
+        this.counts = counts;
+        this.maxNodeId = counts.length();
+    }
+
     List<Pair<Integer,Integer>> selectTopN(int howMany) {
-        int[] ids = new int[howMany];
-        int[] counts = new int[howMany];
-        int minCount = 0;
-        int minIdx = 0;
-        for (int i = 0; i < maxNodeId; i++) {
-            if (nodes[i] > minCount) {
-                ids[minIdx] = i;
-                counts[minIdx] = nodes[i];
-                minCount = nodes[i];
-                for (int j = 0; j < howMany; j++) {
-                    if (counts[j] < minCount) {
-                        minCount = counts[j];
-                        minIdx = j;
-                    }
-                }
-            }
+        final Heap heap = new Heap(howMany);
+        for (long i = 0; i < maxNodeId; i++) {
+            heap.offer(i, count(i));
         }
+        final TopN top = heap.toTopN(null);
         List<Pair<Integer,Integer>> result = new ArrayList<Pair<Integer, Integer>>(howMany);
         for (int i=0;i<howMany;i++) {
-            result.add(Pair.of(ids[i],counts[i]));
+            result.add(i < top.size() ? Pair.of((int) top.getId(i), top.getCount(i)) : Pair.of(0, 0));
         }
-        Collections.sort(result, new Comparator<Pair<Integer, Integer>>() {
-            @Override
-            public int compare(Pair<Integer, Integer> o1, Pair<Integer, Integer> o2) {
-                return o2.other().compareTo(o1.other());
-            }
-        });
         return result;
     }
+
+    public TopN select(int howMany) throws ExecutionException, InterruptedException {
+        return select(howMany, Runtime.getRuntime().availableProcessors());
+    }
+
+    public TopN select(final int howMany, int threads) throws ExecutionException, InterruptedException {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final long segment = (maxNodeId + threads - 1) / threads;
+            List<Future<Heap>> futures = new ArrayList<Future<Heap>>(threads);
+            for (int i = 0; i < threads; i++) {
+                final long start = Math.min(maxNodeId, i * segment);
+                final long end = Math.min(maxNodeId, start + segment);
+                futures.add(pool.submit(new Callable<Heap>() {
+                    public Heap call() {
+                        final Heap heap = new Heap(howMany);
+                        final CountHistogram histogram = heap.histogram;
+                        for (long id = start; id < end; id++) {
+                            final int count = count(id);
+                            histogram.add(count);
+                            heap.offer(id, count);
+                        }
+                        return heap;
+                    }
+                }));
+            }
+            final Heap result = new Heap(howMany);
+            for (Future<Heap> future : futures) {
+                result.merge(future.get());
+            }
+            return result.toTopN(result.histogram);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private int count(long id) {
+        return nodes != null ? nodes[((int) id)] : counts.get(id);
+    }
+
+    public static class TopN {
+        private final long[] ids;
+        private final int[] counts;
+        private final CountHistogram histogram;
+
+        TopN(long[] ids, int[] counts, CountHistogram histogram) {
+            this.ids = ids;
+            this.counts = counts;
+            this.histogram = histogram;
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        public long getId(int rank) {
+            return ids[rank];
+        }
+
+        public int getCount(int rank) {
+            return counts[rank];
+        }
+
+        public long[] getIds() {
+            return ids;
+        }
+
+        public int[] getCounts() {
+            return counts;
+        }
+
+        public CountHistogram getHistogram() {
+            return histogram;
+        }
+    }
+
+    /**
+     * min heap on (count, -id), the root is the weakest candidate
+     */
+    static class Heap {
+        private final long[] ids;
+        private final int[] counts;
+        private final CountHistogram histogram = new CountHistogram();
+        private int size;
+
+        Heap(int capacity) {
+            ids = new long[capacity];
+            counts = new int[capacity];
+        }
+
+        void offer(long id, int count) {
+            if (count <= 0) return;
+            if (size < ids.length) {
+                ids[size] = id;
+                counts[size] = count;
+                siftUp(size++);
+            } else if (size > 0 && less(counts[0], ids[0], count, id)) {
+                ids[0] = id;
+                counts[0] = count;
+                siftDown(0);
+            }
+        }
+
+        void merge(Heap other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.ids[i], other.counts[i]);
+            }
+            histogram.merge(other.histogram);
+        }
+
+        TopN toTopN(CountHistogram histogram) {
+            final long[] topIds = new long[size];
+            final int[] topCounts = new int[size];
+            for (int i = size - 1; i >= 0; i--) {
+                topIds[i] = ids[0];
+                topCounts[i] = counts[0];
+                size--;
+                ids[0] = ids[size];
+                counts[0] = counts[size];
+                siftDown(0);
+            }
+            return new TopN(topIds, topCounts, histogram);
+        }
+
+        private static boolean less(int count1, long id1, int count2, long id2) {
+            return count1 < count2 || (count1 == count2 && id1 > id2);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (!less(counts[i], ids[i], counts[parent], ids[parent])) break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                final int left = 2 * i + 1;
+                if (left >= size) break;
+                final int right = left + 1;
+                int smallest = right < size && less(counts[right], ids[right], counts[left], ids[left]) ? right : left;
+                if (!less(counts[smallest], ids[smallest], counts[i], ids[i])) break;
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            final long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            final int count = counts[a];
+            counts[a] = counts[b];
+            counts[b] = count;
+        }
+    }
 }
@@ -0,0 +1,34 @@
+package org.neo4j.olap;
+
+/**
+ * Vertex centric program run by the {@link BspEngine} in supersteps. In every superstep {@link #compute} is
+ * called for each vertex that has not voted to halt or received a message. Messages sent in a superstep are
+ * combined per target with {@link #getCombiner()} and delivered in the next one, values given to the
+ * aggregators are combined over all vertices and visible in the next superstep.
+ * State and messages are primitive longs, so no objects are created per vertex.
+ *
+ * @author mh
+ * @since 08.01.13
+ */
+public abstract class VertexProgram {
+    private static final Combiner[] NO_AGGREGATORS = new Combiner[0];
+
+    public abstract long initialValue(long nodeId);
+
+    public abstract void compute(BspEngine.Vertex vertex);
+
+    public abstract Combiner getCombiner();
+
+    public Combiner[] getAggregators() {
+        return NO_AGGREGATORS;
+    }
+
+    /**
+     * Called before every superstep with the aggregates of the previous one.
+     *
+     * @return false to stop before the superstep
+     */
+    public boolean beforeSuperstep(int superstep, long[] aggregates) {
+        return true;
+    }
+}
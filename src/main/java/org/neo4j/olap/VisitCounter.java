@@ -0,0 +1,22 @@
+package org.neo4j.olap;
+
+/**
+ * Per thread handle to count node visits, must only be used by the thread it was handed out to.
+ *
+ * @author mh
+ * @since 20.12.12
+ */
+public interface VisitCounter {
+    void increment(long nodeId);
+
+    /**
+     * Adds {@code delta} visits at once, for weighted counts like the fixed point dependencies of {@link PathSampler}.
+     * The {@link VisitCounters.Mode#PIPELINED} counters reject negative deltas.
+     */
+    void add(long nodeId, int delta);
+
+    /**
+     * Makes all counts of this handle visible to {@link VisitCounters#mergeInto(int[])}.
+     */
+    void flush();
+}
@@ -0,0 +1,94 @@
+package org.neo4j.olap;
+
+/**
+ * Visit counts of the nodes in {@code [minNodeId, minNodeId + nodeCount)} for one round, shared by the
+ * walker threads. No increments are lost in any mode, they differ in how the threads share the memory:
+ * <ul>
+ * <li>{@link Mode#SHARDED} every thread counts into its own array, nothing is shared until the merge,
+ * costs {@code threads * nodeCount} ints</li>
+ * <li>{@link Mode#ATOMIC} one shared array updated with atomic increments</li>
+ * <li>{@link Mode#BATCHED} every thread buffers visited ids and applies them grouped by lock stripe</li>
+ * <li>{@link Mode#PIPELINED} walker threads publish batches of ids into ring buffers, consumer threads owning
+ * disjoint slices of the range apply them, see {@link PipelinedVisitCounters}</li>
+ * </ul>
+ *
+ * @author mh
+ * @since 20.12.12
+ */
+public abstract class VisitCounters {
+    public enum Mode {SHARDED, ATOMIC, BATCHED, PIPELINED}
+
+    /**
+     * number of consumer threads in {@link Mode#PIPELINED}, defaults to a quarter of the walker threads
+     */
+    public static final String CONSUMERS_PROPERTY = "olap.consumers";
+
+    protected final long minNodeId;
+    protected final int nodeCount;
+
+    protected VisitCounters(long minNodeId, long nodeCount) {
+        if (nodeCount > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many nodes per round " + nodeCount);
+        this.minNodeId = minNodeId;
+        this.nodeCount = (int) nodeCount;
+    }
+
+    public static VisitCounters create(Mode mode, long minNodeId, long nodeCount, int threads) {
+        switch (mode) {
+            case SHARDED:
+                return new ShardedVisitCounters(minNodeId, nodeCount, threads);
+            case ATOMIC:
+                return new AtomicVisitCounters(minNodeId, nodeCount);
+            case BATCHED:
+                return new BatchedVisitCounters(minNodeId, nodeCount);
+            case PIPELINED:
+                return new PipelinedVisitCounters(minNodeId, nodeCount, Integer.getInteger(CONSUMERS_PROPERTY, Math.max(1, threads / 4)));
+        }
+        throw new IllegalArgumentException("Unknown mode " + mode);
+    }
+
+    public abstract VisitCounter forThread(int thread);
+
+    /**
+     * Adds the counts to {@code nodes[minNodeId + i]}, must be called after all handles have been flushed.
+     */
+    public abstract void mergeInto(int[] nodes);
+
+    /**
+     * Adds the counts collected so far for the node ids {@code [fromNodeId, fromNodeId + length)} to
+     * {@code target[offset..]} while the walkers keep running. Increments that are still buffered in the
+     * threads or in flight are not included.
+     */
+    public void snapshotInto(int[] target, int offset, long fromNodeId, int length) {
+        final long start = Math.max(fromNodeId, minNodeId);
+        final long end = Math.min(fromNodeId + length, minNodeId + nodeCount);
+        for (long nodeId = start; nodeId < end; nodeId++) {
+            target[offset + (int) (nodeId - fromNodeId)] += count(index(nodeId));
+        }
+    }
+
+    /**
+     * Waits until the increments flushed so far are included in {@link #snapshotInto}, for consistent snapshots
+     * taken while no thread counts. Only {@link Mode#PIPELINED} applies flushed increments asynchronously.
+     */
+    public void awaitApplied() {
+    }
+
+    /**
+     * Stops the threads that apply flushed increments once they have applied all of them, {@link #mergeInto}
+     * does so itself. Counters that are only read with {@link #snapshotInto} have to be shut down.
+     */
+    public void shutdown() {
+    }
+
+    /**
+     * @return the current, possibly stale count of the node at {@code index}
+     */
+    protected abstract int count(int index);
+
+    public void printStatistics() {
+    }
+
+    protected int index(long nodeId) {
+        return (int) (nodeId - minNodeId);
+    }
+}
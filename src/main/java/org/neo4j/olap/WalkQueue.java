@@ -0,0 +1,102 @@
+package org.neo4j.olap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * On disk queue of walks waiting for a partition to be loaded, stored as the big endian node ids they arrived at.
+ * Other partitions append batches while it is not resident, once it is loaded the queue is read sequentially
+ * by the walker threads and deleted.
+ *
+ * @author mh
+ * @since 04.01.13
+ */
+class WalkQueue {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private long size;
+    private long bytes;
+
+    WalkQueue(File file) {
+        this.file = file;
+        file.delete();
+    }
+
+    synchronized void append(long[] nodes, int count) throws IOException {
+        if (in != null) throw new IllegalStateException("Queue " + file + " is being drained");
+        if (out == null) out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), BUFFER_SIZE));
+        for (int i = 0; i < count; i++) {
+            out.writeLong(nodes[i]);
+        }
+        size += count;
+        bytes += count * 8L;
+    }
+
+    /**
+     * @return walks waiting, including those already taken by a running drain
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return bytes spilled to this queue over its lifetime
+     */
+    synchronized long getSpilledBytes() {
+        return bytes;
+    }
+
+    /**
+     * Takes the next walks of the queue, the queue is emptied and its file deleted when the last one was taken.
+     *
+     * @return the number of walks read into {@code nodes}, 0 if the queue is empty
+     */
+    synchronized int take(long[] nodes) throws IOException {
+        if (size == 0) return 0;
+        if (in == null) {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        }
+        int count = 0;
+        try {
+            while (count < nodes.length) {
+                nodes[count] = in.readLong();
+                count++;
+            }
+        } catch (EOFException e) {
+            close();
+            file.delete();
+            size = 0;
+        }
+        return count;
+    }
+
+    /**
+     * Closes the queue and deletes the walks still waiting.
+     */
+    synchronized void discard() throws IOException {
+        close();
+        file.delete();
+        size = 0;
+    }
+
+    synchronized void close() throws IOException {
+        if (out != null) out.close();
+        if (in != null) in.close();
+        out = null;
+        in = null;
+    }
+}
@@ -0,0 +1,243 @@
+package org.neo4j.olap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs a fixed budget of random walks split into chunks of {@code walksPerChunk}. Workers take the next
+ * chunk from a shared cursor as soon as they are done with the previous one, so fast threads do more
+ * chunks and all of them finish at about the same time.
+ * <p>
+ * Every chunk seeds its own random generator from the base seed and the chunk number, so with exact
+ * {@link VisitCounters} the counts only depend on the seed and the budget, not on the threads.
+ * An optional deadline stops handing out chunks, the result then records how many were done.
+ * <p>
+ * {@link #checkpoint} waits for the running chunks, whose counts are flushed when they end, and holds back new
+ * ones, so the counts it sees are exactly those of the chunks it reports as done. A resumed run skips these
+ * chunks and walks the others with their original seeds, giving the counts of an uninterrupted run.
+ *
+ * @author mh
+ * @since 28.12.12
+ */
+public class WalkScheduler {
+    public static final int DEFAULT_WALKS_PER_CHUNK = 10000;
+
+    private final Adjacency graph;
+    private final VisitCounters counters;
+    private final int threads;
+    private final int walksPerChunk;
+    private final AtomicLong completedWalks = new AtomicLong();
+    // chunks hold the read lock, checkpoints the fair write lock, so they are not starved by the next chunks
+    private final ReadWriteLock pause = new ReentrantReadWriteLock(true);
+    private final BitSet doneChunks = new BitSet();
+    private long walks;
+
+    /**
+     * Receives the state of a run between chunks.
+     */
+    public interface Checkpoint {
+        /**
+         * @param doneChunks the chunks whose counts are all in the counters, including the skipped ones
+         * @param walks      the walks of these chunks
+         */
+        void write(BitSet doneChunks, long walks) throws IOException;
+    }
+
+    public WalkScheduler(Adjacency graph, VisitCounters counters, int threads, int walksPerChunk) {
+        this.graph = graph;
+        this.counters = counters;
+        this.threads = threads;
+        this.walksPerChunk = walksPerChunk;
+    }
+
+    /**
+     * @param deadlineMillis absolute time after which no new chunks are started, 0 for none
+     */
+    public Result run(final long walks, final long seed, final long deadlineMillis) throws ExecutionException, InterruptedException {
+        return run(walks, seed, deadlineMillis, new BitSet());
+    }
+
+    /**
+     * Continues a run of which the chunks {@code done} were already counted.
+     */
+    public Result run(final long walks, final long seed, final long deadlineMillis, final BitSet done) throws ExecutionException, InterruptedException {
+        final long chunks = (walks + walksPerChunk - 1) / walksPerChunk;
+        if (chunks > Integer.MAX_VALUE) throw new IllegalArgumentException("Too many chunks " + chunks + " of " + walksPerChunk + " walks");
+        synchronized (doneChunks) {
+            this.walks = walks;
+            doneChunks.clear();
+            doneChunks.or(done);
+        }
+        final AtomicLong nextChunk = new AtomicLong();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final long time = System.currentTimeMillis();
+        try {
+            List<Future<WorkerStats>> futures = new ArrayList<Future<WorkerStats>>(threads);
+            for (int i = 0; i < threads; i++) {
+                final WorkerStats stats = new WorkerStats(i);
+                final RandomWalker walker = new RandomWalker(graph, counters.forThread(i));
+                futures.add(pool.submit(new Callable<WorkerStats>() {
+                    public WorkerStats call() {
+                        final long start = System.currentTimeMillis();
+                        final Random random = new XorShiftRandom();
+                        long chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                            if (deadlineMillis > 0 && System.currentTimeMillis() > deadlineMillis) break;
+                            if (done.get((int) chunk)) continue;
+                            final long count = Math.min(walksPerChunk, walks - chunk * walksPerChunk);
+                            pause.readLock().lock();
+                            try {
+                                random.setSeed(chunkSeed(seed, chunk));
+                                for (long w = 0; w < count; w++) {
+                                    stats.hits += walker.walk(walker.randomStart(random), random);
+                                }
+                                walker.getCounter().flush();
+                                synchronized (doneChunks) {
+                                    doneChunks.set((int) chunk);
+                                }
+                            } finally {
+                                pause.readLock().unlock();
+                            }
+                            stats.walks += count;
+                            completedWalks.addAndGet(count);
+                            stats.chunks++;
+                        }
+                        stats.steps = walker.getSteps();
+                        stats.millis = System.currentTimeMillis() - start;
+                        return stats;
+                    }
+                }));
+            }
+            final Result result = new Result(chunks - done.cardinality(), System.currentTimeMillis() - time);
+            for (Future<WorkerStats> future : futures) {
+                result.add(future.get());
+            }
+            result.millis = System.currentTimeMillis() - time;
+            return result;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return walks of finished chunks so far, can be read while {@link #run} is going on
+     */
+    public long getCompletedWalks() {
+        return completedWalks.get();
+    }
+
+    /**
+     * Passes the chunks done so far to {@code checkpoint} while no chunk is running, the counters then hold
+     * exactly the counts of these chunks. Can be called while {@link #run} is going on.
+     */
+    public void checkpoint(Checkpoint checkpoint) throws IOException {
+        pause.writeLock().lock();
+        try {
+            counters.awaitApplied();
+            final BitSet done;
+            final long doneWalks;
+            synchronized (doneChunks) {
+                done = (BitSet) doneChunks.clone();
+                doneWalks = walksOf(done);
+            }
+            checkpoint.write(done, doneWalks);
+        } finally {
+            pause.writeLock().unlock();
+        }
+    }
+
+    private long walksOf(BitSet chunks) {
+        long sum = 0;
+        for (int chunk = chunks.nextSetBit(0); chunk >= 0; chunk = chunks.nextSetBit(chunk + 1)) {
+            sum += Math.min(walksPerChunk, walks - (long) chunk * walksPerChunk);
+        }
+        return sum;
+    }
+
+    static long chunkSeed(long seed, long chunk) {
+        long z = seed + (chunk + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static class WorkerStats {
+        private final int worker;
+        long chunks;
+        long walks;
+        long hits;
+        long steps;
+        long millis;
+
+        WorkerStats(int worker) {
+            this.worker = worker;
+        }
+
+        public double getHitsPerSecond() {
+            return millis == 0 ? 0 : hits * 1000.0 / millis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Worker %2d chunks %d walks %d hits %d steps %d in %d ms, %.0f hits/s",
+                    worker, chunks, walks, hits, steps, millis, getHitsPerSecond());
+        }
+    }
+
+    public static class Result {
+        private final long chunks;
+        private final List<WorkerStats> workers = new ArrayList<WorkerStats>();
+        private long chunksDone;
+        private long walks;
+        private long hits;
+        private long millis;
+
+        Result(long chunks, long millis) {
+            this.chunks = chunks;
+            this.millis = millis;
+        }
+
+        void add(WorkerStats stats) {
+            workers.add(stats);
+            chunksDone += stats.chunks;
+            walks += stats.walks;
+            hits += stats.hits;
+        }
+
+        public boolean isComplete() {
+            return chunksDone == chunks;
+        }
+
+        public long getWalks() {
+            return walks;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public List<WorkerStats> getWorkers() {
+            return workers;
+        }
+
+        public void print() {
+            for (WorkerStats worker : workers) {
+                System.out.println(worker);
+            }
+            System.out.printf("%s %d of %d chunks, %d walks %d hits in %d ms, %.0f hits/s%n",
+                    isComplete() ? "Completed" : "Deadline reached after", chunksDone, chunks, walks, hits, millis,
+                    millis == 0 ? 0 : hits * 1000.0 / millis);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package org.neo4j.olap;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Precomputed random walk segments, {@code segmentsPerNode} per node of {@code segmentLength} steps each,
+ * for answering {@link PersonalizedPageRank} queries without touching the graph.
+ * <p>
+ * Stored with an {@link ArrayStore} as one int array: a header of {@link #HEADER_INTS} ints holding the
+ * minimum node id, node count, segments per node and segment length, followed by the segments of all nodes
+ * in node order. Segments ending early at a node without relationships are padded with {@link #END}.
+ * Opened files are memory mapped, so a query only pages in the segments it reads. The visit counts of the segments
+ * go to their own {@link #countsFile} next to them, a {@link SegmentRepair} updates both.
+ * Every chunk of nodes seeds its own random generator, the segments do not depend on the thread count.
+ *
+ * @author mh
+ * @since 10.01.13
+ */
+public class WalkSegments {
+    public static final int DEFAULT_SEGMENTS_PER_NODE = 4;
+    public static final int DEFAULT_SEGMENT_LENGTH = 8;
+    public static final int END = -1;
+    static final int HEADER_INTS = 4;
+    static final int NODES_PER_CHUNK = 1 << 14;
+
+    private final OffHeapIntArray data;
+    private final long minNodeId;
+    private final long nodeCount;
+    private final int segmentsPerNode;
+    private final int segmentLength;
+
+    private WalkSegments(OffHeapIntArray data) {
+        this.data = data;
+        this.minNodeId = data.get(0);
+        this.nodeCount = data.get(1);
+        this.segmentsPerNode = data.get(2);
+        this.segmentLength = data.get(3);
+    }
+
+    /**
+     * Walks the segments of all nodes of {@code graph} in parallel.
+     */
+    public static WalkSegments build(final Adjacency graph, final int segmentsPerNode, final int segmentLength, final long seed, int threads) throws ExecutionException, InterruptedException {
+        if (graph.getMinNodeId() + graph.getNodeCount() > Integer.MAX_VALUE) throw new IllegalArgumentException("Node ids beyond int range " + graph.getNodeCount());
+        long time = System.currentTimeMillis();
+        final long nodeCount = graph.getNodeCount();
+        final int perNode = segmentsPerNode * segmentLength;
+        final OffHeapIntArray data = OffHeapIntArray.allocate(HEADER_INTS + nodeCount * perNode);
+        data.set(0, (int) graph.getMinNodeId());
+        data.set(1, (int) nodeCount);
+        data.set(2, segmentsPerNode);
+        data.set(3, segmentLength);
+        final long chunks = (nodeCount + NODES_PER_CHUNK - 1) / NODES_PER_CHUNK;
+        final AtomicLong nextChunk = new AtomicLong();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Long>> futures = new ArrayList<Future<Long>>(threads);
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(new Callable<Long>() {
+                    public Long call() {
+                        final RandomWalker walker = new RandomWalker(graph, null);
+                        final Random random = new XorShiftRandom();
+                        final int[] buffer = new int[perNode];
+                        long steps = 0;
+                        long chunk;
+                        while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                            random.setSeed(WalkScheduler.chunkSeed(seed, chunk));
+                            final long start = chunk * NODES_PER_CHUNK;
+                            final long end = Math.min(nodeCount, start + NODES_PER_CHUNK);
+                            for (long index = start; index < end; index++) {
+                                final long nodeId = graph.getMinNodeId() + index;
+                                for (int s = 0; s < segmentsPerNode; s++) {
+                                    final int offset = s * segmentLength;
+                                    final int written = walker.segment(nodeId, random, buffer, offset, segmentLength);
+                                    Arrays.fill(buffer, offset + written, offset + segmentLength, END);
+                                    steps += written;
+                                }
+                                data.put(HEADER_INTS + index * perNode, buffer, 0, perNode);
+                            }
+                        }
+                        return steps;
+                    }
+                }));
+            }
+            long steps = 0;
+            for (Future<Long> future : futures) {
+                steps += future.get();
+            }
+            System.out.printf("Walked %d segments of %d steps for %d nodes, %d steps in %d ms%n",
+                    segmentsPerNode, segmentLength, nodeCount, steps, System.currentTimeMillis() - time);
+        } finally {
+            pool.shutdown();
+        }
+        return new WalkSegments(data);
+    }
+
+    public static WalkSegments open(String file) throws IOException {
+        return new WalkSegments(new ArrayStore(file).map());
+    }
+
+    /**
+     * Opens the segments for a {@link SegmentRepair}, whose changes go straight to the file.
+     */
+    public static WalkSegments openWritable(String file) throws IOException {
+        return new WalkSegments(new ArrayStore(file).map(true));
+    }
+
+    public long store(String file) throws IOException {
+        return new ArrayStore(file).write(data);
+    }
+
+    /**
+     * @return the file of the {@link #countVisits visit counts} of the segments stored in {@code file}
+     */
+    public static File countsFile(String file) {
+        return new File(file + ".counts");
+    }
+
+    /**
+     * Writes the changes of {@link #openWritable writable} segments to the disk.
+     */
+    public void force() {
+        data.force();
+    }
+
+    /**
+     * @return the position of the first step of segment {@code segment} of {@code nodeId}
+     */
+    public long offset(long nodeId, int segment) {
+        return HEADER_INTS + ((nodeId - minNodeId) * segmentsPerNode + segment) * segmentLength;
+    }
+
+    /**
+     * @return the node id at {@code position}, or {@link #END}
+     */
+    public int step(long position) {
+        return data.get(position);
+    }
+
+    void setStep(long position, int nodeId) {
+        data.set(position, nodeId);
+    }
+
+    /**
+     * @return how often each node, at {@code nodeId - minNodeId}, is a step of a segment, an estimate of its rank
+     */
+    public int[] countVisits() {
+        final int[] counts = new int[(int) nodeCount];
+        final long end = HEADER_INTS + nodeCount * segmentsPerNode * segmentLength;
+        for (long position = HEADER_INTS; position < end; position++) {
+            final int step = data.get(position);
+            if (step != END) counts[(int) (step - minNodeId)]++;
+        }
+        return counts;
+    }
+
+    public boolean contains(long nodeId) {
+        return nodeId >= minNodeId && nodeId < minNodeId + nodeCount;
+    }
+
+    public long getMinNodeId() {
+        return minNodeId;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getSegmentsPerNode() {
+        return segmentsPerNode;
+    }
+
+    public int getSegmentLength() {
+        return segmentLength;
+    }
+}
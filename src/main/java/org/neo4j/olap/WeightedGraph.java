@@ -0,0 +1,263 @@
+package org.neo4j.olap;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.NotFoundException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Snapshot like {@link CsrGraph} with a weight per relationship, whose walkers choose a neighbour with probability
+ * proportional to the weight in constant time with Walker's alias method. Every relationship slot holds, besides
+ * the target, the probability of keeping the slot and the index of the alias slot of its node's list that is taken
+ * otherwise, 12 bytes per slot. {@link #sample} draws a uniform slot and one float, no matter the degree.
+ * <p>
+ * Negative weights count as zero, a node whose weights are all zero chooses uniformly. The scan of the store only
+ * records the relationship of every slot, the weights are read afterwards in parallel chunks of nodes, once per
+ * relationship even if both of its ends are in the snapshot. The alias tables are built per node with Vose's
+ * method in parallel chunks.
+ *
+ * @author mh
+ * @since 16.01.13
+ */
+public class WeightedGraph implements Adjacency {
+    static final int NODES_PER_CHUNK = 1 << 14;
+
+    private final long minNodeId;
+    private final long nodeCount;
+    private final OffHeapLongArray offsets;
+    private final OffHeapIntArray targets;
+    // float bits, the weights until the tables are built
+    private final OffHeapIntArray probabilities;
+    private final OffHeapIntArray aliases;
+
+    /**
+     * Weight of a relationship of the store, asked for by several threads at once.
+     */
+    public interface Weights {
+        double weight(long relationshipId);
+    }
+
+    private WeightedGraph(long minNodeId, long nodeCount, OffHeapLongArray offsets, OffHeapIntArray targets, OffHeapIntArray probabilities) {
+        this.minNodeId = minNodeId;
+        this.nodeCount = nodeCount;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.probabilities = probabilities;
+        this.aliases = OffHeapIntArray.allocate(targets.length());
+    }
+
+    /**
+     * @return the numeric value of the relationship property {@code key}, 1 for relationships without it
+     */
+    public static Weights property(final GraphDatabaseService db, final String key) {
+        return new Weights() {
+            public double weight(long relationshipId) {
+                try {
+                    return toWeight(db.getRelationshipById(relationshipId).getProperty(key, null));
+                } catch (NotFoundException nfe) {
+                    return 0;
+                }
+            }
+        };
+    }
+
+    static double toWeight(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 1;
+    }
+
+    public static WeightedGraph build(EdgeSource source, final Weights weights, long minNodeId, long nodeCount, Direction direction, int threads) throws ExecutionException, InterruptedException {
+        long time = System.currentTimeMillis();
+        final OffHeapIntArray degrees = OffHeapIntArray.allocate(nodeCount);
+        source.accept(new CsrGraph.RangeEdgeVisitor(minNodeId, nodeCount, direction) {
+            protected void add(long index, long target) {
+                degrees.increment(index);
+            }
+        });
+        final OffHeapLongArray offsets = OffHeapLongArray.allocate(nodeCount + 1);
+        long offset = 0;
+        for (long i = 0; i < nodeCount; i++) {
+            offsets.set(i, offset);
+            offset += degrees.get(i);
+            degrees.set(i, 0);
+        }
+        offsets.set(nodeCount, offset);
+
+        final OffHeapIntArray targets = OffHeapIntArray.allocate(offset);
+        // the relationship of a slot, or -(slot + 1) of the slot at its other end that reads the weight
+        final OffHeapLongArray relationships = OffHeapLongArray.allocate(offset);
+        source.accept(new CsrGraph.RangeEdgeVisitor(minNodeId, nodeCount, direction) {
+            private long lastRelationshipId = -1;
+            private long lastSlot;
+
+            protected void add(long index, long target) {
+                final long slot = offsets.get(index) + degrees.increment(index) - 1;
+                targets.set(slot, (int) target);
+                // both ends of a relationship are added by the same visit
+                relationships.set(slot, relationshipId == lastRelationshipId ? -(lastSlot + 1) : relationshipId);
+                lastRelationshipId = relationshipId;
+                lastSlot = slot;
+            }
+        });
+        final WeightedGraph graph = new WeightedGraph(minNodeId, nodeCount, offsets, targets, OffHeapIntArray.allocate(offset));
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            graph.readWeights(pool, relationships, weights);
+            graph.buildAliasTables(pool);
+        } finally {
+            pool.shutdown();
+        }
+        System.out.printf("Weighted snapshot of %d nodes, %d relationships with alias tables in %d ms%n", nodeCount, offset, System.currentTimeMillis() - time);
+        return graph;
+    }
+
+    /**
+     * Stores the weight of every slot, slots at the second end of a relationship copy it once all are read.
+     */
+    private void readWeights(ExecutorService pool, final OffHeapLongArray relationships, final Weights weights) throws ExecutionException, InterruptedException {
+        inChunks(pool, new Chunk() {
+            public void run(long from, long to) {
+                for (long slot = offsets.get(from); slot < offsets.get(to); slot++) {
+                    final long relationshipId = relationships.get(slot);
+                    if (relationshipId < 0) continue;
+                    probabilities.set(slot, Float.floatToRawIntBits((float) Math.max(0, weights.weight(relationshipId))));
+                }
+            }
+        });
+        inChunks(pool, new Chunk() {
+            public void run(long from, long to) {
+                for (long slot = offsets.get(from); slot < offsets.get(to); slot++) {
+                    final long relationshipId = relationships.get(slot);
+                    if (relationshipId < 0) probabilities.set(slot, probabilities.get(-relationshipId - 1));
+                }
+            }
+        });
+    }
+
+    private void buildAliasTables(ExecutorService pool) throws ExecutionException, InterruptedException {
+        inChunks(pool, new Chunk() {
+            public void run(long from, long to) {
+                final AliasBuilder builder = new AliasBuilder();
+                for (long index = from; index < to; index++) {
+                    final long offset = offsets.get(index);
+                    builder.build(offset, (int) (offsets.get(index + 1) - offset));
+                }
+            }
+        });
+    }
+
+    /**
+     * Work on the node indexes {@code [from, to)}.
+     */
+    private interface Chunk {
+        void run(long from, long to);
+    }
+
+    private void inChunks(ExecutorService pool, final Chunk chunk) throws ExecutionException, InterruptedException {
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (long start = 0; start < nodeCount; start += NODES_PER_CHUNK) {
+            final long from = start;
+            futures.add(pool.submit(new Callable<Void>() {
+                public Void call() {
+                    chunk.run(from, Math.min(nodeCount, from + NODES_PER_CHUNK));
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+    }
+
+    /**
+     * Vose's alias method over the weights of one list, reusing its work arrays between lists.
+     */
+    private class AliasBuilder {
+        private double[] scaled = new double[16];
+        private int[] small = new int[16];
+        private int[] large = new int[16];
+
+        void build(long offset, int degree) {
+            if (degree == 0) return;
+            if (scaled.length < degree) {
+                scaled = new double[degree];
+                small = new int[degree];
+                large = new int[degree];
+            }
+            double total = 0;
+            for (int i = 0; i < degree; i++) {
+                total += Float.intBitsToFloat(probabilities.get(offset + i));
+            }
+            int smalls = 0;
+            int larges = 0;
+            for (int i = 0; i < degree; i++) {
+                scaled[i] = total == 0 ? 1 : Float.intBitsToFloat(probabilities.get(offset + i)) * degree / total;
+                if (scaled[i] < 1) small[smalls++] = i; else large[larges++] = i;
+            }
+            while (smalls > 0 && larges > 0) {
+                final int less = small[--smalls];
+                final int more = large[--larges];
+                set(offset, less, scaled[less], more);
+                scaled[more] += scaled[less] - 1;
+                if (scaled[more] < 1) small[smalls++] = more; else large[larges++] = more;
+            }
+            // the rest is 1 up to rounding
+            while (larges > 0) {
+                final int slot = large[--larges];
+                set(offset, slot, 1, slot);
+            }
+            while (smalls > 0) {
+                final int slot = small[--smalls];
+                set(offset, slot, 1, slot);
+            }
+        }
+
+        private void set(long offset, int slot, double probability, int alias) {
+            probabilities.set(offset + slot, Float.floatToRawIntBits((float) probability));
+            aliases.set(offset + slot, alias);
+        }
+    }
+
+    /**
+     * @return a neighbour of a node with relationships, chosen with probability proportional to the weight
+     */
+    public long sample(long nodeId, Random random) {
+        final long index = nodeId - minNodeId;
+        final long offset = offsets.get(index);
+        final int slot = random.nextInt((int) (offsets.get(index + 1) - offset));
+        final boolean keep = random.nextFloat() < Float.intBitsToFloat(probabilities.get(offset + slot));
+        return targets.get(offset + (keep ? slot : aliases.get(offset + slot)));
+    }
+
+    public long getMinNodeId() {
+        return minNodeId;
+    }
+
+    public long getNodeCount() {
+        return nodeCount;
+    }
+
+    public long getRelationshipCount() {
+        return offsets.get(nodeCount);
+    }
+
+    public boolean contains(long nodeId) {
+        return nodeId >= minNodeId && nodeId < minNodeId + nodeCount;
+    }
+
+    public int degree(long nodeId) {
+        final long index = nodeId - minNodeId;
+        return (int) (offsets.get(index + 1) - offsets.get(index));
+    }
+
+    public long neighbour(long nodeId, int index) {
+        return targets.get(offsets.get(nodeId - minNodeId) + index);
+    }
+}
@@ -0,0 +1,37 @@
+package org.neo4j.kernel.impl.core;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author mh
+ * @since 18.01.13
+ */
+public class PageCacheWarmerTest {
+    private static final String STORE_DIR = "target/warmer-store";
+
+    @Test
+    public void testReadsTheNodeRangeAndAllRelationships() throws Exception {
+        new File(STORE_DIR).mkdirs();
+        create(StoreScanner.NODE_STORE, 1000 * StoreScanner.NODE_RECORD_SIZE);
+        create(StoreScanner.RELATIONSHIP_STORE, 3 * StoreScanner.BLOCK_SIZE + 5);
+
+        final PageCacheWarmer warmer = new PageCacheWarmer(STORE_DIR, 3);
+        final long relationships = 3 * StoreScanner.BLOCK_SIZE / StoreScanner.RELATIONSHIP_RECORD_SIZE;
+        assertEquals(100 * StoreScanner.NODE_RECORD_SIZE + relationships * StoreScanner.RELATIONSHIP_RECORD_SIZE,
+                warmer.warm(200, 100, relationships - 1));
+        // ranges are cut off at the end of the files
+        assertEquals(100 * StoreScanner.NODE_RECORD_SIZE + 3 * StoreScanner.BLOCK_SIZE + 5, warmer.warm(900, 1000, relationships * 2));
+        assertEquals(0, new PageCacheWarmer("target/no-store", 2).warm(0, 100, 100));
+    }
+
+    private static void create(String name, long length) throws Exception {
+        final RandomAccessFile raf = new RandomAccessFile(new File(STORE_DIR, name), "rw");
+        raf.setLength(length);
+        raf.close();
+    }
+}
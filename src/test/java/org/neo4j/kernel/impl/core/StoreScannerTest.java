@@ -0,0 +1,110 @@
+package org.neo4j.kernel.impl.core;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.olap.EdgeVisitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author mh
+ * @since 27.12.12
+ */
+public class StoreScannerTest {
+    private static final String STORE_DIR = "target/scanner-store";
+    private static final long BIG_NODE_ID = (1L << 33) + 5;
+
+    @Before
+    public void setUp() throws Exception {
+        new File(STORE_DIR).mkdirs();
+        final ByteBuffer rels = ByteBuffer.allocate(4 * StoreScanner.RELATIONSHIP_RECORD_SIZE + 24);
+        relationship(rels, true, 1, 2, 7);
+        relationship(rels, false, 3, 4, 0);
+        relationship(rels, true, BIG_NODE_ID, BIG_NODE_ID + 1, 0xFFFF);
+        relationship(rels, true, 0, 0, 1);
+        rels.put("RelationshipStore v0.A.0".getBytes("UTF-8"));
+        write(StoreScanner.RELATIONSHIP_STORE, rels);
+
+        final ByteBuffer nodes = ByteBuffer.allocate(3 * StoreScanner.NODE_RECORD_SIZE + 16);
+        nodes.put((byte) 1).putInt(0).putInt(-1);
+        nodes.put((byte) 0).putInt(0).putInt(0);
+        nodes.put((byte) (1 | 0x2 | 0x10)).putInt(5).putInt(6);
+        nodes.put("NodeStore v0.A.0".getBytes("UTF-8"));
+        write(StoreScanner.NODE_STORE, nodes);
+    }
+
+    @Test
+    public void testScanRelationships() throws Exception {
+        final List<long[]> found = new ArrayList<long[]>();
+        final long count = new StoreScanner(STORE_DIR).relationships(100).accept(new EdgeVisitor() {
+            public void visit(long relationshipId, long startNode, long endNode, int type) {
+                found.add(new long[]{relationshipId, startNode, endNode, type});
+            }
+        });
+        assertEquals(3, count);
+        assertRelationship(found.get(0), 0, 1, 2, 7);
+        assertRelationship(found.get(1), 2, BIG_NODE_ID, BIG_NODE_ID + 1, 0xFFFF);
+        assertRelationship(found.get(2), 3, 0, 0, 1);
+    }
+
+    @Test
+    public void testScanRelationshipRange() throws Exception {
+        final long[] first = new long[1];
+        final long count = new StoreScanner(STORE_DIR).scanRelationships(2, 3, new EdgeVisitor() {
+            public void visit(long relationshipId, long startNode, long endNode, int type) {
+                first[0] = relationshipId;
+            }
+        });
+        assertEquals(1, count);
+        assertEquals(2, first[0]);
+    }
+
+    @Test
+    public void testScanNodes() throws Exception {
+        final List<long[]> found = new ArrayList<long[]>();
+        final long count = new StoreScanner(STORE_DIR).scanNodes(0, Long.MAX_VALUE, new StoreScanner.NodeVisitor() {
+            public void visit(long nodeId, long nextRel, long nextProp) {
+                found.add(new long[]{nodeId, nextRel, nextProp});
+            }
+        });
+        assertEquals(2, count);
+        assertEquals(0, found.get(0)[0]);
+        assertEquals(0, found.get(0)[1]);
+        assertEquals(-1, found.get(0)[2]);
+        assertEquals(2, found.get(1)[0]);
+        assertEquals((1L << 32) + 5, found.get(1)[1]);
+        assertEquals((1L << 32) + 6, found.get(1)[2]);
+    }
+
+    private void assertRelationship(long[] rel, long id, long start, long end, long type) {
+        assertEquals(id, rel[0]);
+        assertEquals(start, rel[1]);
+        assertEquals(end, rel[2]);
+        assertEquals(type, rel[3]);
+    }
+
+    private void relationship(ByteBuffer buffer, boolean inUse, long first, long second, int type) {
+        buffer.put((byte) ((inUse ? 1 : 0) | ((first >>> 31) & 0xE)));
+        buffer.putInt((int) first);
+        buffer.putInt((int) second);
+        buffer.putInt((int) (((second >>> 4) & 0x70000000L) | type));
+        for (int i = 0; i < 5; i++) {
+            buffer.putInt(-1);
+        }
+    }
+
+    private void write(String name, ByteBuffer buffer) throws Exception {
+        final FileOutputStream os = new FileOutputStream(new File(STORE_DIR, name));
+        try {
+            os.write(buffer.array(), 0, buffer.position());
+        } finally {
+            os.close();
+        }
+    }
+}
@@ -3,10 +3,16 @@ package org.neo4j.olap;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author mh
@@ -36,4 +42,115 @@ public class ArrayStoreTest {
         final int[] read = store.read();
         assertArrayEquals(data,read);
     }
+
+    @Test
+    public void testWriteMappedArray() throws Exception {
+        final String file = "target/test-mapped.ints";
+        final ArrayStore store = new ArrayStore(file, true);
+        final int[] data = new int[ArrayStore.MEGABYTE * 3 + 7];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i;
+        }
+        store.write(data);
+        assertEquals(ArrayStore.HEADER_SIZE + data.length * (Integer.SIZE / 8), new File(file).length());
+        assertArrayEquals(data, store.read());
+        assertArrayEquals(data, new ArrayStore(file).read());
+    }
+
+    @Test
+    public void testMapLegacyFormatReadOnly() throws Exception {
+        final String file = "target/test-legacy.ints";
+        final int[] data = {6, 3, 1, 9};
+        new ArrayStore(file, 3).write(data);
+        final OffHeapIntArray view = new ArrayStore(file, true).map();
+        assertEquals(data.length, view.length());
+        assertEquals(9, view.get(3));
+        assertArrayEquals(data, new ArrayStore(file, true).read());
+    }
+
+    @Test
+    public void testWriteOffHeapArray() throws Exception {
+        final String file = "target/test-offheap.ints";
+        final OffHeapIntArray data = OffHeapIntArray.allocate(1000);
+        for (int i = 0; i < data.length(); i++) {
+            data.set(i, i * 2);
+        }
+        new ArrayStore(file).write(data);
+        final OffHeapIntArray view = new ArrayStore(file).map();
+        assertEquals(1000, view.length());
+        assertEquals(1998, view.get(999));
+        assertEquals(1000, new ArrayStore(file).read().length);
+    }
+
+    @Test
+    public void testPackedArrayOfMostlyZeroCounts() throws Exception {
+        final String file = "target/test-packed.ints";
+        final Random random = new Random(42);
+        final int[] data = new int[ArrayStore.MEGABYTE * 3 + 77];
+        // zero runs, small counts, a hub and a dense block of constant counts
+        for (int i = 0; i < data.length; i++) {
+            if (random.nextInt(4) == 0) data[i] = random.nextInt(20);
+        }
+        Arrays.fill(data, 100000, 200000, 0);
+        Arrays.fill(data, 300000, 310000, 3);
+        data[12345] = Integer.MAX_VALUE;
+        data[54321] = -1;
+        final ArrayStore store = new ArrayStore(file, true);
+        final long bytes = store.writePacked(data, 3);
+        assertEquals(new File(file).length(), bytes);
+        assertTrue(bytes < data.length * (Integer.SIZE / 8) / 3);
+        assertTrue(store.isPacked());
+        assertArrayEquals(data, store.read());
+        assertArrayEquals(data, new ArrayStore(file).read());
+        try {
+            store.map();
+            fail("Packed file was mapped");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("packed"));
+        }
+    }
+
+    @Test
+    public void testReadRangesOfEveryFormat() throws Exception {
+        final int[] data = new int[PackedInts.BLOCK_SIZE * 5 + 11];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 3 == 0 ? 0 : i;
+        }
+        new ArrayStore("target/test-range.ints").write(data);
+        new ArrayStore("target/test-range-mapped.ints", true).write(data);
+        new ArrayStore("target/test-range-packed.ints").writePacked(data, 2);
+        assertFalse(new ArrayStore("target/test-range.ints").isPacked());
+        for (String file : new String[]{"target/test-range.ints", "target/test-range-mapped.ints", "target/test-range-packed.ints"}) {
+            final ArrayStore store = new ArrayStore(file);
+            final int[][] ranges = {{0, 10}, {PackedInts.BLOCK_SIZE - 3, 7}, {PackedInts.BLOCK_SIZE, PackedInts.BLOCK_SIZE * 2},
+                    {data.length - 11, 11}, {5, 0}, {0, data.length}};
+            for (int[] range : ranges) {
+                assertArrayEquals(file, Arrays.copyOfRange(data, range[0], range[0] + range[1]), store.read(range[0], range[1]));
+            }
+            try {
+                store.read(data.length - 5, 6);
+                fail("Read beyond the end of " + file);
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testBlockModes() {
+        final int[][] blocks = {new int[100], {5, 5, 5, 5}, {1000, 1001, 1002, 1003, 1004, 1005, 1006, 1007}, {7, 9, 8, 1000000},
+                {0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 4}, {Integer.MIN_VALUE, Integer.MAX_VALUE, -1, 0}, {-3, -2, -1}};
+        final byte[] modes = {PackedInts.ZEROS, PackedInts.BITS, PackedInts.BITS, PackedInts.RUNS, PackedInts.RUNS, PackedInts.RUNS, PackedInts.BITS};
+        for (int b = 0; b < blocks.length; b++) {
+            final int[] block = blocks[b];
+            final ByteBuffer buffer = ByteBuffer.allocate(PackedInts.maxBytes(block.length));
+            final int bytes = PackedInts.encode(block, 0, block.length, buffer);
+            assertEquals(bytes, buffer.position());
+            assertEquals(modes[b], buffer.get(0));
+            buffer.flip();
+            final int[] decoded = new int[block.length];
+            PackedInts.decode(buffer, decoded, 0, block.length);
+            assertArrayEquals(block, decoded);
+            assertEquals(bytes, buffer.position());
+        }
+    }
 }
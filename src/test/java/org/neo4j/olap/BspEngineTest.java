@@ -0,0 +1,83 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 08.01.13
+ */
+public class BspEngineTest {
+    // two binary trees over 0..99999 and 100000..199999 plus an isolated node, spanning several chunks
+    private static final int TREE = 100000;
+    private final CsrGraph graph = CsrGraph.build(new EdgeSource() {
+        public long accept(EdgeVisitor visitor) {
+            long rel = 0;
+            for (int tree = 0; tree < 2; tree++) {
+                for (int i = 1; i < TREE; i++) {
+                    visitor.visit(rel++, tree * TREE + i, tree * TREE + (i - 1) / 2, 0);
+                }
+            }
+            return rel;
+        }
+    }, 0, 2 * TREE + 1);
+
+    @Test
+    public void testConnectedComponents() throws Exception {
+        final BspEngine engine = new BspEngine(graph, 4);
+        engine.run(new ConnectedComponents(), Integer.MAX_VALUE);
+        for (int i = 0; i < TREE; i++) {
+            assertEquals(0, engine.getValue(i));
+            assertEquals(TREE, engine.getValue(TREE + i));
+        }
+        assertEquals(2 * TREE, engine.getValue(2 * TREE));
+        assertEquals(0, engine.getDropped());
+    }
+
+    @Test
+    public void testShortestPathsFromTheRoot() throws Exception {
+        final BspEngine engine = new BspEngine(graph, 3);
+        engine.run(new SingleSourceShortestPaths(TREE), Integer.MAX_VALUE);
+        for (int i = 0; i < TREE; i++) {
+            // depth in the heap ordered tree
+            assertEquals(31 - Integer.numberOfLeadingZeros(i + 1), engine.getValue(TREE + i));
+            assertEquals(SingleSourceShortestPaths.UNREACHABLE, engine.getValue(i));
+        }
+        // 16 levels, one more superstep to see that nothing changes
+        assertEquals(18, engine.getSupersteps());
+    }
+
+    @Test
+    public void testAggregatesAndMaxSupersteps() throws Exception {
+        final long[] changes = new long[3];
+        final BspEngine engine = new BspEngine(graph, 2);
+        engine.run(new ConnectedComponents() {
+            @Override
+            public boolean beforeSuperstep(int superstep, long[] aggregates) {
+                if (superstep > 0) changes[superstep - 1] = aggregates[CHANGES];
+                return superstep < 3;
+            }
+        }, 10);
+        assertEquals(3, engine.getSupersteps());
+        assertEquals(0, changes[0]);
+        // every node but the roots takes its parent's or a smaller child's id
+        assertEquals(2 * (TREE - 1), changes[1]);
+        assertTrue(changes[2] > 0);
+    }
+
+    @Test
+    public void testMessagesOutsideTheRangeAreDropped() throws Exception {
+        final BspEngine engine = new BspEngine(CsrGraph.build(new EdgeSource() {
+            public long accept(EdgeVisitor visitor) {
+                visitor.visit(0, 10, 11, 0);
+                visitor.visit(1, 11, 12, 0);
+                return 2;
+            }
+        }, 11, 5), 1);
+        engine.run(new ConnectedComponents(), 100);
+        assertEquals(11, engine.getValue(12));
+        assertEquals(1, engine.getDropped());
+    }
+}
@@ -0,0 +1,90 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 13.01.13
+ */
+public class CompressedGraphTest {
+    private static final int NODES = 1 << 15;
+    private final GraphGenerator rmat = TestGraphs.rmat(NODES);
+
+    // hub 1000 with neighbours below and above it, 3 -> 2 and a self loop at 5
+    private final EdgeSource star = new EdgeSource() {
+        public long accept(EdgeVisitor visitor) {
+            long rel = 0;
+            for (int i = 0; i < 2000; i += 3) {
+                if (i != 1000) visitor.visit(rel++, 1000, i, 0);
+            }
+            visitor.visit(rel++, 3, 2, 0);
+            visitor.visit(rel++, 5, 5, 0);
+            return rel;
+        }
+    };
+
+    @Test
+    public void testCompressedListsAreTheSortedLists() throws Exception {
+        final CsrGraph graph = CsrGraph.build(rmat, 0, NODES);
+        final CompressedGraph compressed = CompressedGraph.compress(graph, 2);
+        assertSameLists(graph, compressed);
+        assertTrue(compressed.getBytes() < 4 * graph.getRelationshipCount() + 8 * NODES);
+    }
+
+    @Test
+    public void testBuildsInSlicesFromTheScan() throws Exception {
+        for (Direction direction : Direction.values()) {
+            final CsrGraph graph = CsrGraph.build(rmat, 1000, NODES - 2000, direction);
+            assertSameLists(graph, CompressedGraph.build(rmat, 1000, NODES - 2000, direction, 3, 10000));
+        }
+    }
+
+    @Test
+    public void testLongListsAndNeighboursBelowTheNode() throws Exception {
+        final CsrGraph graph = CsrGraph.build(star, 0, 2000);
+        final CompressedGraph compressed = CompressedGraph.build(star, 0, 2000, Direction.BOTH, 2, 100);
+        assertSameLists(graph, compressed);
+        assertEquals(667, compressed.degree(1000));
+        assertEquals(0, compressed.neighbour(1000, 0));
+        assertEquals(1998, compressed.neighbour(1000, 666));
+        assertEquals(1, compressed.degree(5));
+        assertEquals(5, compressed.neighbour(5, 0));
+        assertEquals(0, compressed.degree(1999));
+    }
+
+    @Test
+    public void testChunksAreSpreadOverPages() throws Exception {
+        final CsrGraph graph = CsrGraph.build(rmat, 0, NODES);
+        final CompressedGraph compressed = CompressedGraph.compress(graph, 2, 1 << 12);
+        assertSameLists(graph, compressed);
+    }
+
+    private static void assertSameLists(CsrGraph graph, CompressedGraph compressed) {
+        assertEquals(graph.getMinNodeId(), compressed.getMinNodeId());
+        assertEquals(graph.getNodeCount(), compressed.getNodeCount());
+        assertEquals(graph.getRelationshipCount(), compressed.getRelationshipCount());
+        long[] decoded = new long[16];
+        for (long node = graph.getMinNodeId(); node < graph.getMinNodeId() + graph.getNodeCount(); node++) {
+            final int degree = graph.degree(node);
+            assertEquals(degree, compressed.degree(node));
+            final long[] expected = new long[degree];
+            final long[] random = new long[degree];
+            for (int i = 0; i < degree; i++) {
+                expected[i] = graph.neighbour(node, i);
+                random[i] = compressed.neighbour(node, i);
+            }
+            Arrays.sort(expected);
+            assertArrayEquals("node " + node, expected, random);
+            if (decoded.length < degree) decoded = new long[degree];
+            assertEquals(degree, compressed.neighbours(node, decoded));
+            assertArrayEquals(expected, Arrays.copyOf(decoded, degree));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mh
+ * @since 19.12.12
+ */
+public class CsrGraphTest {
+    // 0-1, 1-2, 2-3, 3-0, 1-1, 4-2
+    private static final long[][] EDGES = {{0, 1}, {1, 2}, {2, 3}, {3, 0}, {1, 1}, {4, 2}};
+
+    private final EdgeSource source = new EdgeSource() {
+        public long accept(EdgeVisitor visitor) {
+            for (int i = 0; i < EDGES.length; i++) {
+                visitor.visit(i, EDGES[i][0], EDGES[i][1], 0);
+            }
+            return EDGES.length;
+        }
+    };
+
+    @Test
+    public void testBuildFullRange() throws Exception {
+        final CsrGraph graph = CsrGraph.build(source, 0, 5);
+        assertEquals(11, graph.getRelationshipCount());
+        assertEquals(2, graph.degree(0));
+        assertEquals(3, graph.degree(1));
+        assertEquals(3, graph.degree(2));
+        assertEquals(1, graph.degree(4));
+        assertEquals(0, graph.neighbour(1, 0));
+        assertEquals(2, graph.neighbour(1, 1));
+        assertEquals(1, graph.neighbour(1, 2));
+        assertEquals(2, graph.neighbour(4, 0));
+    }
+
+    @Test
+    public void testBuildPartialRangeKeepsOutgoingTargets() throws Exception {
+        final CsrGraph graph = CsrGraph.build(source, 2, 2);
+        assertFalse(graph.contains(1));
+        assertTrue(graph.contains(3));
+        assertEquals(5, graph.getRelationshipCount());
+        assertEquals(3, graph.degree(2));
+        assertEquals(1, graph.neighbour(2, 0));
+        assertEquals(3, graph.neighbour(2, 1));
+        assertEquals(4, graph.neighbour(2, 2));
+        assertEquals(2, graph.degree(3));
+    }
+
+    @Test
+    public void testRejectsNodeIdsBeyondInts() throws Exception {
+        try {
+            CsrGraph.build(source, Integer.MAX_VALUE, 5);
+            fail("range beyond int node ids");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            CompressedGraph.build(source, Integer.MAX_VALUE, 5, Direction.BOTH, 1);
+            fail("range beyond int node ids");
+        } catch (IllegalArgumentException expected) {
+        }
+        final EdgeSource far = new EdgeSource() {
+            public long accept(EdgeVisitor visitor) {
+                visitor.visit(0, 1, Integer.MAX_VALUE + 1L, 0);
+                return 1;
+            }
+        };
+        try {
+            CsrGraph.build(far, 0, 5);
+            fail("target beyond int node ids");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
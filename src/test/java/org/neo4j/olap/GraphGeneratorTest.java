@@ -0,0 +1,67 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 06.01.13
+ */
+public class GraphGeneratorTest {
+    private static final int NODES = 100000;
+
+    @Test
+    public void testSameGraphForAnyThreadCount() throws Exception {
+        for (GraphGenerator.Model model : GraphGenerator.Model.values()) {
+            final long[] single = edges(new GraphGenerator(model, NODES, 30, 0.57, 3, 42, 1));
+            assertArrayEquals(single, edges(new GraphGenerator(model, NODES, 30, 0.57, 3, 42, 4)));
+            assertTrue(single.length > GraphGenerator.CHUNK_SIZE);
+        }
+    }
+
+    @Test
+    public void testRmatDegreesAreSkewed() throws Exception {
+        final GraphGenerator generator = new GraphGenerator(GraphGenerator.Model.RMAT, NODES, 10, 0.57, 1, 42, 2);
+        final CsrGraph graph = CsrGraph.build(generator, 0, NODES);
+        assertEquals(NODES * 10 / 2, generator.getRelationshipCount());
+        // every relationship is counted at both ends, self loops once
+        assertTrue(graph.getRelationshipCount() <= 2 * generator.getRelationshipCount());
+        assertTrue(maxDegree(graph) > 50 * 10);
+    }
+
+    @Test
+    public void testBaAttachesToEarlierNodes() throws Exception {
+        final GraphGenerator generator = new GraphGenerator(GraphGenerator.Model.BA, NODES, 10, 0, 1, 7, 2);
+        final long[] edges = edges(generator);
+        assertEquals(NODES * 5, edges.length);
+        for (int i = 0; i < edges.length; i++) {
+            final long start = edges[i] >>> 32;
+            final long end = edges[i] & 0xFFFFFFFFL;
+            assertEquals(i / 5, start);
+            assertTrue(end <= start);
+        }
+        assertTrue(maxDegree(CsrGraph.build(generator, 0, NODES)) > 20 * 10);
+    }
+
+    private int maxDegree(CsrGraph graph) {
+        int max = 0;
+        for (long node = 0; node < graph.getNodeCount(); node++) {
+            max = Math.max(max, graph.degree(node));
+        }
+        return max;
+    }
+
+    private long[] edges(GraphGenerator generator) {
+        final long[] edges = new long[(int) generator.getRelationshipCount()];
+        generator.accept(new EdgeVisitor() {
+            public void visit(long relId, long start, long end, int type) {
+                assertTrue(start < NODES && end < NODES && type < 3);
+                edges[(int) relId] = start << 32 | end;
+            }
+        });
+        return edges;
+    }
+}
@@ -0,0 +1,79 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author mh
+ * @since 18.01.13
+ */
+public class MappedMemoryTest {
+    private static final long MB = 1024 * 1024;
+
+    private final Map<String, Long> sizes = new HashMap<String, Long>();
+
+    {
+        sizes.put("neostore.nodestore.db", 100 * MB);
+        sizes.put("neostore.relationshipstore.db", 1000 * MB);
+        sizes.put("neostore.propertystore.db", 300 * MB);
+        sizes.put("neostore.propertystore.db.strings", 100 * MB);
+        sizes.put("neostore.propertystore.db.arrays", 0L);
+        sizes.put("neostore.propertystore.db.index", 1000L);
+        sizes.put("neostore.propertystore.db.index.keys", 1000L);
+    }
+
+    @Test
+    public void testWholeStoreFitsWithGrowth() {
+        final Map<String, String> settings = MappedMemory.settings(sizes, 10000 * MB);
+        assertEquals("110M", settings.get("neostore.nodestore.db.mapped_memory"));
+        assertEquals("1100M", settings.get("neostore.relationshipstore.db.mapped_memory"));
+        assertEquals("330M", settings.get("neostore.propertystore.db.mapped_memory"));
+        assertEquals("1M", settings.get("neostore.propertystore.db.arrays.mapped_memory"));
+        assertEquals("1M", settings.get("neostore.propertystore.db.index.keys.mapped_memory"));
+        assertEquals(7, settings.size());
+    }
+
+    @Test
+    public void testNodesAndRelationshipsFirstPropertiesShareTheRest() {
+        final Map<String, String> settings = MappedMemory.settings(sizes, 1410 * MB);
+        assertEquals("110M", settings.get("neostore.nodestore.db.mapped_memory"));
+        assertEquals("1100M", settings.get("neostore.relationshipstore.db.mapped_memory"));
+        // 200 MB left for 330 + 110 MB of property stores
+        assertEquals("149M", settings.get("neostore.propertystore.db.mapped_memory"));
+        assertEquals("49M", settings.get("neostore.propertystore.db.strings.mapped_memory"));
+    }
+
+    @Test
+    public void testSmallBudgetIsSharedByNodesAndRelationships() {
+        final Map<String, String> settings = MappedMemory.settings(sizes, 121 * MB);
+        assertEquals("11M", settings.get("neostore.nodestore.db.mapped_memory"));
+        assertEquals("110M", settings.get("neostore.relationshipstore.db.mapped_memory"));
+        assertEquals("1M", settings.get("neostore.propertystore.db.mapped_memory"));
+    }
+
+    @Test
+    public void testSizesFromStoreFiles() throws Exception {
+        final File dir = new File("target/mapped-store");
+        dir.mkdirs();
+        final RandomAccessFile raf = new RandomAccessFile(new File(dir, "neostore.relationshipstore.db"), "rw");
+        raf.setLength(20 * MB);
+        raf.close();
+        System.setProperty("olap.mapped", "1G");
+        try {
+            final Map<String, String> settings = MappedMemory.forStore(dir.getPath());
+            assertEquals("22M", settings.get("neostore.relationshipstore.db.mapped_memory"));
+            assertEquals("1M", settings.get("neostore.nodestore.db.mapped_memory"));
+        } finally {
+            System.clearProperty("olap.mapped");
+        }
+        assertEquals(512 * MB, MappedMemory.parseSize("512M"));
+        assertEquals(2L << 30, MappedMemory.parseSize(" 2g"));
+        assertEquals(1000, MappedMemory.parseSize("1000"));
+    }
+}
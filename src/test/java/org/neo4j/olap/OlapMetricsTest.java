@@ -0,0 +1,73 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 07.01.13
+ */
+public class OlapMetricsTest {
+    private static final int NODES = 1000;
+
+    @Test
+    public void testCollectsWalksOfAllThreads() throws Exception {
+        final OlapMetrics metrics = OlapMetrics.INSTANCE;
+        final long walksBefore = metrics.getWalks();
+        final long hitsBefore = metrics.getHits();
+        final CsrGraph graph = CsrGraph.build(TestGraphs.ring(NODES), 0, NODES);
+        final long[] hits = new long[2];
+        final Thread[] threads = new Thread[2];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    final VisitCounters counters = VisitCounters.create(VisitCounters.Mode.BATCHED, 0, NODES, 1);
+                    final RandomWalker walker = new RandomWalker(graph, counters.forThread(0));
+                    final Random random = new Random(thread);
+                    for (int w = 0; w < 10000; w++) {
+                        hits[thread] += walker.walk(walker.randomStart(random), random);
+                    }
+                    walker.getCounter().flush();
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        metrics.sample();
+        assertEquals(20000, metrics.getWalks() - walksBefore);
+        assertEquals(hits[0] + hits[1], metrics.getHits() - hitsBefore);
+        assertTrue(metrics.getWalkLengthP99() >= metrics.getWalkLengthP50());
+        assertTrue(metrics.getFlushMicros().getTotal() > 0);
+    }
+
+    @Test
+    public void testReportsRoundProgress() throws Exception {
+        final OlapMetrics metrics = OlapMetrics.INSTANCE;
+        metrics.startRound(100, 50, 10, 0);
+        assertEquals("100 + 50", metrics.getRound());
+        final ThreadMetrics thread = OlapMetrics.forCurrentThread();
+        for (int i = 0; i < 5; i++) {
+            thread.walked(3, 4);
+        }
+        assertEquals(0.5, metrics.getRoundProgress(), 0.001);
+        thread.loaded(1000);
+        metrics.report();
+        assertTrue(metrics.getRecords() >= 1000);
+    }
+
+    @Test
+    public void testRegistersMBean() throws Exception {
+        OlapMetrics.INSTANCE.start(0);
+        final Object walks = ManagementFactory.getPlatformMBeanServer().getAttribute(new ObjectName(OlapMetrics.OBJECT_NAME), "Walks");
+        assertTrue((Long) walks >= 0);
+    }
+}
@@ -0,0 +1,57 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.olap.TestGraphs.average;
+
+/**
+ * @author mh
+ * @since 04.01.13
+ */
+public class PartitionedWalksTest {
+    private static final int NODES = 1000;
+    private static final int WALKS = 200000;
+
+    private final EdgeSource ring = TestGraphs.ring(NODES);
+
+    @Test
+    public void testWalksContinueAcrossPartitions() throws Exception {
+        final File spillDir = new File("target/walks");
+        final PartitionedWalks walks = new PartitionedWalks(ring, NODES, NODES / 4, VisitCounters.Mode.ATOMIC, 2, spillDir);
+        final int[] nodes = new int[NODES];
+        walks.run(nodes, WALKS, 42);
+
+        assertEquals(4, walks.getPartitions());
+        assertEquals(0, walks.getDropped());
+        assertTrue(walks.getSpilled() > 0);
+        assertEquals(0, spillDir.list().length);
+        // on a ring every node is visited equally often, also at the partition boundaries
+        final double boundary = average(nodes, 225, 275);
+        final double inner = average(nodes, 100, 150);
+        assertEquals(1, boundary / inner, 0.1);
+        assertEquals(1, average(nodes, 980, 1000) / average(nodes, 0, 20), 0.15);
+    }
+
+    @Test
+    public void testSinglePartitionDoesNotSpill() throws Exception {
+        final PartitionedWalks walks = new PartitionedWalks(ring, NODES, NODES, VisitCounters.Mode.BATCHED, 2, new File("target/walks-single"));
+        final int[] nodes = new int[NODES];
+        walks.run(nodes, WALKS, 42);
+        assertEquals(0, walks.getSpilled());
+        assertEquals(1, walks.getSweeps());
+        assertTrue(average(nodes, 0, NODES) > 0);
+    }
+
+    @Test
+    public void testStopsAfterMaxSweeps() throws Exception {
+        final PartitionedWalks walks = new PartitionedWalks(ring, NODES, 10, VisitCounters.Mode.SHARDED, 1, new File("target/walks-dropped"));
+        walks.setMaxSweeps(1);
+        walks.run(new int[NODES], 10000, 42);
+        assertTrue(walks.getDropped() > 0);
+        assertEquals(0, new File("target/walks-dropped").list().length);
+    }
+}
@@ -0,0 +1,188 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 09.01.13
+ */
+public class PathSamplerTest {
+    private static final int NODES = 300;
+
+    @Test
+    public void testSplitsDependencyOverParallelPaths() throws Exception {
+        // 0 - 1 - 3 - 4 and 0 - 2 - 3 - 4
+        final Recorder recorder = new Recorder(5);
+        final PathSampler sampler = new PathSampler(graph(0, 5, 0, 1, 0, 2, 1, 3, 2, 3, 3, 4), recorder, 10);
+        assertEquals(2, sampler.sample(0, 4, new Random(1)));
+        assertEquals(3, sampler.getLength());
+        assertArrayEquals(new int[]{0, PathSampler.SCALE / 2, PathSampler.SCALE / 2, PathSampler.SCALE, 0}, recorder.counts);
+
+        assertEquals(2, sampler.sample(4, 0, new Random(1)));
+        assertArrayEquals(new int[]{0, PathSampler.SCALE, PathSampler.SCALE, 2 * PathSampler.SCALE, 0}, recorder.counts);
+    }
+
+    @Test
+    public void testNeighboursAndUnconnectedPairs() throws Exception {
+        final Recorder recorder = new Recorder(4);
+        final PathSampler sampler = new PathSampler(graph(0, 4, 0, 1, 1, 2), recorder, 10);
+        assertEquals(1, sampler.sample(0, 1, new Random(1)));
+        assertEquals(1, sampler.getLength());
+        assertEquals(0, sampler.sample(0, 3, new Random(1)));
+        assertEquals(0, sampler.sample(2, 2, new Random(1)));
+        assertArrayEquals(new int[4], recorder.counts);
+    }
+
+    @Test
+    public void testMaxDepthAndNodesOutsideTheRange() throws Exception {
+        // the shortcut 10 - 9 - 13 leaves the range 10..14
+        final Recorder recorder = new Recorder(15);
+        final Adjacency graph = graph(10, 5, 10, 11, 11, 12, 12, 13, 10, 9, 9, 13, 13, 14);
+        assertEquals(0, new PathSampler(graph, recorder, 3).sample(10, 14, new Random(1)));
+        final PathSampler sampler = new PathSampler(graph, recorder, 4);
+        assertEquals(1, sampler.sample(10, 14, new Random(1)));
+        assertEquals(0, recorder.counts[9]);
+        assertEquals(PathSampler.SCALE, recorder.counts[12]);
+    }
+
+    @Test
+    public void testDependenciesMatchBreadthFirstSearchOfAllPairs() throws Exception {
+        final Random random = new Random(42);
+        final Adjacency graph = graph(0, NODES, randomEdges(random));
+        assertTrue(assertMatchesBreadthFirstSearch(graph, graph, random) > NODES * NODES / 4);
+    }
+
+    @Test
+    public void testSearchesBackwardsFromTheTargetOnDirectedSnapshots() throws Exception {
+        final Random random = new Random(7);
+        final EdgeSource edges = source(randomEdges(random));
+        final Adjacency graph = CsrGraph.build(edges, 0, NODES, Direction.OUTGOING);
+        final Adjacency reverse = CsrGraph.build(edges, 0, NODES, Direction.INCOMING);
+        assertTrue(assertMatchesBreadthFirstSearch(graph, reverse, random) > NODES * NODES / 4);
+    }
+
+    @Test
+    public void testDirectedPathsDoNotGoAgainstTheRelationships() throws Exception {
+        // 0 -> 1 -> 2 and the shortcut 2 -> 0
+        final EdgeSource edges = source(0, 1, 1, 2, 2, 0);
+        final Recorder recorder = new Recorder(3);
+        final PathSampler sampler = new PathSampler(CsrGraph.build(edges, 0, 3, Direction.OUTGOING), CsrGraph.build(edges, 0, 3, Direction.INCOMING), recorder, 10);
+        assertEquals(1, sampler.sample(0, 2, new Random(1)));
+        assertEquals(2, sampler.getLength());
+        assertEquals(PathSampler.SCALE, recorder.counts[1]);
+        assertEquals(1, sampler.sample(2, 0, new Random(1)));
+        assertEquals(1, sampler.getLength());
+        assertEquals(PathSampler.SCALE, recorder.counts[1]);
+    }
+
+    /**
+     * Compares the dependencies of all connected pairs with the shortest paths counted by breadth first searches
+     * from the source along {@code graph} and from the target along {@code reverse}.
+     *
+     * @return the number of connected pairs
+     */
+    private static long assertMatchesBreadthFirstSearch(Adjacency graph, Adjacency reverse, Random random) {
+        final Recorder recorder = new Recorder(NODES);
+        final PathSampler sampler = new PathSampler(graph, reverse, recorder, Integer.MAX_VALUE);
+        long pairs = 0;
+        for (int s = 0; s < NODES; s++) {
+            final int[] distanceFromSource = new int[NODES];
+            final double[] pathsFromSource = new double[NODES];
+            bfs(graph, s, distanceFromSource, pathsFromSource);
+            for (int t = 0; t < NODES; t++) {
+                if (t == s || distanceFromSource[t] < 0) continue;
+                final int[] distanceFromTarget = new int[NODES];
+                final double[] pathsFromTarget = new double[NODES];
+                bfs(reverse, t, distanceFromTarget, pathsFromTarget);
+                Arrays.fill(recorder.counts, 0);
+                assertEquals((long) pathsFromSource[t], sampler.sample(s, t, random));
+                assertEquals(distanceFromSource[t], sampler.getLength());
+                for (int v = 0; v < NODES; v++) {
+                    double expected = 0;
+                    if (v != s && v != t && distanceFromSource[v] >= 0 && distanceFromTarget[v] >= 0
+                            && distanceFromSource[v] + distanceFromTarget[v] == distanceFromSource[t]) {
+                        expected = pathsFromSource[v] * pathsFromTarget[v] / pathsFromSource[t] * PathSampler.SCALE;
+                    }
+                    // randomly rounded to one of the neighbouring integers
+                    assertTrue(s + " " + t + " " + v, Math.abs(recorder.counts[v] - expected) < 1);
+                }
+                pairs++;
+            }
+        }
+        return pairs;
+    }
+
+    private static int[] randomEdges(Random random) {
+        final int[] edges = new int[4 * NODES];
+        for (int i = 0; i < edges.length; i += 2) {
+            edges[i] = random.nextInt(NODES);
+            edges[i + 1] = random.nextInt(NODES);
+        }
+        return edges;
+    }
+
+    private static void bfs(Adjacency graph, int start, int[] distance, double[] paths) {
+        Arrays.fill(distance, -1);
+        distance[start] = 0;
+        paths[start] = 1;
+        final ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(start);
+        while (!queue.isEmpty()) {
+            final int node = queue.poll();
+            for (int i = 0; i < graph.degree(node); i++) {
+                final int neighbour = (int) graph.neighbour(node, i);
+                if (distance[neighbour] < 0) {
+                    distance[neighbour] = distance[node] + 1;
+                    queue.add(neighbour);
+                }
+                if (distance[neighbour] == distance[node] + 1) paths[neighbour] += paths[node];
+            }
+        }
+    }
+
+    private static void assertArrayEquals(int[] expected, int[] actual) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+    private static Adjacency graph(long minNodeId, long nodeCount, final int... edges) {
+        return CsrGraph.build(source(edges), minNodeId, nodeCount);
+    }
+
+    private static EdgeSource source(final int... edges) {
+        return new EdgeSource() {
+            public long accept(EdgeVisitor visitor) {
+                for (int i = 0; i < edges.length; i += 2) {
+                    visitor.visit(i / 2, edges[i], edges[i + 1], 0);
+                }
+                return edges.length / 2;
+            }
+        };
+    }
+
+    private static class Recorder implements VisitCounter {
+        private final int[] counts;
+
+        Recorder(int nodes) {
+            this.counts = new int[nodes];
+        }
+
+        public void increment(long nodeId) {
+            counts[(int) nodeId]++;
+        }
+
+        public void add(long nodeId, int delta) {
+            counts[(int) nodeId] += delta;
+        }
+
+        public void flush() {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.olap.TestGraphs.isNeighbour;
+
+/**
+ * @author mh
+ * @since 10.01.13
+ */
+public class PersonalizedPageRankTest {
+    // two cliques 0..9 and 10..19 joined by 9 - 10, node 20 has no relationships
+    private static final int CLIQUE = 10;
+    private final Adjacency cliques = CsrGraph.build(new EdgeSource() {
+        public long accept(EdgeVisitor visitor) {
+            long rel = 0;
+            for (int clique = 0; clique < 2; clique++) {
+                for (int i = 0; i < CLIQUE; i++) {
+                    for (int j = i + 1; j < CLIQUE; j++) {
+                        visitor.visit(rel++, clique * CLIQUE + i, clique * CLIQUE + j, 0);
+                    }
+                }
+            }
+            visitor.visit(rel++, CLIQUE - 1, CLIQUE, 0);
+            return rel;
+        }
+    }, 0, 2 * CLIQUE + 1);
+
+    @Test
+    public void testSegmentsDoNotDependOnThreadsAndSurviveTheFile() throws Exception {
+        final int nodes = 3 * WalkSegments.NODES_PER_CHUNK / 2;
+        final Adjacency graph = CsrGraph.build(TestGraphs.rmat(nodes), 0, nodes);
+        final WalkSegments single = WalkSegments.build(graph, 3, 5, 42, 1);
+        final WalkSegments parallel = WalkSegments.build(graph, 3, 5, 42, 3);
+        final String file = "target/walk_segments.ints";
+        single.store(file);
+        final WalkSegments stored = WalkSegments.open(file);
+        assertEquals(nodes, stored.getNodeCount());
+        assertEquals(3, stored.getSegmentsPerNode());
+        assertEquals(5, stored.getSegmentLength());
+        for (long node = 0; node < nodes; node++) {
+            for (int s = 0; s < 3; s++) {
+                long previous = node;
+                for (int i = 0; i < 5; i++) {
+                    final long position = single.offset(node, s) + i;
+                    final int step = single.step(position);
+                    assertEquals(step, parallel.step(position));
+                    assertEquals(step, stored.step(position));
+                    if (previous == WalkSegments.END) {
+                        assertEquals(WalkSegments.END, step);
+                    } else if (step != WalkSegments.END) {
+                        assertTrue(isNeighbour(graph, previous, step));
+                    }
+                    previous = step;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testScoresMatchPowerIteration() throws Exception {
+        final double restart = RandomWalker.RESTART_PROBABILITY;
+        final PersonalizedPageRank pageRank = new PersonalizedPageRank(WalkSegments.build(cliques, 200, 8, 42, 2), restart);
+        final int walks = 100000;
+        final TopNSelector.TopN top = pageRank.query(new long[]{0, 1}, walks, 2 * CLIQUE, new Random(1));
+        final double[] expected = powerIteration(cliques, new int[]{0, 1}, restart);
+        assertEquals(2 * CLIQUE, top.size());
+        assertTrue(top.getId(0) <= 1);
+        for (int i = 0; i < top.size(); i++) {
+            final long node = top.getId(i);
+            assertEquals("node " + node, expected[(int) node], top.getCount(i) / (double) pageRank.getVisits(), 0.02);
+        }
+        // the first clique holds most of the rank, the bridge node 9 leads the rest of it
+        assertTrue(top.getId(CLIQUE - 1) < CLIQUE);
+        assertEquals(CLIQUE, top.getId(CLIQUE));
+    }
+
+    @Test
+    public void testWalksEndAtNodesWithoutRelationships() throws Exception {
+        final PersonalizedPageRank pageRank = new PersonalizedPageRank(WalkSegments.build(cliques, 2, 4, 42, 1), 0.1);
+        final TopNSelector.TopN top = pageRank.query(new long[]{2 * CLIQUE}, 100, 10, new Random(1));
+        assertEquals(1, top.size());
+        assertEquals(2 * CLIQUE, top.getId(0));
+        assertEquals(100, top.getCount(0));
+        assertEquals(100, pageRank.getVisits());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSeedsMustHaveSegments() throws Exception {
+        new PersonalizedPageRank(WalkSegments.build(cliques, 2, 4, 42, 1), 0.1).query(new long[]{2 * CLIQUE + 1}, 100, 10, new Random(1));
+    }
+
+    private static double[] powerIteration(Adjacency graph, int[] seeds, double restart) {
+        final int nodes = (int) graph.getNodeCount();
+        double[] rank = new double[nodes];
+        for (int iteration = 0; iteration < 200; iteration++) {
+            final double[] next = new double[nodes];
+            for (int seed : seeds) {
+                next[seed] += restart / seeds.length;
+            }
+            for (int node = 0; node < nodes; node++) {
+                final int degree = graph.degree(node);
+                for (int i = 0; i < degree; i++) {
+                    next[(int) graph.neighbour(node, i)] += (1 - restart) * rank[node] / degree;
+                }
+            }
+            rank = next;
+        }
+        return rank;
+    }
+}
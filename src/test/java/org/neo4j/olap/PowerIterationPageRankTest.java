@@ -0,0 +1,57 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 21.12.12
+ */
+public class PowerIterationPageRankTest {
+
+    @Test
+    public void testStarCenterRanksHighest() throws Exception {
+        // 0 is connected to 1..4, 5 has no relationships
+        final CsrGraph graph = CsrGraph.build(edges(new long[][]{{0, 1}, {0, 2}, {0, 3}, {0, 4}}), 0, 6);
+        final PowerIterationPageRank pageRank = new PowerIterationPageRank(graph, 2);
+        final double[] rank = pageRank.compute();
+        double sum = 0;
+        for (double r : rank) sum += r;
+        assertEquals(1.0, sum, 1e-6);
+        assertTrue(pageRank.getResidual() <= PowerIterationPageRank.DEFAULT_TOLERANCE);
+        assertTrue(rank[0] > rank[1]);
+        assertEquals(rank[1], rank[4], 1e-12);
+        assertTrue(rank[5] < rank[1]);
+        final int[] counts = pageRank.toCounts(rank);
+        assertTrue(counts[0] > PowerIterationPageRank.SCORE_SCALE);
+    }
+
+    @Test
+    public void testResultDoesNotDependOnThreads() throws Exception {
+        final Random random = new Random(42);
+        final long[][] edges = new long[200000][];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = new long[]{random.nextInt(100000), random.nextInt(100000)};
+        }
+        final CsrGraph graph = CsrGraph.build(edges(edges), 0, 100000);
+        final double[] single = new PowerIterationPageRank(graph, 1).compute();
+        final double[] parallel = new PowerIterationPageRank(graph, 4).compute();
+        assertArrayEquals(single, parallel, 0);
+    }
+
+    private EdgeSource edges(final long[][] edges) {
+        return new EdgeSource() {
+            public long accept(EdgeVisitor visitor) {
+                for (int i = 0; i < edges.length; i++) {
+                    visitor.visit(i, edges[i][0], edges[i][1], 0);
+                }
+                return edges.length;
+            }
+        };
+    }
+}
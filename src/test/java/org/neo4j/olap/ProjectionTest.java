@@ -0,0 +1,120 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 11.01.13
+ */
+public class ProjectionTest {
+    private static final int KNOWS = 0;
+    private static final int AUDIT = 1;
+
+    // 0 -> 1 -> 2 -> 0 KNOWS, 3 -> 0 KNOWS, 0 -> 1 and 1 -> 4 AUDIT
+    private final EdgeSource edges = new EdgeSource() {
+        public long accept(EdgeVisitor visitor) {
+            visitor.visit(0, 0, 1, KNOWS);
+            visitor.visit(1, 1, 2, KNOWS);
+            visitor.visit(2, 2, 0, KNOWS);
+            visitor.visit(3, 3, 0, KNOWS);
+            visitor.visit(4, 0, 1, AUDIT);
+            visitor.visit(5, 1, 4, AUDIT);
+            return 6;
+        }
+    };
+
+    @Test
+    public void testUnresolvedProjectionAdmitsEverything() throws Exception {
+        final Projection projection = Projection.ALL;
+        assertTrue(projection.accepts(AUDIT, 1, 4));
+        final CsrGraph graph = projection.snapshot(edges, 0, 5);
+        assertEquals(12, graph.getRelationshipCount());
+        assertEquals(4, graph.degree(0));
+    }
+
+    @Test
+    public void testFiltersTypesAndNodes() throws Exception {
+        final Projection projection = new Projection(new String[]{"KNOWS"}, Direction.BOTH, null, null, bits(KNOWS), bits(0, 1, 2, 4));
+        assertTrue(projection.acceptsType(KNOWS));
+        assertFalse(projection.acceptsType(AUDIT));
+        assertFalse(projection.acceptsNode(3));
+        assertFalse(projection.acceptsNode(1000));
+        final CsrGraph graph = projection.snapshot(edges, 0, 5);
+        // only the KNOWS triangle remains
+        assertEquals(6, graph.getRelationshipCount());
+        assertEquals(2, graph.degree(0));
+        assertEquals(0, graph.degree(3));
+        assertEquals(0, graph.degree(4));
+    }
+
+    @Test
+    public void testDirectionAndTranspose() throws Exception {
+        final Projection outgoing = new Projection(new String[]{"KNOWS"}, Direction.OUTGOING, null, null, bits(KNOWS), null);
+        final CsrGraph graph = outgoing.snapshot(edges, 0, 5);
+        final CsrGraph transpose = outgoing.reverse().snapshot(edges, 0, 5);
+        assertEquals(Direction.INCOMING, outgoing.reverse().getDirection());
+        assertEquals(4, graph.getRelationshipCount());
+        assertEquals(1, graph.degree(0));
+        assertEquals(1, graph.neighbour(0, 0));
+        assertEquals(1, graph.degree(3));
+        assertEquals(2, transpose.degree(0));
+        assertEquals(0, transpose.degree(3));
+        // components ignore the direction, but keep the types
+        assertEquals(Direction.BOTH, outgoing.undirected().getDirection());
+        final CsrGraph undirected = outgoing.undirected().snapshot(edges, 0, 5);
+        assertEquals(8, undirected.getRelationshipCount());
+        assertEquals(3, undirected.degree(0));
+    }
+
+    @Test
+    public void testPowerIterationFollowsTheDirection() throws Exception {
+        final Projection outgoing = new Projection(null, Direction.OUTGOING, null, null);
+        final CsrGraph graph = outgoing.snapshot(edges, 0, 5);
+        final CsrGraph transpose = outgoing.reverse().snapshot(edges, 0, 5);
+        final double[] rank = new PowerIterationPageRank(graph, transpose, 0.85, 1e-9, 200, 2).compute();
+        final double[] expected = directedPageRank(graph, 0.85);
+        for (int i = 0; i < rank.length; i++) {
+            assertEquals("node " + i, expected[i], rank[i], 1e-6);
+        }
+        // 3 only has an outgoing relationship, 4 is only pointed to by 1
+        assertTrue(rank[3] < rank[4]);
+        assertTrue(rank[0] > rank[3]);
+    }
+
+    private static double[] directedPageRank(Adjacency graph, double damping) {
+        final int nodes = (int) graph.getNodeCount();
+        double[] rank = new double[nodes];
+        Arrays.fill(rank, 1.0 / nodes);
+        for (int iteration = 0; iteration < 500; iteration++) {
+            final double[] next = new double[nodes];
+            double dangling = 0;
+            for (int node = 0; node < nodes; node++) {
+                final int degree = graph.degree(node);
+                if (degree == 0) dangling += rank[node];
+                for (int i = 0; i < degree; i++) {
+                    next[(int) graph.neighbour(node, i)] += damping * rank[node] / degree;
+                }
+            }
+            for (int node = 0; node < nodes; node++) {
+                next[node] += (1 - damping + damping * dangling) / nodes;
+            }
+            rank = next;
+        }
+        return rank;
+    }
+
+    private static long[] bits(int... ids) {
+        final long[] bits = new long[Projection.MAX_TYPES / 64];
+        for (int id : ids) {
+            bits[id >>> 6] |= 1L << id;
+        }
+        return bits;
+    }
+}
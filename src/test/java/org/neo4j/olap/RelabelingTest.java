@@ -0,0 +1,115 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 12.01.13
+ */
+public class RelabelingTest {
+    // path 0 - 5 - 2 - 4, star 3 - 1, 3 - 6, 3 - 7, node 8 has no relationships
+    private final CsrGraph small = CsrGraph.build(new EdgeSource() {
+        public long accept(EdgeVisitor visitor) {
+            visitor.visit(0, 0, 5, 0);
+            visitor.visit(1, 5, 2, 0);
+            visitor.visit(2, 2, 4, 0);
+            visitor.visit(3, 3, 1, 0);
+            visitor.visit(4, 3, 6, 0);
+            visitor.visit(5, 3, 7, 0);
+            return 6;
+        }
+    }, 0, 9);
+
+    @Test
+    public void testDegreeOrderIsStable() throws Exception {
+        final Relabeling relabeling = Relabeling.compute(small, Relabeling.Order.DEGREE);
+        final long[] expected = {3, 2, 5, 0, 1, 4, 6, 7, 8};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], relabeling.toOriginal(i));
+            assertEquals(i, relabeling.toInternal(expected[i]));
+        }
+    }
+
+    @Test
+    public void testBreadthFirstNumbersComponentsFromTheirHub() throws Exception {
+        final Relabeling relabeling = Relabeling.compute(small, Relabeling.Order.BFS);
+        final long[] expected = {3, 1, 6, 7, 2, 5, 4, 0, 8};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], relabeling.toOriginal(i));
+        }
+    }
+
+    @Test
+    public void testRelabeledSnapshotKeepsTheRelationships() throws Exception {
+        final int nodes = 3 * Relabeling.NODES_PER_CHUNK / 2;
+        final CsrGraph graph = CsrGraph.build(TestGraphs.rmat(nodes), 0, nodes);
+        for (Relabeling.Order order : new Relabeling.Order[]{Relabeling.Order.DEGREE, Relabeling.Order.BFS}) {
+            final Relabeling relabeling = Relabeling.compute(graph, order);
+            final CsrGraph relabeled = relabeling.apply(graph, 3);
+            assertEquals(graph.getRelationshipCount(), relabeled.getRelationshipCount());
+            final boolean[] seen = new boolean[nodes];
+            for (int node = 0; node < nodes; node++) {
+                final int internal = (int) relabeling.toInternal(node);
+                assertEquals(node, relabeling.toOriginal(internal));
+                seen[internal] = true;
+                assertEquals(graph.degree(node), relabeled.degree(internal));
+                assertArrayEquals(neighbours(graph, node, null), neighbours(relabeled, internal, relabeling));
+            }
+            for (boolean s : seen) {
+                assertTrue(s);
+            }
+        }
+    }
+
+    @Test
+    public void testBreadthFirstBringsNeighboursCloser() throws Exception {
+        final int nodes = 1 << 15;
+        final CsrGraph graph = CsrGraph.build(TestGraphs.rmat(nodes), 0, nodes);
+        final CsrGraph relabeled = Relabeling.compute(graph, Relabeling.Order.BFS).apply(graph, 2);
+        assertTrue(gaps(relabeled) * 2 < gaps(graph));
+    }
+
+    @Test
+    public void testCountsAreMappedBack() throws Exception {
+        final Relabeling relabeling = Relabeling.compute(small, Relabeling.Order.DEGREE);
+        final int[] counts = new int[9];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 100 + i;
+        }
+        final int[] original = relabeling.toOriginal(counts);
+        assertEquals(100, original[3]);
+        assertEquals(101, original[2]);
+        assertEquals(108, original[8]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNodeRangesCannotBeRelabeled() throws Exception {
+        Relabeling.compute(CsrGraph.build(new GraphGenerator(GraphGenerator.Model.RMAT, 100, 4, 0.57, 1, 42, 1), 10, 90), Relabeling.Order.DEGREE);
+    }
+
+    private static long[] neighbours(Adjacency graph, long node, Relabeling relabeling) {
+        final long[] result = new long[graph.degree(node)];
+        for (int i = 0; i < result.length; i++) {
+            final long neighbour = graph.neighbour(node, i);
+            result[i] = relabeling == null ? neighbour : relabeling.toOriginal(neighbour);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static long gaps(Adjacency graph) {
+        long sum = 0;
+        for (long node = 0; node < graph.getNodeCount(); node++) {
+            for (int i = 0; i < graph.degree(node); i++) {
+                sum += Math.abs(graph.neighbour(node, i) - node);
+            }
+        }
+        return sum;
+    }
+}
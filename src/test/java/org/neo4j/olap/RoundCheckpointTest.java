@@ -0,0 +1,135 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mh
+ * @since 03.01.13
+ */
+public class RoundCheckpointTest {
+    private static final int MAX_NODE_ID = 200;
+
+    @Test
+    public void testWriteAndReadCheckpoint() throws Exception {
+        final File file = new File("target/test.round");
+        final int[] data = new int[MAX_NODE_ID];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i;
+        }
+        new RoundCheckpoint(MAX_NODE_ID, 100, 50, 42, 1000, true, 300).write(file, data, null);
+        assertEquals(RoundCheckpoint.HEADER_SIZE + data.length * 4, file.length());
+        assertFalse(new File("target/test.round.tmp").exists());
+        assertTrue(RoundCheckpoint.isCheckpoint(file));
+
+        final RoundCheckpoint checkpoint = RoundCheckpoint.read(file);
+        assertEquals(MAX_NODE_ID, checkpoint.getMaxNodeId());
+        assertEquals(100, checkpoint.getMinNodeId());
+        assertEquals(50, checkpoint.getNodesPerRound());
+        assertEquals(42, checkpoint.getSeed());
+        assertEquals(1000, checkpoint.getWalksPerRound());
+        assertTrue(checkpoint.isPartial());
+        assertEquals(300, checkpoint.getProgress());
+        assertArrayEquals(data, checkpoint.getNodes());
+    }
+
+    @Test
+    public void testSnapshotAddsRunningCounts() throws Exception {
+        final File file = new File("target/test-snapshot.round");
+        final int[] data = new int[MAX_NODE_ID];
+        final VisitCounters counters = VisitCounters.create(VisitCounters.Mode.ATOMIC, 50, 100, 1);
+        final VisitCounter counter = counters.forThread(0);
+        counter.increment(50);
+        counter.increment(149);
+        counter.increment(149);
+        new RoundCheckpoint(MAX_NODE_ID, 50, 100, 42, 0, true, 1000).write(file, data, counters);
+
+        final int[] expected = new int[MAX_NODE_ID];
+        expected[50] = 1;
+        expected[149] = 2;
+        assertArrayEquals(expected, RoundCheckpoint.read(file).getNodes());
+        assertArrayEquals(new int[MAX_NODE_ID], data);
+    }
+
+    @Test
+    public void testPackedCheckpointOfSparseCounts() throws Exception {
+        final File file = new File("target/test-packed.round");
+        final int[] data = new int[3 * (1 << 20) + 5];
+        for (int i = 0; i < data.length; i += 7) {
+            data[i] = i % 5;
+        }
+        data[data.length - 1] = Integer.MAX_VALUE;
+        final long bytes = new RoundCheckpoint(data.length, 0, data.length, 42, 0, false, 0).withPacked(true).write(file, data, null);
+        assertEquals(file.length(), bytes);
+        assertTrue(bytes < data.length);
+
+        final RoundCheckpoint checkpoint = RoundCheckpoint.read(file);
+        assertTrue(checkpoint.isPacked());
+        assertFalse(checkpoint.isPartial());
+        assertArrayEquals(data, checkpoint.getNodes());
+    }
+
+    @Test
+    public void testDoneChunksOfPartialCheckpoint() throws Exception {
+        final File file = new File("target/test-chunks.round");
+        final BitSet done = new BitSet();
+        done.set(0);
+        done.set(63);
+        done.set(64);
+        done.set(1000);
+        new RoundCheckpoint(MAX_NODE_ID, 0, 100, 42, 20000, true, 4000).withPacked(true).withDoneChunks(done).write(file, new int[MAX_NODE_ID], null);
+
+        final RoundCheckpoint checkpoint = RoundCheckpoint.read(file);
+        assertTrue(checkpoint.isPacked());
+        assertEquals(done, checkpoint.getDoneChunks());
+        assertEquals(4000, checkpoint.getProgress());
+        new RoundCheckpoint(MAX_NODE_ID, 0, 100, 42, 0, true, 10).write(file, new int[MAX_NODE_ID], null);
+        assertEquals(null, RoundCheckpoint.read(file).getDoneChunks());
+    }
+
+    @Test
+    public void testDetectsCorruption() throws Exception {
+        final File file = new File("target/test-corrupt.round");
+        new RoundCheckpoint(MAX_NODE_ID, 0, 100, 42, 0, false, 0).write(file, new int[MAX_NODE_ID], null);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(RoundCheckpoint.HEADER_SIZE + 17);
+        raf.write(1);
+        raf.close();
+        try {
+            RoundCheckpoint.read(file);
+            fail("Corrupted checkpoint was read");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("Checksum"));
+        }
+    }
+
+    @Test
+    public void testResumeRoundFromCheckpoint() throws Exception {
+        final String file = "target/page_rank_100_50.partial";
+        final int[] data = new int[MAX_NODE_ID - 10];
+        data[7] = 3;
+        new RoundCheckpoint(MAX_NODE_ID - 10, 100, 50, 7, 5000, true, 1200).write(new File(file), data, null);
+        final Runner runner = new Runner(null) {
+            @Override
+            public void runAnalysis(String file) throws Exception {
+                final AnalysisRound round = new AnalysisRound(file, MAX_NODE_ID).initialize();
+                assertEquals(100, round.getMinNodeId());
+                assertEquals(50, round.getNodesPerRound());
+                assertEquals(1200, round.getProgress());
+                assertEquals(MAX_NODE_ID, round.getNodes().length);
+                assertEquals(3, round.getNodes()[7]);
+            }
+        };
+        runner.runAnalysis(file);
+    }
+}
@@ -0,0 +1,134 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 14.01.13
+ */
+public class ScoreWriterTest {
+    private static final int NODES = 50;
+    private static final int NODES_PER_RANGE = 10;
+    private static final int DELETED = 17;
+    private static final int DONE_RANGE = 2;
+
+    @Test
+    public void testWritesUnfinishedRangesSkippingDeletedNodes() throws Exception {
+        final File storeDir = new File("target/score-writer-db");
+        deleteRecursively(storeDir);
+        final GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir.getPath());
+        try {
+            long highestId = 0;
+            final Transaction tx = db.beginTx();
+            try {
+                for (int i = 0; i < NODES; i++) {
+                    highestId = Math.max(highestId, db.createNode().getId());
+                }
+                db.getNodeById(DELETED).delete();
+                tx.success();
+            } finally {
+                tx.finish();
+            }
+            final int[] counts = new int[(int) highestId + 1];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = 3 * i + 1;
+            }
+            // a previous write-back finished one range
+            final File progressFile = newFile("target/score_writer_db.progress");
+            final ScoreWriter.Progress progress = ScoreWriter.Progress.open(progressFile, counts.length, NODES_PER_RANGE);
+            progress.markDone(DONE_RANGE);
+            progress.close();
+
+            // batches of 3 do not line up with the ranges
+            final long written = new ScoreWriter(db, "rank", 3, false, 3, NODES_PER_RANGE).write(counts, progressFile);
+            assertFalse(progressFile.exists());
+
+            long expected = 0;
+            for (int id = 0; id < counts.length; id++) {
+                final Node node = nodeOrNull(db, id);
+                if (id == DELETED) assertEquals(null, node);
+                if (node == null) continue;
+                if (id / NODES_PER_RANGE == DONE_RANGE) {
+                    assertFalse(node.hasProperty("rank"));
+                } else {
+                    assertEquals(counts[id], node.getProperty("rank"));
+                    expected++;
+                }
+            }
+            assertEquals(expected, written);
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private static Node nodeOrNull(GraphDatabaseService db, long id) {
+        try {
+            return db.getNodeById(id);
+        } catch (NotFoundException nfe) {
+            return null;
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testProgressSurvivesReopening() throws Exception {
+        final File file = newFile("target/score_writer_progress.progress");
+        ScoreWriter.Progress progress = ScoreWriter.Progress.open(file, 1000, 100);
+        assertEquals(0, progress.getDone());
+        progress.markDone(3);
+        progress.markDone(9);
+        progress.close();
+        assertEquals(ScoreWriter.Progress.HEADER_SIZE + 10, file.length());
+
+        progress = ScoreWriter.Progress.open(file, 1000, 100);
+        assertEquals(2, progress.getDone());
+        assertTrue(progress.isDone(3));
+        assertTrue(progress.isDone(9));
+        assertFalse(progress.isDone(4));
+        progress.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testProgressOfAnotherWriteBackIsRejected() throws Exception {
+        final File file = newFile("target/score_writer_other.progress");
+        ScoreWriter.Progress.open(file, 1000, 100).close();
+        ScoreWriter.Progress.open(file, 2000, 100);
+    }
+
+    @Test
+    public void testScoresAreNormalizedByPositiveCounts() throws Exception {
+        final int[] counts = {5, 0, -1, 15};
+        final double total = ScoreWriter.total(counts);
+        assertEquals(20, total, 0);
+        assertEquals(0.75, ScoreWriter.score(counts[3], total), 1e-9);
+        assertEquals(0, ScoreWriter.score(3, 0), 0);
+    }
+
+    private static File newFile(String name) {
+        final File file = new File(name);
+        file.getParentFile().mkdirs();
+        file.delete();
+        return file;
+    }
+}
@@ -0,0 +1,227 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.olap.TestGraphs.isNeighbour;
+
+/**
+ * @author mh
+ * @since 15.01.13
+ */
+public class SegmentRepairTest {
+    private static final int NODES = 1 << 15;
+    private static final int SEGMENTS = 4;
+    private static final int LENGTH = 8;
+    private static final int CREATED = 40;
+    private static final int DELETED_EVERY = 5000;
+
+    private final GraphGenerator rmat = TestGraphs.rmat(NODES);
+    private final long[] created = randomPairs(CREATED, new Random(3));
+
+    // the generated graph without every DELETED_EVERY-th relationship, plus the created ones
+    private final EdgeSource changed = new EdgeSource() {
+        public long accept(final EdgeVisitor visitor) {
+            final long relationships = rmat.accept(new EdgeVisitor() {
+                public void visit(long relationshipId, long startNode, long endNode, int type) {
+                    if (relationshipId % DELETED_EVERY != 0) visitor.visit(relationshipId, startNode, endNode, type);
+                }
+            });
+            for (int i = 0; i < created.length; i += 2) {
+                visitor.visit(relationships + i / 2, created[i], created[i + 1], 0);
+            }
+            return relationships + created.length / 2;
+        }
+    };
+
+    @Test
+    public void testChangeLogRollsAndReadsChangedNodes() throws Exception {
+        final File file = new File("target/changes_test.log");
+        file.getParentFile().mkdirs();
+        file.delete();
+        final ChangeLog log = new ChangeLog(file);
+        for (File rolled : log.rolledFiles()) {
+            rolled.delete();
+        }
+        log.append(new long[]{1, 2, ~3L, 4});
+        final File first = log.roll();
+        log.append(new long[]{5, 1});
+        final File second = log.roll();
+        log.close();
+        assertEquals(2 * ChangeLog.RECORD_SIZE, first.length());
+        assertEquals(2, log.rolledFiles().length);
+        assertEquals(3, log.getRecords());
+
+        final ChangeLog.Changes changes = ChangeLog.read(second, ChangeLog.read(first, 0, 5));
+        assertEquals(2, changes.getCreated());
+        assertEquals(1, changes.getDeleted());
+        // node 5 is out of range
+        assertEquals(4, changes.getChangedNodes());
+        assertEquals(1, changes.getOutside());
+        assertTrue(changes.contains(3));
+        assertFalse(changes.contains(0));
+        assertFalse(changes.contains(5));
+        first.delete();
+        second.delete();
+    }
+
+    @Test
+    public void testRepairedSegmentsAreWalksOfTheChangedGraph() throws Exception {
+        final CsrGraph before = CsrGraph.build(rmat, 0, NODES);
+        final CsrGraph after = CsrGraph.build(changed, 0, NODES);
+        final WalkSegments segments = WalkSegments.build(before, SEGMENTS, LENGTH, 42, 2);
+        final WalkSegments original = WalkSegments.build(before, SEGMENTS, LENGTH, 42, 1);
+        final int[] visits = segments.countVisits();
+        final OffHeapIntArray counts = OffHeapIntArray.allocate(NODES);
+        counts.put(0, visits, 0, NODES);
+
+        final ChangeLog.Changes changes = changes();
+        final long repaired = new SegmentRepair(segments, counts, after, 3).repair(changes, 7);
+        assertTrue(repaired > 0);
+
+        long unchanged = 0;
+        for (long node = 0; node < NODES; node++) {
+            for (int s = 0; s < SEGMENTS; s++) {
+                final long position = segments.offset(node, s);
+                long from = node;
+                boolean affected = false;
+                for (int i = 0; i < LENGTH; i++) {
+                    affected |= changes.contains(from);
+                    final int step = segments.step(position + i);
+                    if (!affected) assertEquals(original.step(position + i), step);
+                    if (from == WalkSegments.END) {
+                        assertEquals(WalkSegments.END, step);
+                    } else if (step == WalkSegments.END) {
+                        assertEquals("segment ends at node without relationships", 0, after.degree(from));
+                    } else {
+                        assertTrue(isNeighbour(after, from, step));
+                    }
+                    from = step;
+                }
+                if (!affected) unchanged++;
+            }
+        }
+        assertTrue(unchanged > NODES * SEGMENTS / 2);
+        final int[] repairedCounts = new int[NODES];
+        counts.get(0, repairedCounts, 0, NODES);
+        assertArrayEquals(segments.countVisits(), repairedCounts);
+    }
+
+    @Test
+    public void testReplayingTheRedoFileAgainGivesTheSameRepair() throws Exception {
+        final File redo = SegmentRepair.redoFile("target/segment_repair_test.seg");
+        redo.getParentFile().mkdirs();
+        redo.delete();
+        final CsrGraph before = CsrGraph.build(rmat, 0, NODES);
+        final CsrGraph after = CsrGraph.build(changed, 0, NODES);
+        final WalkSegments repaired = WalkSegments.build(before, SEGMENTS, LENGTH, 42, 2);
+        final OffHeapIntArray repairedCounts = OffHeapIntArray.allocate(NODES);
+        repairedCounts.put(0, repaired.countVisits(), 0, NODES);
+        new SegmentRepair(repaired, repairedCounts, after, 3).repair(changes(), 7, redo);
+        assertTrue(redo.exists());
+
+        // a crash after some of the writes, replayed on restart and once more after a second crash
+        final WalkSegments replayed = WalkSegments.build(before, SEGMENTS, LENGTH, 42, 2);
+        final OffHeapIntArray replayedCounts = OffHeapIntArray.allocate(NODES);
+        replayedCounts.put(0, replayed.countVisits(), 0, NODES);
+        final SegmentRepair repair = new SegmentRepair(replayed, replayedCounts, after, 3);
+        assertTrue(repair.replay(redo));
+        assertTrue(repair.replay(redo));
+        for (long position = 0; position < (long) NODES * SEGMENTS * LENGTH; position++) {
+            assertEquals(repaired.step(position), replayed.step(position));
+        }
+        final int[] expected = new int[NODES];
+        repairedCounts.get(0, expected, 0, NODES);
+        final int[] actual = new int[NODES];
+        replayedCounts.get(0, actual, 0, NODES);
+        assertArrayEquals(expected, actual);
+        assertArrayEquals(replayed.countVisits(), actual);
+        redo.delete();
+        assertFalse(repair.replay(redo));
+    }
+
+    @Test
+    public void testFailedRepairChangesNothing() throws Exception {
+        final CsrGraph before = CsrGraph.build(rmat, 0, NODES);
+        final WalkSegments segments = WalkSegments.build(before, SEGMENTS, LENGTH, 42, 2);
+        final WalkSegments original = WalkSegments.build(before, SEGMENTS, LENGTH, 42, 1);
+        final int[] visits = segments.countVisits();
+        final OffHeapIntArray counts = OffHeapIntArray.allocate(NODES);
+        counts.put(0, visits, 0, NODES);
+        final ChangeLog.Changes changes = new ChangeLog.Changes(0, NODES);
+        for (int i = 0; i < created.length; i += 2) {
+            changes.add(created[i], created[i + 1], false);
+        }
+        // fails in the last chunk, after the other chunks were rewalked
+        final long failing = NODES - 1;
+        changes.add(failing, failing, false);
+        final Adjacency broken = new Adjacency() {
+            public long getMinNodeId() {
+                return before.getMinNodeId();
+            }
+
+            public long getNodeCount() {
+                return before.getNodeCount();
+            }
+
+            public long getRelationshipCount() {
+                return before.getRelationshipCount();
+            }
+
+            public boolean contains(long nodeId) {
+                return before.contains(nodeId);
+            }
+
+            public int degree(long nodeId) {
+                if (nodeId == failing) throw new IllegalStateException("Store failure at " + nodeId);
+                return before.degree(nodeId);
+            }
+
+            public long neighbour(long nodeId, int index) {
+                return before.neighbour(nodeId, index);
+            }
+        };
+        try {
+            new SegmentRepair(segments, counts, broken, 2).repair(changes, 7);
+            fail("repair should fail");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        for (long position = 0; position < (long) NODES * SEGMENTS * LENGTH; position++) {
+            assertEquals(original.step(position), segments.step(position));
+        }
+        final int[] unchangedCounts = new int[NODES];
+        counts.get(0, unchangedCounts, 0, NODES);
+        assertArrayEquals(visits, unchangedCounts);
+    }
+
+    // the changes from the generated graph to the changed one
+    private ChangeLog.Changes changes() {
+        final ChangeLog.Changes changes = new ChangeLog.Changes(0, NODES);
+        rmat.accept(new EdgeVisitor() {
+            public void visit(long relationshipId, long startNode, long endNode, int type) {
+                if (relationshipId % DELETED_EVERY == 0) changes.add(startNode, endNode, true);
+            }
+        });
+        for (int i = 0; i < created.length; i += 2) {
+            changes.add(created[i], created[i + 1], false);
+        }
+        return changes;
+    }
+
+    private static long[] randomPairs(int count, Random random) {
+        final long[] pairs = new long[2 * count];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = random.nextInt(NODES);
+        }
+        return pairs;
+    }
+}
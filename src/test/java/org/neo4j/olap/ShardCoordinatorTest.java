@@ -0,0 +1,124 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.neo4j.olap.TestGraphs.average;
+import static org.neo4j.olap.TestGraphs.sum;
+
+/**
+ * @author mh
+ * @since 19.01.13
+ */
+public class ShardCoordinatorTest {
+    private static final int NODES = 1000;
+    private static final int WALKS = 200000;
+
+    private volatile Exception failure;
+
+    private final EdgeSource ring = TestGraphs.ring(NODES);
+
+    @Test
+    public void testWalksAreRelayedBetweenWorkers() throws Exception {
+        for (VisitCounters.Mode mode : VisitCounters.Mode.values()) {
+            final ShardCoordinator coordinator = new ShardCoordinator(0, 4, NODES, WALKS, 42);
+            final List<Thread> workers = startWorkers(coordinator, 4, ring, mode, 2);
+            final int[] nodes = coordinator.run();
+            join(workers);
+            assertEquals(null, failure);
+
+            assertTrue(mode.name(), coordinator.getSupersteps() > 1);
+            assertTrue(mode.name(), coordinator.getRelayed() > 0);
+            assertEquals(mode.name(), 0, coordinator.getDropped());
+            // the counts of all supersteps
+            assertEquals(mode.name(), coordinator.getHits(), sum(nodes, 0, NODES));
+            // on a ring every node is visited equally often, also at the shard boundaries
+            assertEquals(mode.name(), 1, average(nodes, 225, 275) / average(nodes, 100, 150), 0.1);
+            assertEquals(mode.name(), 1, average(nodes, 980, 1000) / average(nodes, 0, 20), 0.15);
+        }
+    }
+
+    @Test
+    public void testMergesCountsOfRandomGraph() throws Exception {
+        final int nodeCount = 1 << 12;
+        final EdgeSource rmat = new GraphGenerator(GraphGenerator.Model.RMAT, nodeCount, 8, 0.57, 1, 42, 1);
+        final ShardCoordinator coordinator = new ShardCoordinator(0, 3, nodeCount, nodeCount * 10, 42);
+        final List<Thread> workers = startWorkers(coordinator, 3, rmat, VisitCounters.Mode.BATCHED, 1);
+        final int[] nodes = coordinator.run();
+        join(workers);
+        assertEquals(null, failure);
+
+        assertEquals(0, coordinator.getDropped());
+        assertEquals(coordinator.getHits(), sum(nodes, 0, nodeCount));
+    }
+
+    @Test
+    public void testStopsAfterMaxSupersteps() throws Exception {
+        final ShardCoordinator coordinator = new ShardCoordinator(0, 2, NODES, 10000, 42);
+        coordinator.setMaxSupersteps(1);
+        final List<Thread> workers = startWorkers(coordinator, 2, ring, VisitCounters.Mode.BATCHED, 1);
+        final int[] nodes = coordinator.run();
+        join(workers);
+        assertEquals(null, failure);
+
+        assertEquals(1, coordinator.getSupersteps());
+        assertEquals(0, coordinator.getRelayed());
+        assertTrue(coordinator.getDropped() > 0);
+        assertEquals(coordinator.getHits(), sum(nodes, 0, NODES));
+    }
+
+    @Test
+    public void testHungWorkerTimesOut() throws Exception {
+        final ShardCoordinator coordinator = new ShardCoordinator(0, 2, NODES, 10000, 42);
+        coordinator.setTimeout(500);
+        final List<Thread> workers = startWorkers(coordinator, 1, ring, VisitCounters.Mode.BATCHED, 1);
+        // connects but never answers
+        final Socket hung = new Socket("localhost", coordinator.getPort());
+        final long time = System.currentTimeMillis();
+        try {
+            coordinator.run();
+            fail("run should time out");
+        } catch (IOException expected) {
+            // no superstep from the hung worker
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        } finally {
+            hung.close();
+        }
+        assertTrue(System.currentTimeMillis() - time < 10000);
+        join(workers);
+    }
+
+    private List<Thread> startWorkers(ShardCoordinator coordinator, int count, final EdgeSource edges, final VisitCounters.Mode mode, final int threads) {
+        final int port = coordinator.getPort();
+        final List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < count; i++) {
+            final Thread worker = new Thread() {
+                public void run() {
+                    try {
+                        new ShardWorker("localhost", port, edges, Projection.ALL, mode, threads).run();
+                    } catch (Exception e) {
+                        failure = e;
+                    }
+                }
+            };
+            worker.start();
+            workers.add(worker);
+        }
+        return workers;
+    }
+
+    private void join(List<Thread> workers) throws InterruptedException {
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
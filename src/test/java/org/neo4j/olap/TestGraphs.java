@@ -0,0 +1,52 @@
+package org.neo4j.olap;
+
+/**
+ * Graphs and checks shared by the tests of the snapshots and the walks on them.
+ *
+ * @author mh
+ * @since 20.01.13
+ */
+final class TestGraphs {
+    private TestGraphs() {
+    }
+
+    /**
+     * @return the skewed random graph with 8 relationships per node the snapshot tests compare against
+     */
+    static GraphGenerator rmat(int nodes) {
+        return new GraphGenerator(GraphGenerator.Model.RMAT, nodes, 8, 0.57, 1, 42, 2);
+    }
+
+    /**
+     * @return relationships {@code i -> (i + 1) % nodes}, on which all nodes are visited equally often
+     */
+    static EdgeSource ring(final int nodes) {
+        return new EdgeSource() {
+            public long accept(EdgeVisitor visitor) {
+                for (int i = 0; i < nodes; i++) {
+                    visitor.visit(i, i, (i + 1) % nodes, 0);
+                }
+                return nodes;
+            }
+        };
+    }
+
+    static boolean isNeighbour(Adjacency graph, long node, long neighbour) {
+        for (int i = 0; i < graph.degree(node); i++) {
+            if (graph.neighbour(node, i) == neighbour) return true;
+        }
+        return false;
+    }
+
+    static long sum(int[] nodes, int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += nodes[i];
+        }
+        return sum;
+    }
+
+    static double average(int[] nodes, int from, int to) {
+        return sum(nodes, from, to) / (double) (to - from);
+    }
+}
@@ -3,8 +3,12 @@ package org.neo4j.olap;
 import org.junit.Test;
 import org.neo4j.helpers.Pair;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -55,4 +59,54 @@ public class TopNSelectorTest {
         assertEquals(100, (int) pairs.get(2).first());
         assertEquals(100001, (int)pairs.get(2).other());
     }
+
+    @Test
+    public void testSelectInParallelMatchesSort() throws Exception {
+        final Random random = new Random(42);
+        final int[] data = new int[100000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextInt(1000);
+        }
+        final TopNSelector.TopN top = new TopNSelector(data).select(500, 4);
+        assertEquals(500, top.size());
+
+        final Integer[] ids = new Integer[data.length];
+        for (int i = 0; i < ids.length; i++) ids[i] = i;
+        Arrays.sort(ids, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return data[o1] != data[o2] ? data[o2] - data[o1] : o1 - o2;
+            }
+        });
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals((long) ids[i], top.getId(i));
+            assertEquals(data[ids[i]], top.getCount(i));
+        }
+        assertEquals(data.length, top.getHistogram().getTotal());
+    }
+
+    @Test
+    public void testSelectFromOffHeapArrayWithHistogram() throws Exception {
+        final OffHeapIntArray data = OffHeapIntArray.allocate(1000);
+        for (int i = 0; i < 1000; i++) {
+            data.set(i, i % 100);
+        }
+        final TopNSelector.TopN top = new TopNSelector(data).select(3, 3);
+        assertArrayEquals(new long[]{99, 199, 299}, top.getIds());
+        assertArrayEquals(new int[]{99, 99, 99}, top.getCounts());
+
+        final CountHistogram histogram = top.getHistogram();
+        assertEquals(1000, histogram.getTotal());
+        assertEquals(0, histogram.getMin());
+        assertEquals(99, histogram.getMax());
+        assertEquals(10, histogram.getBucket(0));
+        assertEquals(49500, histogram.getSum());
+        assertEquals(50, histogram.quantile(0.5), 15);
+    }
+
+    @Test
+    public void testSelectSkipsZeros() throws Exception {
+        final TopNSelector.TopN top = new TopNSelector(new int[]{0, 0, 5, 0}).select(3, 2);
+        assertEquals(1, top.size());
+        assertEquals(2, top.getId(0));
+    }
 }
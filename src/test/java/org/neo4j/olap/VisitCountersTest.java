@@ -0,0 +1,100 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author mh
+ * @since 20.12.12
+ */
+public class VisitCountersTest {
+    private static final int THREADS = 4;
+    private static final int MIN_NODE_ID = 100;
+    private static final int NODE_COUNT = 1000;
+    private static final int VISITS = 200000;
+    private static final int WEIGHTED_EVERY = 7;
+
+    @Test
+    public void testShardedCountsAreExact() throws Exception {
+        assertExactCounts(VisitCounters.Mode.SHARDED);
+    }
+
+    @Test
+    public void testAtomicCountsAreExact() throws Exception {
+        assertExactCounts(VisitCounters.Mode.ATOMIC);
+    }
+
+    @Test
+    public void testBatchedCountsAreExact() throws Exception {
+        assertExactCounts(VisitCounters.Mode.BATCHED);
+    }
+
+    @Test
+    public void testPipelinedCountsAreExact() throws Exception {
+        assertExactCounts(VisitCounters.Mode.PIPELINED);
+    }
+
+    @Test
+    public void testPipelinedCountsRejectNegativeDelta() throws Exception {
+        final VisitCounters counters = VisitCounters.create(VisitCounters.Mode.PIPELINED, MIN_NODE_ID, NODE_COUNT, THREADS);
+        final VisitCounter counter = counters.forThread(0);
+        counter.add(MIN_NODE_ID, 3);
+        try {
+            counter.add(MIN_NODE_ID + 1, -2);
+            fail("negative delta was accepted");
+        } catch (IllegalArgumentException expected) {
+            // the buffer is unchanged
+        }
+        counter.flush();
+        final int[] nodes = new int[MIN_NODE_ID + NODE_COUNT];
+        counters.mergeInto(nodes);
+        assertEquals(3, nodes[MIN_NODE_ID]);
+        assertEquals(0, nodes[MIN_NODE_ID + 1]);
+    }
+
+    private void assertExactCounts(VisitCounters.Mode mode) throws Exception {
+        final int[] expected = new int[MIN_NODE_ID + NODE_COUNT];
+        for (int thread = 0; thread < THREADS; thread++) {
+            final Random random = new Random(thread);
+            for (int i = 0; i < VISITS; i++) {
+                final int index = MIN_NODE_ID + random.nextInt(NODE_COUNT);
+                expected[index] += i % WEIGHTED_EVERY == 0 ? random.nextInt(100) : 1;
+            }
+        }
+
+        final VisitCounters counters = VisitCounters.create(mode, MIN_NODE_ID, NODE_COUNT, THREADS);
+        final ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        for (int thread = 0; thread < THREADS; thread++) {
+            final VisitCounter counter = counters.forThread(thread);
+            final int seed = thread;
+            pool.submit(new Runnable() {
+                public void run() {
+                    final Random random = new Random(seed);
+                    for (int i = 0; i < VISITS; i++) {
+                        final int index = MIN_NODE_ID + random.nextInt(NODE_COUNT);
+                        if (i % WEIGHTED_EVERY == 0) {
+                            counter.add(index, random.nextInt(100));
+                        } else {
+                            counter.increment(index);
+                        }
+                    }
+                    counter.flush();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        final int[] nodes = new int[MIN_NODE_ID + NODE_COUNT];
+        counters.mergeInto(nodes);
+        assertArrayEquals(mode.name(), expected, nodes);
+    }
+}
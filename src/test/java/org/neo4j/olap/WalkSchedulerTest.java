@@ -0,0 +1,97 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author mh
+ * @since 28.12.12
+ */
+public class WalkSchedulerTest {
+    private static final int NODES = 10000;
+
+    private final CsrGraph graph = CsrGraph.build(new EdgeSource() {
+        public long accept(EdgeVisitor visitor) {
+            final Random random = new Random(1);
+            for (int i = 0; i < 50000; i++) {
+                visitor.visit(i, random.nextInt(NODES), random.nextInt(NODES), 0);
+            }
+            return 50000;
+        }
+    }, 0, NODES);
+
+    @Test
+    public void testCountsDoNotDependOnThreads() throws Exception {
+        final int[] single = run(1, 123);
+        final int[] parallel = run(4, 123);
+        assertArrayEquals(single, parallel);
+        assertFalse(Arrays.equals(single, run(4, 124)));
+    }
+
+    @Test
+    public void testRunsWholeBudget() throws Exception {
+        final VisitCounters counters = VisitCounters.create(VisitCounters.Mode.ATOMIC, 0, NODES, 3);
+        final WalkScheduler.Result result = new WalkScheduler(graph, counters, 3, 1000).run(10500, 7, 0);
+        assertTrue(result.isComplete());
+        assertEquals(10500, result.getWalks());
+        final int[] nodes = new int[NODES];
+        counters.mergeInto(nodes);
+        long sum = 0;
+        for (int count : nodes) sum += count;
+        assertEquals(result.getHits(), sum);
+        assertEquals(3, result.getWorkers().size());
+    }
+
+    @Test
+    public void testResumeFromCheckpointGivesUninterruptedCounts() throws Exception {
+        final int[] uninterrupted = run(3, 99);
+        for (VisitCounters.Mode mode : VisitCounters.Mode.values()) {
+            final VisitCounters counters = VisitCounters.create(mode, 0, NODES, 3);
+            final WalkScheduler scheduler = new WalkScheduler(graph, counters, 3, 500);
+            final Thread running = new Thread() {
+                public void run() {
+                    try {
+                        scheduler.run(20000, 99, 0);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            running.start();
+            Thread.sleep(5);
+            final int[] snapshot = new int[NODES];
+            final BitSet[] done = new BitSet[1];
+            scheduler.checkpoint(new WalkScheduler.Checkpoint() {
+                public void write(BitSet doneChunks, long walks) {
+                    counters.snapshotInto(snapshot, 0, 0, NODES);
+                    done[0] = doneChunks;
+                    assertEquals(Math.min(20000, doneChunks.cardinality() * 500L), walks);
+                }
+            });
+            running.join();
+            counters.mergeInto(new int[NODES]);
+
+            final VisitCounters resumed = VisitCounters.create(mode, 0, NODES, 2);
+            final WalkScheduler.Result result = new WalkScheduler(graph, resumed, 2, 500).run(20000, 99, 0, done[0]);
+            assertEquals(20000 - done[0].cardinality() * 500L, result.getWalks());
+            resumed.mergeInto(snapshot);
+            assertArrayEquals(mode.name(), uninterrupted, snapshot);
+        }
+    }
+
+    private int[] run(int threads, long seed) throws Exception {
+        final VisitCounters counters = VisitCounters.create(VisitCounters.Mode.BATCHED, 0, NODES, threads);
+        new WalkScheduler(graph, counters, threads, 500).run(20000, seed, 0);
+        final int[] nodes = new int[NODES];
+        counters.mergeInto(nodes);
+        return nodes;
+    }
+}
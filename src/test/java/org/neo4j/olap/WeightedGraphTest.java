@@ -0,0 +1,158 @@
+package org.neo4j.olap;
+
+import org.junit.Test;
+import org.neo4j.graphdb.Direction;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.neo4j.olap.TestGraphs.isNeighbour;
+
+/**
+ * @author mh
+ * @since 16.01.13
+ */
+public class WeightedGraphTest {
+    private static final int NODES = 1 << 14;
+    private static final int SAMPLES = 400000;
+    private final GraphGenerator rmat = TestGraphs.rmat(NODES);
+
+    // node 0 has relationships 0..9 to nodes 1..10 weighing their id, node 11 two relationships weighing zero
+    private final EdgeSource fan = new EdgeSource() {
+        public long accept(EdgeVisitor visitor) {
+            for (int i = 0; i < 10; i++) {
+                visitor.visit(i, 0, i + 1, 0);
+            }
+            visitor.visit(10, 11, 12, 0);
+            visitor.visit(11, 11, 13, 0);
+            return 12;
+        }
+    };
+
+    private final WeightedGraph.Weights relationshipIds = new WeightedGraph.Weights() {
+        public double weight(long relationshipId) {
+            return relationshipId < 10 ? relationshipId : 0;
+        }
+    };
+
+    @Test
+    public void testSamplesInProportionToTheWeights() throws Exception {
+        final WeightedGraph graph = WeightedGraph.build(fan, relationshipIds, 0, 14, Direction.OUTGOING, 2);
+        final int[] samples = new int[14];
+        final Random random = new XorShiftRandom(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[(int) graph.sample(0, random)]++;
+        }
+        // relationship 0 to node 1 weighs zero
+        assertEquals(0, samples[1]);
+        for (int node = 2; node <= 10; node++) {
+            final double expected = SAMPLES * (node - 1) / 45.0;
+            assertEquals("node " + node, expected, samples[node], 0.05 * expected);
+        }
+    }
+
+    @Test
+    public void testBothEndsOfARelationshipShareItsWeight() throws Exception {
+        // relationships 0..9 from nodes 1..10 to node 0, the weights of node 0 are those of the other ends
+        final EdgeSource reversedFan = new EdgeSource() {
+            public long accept(EdgeVisitor visitor) {
+                for (int i = 0; i < 10; i++) {
+                    visitor.visit(i, i + 1, 0, 0);
+                }
+                return 10;
+            }
+        };
+        final Set<Long> read = Collections.synchronizedSet(new HashSet<Long>());
+        final WeightedGraph.Weights readOnce = new WeightedGraph.Weights() {
+            public double weight(long relationshipId) {
+                assertTrue("read twice " + relationshipId, read.add(relationshipId));
+                return relationshipIds.weight(relationshipId);
+            }
+        };
+        final WeightedGraph graph = WeightedGraph.build(reversedFan, readOnce, 0, 14, Direction.BOTH, 2);
+        assertEquals(10, read.size());
+        final int[] samples = new int[14];
+        final Random random = new XorShiftRandom(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            samples[(int) graph.sample(0, random)]++;
+        }
+        assertEquals(0, samples[1]);
+        for (int node = 2; node <= 10; node++) {
+            final double expected = SAMPLES * (node - 1) / 45.0;
+            assertEquals("node " + node, expected, samples[node], 0.05 * expected);
+        }
+    }
+
+    @Test
+    public void testAllWeightsZeroSamplesUniformly() throws Exception {
+        final WeightedGraph graph = WeightedGraph.build(fan, relationshipIds, 0, 14, Direction.OUTGOING, 1);
+        final Random random = new XorShiftRandom(7);
+        int twelve = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            if (graph.sample(11, random) == 12) twelve++;
+        }
+        assertEquals(SAMPLES / 2, twelve, 0.02 * SAMPLES);
+    }
+
+    @Test
+    public void testSameListsAsTheUnweightedSnapshot() throws Exception {
+        final WeightedGraph.Weights negativeAndZero = new WeightedGraph.Weights() {
+            public double weight(long relationshipId) {
+                return relationshipId % 7 - 1;
+            }
+        };
+        for (Direction direction : Direction.values()) {
+            final CsrGraph graph = CsrGraph.build(rmat, 100, NODES - 200, direction);
+            final WeightedGraph weighted = WeightedGraph.build(rmat, negativeAndZero, 100, NODES - 200, direction, 3);
+            assertEquals(graph.getRelationshipCount(), weighted.getRelationshipCount());
+            final Random random = new XorShiftRandom(1);
+            for (long node = 100; node < NODES - 100; node++) {
+                assertEquals(graph.degree(node), weighted.degree(node));
+                for (int i = 0; i < graph.degree(node); i++) {
+                    assertEquals(graph.neighbour(node, i), weighted.neighbour(node, i));
+                }
+                if (graph.degree(node) > 0) assertTrue(isNeighbour(graph, node, weighted.sample(node, random)));
+            }
+        }
+    }
+
+    @Test
+    public void testWalkerFollowsOnlyWeightedRelationships() throws Exception {
+        final WeightedGraph graph = WeightedGraph.build(fan, relationshipIds, 0, 14, Direction.OUTGOING, 1);
+        final VisitCounters counters = VisitCounters.create(VisitCounters.Mode.SHARDED, 0, 14, 1);
+        final RandomWalker walker = new RandomWalker(graph, counters.forThread(0), 0);
+        final Random random = new XorShiftRandom(3);
+        for (int i = 0; i < 10000; i++) {
+            walker.walk(0, random);
+        }
+        walker.getCounter().flush();
+        final int[] visits = new int[14];
+        counters.mergeInto(visits);
+        assertEquals(0, visits[1]);
+        assertTrue(visits[10] > 5 * visits[2]);
+    }
+
+    @Test
+    public void testXorShiftRandomIsSeededAndInRange() {
+        final Random first = new XorShiftRandom(42);
+        final Random second = new XorShiftRandom(1);
+        second.setSeed(42);
+        final int[] buckets = new int[10];
+        for (int i = 0; i < 100000; i++) {
+            final int value = first.nextInt(10);
+            assertEquals(value, second.nextInt(10));
+            buckets[value]++;
+            final double d = first.nextDouble();
+            assertTrue(d >= 0 && d < 1);
+            second.nextDouble();
+        }
+        for (int bucket : buckets) {
+            assertEquals(10000, bucket, 500);
+        }
+        assertTrue(new XorShiftRandom(1).nextLong() != new XorShiftRandom(2).nextLong());
+    }
+}